@@ -0,0 +1,75 @@
+package com.timmciver.bytegrep.bench;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.OneOrMore;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import com.timmciver.bytegrep.ZeroOrMore;
+import com.timmciver.bytegrep.ZeroOrOne;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures RegularExpression.match for each kind of node of the expression
+ * tree, tried at every offset of a buffer of low entropy input.
+ * @author tim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpressionBenchmark {
+
+    @Param({"LiteralByte", "SequenceExpression", "AlternationExpression",
+        "OneOrMore", "ZeroOrMore", "ZeroOrOne"})
+    public String node;
+
+    private RegularExpression re;
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        RegularExpression a = new LiteralByte(0x41);
+        RegularExpression b = new LiteralByte(0x42);
+        switch (node) {
+            case "LiteralByte":
+                re = a;
+                break;
+            case "SequenceExpression":
+                re = new SequenceExpression(a, b);
+                break;
+            case "AlternationExpression":
+                re = new AlternationExpression(b, a);
+                break;
+            case "OneOrMore":
+                re = new OneOrMore(a);
+                break;
+            case "ZeroOrMore":
+                re = new ZeroOrMore(a);
+                break;
+            case "ZeroOrOne":
+                re = new ZeroOrOne(a);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        data = Inputs.LOW_ENTROPY.generate(4096);
+    }
+
+    @Benchmark
+    public int matchEveryOffset() {
+        int total = 0;
+        for (int i = 0; i < data.length; i++) {
+            total += re.match(data, i, data.length);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.timmciver.bytegrep.bench;
+
+import java.util.Random;
+
+/**
+ * The kinds of synthetic input the benchmarks scan.  Each is generated from a
+ * fixed seed so that runs can be compared.
+ * @author tim
+ */
+public enum Inputs {
+
+    /**
+     * Uniformly random bytes; literal prefilters skip most of it.
+     */
+    RANDOM,
+
+    /**
+     * Mostly 0x41 with the odd 0x00, 0x42 or 0x43; the required bytes of the
+     * benchmark patterns occur everywhere so prefilters find a candidate at
+     * almost every offset.
+     */
+    LOW_ENTROPY,
+
+    /**
+     * A single long run of 0x41 that never completes a match.  Every match
+     * attempt gets as far as the end of the run before failing, which is the
+     * worst case for the tree interpreter and for restarting at every offset.
+     */
+    ADVERSARIAL;
+
+    private static final long SEED = 42;
+
+    /**
+     * @param size the number of bytes to generate
+     * @return the input
+     */
+    public byte[] generate(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(SEED);
+        switch (this) {
+            case RANDOM:
+                random.nextBytes(data);
+                break;
+            case LOW_ENTROPY:
+                for (int i = 0; i < size; i++) {
+                    int r = random.nextInt(32);
+                    data[i] = (byte)(r == 0 ? 0x00 : r == 1 ? 0x42 : r == 2 ? 0x43 : 0x41);
+                }
+                break;
+            case ADVERSARIAL:
+                for (int i = 0; i < size; i++) {
+                    data[i] = 0x41;
+                }
+                break;
+        }
+        return data;
+    }
+
+}
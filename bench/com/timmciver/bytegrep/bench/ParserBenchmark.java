@@ -0,0 +1,50 @@
+package com.timmciver.bytegrep.bench;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures DefaultParser.parse on patterns of increasing size.
+ * @author tim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+
+    @Param({"literal", "nested", "long"})
+    public String shape;
+
+    private String regex;
+
+    @Setup
+    public void setUp() {
+        if (shape.equals("literal")) {
+            regex = "0xCA0xFE0xBA0xBE";
+        } else if (shape.equals("nested")) {
+            regex = "((0x41|0x420x43)+0x44?)*(0x45|(0x46)*)0x47";
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 256; i++) {
+                sb.append(String.format("(0x%02X|0x%02X)?", i, 255 - i));
+            }
+            regex = sb.toString();
+        }
+    }
+
+    @Benchmark
+    public RegularExpression parse() throws IOException {
+        return new DefaultParser().parse(regex);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.timmciver.bytegrep.bench;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.Searcher;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts every match of a pattern in a buffer from end to end, for each
+ * engine, kind of input and buffer size.  Counting goes through the same
+ * search loop as the command line tool without any per match overhead.  The
+ * tree engine is too slow for the larger inputs and is measured on its own
+ * by TreeScanBenchmark.
+ * @author tim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScanBenchmark {
+
+    @Param({"NFA", "DFA", "GENERATED", "BACKTRACK"})
+    public EngineType engine;
+
+    @Param({"RANDOM", "LOW_ENTROPY", "ADVERSARIAL"})
+    public Inputs input;
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    // a literal with a long prefix, a short required byte and a pattern that
+    // has to be simulated over long runs of 0x41
+    @Param({"0xCA0xFE0xBA0xBE0x000x000x000x34", "0x410x42*0x43", "(0x41|0x410x41)+0x42"})
+    public String regex;
+
+    private Searcher searcher;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+        searcher = new Searcher(pattern.newEngine(engine), MatchMode.NON_OVERLAPPING);
+        data = input.generate(size);
+    }
+
+    @Benchmark
+    public long count() {
+        return searcher.count(data, 0, data.length);
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.timmciver.bytegrep.bench;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.Searcher;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts every match of the patterns of ScanBenchmark with the tree engine.
+ * The tree engine takes time quadratic in the length of a run of 0x41, so
+ * the adversarial input is only searched at the smallest size, and the other
+ * inputs are not searched at the largest size at all.
+ * @author tim
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeScanBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Scan {
+
+        @Param({"RANDOM", "LOW_ENTROPY"})
+        public Inputs input;
+
+        @Param({"4096", "1048576"})
+        public int size;
+
+        @Param({"0xCA0xFE0xBA0xBE0x000x000x000x34", "0x410x42*0x43", "(0x41|0x410x41)+0x42"})
+        public String regex;
+
+        private Searcher searcher;
+        private byte[] data;
+
+        @Setup
+        public void setUp() throws IOException {
+            searcher = newSearcher(regex);
+            data = input.generate(size);
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class AdversarialScan {
+
+        @Param({"0xCA0xFE0xBA0xBE0x000x000x000x34", "0x410x42*0x43", "(0x41|0x410x41)+0x42"})
+        public String regex;
+
+        private Searcher searcher;
+        private byte[] data;
+
+        @Setup
+        public void setUp() throws IOException {
+            searcher = newSearcher(regex);
+            data = Inputs.ADVERSARIAL.generate(4096);
+        }
+
+    }
+
+    private static Searcher newSearcher(String regex) throws IOException {
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+        return new Searcher(pattern.newEngine(EngineType.TREE), MatchMode.NON_OVERLAPPING);
+    }
+
+    @Benchmark
+    public long count(Scan scan) {
+        return scan.searcher.count(scan.data, 0, scan.data.length);
+    }
+
+    @Benchmark
+    public long countAdversarial(AdversarialScan scan) {
+        return scan.searcher.count(scan.data, 0, scan.data.length);
+    }
+
+}
@@ -1,7 +1,7 @@
 
 package com.timmciver.bytegrep;
 
-import java.util.List;
+import java.util.Deque;
 
 /**
  * A regular expression that matches if either of its two sub
@@ -19,13 +19,14 @@ public class AlternationExpression extends RegularExpression {
     }
 
     @Override
-    public boolean match(byte[] data, int offset, List<Byte> matchedBytes) {
+    public int match(byte[] data, int offset, int limit) {
         
-        if (expr1.match(data, offset, matchedBytes)) {
-            return true;
+        int end = expr1.match(data, offset, limit);
+        if (end >= 0) {
+            return end;
         }
         
-        return expr2.match(data, offset, matchedBytes);
+        return expr2.match(data, offset, limit);
     }
 
     public RegularExpression getFirstExpression() {
@@ -37,8 +38,10 @@ public class AlternationExpression extends RegularExpression {
     }
 
     @Override
-    public String toString() {
-        return expr1 + "|" + expr2;
+    protected void pushParts(Deque<Object> parts) {
+        parts.push(expr2);
+        parts.push("|");
+        parts.push(expr1);
     }
 
     @Override
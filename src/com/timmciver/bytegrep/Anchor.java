@@ -0,0 +1,69 @@
+package com.timmciver.bytegrep;
+
+/**
+ * A regular expression that matches the empty string at the start (^) or the
+ * end ($) of the input and nowhere else.  The input starts at offset zero of
+ * the data array and ends at the limit given to match.
+ * @author tim
+ */
+public class Anchor extends RegularExpression {
+
+    /**
+     * Matches at the start of the input.
+     */
+    public static final Anchor START = new Anchor(true);
+
+    /**
+     * Matches at the end of the input.
+     */
+    public static final Anchor END = new Anchor(false);
+
+    private final boolean start;
+
+    private Anchor(boolean start) {
+        this.start = start;
+    }
+
+    @Override
+    public int match(byte[] data, int offset, int limit) {
+        if (start ? offset != 0 : offset != limit) {
+            return -1;
+        }
+        return offset;
+    }
+
+    /**
+     * @return true for ^, false for $
+     */
+    public boolean isStart() {
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        return start ? "^" : "$";
+    }
+
+    @Override
+    public int hashCode() {
+        return start ? 59 : 61;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof Anchor)) {
+            return false;
+        }
+
+        return start == ((Anchor)obj).start;
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.timmciver.bytegrep;
+
+import java.util.Arrays;
+
+/**
+ * A regular expression to match a single byte from a set of bytes, such as
+ * a range [0x00-0x1F], the wildcard '.' or a nibble mask 0x4?.  The set is
+ * held as a 256 bit bitset in four longs so testing a byte is a single bit
+ * check.
+ * @author tim
+ */
+public class ByteClassExpression extends RegularExpression {
+
+    private final long[] bits;
+
+    /**
+     * Creates a class from a bitset.
+     * @param bits four longs; bit b % 64 of bits[b / 64] is set if byte b is
+     * in the class
+     */
+    public ByteClassExpression(long[] bits) {
+        if (bits.length != 4) {
+            throw new IllegalArgumentException("A byte class needs 256 bits.");
+        }
+        this.bits = bits.clone();
+    }
+
+    /**
+     * Creates a class matching the bytes from first to last inclusive.
+     * @param first the smallest byte, 0 to 255
+     * @param last the largest byte, 0 to 255
+     */
+    public ByteClassExpression(int first, int last) {
+        if (first < 0 || last > 255 || first > last) {
+            throw new IllegalArgumentException("Invalid byte range: " + first + " to " + last);
+        }
+        this.bits = new long[4];
+        for (int b = first; b <= last; b++) {
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /**
+     * @return a class matching any byte, written '.'
+     */
+    public static ByteClassExpression any() {
+        return new ByteClassExpression(new long[]{-1L, -1L, -1L, -1L});
+    }
+
+    /**
+     * @return a class matching no byte, which never matches
+     */
+    public static ByteClassExpression none() {
+        return new ByteClassExpression(new long[4]);
+    }
+
+    /**
+     * Creates a class matching the bytes that equal value in the bits set in
+     * mask; 0x4? is value 0x40 with mask 0xF0.
+     * @param value the wanted bits
+     * @param mask the bits that are compared
+     * @return the class
+     */
+    public static ByteClassExpression masked(int value, int mask) {
+        long[] bits = new long[4];
+        for (int b = 0; b < 256; b++) {
+            if ((b & mask) == (value & mask)) {
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        return new ByteClassExpression(bits);
+    }
+
+    /**
+     * @return a class matching exactly the bytes this one does not
+     */
+    public ByteClassExpression negate() {
+        return new ByteClassExpression(new long[]{~bits[0], ~bits[1], ~bits[2], ~bits[3]});
+    }
+
+    /**
+     * @return a class matching the bytes either class matches
+     */
+    public ByteClassExpression union(ByteClassExpression other) {
+        long[] union = new long[4];
+        for (int i = 0; i < 4; i++) {
+            union[i] = bits[i] | other.bits[i];
+        }
+        return new ByteClassExpression(union);
+    }
+
+    /**
+     * @param b the byte, 0 to 255
+     * @return true if the byte is in the class
+     */
+    public boolean contains(int b) {
+        return (bits[b >>> 6] & (1L << b)) != 0;
+    }
+
+    /**
+     * @return the number of bytes in the class
+     */
+    public int size() {
+        return Long.bitCount(bits[0]) + Long.bitCount(bits[1])
+                + Long.bitCount(bits[2]) + Long.bitCount(bits[3]);
+    }
+
+    /**
+     * @return the smallest byte in the class or -1 if it is empty
+     */
+    public int first() {
+        for (int i = 0; i < 4; i++) {
+            if (bits[i] != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(bits[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a copy of the bitset
+     */
+    public long[] getBits() {
+        return bits.clone();
+    }
+
+    @Override
+    public int match(byte[] data, int offset, int limit) {
+
+        if (offset >= limit || !contains(data[offset] & 0xFF)) {
+            return -1;
+        }
+
+        return offset + 1;
+    }
+
+    @Override
+    public String toString() {
+        if (size() == 256) {
+            return ".";
+        }
+
+        // list the runs of bytes in the class
+        StringBuilder sb = new StringBuilder("[");
+        int b = 0;
+        while (b < 256) {
+            if (!contains(b)) {
+                b++;
+                continue;
+            }
+            int last = b;
+            while (last < 255 && contains(last + 1)) {
+                last++;
+            }
+            sb.append(String.format("0x%02X", b));
+            if (last > b) {
+                sb.append(String.format("-0x%02X", last));
+            }
+            b = last + 1;
+        }
+        return sb.append(']').toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof ByteClassExpression)) {
+            return false;
+        }
+
+        return Arrays.equals(bits, ((ByteClassExpression)obj).bits);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.timmciver.bytegrep;
+
+import java.util.Deque;
+
+/**
+ * A parenthesised regular expression whose match is recorded as a numbered
+ * capture group.  Groups are numbered from one in the order of their opening
+ * parentheses; group zero is the whole match.  Matching the tree directly
+ * ignores the group, which only has an effect when the expression is compiled
+ * for an engine that tracks groups.
+ * @author tim
+ */
+public class CaptureGroup extends RegularExpression {
+
+    private final RegularExpression expr;
+    private final int number;
+
+    /**
+     * @param expr the grouped expression
+     * @param number the group number, at least one
+     */
+    public CaptureGroup(RegularExpression expr, int number) {
+        if (number < 1) {
+            throw new IllegalArgumentException("Group numbers start at one.");
+        }
+        this.expr = expr;
+        this.number = number;
+    }
+
+    @Override
+    public int match(byte[] data, int offset, int limit) {
+        return expr.match(data, offset, limit);
+    }
+
+    public RegularExpression getExpression() {
+        return expr;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    @Override
+    protected void pushParts(Deque<Object> parts) {
+        parts.push(")");
+        parts.push(expr);
+        parts.push("(");
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * expr.hashCode() + number;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof CaptureGroup)) {
+            return false;
+        }
+
+        CaptureGroup other = (CaptureGroup)obj;
+        return number == other.number && expr.equals(other.expr);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.timmciver.bytegrep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A regular expression that matches if each of a list of regular expressions
+ * matches in turn.  It is the flattened form of a chain of nested
+ * SequenceExpressions, matched with a loop rather than a call per level.
+ * @author tim
+ */
+public class ConcatenationExpression extends RegularExpression {
+
+    private final RegularExpression[] exprs;
+
+    public ConcatenationExpression(List<RegularExpression> exprs) {
+        if (exprs.size() < 2) {
+            throw new IllegalArgumentException("A concatenation needs at least two expressions.");
+        }
+        this.exprs = exprs.toArray(new RegularExpression[exprs.size()]);
+    }
+
+    @Override
+    public int match(byte[] data, int offset, int limit) {
+
+        int pos = offset;
+        for (RegularExpression expr : exprs) {
+            pos = expr.match(data, pos, limit);
+            if (pos < 0) {
+                return -1;
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * @return the expressions in the order they are matched
+     */
+    public List<RegularExpression> getExpressions() {
+        List<RegularExpression> list = new ArrayList<>(exprs.length);
+        Collections.addAll(list, exprs);
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    protected void pushParts(Deque<Object> parts) {
+        for (int i = exprs.length - 1; i >= 0; i--) {
+            parts.push(exprs[i]);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        for (RegularExpression expr : exprs) {
+            hash = 31 * hash + expr.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof ConcatenationExpression)) {
+            return false;
+        }
+
+        ConcatenationExpression other = (ConcatenationExpression)obj;
+        if (exprs.length != other.exprs.length) {
+            return false;
+        }
+        for (int i = 0; i < exprs.length; i++) {
+            if (!exprs[i].equals(other.exprs[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
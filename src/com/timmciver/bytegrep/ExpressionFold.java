@@ -0,0 +1,126 @@
+package com.timmciver.bytegrep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Computes a value for a RegularExpression tree from the bottom up, the value
+ * of each node from those of its children.  Trees can be as deep as the
+ * pattern is long (the parser nests sequences and alternations one level per
+ * element) so the tree is walked with a stack of its own rather than by
+ * recursion, and a fold works on trees of any depth.
+ * @param <T> the type of the value computed for each node
+ * @author tim
+ */
+public abstract class ExpressionFold<T> {
+
+    /**
+     * Computes the value of a tree.
+     * @param root the root of the tree
+     * @return the value of the root
+     */
+    public final T fold(RegularExpression root) {
+
+        Deque<Frame<T>> stack = new ArrayDeque<>();
+        stack.push(new Frame<T>(root, children(root)));
+        while (true) {
+
+            // work down to the next child whose value isn't known yet
+            Frame<T> frame = stack.peek();
+            if (frame.values.size() < frame.children.size()) {
+                RegularExpression child = frame.children.get(frame.values.size());
+                stack.push(new Frame<T>(child, children(child)));
+                continue;
+            }
+
+            // all the children are done, so the node can be
+            stack.pop();
+            T value = combine(frame.node, frame.values);
+            if (stack.isEmpty()) {
+                return value;
+            }
+            stack.peek().values.add(value);
+        }
+    }
+
+    /**
+     * @param re a node of the tree
+     * @return the nodes whose values are needed to compute the node's; by
+     * default its immediate children
+     */
+    protected List<RegularExpression> children(RegularExpression re) {
+        if (re instanceof SequenceExpression) {
+            SequenceExpression se = (SequenceExpression)re;
+            return Arrays.asList(se.getFirstExpression(), se.getSecondExpression());
+        }
+        if (re instanceof AlternationExpression) {
+            AlternationExpression ae = (AlternationExpression)re;
+            return Arrays.asList(ae.getFirstExpression(), ae.getSecondExpression());
+        }
+        if (re instanceof ConcatenationExpression) {
+            return ((ConcatenationExpression)re).getExpressions();
+        }
+        if (re instanceof RepetitionExpression) {
+            return Collections.singletonList(((RepetitionExpression)re).getExpression());
+        }
+        if (re instanceof CaptureGroup) {
+            return Collections.singletonList(((CaptureGroup)re).getExpression());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param re a node of the tree
+     * @param values the values of the node's children returned, in order
+     * @return the value of the node
+     */
+    protected abstract T combine(RegularExpression re, List<T> values);
+
+    /**
+     * Lists the operands of a chain of SequenceExpressions, or of
+     * AlternationExpressions, in order; the chain is every node of that kind
+     * reachable from re through nodes of the same kind.
+     * @param re the top of the chain
+     * @param alternation true for a chain of alternations, false for one of
+     * sequences
+     * @return the operands
+     */
+    public static List<RegularExpression> chain(RegularExpression re, boolean alternation) {
+        List<RegularExpression> operands = new ArrayList<>();
+        Deque<RegularExpression> stack = new ArrayDeque<>();
+        stack.push(re);
+        while (!stack.isEmpty()) {
+            RegularExpression node = stack.pop();
+            if (alternation && node instanceof AlternationExpression) {
+                AlternationExpression ae = (AlternationExpression)node;
+                stack.push(ae.getSecondExpression());
+                stack.push(ae.getFirstExpression());
+            } else if (!alternation && node instanceof SequenceExpression) {
+                SequenceExpression se = (SequenceExpression)node;
+                stack.push(se.getSecondExpression());
+                stack.push(se.getFirstExpression());
+            } else {
+                operands.add(node);
+            }
+        }
+        return operands;
+    }
+
+    private static final class Frame<T> {
+
+        final RegularExpression node;
+        final List<RegularExpression> children;
+        final List<T> values;
+
+        Frame(RegularExpression node, List<RegularExpression> children) {
+            this.node = node;
+            this.children = children;
+            this.values = new ArrayList<>(children.size());
+        }
+    }
+
+}
@@ -1,8 +1,6 @@
 
 package com.timmciver.bytegrep;
 
-import java.util.List;
-
 /**
  * A regular expression to match a single byte.
  * @author tim
@@ -20,19 +18,13 @@ public class LiteralByte extends RegularExpression {
     }
 
     @Override
-    public boolean match(byte[] data, int offset, List<Byte> matchedBytes) {
-        
-        if (offset >= data.length) {
-            return false;
-        }
-        
-        boolean matched = data[offset] == literal;
+    public int match(byte[] data, int offset, int limit) {
         
-        if (matched) {
-            matchedBytes.add(literal);
+        if (offset >= limit || data[offset] != literal) {
+            return -1;
         }
         
-        return matched;
+        return offset + 1;
     }
 
     public byte getLiteralByte() {
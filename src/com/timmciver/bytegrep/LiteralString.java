@@ -0,0 +1,83 @@
+package com.timmciver.bytegrep;
+
+import java.util.Arrays;
+
+/**
+ * A regular expression to match a string of bytes.  It is equivalent to a
+ * sequence of LiteralBytes but compares the whole string in one loop.
+ * @author tim
+ */
+public class LiteralString extends RegularExpression {
+
+    private final byte[] bytes;
+
+    public LiteralString(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("A literal string cannot be empty.");
+        }
+        this.bytes = bytes.clone();
+    }
+
+    @Override
+    public int match(byte[] data, int offset, int limit) {
+
+        if (limit - offset < bytes.length) {
+            return -1;
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[offset + i] != bytes[i]) {
+                return -1;
+            }
+        }
+
+        return offset + bytes.length;
+    }
+
+    /**
+     * @return a copy of the bytes matched
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public byte byteAt(int i) {
+        return bytes[i];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("0x%02X", b));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof LiteralString)) {
+            return false;
+        }
+
+        return Arrays.equals(bytes, ((LiteralString)obj).bytes);
+    }
+
+}
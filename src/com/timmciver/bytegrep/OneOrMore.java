@@ -10,5 +10,13 @@ public class OneOrMore extends RepetitionExpression {
     public OneOrMore(RegularExpression expr) {
         super(expr, 1, Integer.MAX_VALUE);
     }
+
+    /**
+     * @param expr the expression to repeat
+     * @param greedy true to prefer the most repetitions, false the fewest
+     */
+    public OneOrMore(RegularExpression expr, boolean greedy) {
+        super(expr, 1, Integer.MAX_VALUE, greedy);
+    }
     
 }
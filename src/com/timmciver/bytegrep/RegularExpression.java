@@ -1,6 +1,8 @@
 
 package com.timmciver.bytegrep;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -10,17 +12,89 @@ import java.util.List;
 public abstract class RegularExpression {
     
     /**
-     * Returns the number of bytes matched.
+     * Matches this RegularExpression against the input starting at the given
+     * offset.  Matching is greedy and does not backtrack.  Nothing is
+     * allocated.
      * @param data input byte array
      * @param offset the byte offset into the data array at which matching
      * should begin
-     * @param matchedBytes a list of the bytes matched so far. Each
-     * RegularExpression implementation should add the bytes that are matched to
-     * this list.
+     * @param limit the offset at which the input ends; bytes at or beyond it
+     * are never examined
+     * @return the offset just past the last byte matched, or -1 if the
+     * RegularExpression did not match
+     */
+    public abstract int match(byte[] data, int offset, int limit);
+    
+    /**
+     * Matches this RegularExpression against the input starting at the given
+     * offset and running to the end of the array.
+     * @param data input byte array
+     * @param offset the byte offset into the data array at which matching
+     * should begin
+     * @return the offset just past the last byte matched, or -1 if the
+     * RegularExpression did not match
+     */
+    public int match(byte[] data, int offset) {
+        return match(data, offset, data.length);
+    }
+    
+    /**
+     * Matches this RegularExpression against the input starting at the given
+     * offset and adds the matched bytes to a list.
+     * @param data input byte array
+     * @param offset the byte offset into the data array at which matching
+     * should begin
+     * @param matchedBytes a list of the bytes matched so far. The bytes that
+     * are matched are added to this list.
      * @return true if the RegularExpression matched the input, false otherwise.
      */
-    public abstract boolean match(byte[] data, int offset, List<Byte> matchedBytes);
+    public boolean match(byte[] data, int offset, List<Byte> matchedBytes) {
+        
+        int end = match(data, offset, data.length);
+        if (end < 0) {
+            return false;
+        }
+        
+        for (int i = offset; i < end; i++) {
+            matchedBytes.add(data[i]);
+        }
+        
+        return true;
+    }
     
+    /**
+     * Writes out the expression in the syntax it was parsed from.  A tree can
+     * be too deep to recurse into, so each node puts the parts of its string
+     * form on a stack with pushParts and the parts are written out in turn.
+     * @return the expression as a pattern
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Deque<Object> parts = new ArrayDeque<>();
+        parts.push(this);
+        while (!parts.isEmpty()) {
+            Object part = parts.pop();
+            if (part instanceof RegularExpression) {
+                ((RegularExpression)part).pushParts(parts);
+            } else {
+                sb.append(part);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Pushes the parts of this expression's string form onto the stack, the
+     * last part first.  A part is either a String, which is written as it is,
+     * or a sub expression, which pushes its own parts in turn.  Expressions
+     * without sub expressions override toString instead.
+     * @param parts the stack of parts
+     */
+    protected void pushParts(Deque<Object> parts) {
+        parts.push(toString());
+    }
+
     @Override
     public abstract boolean equals(Object o);
 
@@ -1,78 +1,161 @@
 
 package com.timmciver.bytegrep;
 
-import java.util.List;
+import java.util.Deque;
 
 /**
  * A regular expression that matches if the given regular expression
  * matches a number of times between minMatches and maxMatches
- * inclusive.
+ * inclusive.  A greedy repetition prefers to match as many times as it can
+ * and a lazy one (written with a trailing ?, as in *?) as few as it can;
+ * the two match the same strings and only differ in which match an engine
+ * with leftmost-first semantics picks.
  * @author tim
  */
 public class RepetitionExpression extends RegularExpression {
+
+    /**
+     * The maxMatches of an expression that may repeat any number of times.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
     
     private RegularExpression expr;
     private int minMatches;
     private int maxMatches;
+    private final boolean greedy;
 
     /**
-     * Creates a RegularExpression that can repeat (like with * or
-     * @param expr
-     * @param minMatches 
+     * Creates a RegularExpression that can repeat (like with *, + or ?, or a
+     * counted repetition such as {n,m}).
+     * @param expr the expression to repeat
+     * @param minMatches the number of times expr must match
+     * @param maxMatches the number of times expr may match or UNBOUNDED
      */
     public RepetitionExpression(RegularExpression expr, int minMatches, int maxMatches) {
+        this(expr, minMatches, maxMatches, true);
+    }
+
+    /**
+     * Creates a RegularExpression that can repeat and is greedy or lazy.
+     * @param expr the expression to repeat
+     * @param minMatches the number of times expr must match
+     * @param maxMatches the number of times expr may match or UNBOUNDED
+     * @param greedy true to prefer the most repetitions, false the fewest
+     */
+    public RepetitionExpression(RegularExpression expr, int minMatches, int maxMatches, boolean greedy) {
         this.expr = expr;
         this.minMatches = minMatches;
         this.maxMatches = maxMatches;
+        this.greedy = greedy;
         
-        // check that minMatches is either zero or one
-        if (minMatches != 0 && minMatches != 1) {
-            throw new IllegalArgumentException("minMatches can only be zero or one, currently.");
+        // check that minMatches is not negative
+        if (minMatches < 0) {
+            throw new IllegalArgumentException("minMatches must not be negative.");
         }
         
-        // make sure tha minMatche < maxMatches
-        if (minMatches >= maxMatches) {
-            throw new IllegalArgumentException("minMatches must be less than maxMatches.");
+        // make sure that minMatches <= maxMatches
+        if (minMatches > maxMatches) {
+            throw new IllegalArgumentException("minMatches must not be greater than maxMatches.");
         }
     }
 
+    /**
+     * Creates a RegularExpression that matches if expr matches exactly count
+     * times (like with {n}).
+     * @param expr the expression to repeat
+     * @param count the number of times expr must match
+     */
+    public RepetitionExpression(RegularExpression expr, int count) {
+        this(expr, count, count);
+    }
+
     @Override
-    public boolean match(byte[] data, int offset, List<Byte> matchedBytes) {
-        
-        // a) If the first one doesn't match and minMatches is equal to zero, it's
-        // a match. b) If the first one is a match and maxMatches is equal to
-        // one, then it's a match. c) If minMatches is greater than zero, then
-        // it's not a match.
-        int numBeforeBytes = matchedBytes.size();
-        boolean matched = expr.match(data, offset, matchedBytes);
-        if (!matched && minMatches == 0) {
-            return true;
-        } else if (matched && maxMatches == 1) {
-            return true;
-        } else if (!matched) {
-            return false;
+    public int match(byte[] data, int offset, int limit) {
+
+        // without backtracking a lazy repetition can only take its minimum
+        int most = greedy ? maxMatches : minMatches;
+
+        // a repeated byte or byte class is a run length check
+        if (expr instanceof LiteralByte) {
+            return matchRun(((LiteralByte)expr).getLiteralByte(), most, data, offset, limit);
+        }
+        if (expr instanceof ByteClassExpression) {
+            return matchRun((ByteClassExpression)expr, most, data, offset, limit);
         }
         
-        // consume input while there's a match
-        boolean stillMatches = true;
-        while (stillMatches) {
-            int newOffset = offset + matchedBytes.size() - numBeforeBytes;
-            stillMatches = expr.match(data, newOffset, matchedBytes);
+        // consume input while there's a match, stopping at most matches or once
+        // minMatches have been made and the expression stops making progress
+        int pos = offset;
+        int numMatches = 0;
+        while (numMatches < most) {
+            int end = expr.match(data, pos, limit);
+            if (end < 0 || (end == pos && numMatches >= minMatches)) {
+                break;
+            }
+            pos = end;
+            numMatches++;
         }
         
-        // it's a match no matter what now
-        return true;
+        return numMatches >= minMatches ? pos : -1;
+    }
+
+    private int matchRun(byte b, int most, byte[] data, int offset, int limit) {
+        int end = most < limit - offset ? offset + most : limit;
+        int pos = offset;
+        while (pos < end && data[pos] == b) {
+            pos++;
+        }
+        return pos - offset >= minMatches ? pos : -1;
+    }
+
+    private int matchRun(ByteClassExpression bc, int most, byte[] data, int offset, int limit) {
+        int end = most < limit - offset ? offset + most : limit;
+        int pos = offset;
+        while (pos < end && bc.contains(data[pos] & 0xFF)) {
+            pos++;
+        }
+        return pos - offset >= minMatches ? pos : -1;
+    }
+
+    public RegularExpression getExpression() {
+        return expr;
+    }
+
+    public int getMinMatches() {
+        return minMatches;
+    }
+
+    public int getMaxMatches() {
+        return maxMatches;
+    }
+
+    /**
+     * @return true if the repetition prefers to match as many times as it
+     * can, false if it is lazy
+     */
+    public boolean isGreedy() {
+        return greedy;
     }
 
     @Override
-    public String toString() {
-        char repChar = '*';
+    protected void pushParts(Deque<Object> parts) {
+        String rep;
         if (minMatches == 0 && maxMatches == 1) {
-            repChar = '?';
-        } else if (minMatches == 1) {
-            repChar = '+';
+            rep = "?";
+        } else if (minMatches == 0 && maxMatches == UNBOUNDED) {
+            rep = "*";
+        } else if (minMatches == 1 && maxMatches == UNBOUNDED) {
+            rep = "+";
+        } else if (minMatches == maxMatches) {
+            rep = "{" + minMatches + "}";
+        } else if (maxMatches == UNBOUNDED) {
+            rep = "{" + minMatches + ",}";
+        } else {
+            rep = "{" + minMatches + "," + maxMatches + "}";
         }
-        return "(" + expr + ")" + repChar;
+        parts.push(")" + rep + (greedy ? "" : "?"));
+        parts.push(expr);
+        parts.push("(");
     }
 
     @Override
@@ -94,7 +177,8 @@ public class RepetitionExpression extends RegularExpression {
         
         // check min and max matches
         if (minMatches != re.minMatches ||
-                maxMatches != re.maxMatches) {
+                maxMatches != re.maxMatches ||
+                greedy != re.greedy) {
             return false;
         }
         
@@ -104,7 +188,7 @@ public class RepetitionExpression extends RegularExpression {
 
     @Override
     public int hashCode() {
-        return expr.hashCode() + minMatches + maxMatches;
+        return expr.hashCode() + minMatches + maxMatches + (greedy ? 0 : 1);
     }
     
 }
@@ -1,7 +1,7 @@
 
 package com.timmciver.bytegrep;
 
-import java.util.List;
+import java.util.Deque;
 
 /**
  * Matches a sequence of two regular expressions.
@@ -18,16 +18,14 @@ public class SequenceExpression extends RegularExpression {
     }
 
     @Override
-    public boolean match(byte[] data, int offset, List<Byte> matchedBytes) {
-        int numMatchedBytes = matchedBytes.size();
+    public int match(byte[] data, int offset, int limit) {
         
-        if (!expr1.match(data, offset, matchedBytes)) {
-            return false;
+        int end = expr1.match(data, offset, limit);
+        if (end < 0) {
+            return -1;
         }
         
-        int newOffset = offset + matchedBytes.size() - numMatchedBytes;
-        
-        return expr2.match(data, newOffset, matchedBytes);
+        return expr2.match(data, end, limit);
     }
 
     public RegularExpression getFirstExpression() {
@@ -39,8 +37,9 @@ public class SequenceExpression extends RegularExpression {
     }
 
     @Override
-    public String toString() {
-        return expr1.toString() + expr2.toString();
+    protected void pushParts(Deque<Object> parts) {
+        parts.push(expr2);
+        parts.push(expr1);
     }
 
     @Override
@@ -10,5 +10,13 @@ public class ZeroOrMore extends RepetitionExpression {
     public ZeroOrMore(RegularExpression expr) {
         super(expr, 0, Integer.MAX_VALUE);
     }
+
+    /**
+     * @param expr the expression to repeat
+     * @param greedy true to prefer the most repetitions, false the fewest
+     */
+    public ZeroOrMore(RegularExpression expr, boolean greedy) {
+        super(expr, 0, Integer.MAX_VALUE, greedy);
+    }
     
 }
@@ -10,5 +10,13 @@ public class ZeroOrOne extends RepetitionExpression {
     public ZeroOrOne(RegularExpression expr) {
         super(expr, 0, 1);
     }
+
+    /**
+     * @param expr the expression to repeat
+     * @param greedy true to prefer the most repetitions, false the fewest
+     */
+    public ZeroOrOne(RegularExpression expr, boolean greedy) {
+        super(expr, 0, 1, greedy);
+    }
     
 }
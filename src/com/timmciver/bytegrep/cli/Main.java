@@ -2,36 +2,169 @@
 package com.timmciver.bytegrep.cli;
 
 import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.MultiMatchListener;
+import com.timmciver.bytegrep.engine.MultiMatcher;
+import com.timmciver.bytegrep.engine.PatternSet;
+import com.timmciver.bytegrep.index.IndexWriter;
+import com.timmciver.bytegrep.index.IndexedSearcher;
+import com.timmciver.bytegrep.index.NgramIndex;
 import com.timmciver.bytegrep.parser.DefaultParser;
 import com.timmciver.bytegrep.parser.Parser;
-import java.io.File;
-import java.io.FileInputStream;
+import com.timmciver.bytegrep.parser.PatternList;
+import com.timmciver.bytegrep.scan.DirectoryScanner;
+import com.timmciver.bytegrep.scan.FileMatchListener;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.GroupListener;
+import com.timmciver.bytegrep.scan.IncrementalScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.ParallelScanner;
+import com.timmciver.bytegrep.scan.ScanMetrics;
+import com.timmciver.bytegrep.scan.StreamMatcher;
+import com.timmciver.bytegrep.trace.PrintTracer;
+import com.timmciver.bytegrep.trace.Tracer;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
  * @author tim
  */
 public class Main {
-    
+
+    private static final String USAGE =
+            "usage: java -jar <path-to-jar> [--engine tree|nfa|dfa|generated|backtrack] [--all | --count] [--overlap]"
+            + " [--threads N] [--unordered] [--trace] [--metrics]"
+            + " <regexp-str> <path>...\n"
+            + "       java -jar <path-to-jar> [--engine tree|nfa|dfa|generated|backtrack] [--all | --count] [--overlap]"
+            + " [--groups] [--metrics] --range <start>:<end> <regexp-str> <path-to-file>\n"
+            + "       java -jar <path-to-jar> [--engine tree|nfa|dfa|generated|backtrack] [--all] [--overlap] --groups"
+            + " <regexp-str> <path-to-file>\n"
+            + "       java -jar <path-to-jar> [--all | --count] --checkpoint <checkpoint-file>"
+            + " <regexp-str> <path-to-file>\n"
+            + "       java -jar <path-to-jar> --build-index <index-file> <path>...\n"
+            + "       java -jar <path-to-jar> [--engine tree|nfa|dfa|generated|backtrack] [--all | --count]"
+            + " --index <index-file> <regexp-str>\n"
+            + "       java -jar <path-to-jar> [--engine nfa|dfa] [--all | --count]"
+            + " --patterns <patterns-file> <path-to-file>";
+
     public static void main(String[] args) throws IOException {
-        
-        // two args are required; first is the regular expression, second is the
-        // path to a file to search
-        if (args.length != 2) {
-            System.err.println("usage: java -jar <path-to-jar> <regexp-str> <path-to-file>");
-            System.exit(1);
+
+        // options come first
+        EngineType engineType = EngineType.DFA;
+        boolean all = false;
+        boolean count = false;
+        MatchMode mode = MatchMode.NON_OVERLAPPING;
+        int numThreads = 0;
+        boolean ordered = true;
+        String patternsFile = null;
+        String checkpointFile = null;
+        String buildIndexFile = null;
+        String indexFile = null;
+        boolean groups = false;
+        long[] range = null;
+        boolean trace = false;
+        boolean metrics = false;
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            String option = args[argIndex++];
+            if (option.equals("--engine") && argIndex < args.length) {
+                try {
+                    engineType = EngineType.valueOf(args[argIndex++].toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    usage();
+                }
+            } else if (option.equals("--all")) {
+                all = true;
+            } else if (option.equals("--count")) {
+                count = true;
+            } else if (option.equals("--overlap")) {
+                mode = MatchMode.OVERLAPPING;
+            } else if (option.equals("--threads") && argIndex < args.length) {
+                try {
+                    numThreads = Integer.parseInt(args[argIndex++]);
+                } catch (NumberFormatException ex) {
+                    usage();
+                }
+                if (numThreads < 1) {
+                    usage();
+                }
+            } else if (option.equals("--unordered")) {
+                ordered = false;
+            } else if (option.equals("--patterns") && argIndex < args.length) {
+                patternsFile = args[argIndex++];
+            } else if (option.equals("--checkpoint") && argIndex < args.length) {
+                checkpointFile = args[argIndex++];
+            } else if (option.equals("--build-index") && argIndex < args.length) {
+                buildIndexFile = args[argIndex++];
+            } else if (option.equals("--index") && argIndex < args.length) {
+                indexFile = args[argIndex++];
+            } else if (option.equals("--groups")) {
+                groups = true;
+            } else if (option.equals("--range") && argIndex < args.length) {
+                range = parseRange(args[argIndex++]);
+                if (range == null) {
+                    usage();
+                }
+            } else if (option.equals("--trace")) {
+                trace = true;
+            } else if (option.equals("--metrics")) {
+                metrics = true;
+            } else {
+                usage();
+            }
+        }
+
+        // a file of patterns replaces the regular expression; the patterns are
+        // all searched for at once in a single file
+        if (patternsFile != null) {
+            if (args.length - argIndex != 1 || (all && count) || engineType == EngineType.TREE
+                    || engineType == EngineType.BACKTRACK || groups
+                    || range != null || trace || metrics) {
+                usage();
+            }
+            searchPatterns(Paths.get(patternsFile), engineType, all, count, args[argIndex]);
+            return;
         }
-        
+
+        // an index is built from the files and directories that follow
+        if (buildIndexFile != null) {
+            if (args.length - argIndex < 1 || groups || range != null || trace || metrics) {
+                usage();
+            }
+            buildIndex(Paths.get(buildIndexFile), Arrays.asList(args).subList(argIndex, args.length));
+            return;
+        }
+
+        // the regular expression is followed by at least one file, directory
+        // or glob to search, unless an index says which files to search
+        int numPaths = args.length - argIndex - 1;
+        if ((indexFile == null ? numPaths < 1 : numPaths != 0) || (all && count)) {
+            usage();
+        }
+
         // pull out the args
-        String regexStr = args[0];
-        String filePath = args[1];
-        
-        // try to parse the regex string
-        Parser parser = new DefaultParser();
+        String regexStr = args[argIndex];
+        List<String> paths = Arrays.asList(args).subList(argIndex + 1, args.length);
+        String filePath = paths.isEmpty() ? "" : paths.get(0);
+
+        // try to parse the regex string; parentheses are only capture groups
+        // when their spans are to be printed.  A trace of the parse and of
+        // every search goes to standard error
+        Tracer tracer = trace ? new PrintTracer(System.err, null) : null;
+        Parser parser = new DefaultParser(groups, tracer);
         RegularExpression re = null;
         try {
             re = parser.parse(regexStr);
@@ -39,32 +172,422 @@ public class Main {
             System.err.println("Could not parse regex: " + ex);
             System.exit(1);
         }
-        
-        // read data from the file
-        File file = new File(filePath);
-        byte[] data = new byte[(int)file.length()];
-        InputStream in = new FileInputStream(file);
-        in.read(data);
-        
-        // try matching at every byte
-        //int numMatched = 0;
-        //int byteVal;
-        int offset;
-        boolean matched = false;
-        List<Byte> matchedBytes = new ArrayList<>();
-        for (offset = 0; offset < data.length; ++offset) {
-            if ((matched = re.match(data, offset, matchedBytes))) {
-                break;
-            }
-            matchedBytes.clear();
-        }
-        
+
+        // compile the regex and scan the file a window at a time; standard
+        // input ("-") is streamed through the NFA instead, which only finds
+        // matches that do not overlap
+        CompiledPattern pattern = tracer != null ? CompiledPattern.compile(re, tracer) : CompiledPattern.compile(re);
+        if (engineType != EngineType.TREE || filePath.equals("-")) {
+            try {
+                pattern.getProgram();
+                pattern.getReverseProgram();
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Could not compile regex: " + ex.getMessage());
+                System.exit(1);
+            }
+        }
+        // a range or groups are only for a single file searched on one thread
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        if (groups || range != null) {
+            if (groups && count || numThreads > 1 || indexFile != null || checkpointFile != null
+                    || paths.size() > 1 || !Files.isRegularFile(Paths.get(filePath))) {
+                usage();
+            }
+            if (range != null) {
+                long size = Files.size(Paths.get(filePath));
+                from = resolveOffset(range[0], size);
+                to = Math.max(from, resolveOffset(range[1], size));
+            }
+        }
+        if (metrics && (groups || indexFile != null || checkpointFile != null || filePath.equals("-"))) {
+            usage();
+        }
+        if (groups) {
+            searchGroups(pattern, engineType, mode, all, Paths.get(filePath), from, to);
+            return;
+        }
+        if (indexFile != null) {
+            if (mode == MatchMode.OVERLAPPING) {
+                usage();
+            }
+            searchIndex(pattern, engineType, Paths.get(indexFile), all, count);
+            return;
+        }
+        if (checkpointFile != null) {
+            if (paths.size() > 1 || !Files.isRegularFile(Paths.get(filePath)) || mode == MatchMode.OVERLAPPING) {
+                usage();
+            }
+            searchIncrementally(pattern, Paths.get(checkpointFile), all, count, Paths.get(filePath));
+            return;
+        }
+        if (paths.size() > 1 || !filePath.equals("-") && !Files.isRegularFile(Paths.get(filePath))) {
+            searchFiles(pattern, engineType, mode, numThreads, ordered, all, count, metrics, paths);
+            return;
+        }
+        boolean stdin = filePath.equals("-");
+        if (stdin && mode == MatchMode.OVERLAPPING) {
+            System.err.println("--overlap is not supported when reading standard input");
+            System.exit(1);
+        }
+
+        // a file can be split up and scanned on several threads
+        FileScanner scanner = null;
+        ParallelScanner parallelScanner = null;
+        if (!stdin && numThreads > 1) {
+            parallelScanner = new ParallelScanner(pattern, engineType, mode, numThreads);
+        } else if (!stdin) {
+            scanner = new FileScanner(pattern, engineType, mode);
+        }
+
+        // just count the matches
+        if (count) {
+            long numMatches;
+            if (stdin) {
+                numMatches = new StreamMatcher(pattern, new MatchListener() {
+                    @Override
+                    public boolean onMatch(long start, long end) {
+                        return true;
+                    }
+                }).scan(System.in);
+            } else if (parallelScanner != null) {
+                numMatches = parallelScanner.count(Paths.get(filePath));
+            } else {
+                numMatches = scanner.scan(Paths.get(filePath), from, to, null);
+            }
+            System.out.println(numMatches);
+            if (metrics) {
+                printMetrics(parallelScanner != null ? parallelScanner.getMetrics() : scanner.getMetrics());
+            }
+            return;
+        }
+
+        // print every match as it is found or stop at the first one
+        final boolean printAll = all;
+        final long[] firstMatch = new long[]{-1};
+        MatchListener listener = new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                if (printAll) {
+                    System.out.println("Found match at byte offset " + start + " length " + (end - start));
+                    return true;
+                }
+                firstMatch[0] = start;
+                return false;
+            }
+        };
+
+        long numMatches;
+        if (stdin) {
+            numMatches = new StreamMatcher(pattern, listener).scan(System.in);
+        } else if (parallelScanner != null) {
+            numMatches = parallelScanner.scan(Paths.get(filePath), listener);
+        } else {
+            numMatches = scanner.scan(Paths.get(filePath), from, to, listener);
+        }
+
         // tell user if we found a match or not
-        if (matched) {
-            System.out.println("Found match at byte offset " + offset);
+        if (numMatches == 0) {
+            System.out.println("No match found.");
+        } else if (!all) {
+            System.out.println("Found match at byte offset " + firstMatch[0]);
+        }
+        if (metrics) {
+            printMetrics(parallelScanner != null ? parallelScanner.getMetrics() : scanner.getMetrics());
+        }
+    }
+
+    /**
+     * Searches a file, printing the span of every capture group of each match
+     * after the match itself.
+     */
+    private static void searchGroups(CompiledPattern pattern, EngineType engineType, MatchMode mode,
+            final boolean all, Path file, long from, long to) throws IOException {
+
+        FileScanner scanner = new FileScanner(pattern, engineType, mode);
+        long numMatches = scanner.scan(file, from, to, new GroupListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                System.out.println("Found match at byte offset " + start + " length " + (end - start));
+                return all;
+            }
+
+            @Override
+            public void onGroup(int group, long start, long end) {
+                if (start < 0) {
+                    System.out.println("  Group " + group + " did not match");
+                } else {
+                    System.out.println("  Group " + group + " at byte offset " + start + " length " + (end - start));
+                }
+            }
+        });
+
+        if (numMatches == 0) {
+            System.out.println("No match found.");
+        }
+    }
+
+    /**
+     * Indexes every file in the given files and directories.
+     */
+    private static void buildIndex(Path indexFile, List<String> paths) throws IOException {
+
+        final IndexWriter writer = new IndexWriter(indexFile);
+        final int[] numFiles = new int[1];
+        try {
+            for (String path : paths) {
+                Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (attrs.isRegularFile()) {
+                            writer.add(file);
+                            numFiles[0]++;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                        System.err.println(file + ": " + ex);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.println("Indexed " + numFiles[0] + " files");
+    }
+
+    /**
+     * Searches the files of an index, reading only the blocks that the index
+     * says could hold a match.
+     */
+    private static void searchIndex(CompiledPattern pattern, EngineType engineType, Path indexFile,
+            final boolean all, final boolean count) throws IOException {
+
+        // like grep, a file that can't be read makes the exit status 2
+        final long[] numScanned = new long[1];
+        final boolean[] failed = new boolean[1];
+        long numMatches;
+        try (NgramIndex index = NgramIndex.open(indexFile)) {
+            IndexedSearcher searcher = new IndexedSearcher(index, pattern, engineType);
+            numMatches = searcher.scan(new FileMatchListener() {
+                @Override
+                public boolean onMatch(Path file, long start, long end) {
+                    if (all) {
+                        System.out.println(file + ": Found match at byte offset " + start + " length " + (end - start));
+                    } else if (!count) {
+                        System.out.println(file + ": Found match at byte offset " + start);
+                    }
+                    return all || count;
+                }
+
+                @Override
+                public void onFileScanned(Path file, long numMatches) {
+                    numScanned[0]++;
+                    if (count && numMatches > 0) {
+                        System.out.println(file + ": " + numMatches);
+                    }
+                }
+
+                @Override
+                public void onError(Path file, IOException ex) {
+                    failed[0] = true;
+                    System.err.println(file + ": " + ex);
+                }
+            });
+        }
+
+        if (numMatches == 0 && !count && (numScanned[0] > 0 || !failed[0])) {
+            System.out.println("No match found.");
+        }
+        if (failed[0]) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Searches only the bytes appended to a file since the scan that wrote
+     * the checkpoint, or the whole file if it has changed since.
+     */
+    private static void searchIncrementally(CompiledPattern pattern, Path checkpoint, final boolean all,
+            final boolean count, Path file) throws IOException {
+
+        final long[] firstMatch = new long[]{-1};
+        long numMatches = new IncrementalScanner(pattern).scan(file, checkpoint, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                if (all) {
+                    System.out.println("Found match at byte offset " + start + " length " + (end - start));
+                } else if (!count) {
+                    firstMatch[0] = start;
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        if (count) {
+            System.out.println(numMatches);
+        } else if (numMatches == 0) {
+            System.out.println("No match found.");
+        } else if (!all) {
+            System.out.println("Found match at byte offset " + firstMatch[0]);
+        }
+    }
+
+    /**
+     * Searches many files, printing the matches in each one with its path.
+     */
+    private static void searchFiles(CompiledPattern pattern, EngineType engineType, MatchMode mode,
+            int numThreads, boolean ordered, final boolean all, final boolean count, boolean metrics,
+            List<String> paths) throws IOException {
+
+        // without --all only the first match in each file is wanted
+        int threads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        DirectoryScanner scanner = new DirectoryScanner(pattern, engineType, mode, threads, ordered,
+                all || count ? Long.MAX_VALUE : 1, DirectoryScanner.DEFAULT_SEGMENT_SIZE);
+
+        // like grep, a file that can't be read makes the exit status 2
+        final long[] numScanned = new long[1];
+        final boolean[] failed = new boolean[1];
+        long numMatches = scanner.scan(paths, new FileMatchListener() {
+            @Override
+            public boolean onMatch(Path file, long start, long end) {
+                if (all) {
+                    System.out.println(file + ": Found match at byte offset " + start + " length " + (end - start));
+                } else if (!count) {
+                    System.out.println(file + ": Found match at byte offset " + start);
+                }
+                return true;
+            }
+
+            @Override
+            public void onFileScanned(Path file, long numMatches) {
+                numScanned[0]++;
+                if (count) {
+                    System.out.println(file + ": " + numMatches);
+                }
+            }
+
+            @Override
+            public void onError(Path file, IOException ex) {
+                failed[0] = true;
+                System.err.println(file + ": " + ex);
+            }
+        });
+
+        if (numMatches == 0 && !count && (numScanned[0] > 0 || !failed[0])) {
+            System.out.println("No match found.");
+        }
+        if (metrics) {
+            printMetrics(scanner.getMetrics());
+        }
+        if (failed[0]) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Prints the metrics of a search to standard error as one line of
+     * key=value fields.
+     */
+    private static void printMetrics(ScanMetrics metrics) {
+        System.err.println("metrics " + metrics);
+    }
+
+    /**
+     * Searches one file for every pattern in a file of patterns, one per
+     * line.  Blank lines and lines starting with '#' are skipped; the patterns
+     * are numbered from zero in the order they appear.
+     */
+    private static void searchPatterns(Path patternsFile, EngineType engineType, final boolean all,
+            final boolean count, String filePath) throws IOException {
+
+        // parse the patterns, reporting every line that doesn't parse
+        PatternList list = PatternList.read(patternsFile, new DefaultParser());
+        for (Map.Entry<Integer, String> error : list.getErrors().entrySet()) {
+            System.err.println("Could not parse pattern on line " + error.getKey() + ": " + error.getValue());
+        }
+        if (!list.getErrors().isEmpty()) {
+            System.exit(1);
+        }
+        List<RegularExpression> res = list.getPatterns();
+        if (res.isEmpty()) {
+            System.err.println("No patterns in " + patternsFile);
+            System.exit(1);
+        }
+
+        // without --all only the first match of each pattern is printed
+        final long[] counts = new long[res.size()];
+        PatternSet set = null;
+        try {
+            set = PatternSet.compile(res);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Could not compile patterns: " + ex.getMessage());
+            System.exit(1);
+        }
+        MultiMatcher matcher = set.newMatcher(engineType, new MultiMatchListener() {
+            @Override
+            public boolean onMatch(int pattern, long start, long end) {
+                if (all || !count && counts[pattern] == 0) {
+                    System.out.println("Pattern " + pattern + " found at byte offset " + start
+                            + " length " + (end - start));
+                }
+                counts[pattern]++;
+                return true;
+            }
+        });
+
+        long numMatches;
+        if (filePath.equals("-")) {
+            numMatches = matcher.scan(System.in);
         } else {
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                numMatches = matcher.scan(channel);
+            }
+        }
+
+        if (count) {
+            for (int i = 0; i < counts.length; i++) {
+                System.out.println("Pattern " + i + ": " + counts[i]);
+            }
+        } else if (numMatches == 0) {
             System.out.println("No match found.");
         }
     }
-    
+
+    /**
+     * Parses a range given as start:end, where either may be left out to
+     * mean the start or end of the file and a negative offset counts back
+     * from the end of the file.
+     * @return the start and end, or null if the range is malformed
+     */
+    private static long[] parseRange(String str) {
+        int colon = str.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        try {
+            String start = str.substring(0, colon);
+            String end = str.substring(colon + 1);
+            return new long[]{
+                start.isEmpty() ? 0 : Long.parseLong(start),
+                end.isEmpty() ? Long.MAX_VALUE : Long.parseLong(end)
+            };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static long resolveOffset(long offset, long size) {
+        return offset < 0 ? Math.max(0, size + offset) : Math.min(offset, size);
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+
 }
@@ -0,0 +1,134 @@
+package com.timmciver.bytegrep.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton that finds every occurrence of a set of byte
+ * strings in a single pass.  The failure links are folded into a full
+ * 256-way transition table when the automaton is built, so scanning takes one
+ * table lookup per byte.  The automaton is immutable and may be shared between
+ * threads.
+ * @author tim
+ */
+final class AhoCorasick {
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final int[] transitions;
+    private final int[][] outputs;
+    private final int[] lengths;
+
+    /**
+     * @param literals the byte strings to search for; none may be empty
+     * @param ids the pattern id reported for each byte string
+     * @param numIds one more than the largest id
+     */
+    AhoCorasick(byte[][] literals, int[] ids, int numIds) {
+
+        // build the trie, state 0 being the root
+        List<int[]> gotos = new ArrayList<>();
+        List<List<Integer>> own = new ArrayList<>();
+        gotos.add(newRow());
+        own.add(new ArrayList<Integer>());
+        this.lengths = new int[numIds];
+        for (int i = 0; i < literals.length; i++) {
+            if (literals[i].length == 0) {
+                throw new IllegalArgumentException("Cannot search for an empty literal.");
+            }
+            int state = 0;
+            for (byte b : literals[i]) {
+                int[] row = gotos.get(state);
+                if (row[b & 0xFF] < 0) {
+                    row[b & 0xFF] = gotos.size();
+                    gotos.add(newRow());
+                    own.add(new ArrayList<Integer>());
+                }
+                state = row[b & 0xFF];
+            }
+            own.get(state).add(ids[i]);
+            lengths[ids[i]] = literals[i].length;
+        }
+
+        // breadth first, so a state's failure state is complete before the
+        // state itself; missing transitions follow the failure link
+        int numStates = gotos.size();
+        this.transitions = new int[numStates * 256];
+        this.outputs = new int[numStates][];
+        int[] fail = new int[numStates];
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+
+        int[] root = gotos.get(0);
+        for (int b = 0; b < 256; b++) {
+            int next = root[b];
+            if (next < 0) {
+                transitions[b] = 0;
+            } else {
+                transitions[b] = next;
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        outputs[0] = NO_OUTPUTS;
+
+        while (head < tail) {
+            int state = queue[head++];
+            outputs[state] = merge(own.get(state), outputs[fail[state]]);
+            int[] row = gotos.get(state);
+            for (int b = 0; b < 256; b++) {
+                int next = row[b];
+                if (next < 0) {
+                    transitions[(state << 8) | b] = transitions[(fail[state] << 8) | b];
+                } else {
+                    transitions[(state << 8) | b] = next;
+                    fail[next] = transitions[(fail[state] << 8) | b];
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the state reached from the given state on byte b
+     */
+    int next(int state, int b) {
+        return transitions[(state << 8) | b];
+    }
+
+    /**
+     * @return the ids of the byte strings that end when the given state is
+     * reached, in increasing order
+     */
+    int[] getOutputs(int state) {
+        return outputs[state];
+    }
+
+    /**
+     * @return the length of the byte string with the given id
+     */
+    int getLength(int id) {
+        return lengths[id];
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] merge(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+        for (int i = 0; i < own.size(); i++) {
+            merged[inherited.length + i] = own.get(i);
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import java.util.Arrays;
+
+/**
+ * An Engine that runs a Program by backtracking, trying the branches of each
+ * split in priority order, so it has the same leftmost-first semantics as
+ * the PikeVM, lazy quantifiers included.  Plain backtracking takes time
+ * exponential in the pattern on inputs such as a run of 0x41 against
+ * (0x41*)*0x42; like RE2's BitState this engine remembers in a bit vector
+ * every (instruction, offset) pair it has tried and never tries one twice,
+ * which bounds a search by the size of the program times the length of the
+ * input.  A pair that failed once fails again whichever start offset reached
+ * it, so the bits are kept across the start offsets of a search.
+ *
+ * The bit vector is limited to MAX_VISITED_BITS.  If the pattern's matches
+ * have a bounded length the start offsets are tried a block at a time, each
+ * block needing bits only for the offsets its matches can reach; otherwise,
+ * or if even one start offset needs too many bits, the search is handed to a
+ * PikeVM.  Backtracking pays off on short inputs and for patterns with
+ * capture groups, which it tracks without copying them between threads.  A
+ * BacktrackEngine created with a SearchBudget charges it a step for every
+ * pair it tries.
+ * @author tim
+ */
+public class BacktrackEngine implements Engine {
+
+    /**
+     * The most bits of (instruction, offset) pairs a search may use.
+     */
+    public static final int MAX_VISITED_BITS = 256 * 1024 * 8;
+
+    private final Program prog;
+    private final int numSlots;
+    private final int maxLength;
+    private final SearchBudget budget;
+    private PikeVM pike;
+
+    // the pairs tried since the budget was last charged
+    private int work;
+
+    // bit pc * width + (pos - base) is set once (pc, pos) has been tried
+    private long[] visited = new long[0];
+    private int base;
+    private int width;
+
+    // the work stack; entries >= 0 in stackPc are a program counter to try
+    // at offset stackVal, entries < 0 restore capture slot (-1 - entry) to
+    // the value held in stackVal
+    private int[] stackPc = new int[64];
+    private int[] stackVal = new int[64];
+
+    private final int[] cap;
+
+    // the end of the input of the current search
+    private int to;
+
+    /**
+     * @param prog the program to run
+     * @param maxLength the most bytes a match can span, or
+     * LiteralAnalysis.UNBOUNDED
+     */
+    public BacktrackEngine(Program prog, int maxLength) {
+        this(prog, maxLength, null);
+    }
+
+    /**
+     * @param prog the program to run
+     * @param maxLength the most bytes a match can span, or
+     * LiteralAnalysis.UNBOUNDED
+     * @param budget the budget to charge, or null for no limits
+     */
+    public BacktrackEngine(Program prog, int maxLength, SearchBudget budget) {
+        this.prog = prog;
+        this.numSlots = prog.numSlots;
+        this.maxLength = maxLength;
+        this.budget = budget;
+        this.cap = new int[numSlots];
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        return search(data, from, to, false, span);
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        return search(data, at, to, true, span);
+    }
+
+    private boolean search(byte[] data, int from, int to, boolean anchored, int[] span) {
+
+        if (from > to) {
+            return false;
+        }
+
+        this.to = to;
+        int lastStart = anchored ? from : to;
+        int size = prog.size();
+        int start = from;
+        while (start <= lastStart) {
+
+            // the block of start offsets to try and the offsets their matches
+            // can reach
+            int blockEnd = lastStart;
+            int reach = to;
+            if (maxLength != LiteralAnalysis.UNBOUNDED) {
+                long block = Math.max(1, MAX_VISITED_BITS / size - maxLength - 1);
+                blockEnd = (int)Math.min(lastStart, start + block - 1);
+                reach = (int)Math.min(to, (long)blockEnd + maxLength);
+            }
+            long bits = (long)size * (reach - start + 1);
+            if (bits > MAX_VISITED_BITS) {
+                if (pike == null) {
+                    pike = new PikeVM(prog, budget);
+                }
+                return anchored ? pike.matchAt(data, start, to, span) : pike.find(data, start, to, span);
+            }
+
+            // clear the bits for the block
+            base = start;
+            width = reach - start + 1;
+            int words = (int)((bits + 63) >>> 6);
+            if (visited.length < words) {
+                visited = new long[Math.max(words, 2 * visited.length)];
+            } else {
+                Arrays.fill(visited, 0, words, 0);
+            }
+
+            for (int pos = start; pos <= blockEnd; pos++) {
+                if (tryAt(data, pos, span)) {
+                    return true;
+                }
+            }
+            start = blockEnd + 1;
+        }
+
+        return false;
+    }
+
+    /**
+     * Backtracks through every way of matching from the given offset in
+     * priority order, stopping at the first that reaches a MATCH.
+     */
+    private boolean tryAt(byte[] data, int start, int[] span) {
+
+        int[] opcodes = prog.opcodes;
+        int[] arg1 = prog.arg1;
+        int[] arg2 = prog.arg2;
+        Arrays.fill(cap, -1);
+        int top = 0;
+        stackPc[top] = 0;
+        stackVal[top++] = start;
+
+        while (top > 0) {
+            int entry = stackPc[--top];
+            if (entry < 0) {
+                cap[-1 - entry] = stackVal[top];
+                continue;
+            }
+
+            int pc = entry;
+            int pos = stackVal[top];
+            while (true) {
+
+                // a pair that has been tried before can't lead to a match
+                long bit = (long)pc * width + (pos - base);
+                long word = visited[(int)(bit >>> 6)];
+                if ((word & (1L << bit)) != 0) {
+                    break;
+                }
+                visited[(int)(bit >>> 6)] = word | (1L << bit);
+                if (budget != null && ++work == SearchBudget.CHECK_INTERVAL) {
+                    budget.charge(work);
+                    work = 0;
+                }
+
+                int opcode = opcodes[pc];
+                if (opcode == Program.BYTE || opcode == Program.CLASS) {
+                    if (pos >= to || !prog.accepts(pc, data[pos] & 0xFF)) {
+                        break;
+                    }
+                    pc++;
+                    pos++;
+                } else if (opcode == Program.JMP) {
+                    pc = arg1[pc];
+                } else if (opcode == Program.SPLIT) {
+                    // the second branch is tried if the first fails
+                    top = push(top, arg2[pc], pos);
+                    pc = arg1[pc];
+                } else if (opcode == Program.SAVE) {
+                    int slot = arg1[pc];
+                    if (slot < numSlots) {
+                        top = push(top, -1 - slot, cap[slot]);
+                        cap[slot] = pos;
+                    }
+                    pc++;
+                } else if (opcode == Program.ASSERT) {
+                    if (!(arg1[pc] == Program.TEXT_START ? pos == 0 : pos == to)) {
+                        break;
+                    }
+                    pc++;
+                } else {
+                    // the first match reached is the preferred one
+                    // the slots of groups that aren't in the program are left unset
+                    int n = Math.min(span.length, numSlots);
+                    System.arraycopy(cap, 0, span, 0, n);
+                    Arrays.fill(span, n, span.length, -1);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private int push(int top, int pc, int val) {
+        if (top == stackPc.length) {
+            stackPc = Arrays.copyOf(stackPc, 2 * top);
+            stackVal = Arrays.copyOf(stackVal, 2 * top);
+        }
+        stackPc[top] = pc;
+        stackVal[top] = val;
+        return top + 1;
+    }
+
+}
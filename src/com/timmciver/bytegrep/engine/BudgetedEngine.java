@@ -0,0 +1,36 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * An Engine that charges a SearchBudget a step for every byte another Engine
+ * searched: those up to the end of the match it found, or all of them if it
+ * found none, and one more for the search itself.  It is put in front of
+ * engines that can't charge the budget themselves, such as generated ones;
+ * those only run in time linear in the bytes they search, so the budget is
+ * only checked between searches.
+ * @author tim
+ */
+class BudgetedEngine implements Engine {
+
+    private final Engine engine;
+    private final SearchBudget budget;
+
+    BudgetedEngine(Engine engine, SearchBudget budget) {
+        this.engine = engine;
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        boolean found = engine.find(data, from, to, span);
+        budget.charge((found ? span[1] : Math.max(from, to)) - from + 1);
+        return found;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        boolean found = engine.matchAt(data, at, to, span);
+        budget.charge(found ? span[1] - at + 1 : 1);
+        return found;
+    }
+
+}
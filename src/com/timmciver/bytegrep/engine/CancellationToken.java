@@ -0,0 +1,25 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * Lets one thread ask the searches of another to stop.  A token is given to
+ * a SearchBudget, and engines searching under that budget stop soon after
+ * cancel is called, throwing a SearchAbortedException.  Once cancelled a
+ * token stays cancelled.
+ * @author tim
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Asks every search using this token to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
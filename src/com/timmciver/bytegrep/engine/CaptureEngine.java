@@ -0,0 +1,56 @@
+package com.timmciver.bytegrep.engine;
+
+import java.util.Arrays;
+
+/**
+ * An Engine that finds where matches are with another Engine and only then
+ * works out where the capture groups of a match are.  The groups are found by
+ * running a PikeVM anchored at the start of the match, so the faster engine
+ * does the searching and the PikeVM only reads the bytes of the matches
+ * themselves.  Groups are resolved only when the span array passed in has
+ * room for them; with a span of length two this engine costs nothing over
+ * the one it wraps.
+ * @author tim
+ */
+class CaptureEngine implements Engine {
+
+    private final Engine engine;
+    private final PikeVM pike;
+
+    CaptureEngine(Engine engine, Program prog, SearchBudget budget) {
+        this.engine = engine;
+        this.pike = new PikeVM(prog, budget);
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        if (!engine.find(data, from, to, span)) {
+            return false;
+        }
+        resolveGroups(data, to, span);
+        return true;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        if (!engine.matchAt(data, at, to, span)) {
+            return false;
+        }
+        resolveGroups(data, to, span);
+        return true;
+    }
+
+    private void resolveGroups(byte[] data, int to, int[] span) {
+        if (span.length <= 2) {
+            return;
+        }
+
+        // the automata prefer the same match as the PikeVM so it ends where
+        // theirs did; the tree engine's can differ and is replaced by the
+        // PikeVM's so the groups always lie within the match.  Groups that
+        // take no part are left at -1
+        Arrays.fill(span, 2, span.length, -1);
+        pike.matchAt(data, span[0], to, span);
+    }
+
+}
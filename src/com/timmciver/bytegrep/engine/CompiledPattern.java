@@ -0,0 +1,279 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.CaptureGroup;
+import com.timmciver.bytegrep.ExpressionFold;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import com.timmciver.bytegrep.prefilter.Prefilter;
+import com.timmciver.bytegrep.trace.Tracer;
+import java.util.List;
+
+/**
+ * A RegularExpression together with the programs compiled from it.  A
+ * CompiledPattern may be shared between threads; each thread should create
+ * its own Engine from it with newEngine.  The programs are compiled when
+ * first needed so a pattern only ever run by the tree engine, which executes
+ * counted repetitions as loops, never pays for expanding them.
+ * @author tim
+ */
+public final class CompiledPattern {
+    
+    private final RegularExpression expression;
+    private final LiteralAnalysis analysis;
+    private final int numGroups;
+    private final Tracer tracer;
+    private volatile Program program;
+    private volatile Program reverseProgram;
+
+    // the generated engine class, created when first needed
+    private volatile Class<? extends Engine> generated;
+    private volatile boolean generationFailed;
+
+    // the pattern with $ matching nowhere, created when first needed
+    private volatile CompiledPattern withoutEndAnchor;
+
+    /**
+     * @param expression the optimized expression
+     */
+    private CompiledPattern(RegularExpression expression, Tracer tracer) {
+        this.expression = expression;
+        this.analysis = LiteralAnalysis.analyze(this.expression);
+        this.numGroups = countGroups(this.expression);
+        this.tracer = tracer;
+    }
+    
+    /**
+     * Compiles the given RegularExpression after optimizing it.
+     * @param re the expression to compile
+     * @return the compiled pattern
+     */
+    public static CompiledPattern compile(RegularExpression re) {
+        return new CompiledPattern(Optimizer.optimize(re), null);
+    }
+    
+    /**
+     * Compiles the given RegularExpression after optimizing it, with every
+     * search made by the engines from newEngine traced.
+     * @param re the expression to compile
+     * @param tracer told of each search; it must be thread safe if the
+     * pattern's engines are used by more than one thread
+     * @return the compiled pattern
+     */
+    public static CompiledPattern compile(RegularExpression re, Tracer tracer) {
+        if (tracer == null) {
+            throw new IllegalArgumentException("The tracer must not be null.");
+        }
+        return new CompiledPattern(Optimizer.optimize(re), tracer);
+    }
+
+    /**
+     * Returns this pattern with $ matching nowhere, for searching input that
+     * stops short of the end of the data, such as part of a file.  Its
+     * engines match what this pattern's do wherever $ could not hold.
+     * @return the pattern without $, or this pattern if it has no $
+     */
+    public CompiledPattern withoutEndAnchor() {
+        if (!analysis.hasEndAnchor()) {
+            return this;
+        }
+
+        // two threads racing here both compile it, which is harmless
+        CompiledPattern pattern = withoutEndAnchor;
+        if (pattern == null) {
+            pattern = new CompiledPattern(Optimizer.optimizeWithoutEndAnchor(expression), tracer);
+            withoutEndAnchor = pattern;
+        }
+        return pattern;
+    }
+
+    /**
+     * Creates a new Engine for this pattern.  If every match contains some
+     * byte at a fixed offset the engine is fronted by a Prefilter.  If the
+     * pattern has capture groups the engine reports them in any span array
+     * long enough to hold them.  If the pattern was compiled with a Tracer
+     * the engine's searches are traced.
+     * @param type the kind of engine to create
+     * @return the new engine
+     */
+    public Engine newEngine(EngineType type) {
+        return newEngine(type, null);
+    }
+
+    /**
+     * Creates a new Engine for this pattern, as newEngine(type) does, whose
+     * searches are limited by the given budget.  They throw a
+     * SearchAbortedException once it runs out or is cancelled.
+     * @param type the kind of engine to create
+     * @param budget the budget to charge, or null for no limits
+     * @return the new engine
+     */
+    public Engine newEngine(EngineType type, SearchBudget budget) {
+        return newEngine(type, budget, null);
+    }
+
+    /**
+     * Creates a new Engine for this pattern, as newEngine(type, budget) does,
+     * that counts the work it does in the given stats.
+     * @param type the kind of engine to create
+     * @param budget the budget to charge, or null for no limits
+     * @param stats the stats to count in, or null
+     * @return the new engine
+     */
+    public Engine newEngine(EngineType type, SearchBudget budget, EngineStats stats) {
+        Engine engine = newBareEngine(type, budget, stats);
+        Prefilter prefilter = analysis.newPrefilter();
+        if (prefilter != null) {
+            engine = new PrefilteredEngine(engine, prefilter, analysis, stats);
+        }
+
+        // only the PikeVM and the backtracker track groups themselves, and
+        // only when they are bare
+        boolean tracksGroups = type == EngineType.NFA || type == EngineType.BACKTRACK;
+        if (numGroups > 0 && (!tracksGroups || prefilter != null)) {
+            engine = new CaptureEngine(engine, getProgram(), budget);
+        }
+        if (tracer != null) {
+            engine = new TracingEngine(engine, type, tracer);
+        }
+        return engine;
+    }
+
+    /**
+     * Creates a new Engine for this pattern without a prefilter.
+     * @param type the kind of engine to create
+     * @return the new engine
+     */
+    public Engine newBareEngine(EngineType type) {
+        return newBareEngine(type, null);
+    }
+
+    /**
+     * Creates a new Engine for this pattern without a prefilter whose
+     * searches are limited by the given budget.
+     * @param type the kind of engine to create
+     * @param budget the budget to charge, or null for no limits
+     * @return the new engine
+     */
+    public Engine newBareEngine(EngineType type, SearchBudget budget) {
+        return newBareEngine(type, budget, null);
+    }
+
+    private Engine newBareEngine(EngineType type, SearchBudget budget, EngineStats stats) {
+        switch (type) {
+            case TREE:
+                return new TreeEngine(expression, budget);
+            case NFA:
+                return new PikeVM(getProgram(), budget);
+            case DFA:
+                return new LazyDFA(getProgram(), getReverseProgram(), budget, stats);
+            case GENERATED:
+                return newGeneratedEngine(budget, stats);
+            case BACKTRACK:
+                return new BacktrackEngine(getProgram(), analysis.getMaxLength(), budget);
+            default:
+                throw new IllegalArgumentException("Unknown engine type: " + type);
+        }
+    }
+
+    private Engine newGeneratedEngine(SearchBudget budget, EngineStats stats) {
+        Class<? extends Engine> cls = getGeneratedClass();
+        if (cls != null) {
+            try {
+                Engine engine = cls.getDeclaredConstructor().newInstance();
+                return budget == null ? engine : new BudgetedEngine(engine, budget);
+            } catch (ReflectiveOperationException ex) {
+                generationFailed = true;
+            }
+        }
+        return new LazyDFA(getProgram(), getReverseProgram(), budget, stats);
+    }
+
+    private Class<? extends Engine> getGeneratedClass() {
+
+        // generating the class is slow so it is only done once; two threads
+        // racing here both generate it, which is harmless
+        Class<? extends Engine> cls = generated;
+        if (cls == null && !generationFailed) {
+            cls = EngineGenerator.generate(getProgram(), getReverseProgram());
+            if (cls == null) {
+                generationFailed = true;
+            } else {
+                generated = cls;
+            }
+        }
+        return generationFailed ? null : cls;
+    }
+
+    /**
+     * @return true if the GENERATED engine type runs a class generated for
+     * this pattern rather than falling back to a LazyDFA; the class is
+     * generated if it hasn't been already
+     */
+    public boolean hasGeneratedEngine() {
+        return getGeneratedClass() != null;
+    }
+
+    /**
+     * @return the number of capture groups in the pattern; a span array
+     * passed to one of its engines needs a length of 2 * (groups + 1) to
+     * receive them all
+     */
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    private static int countGroups(RegularExpression re) {
+        return COUNT_GROUPS.fold(re);
+    }
+
+    private static final ExpressionFold<Integer> COUNT_GROUPS = new ExpressionFold<Integer>() {
+
+        @Override
+        protected Integer combine(RegularExpression re, List<Integer> parts) {
+            int max = re instanceof CaptureGroup ? ((CaptureGroup)re).getNumber() : 0;
+            for (int part : parts) {
+                max = Math.max(max, part);
+            }
+            return max;
+        }
+    };
+
+    /**
+     * @return the optimized expression the pattern was compiled from
+     */
+    public RegularExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the program, compiling it if this is the first call
+     * @throws IllegalArgumentException if the program would be too large
+     */
+    public Program getProgram() {
+        // compiling twice in a race is harmless since programs are immutable
+        Program p = program;
+        if (p == null) {
+            p = Compiler.compile(expression);
+            program = p;
+        }
+        return p;
+    }
+
+    /**
+     * @return the reverse program, compiling it if this is the first call
+     * @throws IllegalArgumentException if the program would be too large
+     */
+    public Program getReverseProgram() {
+        Program p = reverseProgram;
+        if (p == null) {
+            p = Compiler.compileReverse(expression);
+            reverseProgram = p;
+        }
+        return p;
+    }
+
+    public LiteralAnalysis getAnalysis() {
+        return analysis;
+    }
+    
+}
@@ -0,0 +1,368 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
+import com.timmciver.bytegrep.ConcatenationExpression;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.LiteralString;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a RegularExpression tree into a Thompson NFA Program.  The
+ * compiled program records the start and end of the overall match in capture
+ * slots 0 and 1, and those of capture group n in slots 2n and 2n + 1.  Groups
+ * are not recorded by reverse and union programs, which only ever report
+ * where matches are.  Counted repetitions are expanded into one copy of the
+ * repeated expression per count, so programs are limited to MAX_SIZE
+ * instructions.
+ * @author tim
+ */
+public class Compiler {
+
+    /**
+     * The largest number of instructions a compiled program may have.
+     */
+    public static final int MAX_SIZE = 1 << 22;
+
+    private int[] opcodes = new int[16];
+    private int[] arg1 = new int[16];
+    private int[] arg2 = new int[16];
+    private int size;
+    private final boolean reverse;
+    private boolean captures;
+    private int numSlots = 2;
+
+    // each distinct byte class is stored once however often it is used
+    private final Map<ByteClassExpression, Integer> classIds = new HashMap<>();
+    private long[] classes = new long[0];
+
+    // the nodes and Steps still to compile and run, next on top
+    private final Deque<Object> work = new ArrayDeque<>();
+
+    private Compiler(boolean reverse) {
+        this.reverse = reverse;
+        this.captures = !reverse;
+    }
+
+    /**
+     * Compiles the given RegularExpression.
+     * @param re the expression to compile
+     * @return the compiled Program
+     * @throws IllegalArgumentException if the expression contains a node type
+     * the compiler does not know about or its program would have more than
+     * MAX_SIZE instructions
+     */
+    public static Program compile(RegularExpression re) {
+        return new Compiler(false).compileProgram(re);
+    }
+
+    /**
+     * Compiles a program that matches the reverse of what the given
+     * RegularExpression matches, i.e. the program reads a match from its last
+     * byte to its first.  It is used to find where a match starts once its
+     * end is known.
+     * @param re the expression to compile
+     * @return the compiled Program
+     */
+    public static Program compileReverse(RegularExpression re) {
+        return new Compiler(true).compileProgram(re);
+    }
+
+    /**
+     * Compiles a program that matches any of the given RegularExpressions.
+     * The MATCH instruction reached by a match of expression i has the
+     * pattern id ids[i] as its operand.  Earlier expressions have the higher
+     * priority.
+     * @param res the expressions to compile
+     * @param ids the pattern id of each expression
+     * @return the compiled Program
+     */
+    public static Program compileUnion(RegularExpression[] res, int[] ids) {
+        if (res.length == 0 || res.length != ids.length) {
+            throw new IllegalArgumentException("A union needs one id for each of at least one expression.");
+        }
+        Compiler compiler = new Compiler(false);
+        compiler.captures = false;
+
+        // split L1, next; L1: pattern 1; next: split L2, next2; ...
+        for (int i = 0; i < res.length; i++) {
+            int split = i < res.length - 1 ? compiler.emit(Program.SPLIT, 0, 0) : -1;
+            if (split >= 0) {
+                compiler.arg1[split] = compiler.size;
+            }
+            compiler.compilePattern(res[i], ids[i]);
+            if (split >= 0) {
+                compiler.arg2[split] = compiler.size;
+            }
+        }
+        return compiler.toProgram();
+    }
+
+    private Program compileProgram(RegularExpression re) {
+        compilePattern(re, 0);
+        return toProgram();
+    }
+
+    private void compilePattern(RegularExpression re, int id) {
+        emit(Program.SAVE, 0, 0);
+        compileNode(re);
+        emit(Program.SAVE, 1, 0);
+        emit(Program.MATCH, id, 0);
+    }
+
+    private Program toProgram() {
+        return new Program(Arrays.copyOf(opcodes, size),
+                Arrays.copyOf(arg1, size),
+                Arrays.copyOf(arg2, size),
+                numSlots, classes);
+    }
+
+    private void compileNode(RegularExpression root) {
+
+        // the tree can be as deep as the pattern is long, so rather than
+        // recursing the compiler keeps a stack of the nodes still to compile
+        // and of the steps that patch their jumps once they are
+        work.push(root);
+        while (!work.isEmpty()) {
+            Object next = work.pop();
+            if (next instanceof Step) {
+                ((Step)next).run();
+            } else {
+                compileOne((RegularExpression)next);
+            }
+        }
+    }
+
+    /**
+     * Emits the instructions of a node that come before its first child and
+     * schedules the rest.
+     */
+    private void compileOne(RegularExpression re) {
+
+        if (re instanceof LiteralByte) {
+            emit(Program.BYTE, ((LiteralByte)re).getLiteralByte() & 0xFF, 0);
+        } else if (re instanceof ByteClassExpression) {
+            compileClass((ByteClassExpression)re);
+        } else if (re instanceof LiteralString) {
+            LiteralString ls = (LiteralString)re;
+            for (int i = 0; i < ls.length(); i++) {
+                emit(Program.BYTE, ls.byteAt(reverse ? ls.length() - 1 - i : i) & 0xFF, 0);
+            }
+        } else if (re instanceof ConcatenationExpression) {
+            List<RegularExpression> parts = new ArrayList<>(((ConcatenationExpression)re).getExpressions());
+            if (reverse) {
+                Collections.reverse(parts);
+            }
+            then(parts.toArray());
+        } else if (re instanceof SequenceExpression) {
+            SequenceExpression se = (SequenceExpression)re;
+            if (reverse) {
+                then(se.getSecondExpression(), se.getFirstExpression());
+            } else {
+                then(se.getFirstExpression(), se.getSecondExpression());
+            }
+        } else if (re instanceof AlternationExpression) {
+            AlternationExpression ae = (AlternationExpression)re;
+
+            // split L1, L2; L1: expr1; jmp end; L2: expr2; end:
+            final int split = emit(Program.SPLIT, 0, 0);
+            arg1[split] = size;
+            final int[] jmp = new int[1];
+            then(ae.getFirstExpression(), new Step() {
+                @Override
+                void run() {
+                    jmp[0] = emit(Program.JMP, 0, 0);
+                    arg2[split] = size;
+                }
+            }, ae.getSecondExpression(), new Step() {
+                @Override
+                void run() {
+                    arg1[jmp[0]] = size;
+                }
+            });
+        } else if (re instanceof RepetitionExpression) {
+            compileRepetition((RepetitionExpression)re);
+        } else if (re instanceof Anchor) {
+            // a reverse program reads the input backwards so its start is
+            // the end of the input
+            boolean start = ((Anchor)re).isStart() != reverse;
+            emit(Program.ASSERT, start ? Program.TEXT_START : Program.TEXT_END, 0);
+        } else if (re instanceof CaptureGroup) {
+            CaptureGroup group = (CaptureGroup)re;
+            if (captures) {
+                final int slot = 2 * group.getNumber();
+                numSlots = Math.max(numSlots, slot + 2);
+                emit(Program.SAVE, slot, 0);
+                then(group.getExpression(), new Step() {
+                    @Override
+                    void run() {
+                        emit(Program.SAVE, slot + 1, 0);
+                    }
+                });
+            } else {
+                then(group.getExpression());
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot compile regular expression: " + re);
+        }
+    }
+
+    private void compileClass(ByteClassExpression bc) {
+
+        // a class of one byte is just that byte
+        if (bc.size() == 1) {
+            emit(Program.BYTE, bc.first(), 0);
+            return;
+        }
+
+        Integer id = classIds.get(bc);
+        if (id == null) {
+            id = classIds.size();
+            classIds.put(bc, id);
+            classes = Arrays.copyOf(classes, classes.length + 4);
+            System.arraycopy(bc.getBits(), 0, classes, 4 * id, 4);
+        }
+        emit(Program.CLASS, id, 0);
+    }
+
+    private void compileRepetition(final RepetitionExpression re) {
+
+        final RegularExpression expr = re.getExpression();
+        int min = re.getMinMatches();
+        int max = re.getMaxMatches();
+
+        if (max == Integer.MAX_VALUE) {
+            if (min == 0) {
+                // L0: split L1, end; L1: expr; jmp L0; end:
+                final int split = emit(Program.SPLIT, 0, 0);
+                arg1[split] = size;
+                then(expr, new Step() {
+                    @Override
+                    void run() {
+                        emit(Program.JMP, split, 0);
+                        arg2[split] = size;
+                        prefer(split, re.isGreedy());
+                    }
+                });
+            } else {
+                // the mandatory copies with the last one looping back:
+                // expr...; L1: expr; split L1, end; end:
+                final int[] loop = new int[1];
+                then(copies(expr, min - 1), new Step() {
+                    @Override
+                    void run() {
+                        loop[0] = size;
+                    }
+                }, expr, new Step() {
+                    @Override
+                    void run() {
+                        int split = emit(Program.SPLIT, loop[0], 0);
+                        arg2[split] = size;
+                        prefer(split, re.isGreedy());
+                    }
+                });
+            }
+            return;
+        }
+
+        // the mandatory copies, then the optional ones; each may skip to the
+        // end: split L1, end; L1: expr; split L2, end; L2: expr; ... end:
+        final int[] splits = new int[max - min];
+        then(copies(expr, min), new Step() {
+
+            private int next;
+
+            @Override
+            void run() {
+                if (next < splits.length) {
+                    splits[next] = emit(Program.SPLIT, 0, 0);
+                    arg1[splits[next]] = size;
+                    next++;
+                    then(expr, this);
+                    return;
+                }
+                for (int split : splits) {
+                    arg2[split] = size;
+                    prefer(split, re.isGreedy());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a step that compiles n copies of expr, one after the other
+     */
+    private Step copies(final RegularExpression expr, final int n) {
+        return new Step() {
+
+            private int left = n;
+
+            @Override
+            void run() {
+                if (left > 0) {
+                    left--;
+                    then(expr, this);
+                }
+            }
+        };
+    }
+
+    /**
+     * Schedules nodes to compile and steps to run, in the given order, before
+     * anything already scheduled.
+     */
+    private void then(Object... items) {
+        for (int i = items.length - 1; i >= 0; i--) {
+            work.push(items[i]);
+        }
+    }
+
+    /**
+     * Swaps the branches of a repetition's split, whose first branch repeats
+     * again, if the repetition is lazy so that leaving it is preferred.
+     */
+    private void prefer(int split, boolean greedy) {
+        if (!greedy) {
+            int repeat = arg1[split];
+            arg1[split] = arg2[split];
+            arg2[split] = repeat;
+        }
+    }
+
+    private int emit(int opcode, int a1, int a2) {
+        if (size == MAX_SIZE) {
+            throw new IllegalArgumentException("The pattern is too large to compile; its program would have more than " + MAX_SIZE + " instructions.");
+        }
+        if (size == opcodes.length) {
+            int newLength = opcodes.length * 2;
+            opcodes = Arrays.copyOf(opcodes, newLength);
+            arg1 = Arrays.copyOf(arg1, newLength);
+            arg2 = Arrays.copyOf(arg2, newLength);
+        }
+        opcodes[size] = opcode;
+        arg1[size] = a1;
+        arg2[size] = a2;
+        return size++;
+    }
+
+    /**
+     * Work scheduled on the stack between nodes, such as patching a jump
+     * once the node it jumps over has been compiled.
+     */
+    private abstract class Step {
+        abstract void run();
+    }
+
+}
@@ -0,0 +1,382 @@
+package com.timmciver.bytegrep.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DFA built lazily from a Program.  Each DFA state is an ordered set of the
+ * NFA threads that consume input or match.  States and their 256-way
+ * transition tables are created on demand while scanning and are kept in a
+ * cache holding at most maxStates states; when the cache is full it is
+ * flushed and rebuilt from scratch as the scan continues.
+ *
+ * In leftmost-first mode the thread order follows the NFA priorities and every
+ * thread after a match is dropped, just as the PikeVM does.  Unanchored states
+ * also carry a flag meaning "start a new thread at the next offset" which is
+ * cleared once a match has been seen.  In longest mode all threads are kept.
+ *
+ * A thread waiting on a TEXT_END assertion stays in its state until the next
+ * byte kills it; matchesAtEnd says whether one of them matches if the input
+ * ends instead.  TEXT_START assertions only hold in the start states built
+ * for the start of the input.
+ * @author tim
+ */
+final class DFA {
+
+    /**
+     * The index of the dead state, which never leads to a match.
+     */
+    static final int DEAD = 0;
+
+    private static final int UNKNOWN = -1;
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final Program prog;
+    private final boolean longest;
+    private final int maxStates;
+
+    private final Map<StateKey, Integer> cache = new HashMap<>();
+    private StateKey[] states;
+    private boolean[] matchFlags;
+    private int[][] matchPatterns;
+    private int[] transitions;
+    private byte[] endMatches;
+    private int numStates;
+    private final int[] starts = new int[4];
+    long numFlushes;
+
+    // told of every state built and every flush, if not null
+    EngineStats stats;
+
+    // scratch space for computing new states
+    private final ThreadList visited;
+    private final int[] stack;
+    private int[] work;
+    private int workSize;
+    private boolean cut;
+    private boolean atTextStart;
+    private boolean atTextEnd;
+
+    DFA(Program prog, boolean longest, int maxStates) {
+        if (maxStates < 2) {
+            throw new IllegalArgumentException("A DFA needs room for at least two states.");
+        }
+        this.prog = prog;
+        this.longest = longest;
+        this.maxStates = maxStates;
+        this.visited = new ThreadList(prog.size(), 0);
+        this.stack = new int[prog.size() + 1];
+        this.work = new int[prog.size()];
+        this.states = new StateKey[Math.min(maxStates, 16)];
+        this.matchFlags = new boolean[states.length];
+        this.matchPatterns = new int[states.length][];
+        this.transitions = new int[states.length * 256];
+        this.endMatches = new byte[states.length];
+        reset();
+    }
+
+    /**
+     * @param anchored if true the returned state only starts a single thread
+     * @return the state at the beginning of a search
+     */
+    int start(boolean anchored) {
+        return start(anchored, false);
+    }
+
+    /**
+     * @param anchored if true the returned state only starts a single thread
+     * @param atTextStart true if the search begins at the start of the input
+     * @return the state at the beginning of a search
+     */
+    int start(boolean anchored, boolean atTextStart) {
+        int i = (anchored ? 1 : 0) | (atTextStart ? 2 : 0);
+        if (starts[i] == UNKNOWN) {
+            starts[i] = startState(!anchored, atTextStart);
+        }
+        return starts[i];
+    }
+
+    /**
+     * @return the state reached from the given state on byte b
+     */
+    int next(int state, int b) {
+        int next = transitions[(state << 8) | b];
+        if (next == UNKNOWN) {
+            next = computeNext(state, b);
+        }
+        return next;
+    }
+
+    /**
+     * @return true if a match ends when the given state is reached
+     */
+    boolean isMatch(int state) {
+        return matchFlags[state];
+    }
+
+    /**
+     * @param state the state reached at the end of the input
+     * @param atTextStart true if the input is empty, so that the state is a
+     * start state at the start of the input as well
+     * @return true if a match ends when the given state is reached at the end
+     * of the input
+     */
+    boolean matchesAtEnd(int state, boolean atTextStart) {
+        if (matchFlags[state]) {
+            return true;
+        }
+
+        // the answer for a state is kept, except in the rare case of an
+        // empty input where a ^ may follow a $
+        if (atTextStart && prog.hasAsserts()) {
+            return closesToMatch(state, true);
+        }
+        if (endMatches[state] == UNKNOWN) {
+            endMatches[state] = (byte)(prog.hasAsserts() && closesToMatch(state, false) ? 1 : 0);
+        }
+        return endMatches[state] == 1;
+    }
+
+    /**
+     * @return true if a thread of the state waiting on an assertion reaches a
+     * match when the input ends
+     */
+    private boolean closesToMatch(int state, boolean textStart) {
+        StateKey key = states[state];
+        beginState();
+        atTextEnd = true;
+        atTextStart = textStart;
+        for (int pc : key.pcs) {
+            if (prog.opcodes[pc] == Program.ASSERT) {
+                addClosure(pc);
+            }
+        }
+        atTextEnd = false;
+        atTextStart = false;
+        for (int i = 0; i < workSize; i++) {
+            if (prog.opcodes[work[i]] == Program.MATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the ids of the patterns whose matches end when the given state
+     * is reached, in increasing order
+     */
+    int[] getMatchPatterns(int state) {
+        return matchPatterns[state];
+    }
+
+    /**
+     * @return the number of times the state cache has been flushed
+     */
+    long getNumFlushes() {
+        return numFlushes;
+    }
+
+    /**
+     * @return the number of states currently in the cache
+     */
+    int getNumStates() {
+        return numStates;
+    }
+
+    private int startState(boolean restart, boolean textStart) {
+        beginState();
+        atTextStart = textStart;
+        addClosure(0);
+        atTextStart = false;
+        return addState(!cut && restart);
+    }
+
+    private int computeNext(int state, int b) {
+
+        StateKey key = states[state];
+
+        beginState();
+        for (int pc : key.pcs) {
+            if (prog.accepts(pc, b)) {
+                addClosure(pc + 1);
+                if (cut) {
+                    break;
+                }
+            }
+        }
+        if (key.restart && !cut) {
+            addClosure(0);
+        }
+
+        int next = addState(key.restart && !cut);
+
+        // the cache may have been flushed while adding the new state in which
+        // case the old state no longer exists
+        if (states[state] == key) {
+            transitions[(state << 8) | b] = next;
+        }
+
+        return next;
+    }
+
+    private void beginState() {
+        visited.clear();
+        workSize = 0;
+        cut = false;
+    }
+
+    /**
+     * Appends the consuming and matching threads reachable from pc to the work
+     * list in priority order.
+     */
+    private void addClosure(int pc) {
+
+        int[] opcodes = prog.opcodes;
+        int[] arg1 = prog.arg1;
+        int[] arg2 = prog.arg2;
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            pc = stack[--top];
+            while (!visited.contains(pc)) {
+                visited.add(pc);
+                int opcode = opcodes[pc];
+                if (opcode == Program.JMP) {
+                    pc = arg1[pc];
+                } else if (opcode == Program.SPLIT) {
+                    stack[top++] = arg2[pc];
+                    pc = arg1[pc];
+                } else if (opcode == Program.SAVE) {
+                    pc++;
+                } else if (opcode == Program.ASSERT && (arg1[pc] == Program.TEXT_START ? atTextStart : atTextEnd)) {
+                    pc++;
+                } else if (opcode == Program.ASSERT && arg1[pc] == Program.TEXT_START) {
+                    break;
+                } else {
+                    // consuming and matching threads, and those waiting on the
+                    // end of the input
+                    work[workSize++] = pc;
+                    if (opcode == Program.MATCH && !longest) {
+                        // every thread left on the stack has a lower priority
+                        // than this match
+                        cut = true;
+                        return;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private int addState(boolean restart) {
+
+        StateKey key = new StateKey(Arrays.copyOf(work, workSize), restart);
+        Integer existing = cache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (numStates == maxStates) {
+            reset();
+            numFlushes++;
+            if (stats != null) {
+                stats.numFlushes++;
+            }
+            if (key.equals(states[DEAD])) {
+                return DEAD;
+            }
+        }
+
+        // grow the tables if needed
+        if (numStates == states.length) {
+            int newLength = Math.min(maxStates, states.length * 2);
+            states = Arrays.copyOf(states, newLength);
+            matchFlags = Arrays.copyOf(matchFlags, newLength);
+            matchPatterns = Arrays.copyOf(matchPatterns, newLength);
+            transitions = Arrays.copyOf(transitions, newLength * 256);
+            endMatches = Arrays.copyOf(endMatches, newLength);
+        }
+
+        int index = numStates++;
+        states[index] = key;
+        if (stats != null) {
+            stats.numStatesBuilt++;
+        }
+        int numPatterns = 0;
+        for (int pc : key.pcs) {
+            if (prog.opcodes[pc] == Program.MATCH) {
+                work[numPatterns++] = prog.arg1[pc];
+            }
+        }
+        matchFlags[index] = numPatterns > 0;
+        matchPatterns[index] = numPatterns == 0 ? NO_PATTERNS : sortedDistinct(work, numPatterns);
+        Arrays.fill(transitions, index << 8, (index + 1) << 8, UNKNOWN);
+        endMatches[index] = UNKNOWN;
+        cache.put(key, index);
+
+        return index;
+    }
+
+    private void reset() {
+        cache.clear();
+        Arrays.fill(states, null);
+        numStates = 0;
+        Arrays.fill(starts, UNKNOWN);
+
+        // the dead state is always state zero and all of its transitions lead
+        // back to itself
+        StateKey dead = new StateKey(new int[0], false);
+        states[DEAD] = dead;
+        matchFlags[DEAD] = false;
+        matchPatterns[DEAD] = NO_PATTERNS;
+        endMatches[DEAD] = 0;
+        Arrays.fill(transitions, 0, 256, DEAD);
+        cache.put(dead, DEAD);
+        numStates = 1;
+    }
+
+    private static int[] sortedDistinct(int[] values, int length) {
+        int[] sorted = Arrays.copyOf(values, length);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    private static final class StateKey {
+
+        final int[] pcs;
+        final boolean restart;
+        private final int hash;
+
+        StateKey(int[] pcs, boolean restart) {
+            this.pcs = pcs;
+            this.restart = restart;
+            this.hash = 31 * Arrays.hashCode(pcs) + (restart ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StateKey)) {
+                return false;
+            }
+            StateKey other = (StateKey)obj;
+            return restart == other.restart && Arrays.equals(pcs, other.pcs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * A matching engine for a single compiled regular expression.  Engines keep
+ * scratch space between calls so they are not thread safe; each thread
+ * searching with the same expression should use its own Engine.
+ * @author tim
+ */
+public interface Engine {
+
+    /**
+     * Searches for the leftmost match in data starting no earlier than from.
+     * Bytes at or beyond to are never examined.
+     * @param data input byte array
+     * @param from the offset at which the search begins
+     * @param to the offset at which the input ends
+     * @param span receives the start (span[0]) and end (span[1], exclusive) of
+     * the match when one is found; it must have a length of at least two.
+     * Engines for patterns with capture groups also store the start and end of
+     * group n in span[2n] and span[2n + 1] if the array is long enough, or -1
+     * if the group took no part in the match
+     * @return true if a match was found, false otherwise
+     */
+    boolean find(byte[] data, int from, int to, int[] span);
+
+    /**
+     * Like find but only accepts a match that starts exactly at the given
+     * offset.
+     * @param data input byte array
+     * @param at the offset at which the match must start
+     * @param to the offset at which the input ends
+     * @param span receives the start and end of the match
+     * @return true if a match was found, false otherwise
+     */
+    boolean matchAt(byte[] data, int at, int to, int[] span);
+
+}
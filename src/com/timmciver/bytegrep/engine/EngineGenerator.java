@@ -0,0 +1,346 @@
+package com.timmciver.bytegrep.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates an Engine class specialised to one pattern.  The pattern's DFAs
+ * are built in full and written out as Java source in which every state is a
+ * small method switching on the next byte, so the JIT compiles the state
+ * transitions to straight-line branches instead of table lookups.  The source
+ * is compiled in memory with the platform's Java compiler and loaded by a
+ * class loader of its own.
+ *
+ * Generation fails, and the caller should fall back to a LazyDFA, if there is
+ * no Java compiler (the program runs on a JRE), the pattern has anchors or a
+ * DFA has more than MAX_STATES states.  Compiling takes a good fraction of a second so this is
+ * only worth it for patterns that are used a great deal.
+ * @author tim
+ */
+final class EngineGenerator {
+
+    /**
+     * The most states a generated DFA may have.
+     */
+    static final int MAX_STATES = 256;
+
+    private static final String PACKAGE = "com.timmciver.bytegrep.engine.generated";
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private EngineGenerator() {
+    }
+
+    /**
+     * Generates an Engine class for the given programs.
+     * @param prog the program
+     * @param reverseProg the program compiled in reverse
+     * @return the generated class, which has a public no-argument
+     * constructor, or null if it could not be generated
+     */
+    static Class<? extends Engine> generate(Program prog, Program reverseProg) {
+
+        // the generated tables have no notion of where the input starts and
+        // ends, so patterns with anchors are left to the LazyDFA
+        if (prog.hasAsserts()) {
+            return null;
+        }
+
+        // build the DFAs in full
+        DFA forward = new DFA(prog, false, MAX_STATES + 2);
+        int unanchored = forward.start(false);
+        int anchored = forward.start(true);
+        int[] forwardTable = explore(forward, unanchored, anchored);
+        DFA reverse = new DFA(reverseProg, true, MAX_STATES + 2);
+        int reverseStart = reverse.start(true);
+        int[] reverseTable = explore(reverse, reverseStart, reverseStart);
+        if (forwardTable == null || reverseTable == null) {
+            return null;
+        }
+
+        String name = "Matcher" + counter.incrementAndGet();
+        String source = writeSource(name, forward, forwardTable, unanchored, anchored,
+                reverse, reverseTable, reverseStart);
+        return compile(PACKAGE + "." + name, source);
+    }
+
+    /**
+     * Builds every state reachable from the given ones.
+     * @return the transition table, 256 entries per state, or null if there
+     * are too many states
+     */
+    private static int[] explore(DFA dfa, int start1, int start2) {
+
+        int[] queue = new int[MAX_STATES + 2];
+        boolean[] seen = new boolean[MAX_STATES + 2];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = DFA.DEAD;
+        seen[DFA.DEAD] = true;
+        for (int s : new int[]{start1, start2}) {
+            if (!seen[s]) {
+                seen[s] = true;
+                queue[tail++] = s;
+            }
+        }
+
+        int[] table = new int[(MAX_STATES + 2) * 256];
+        while (head < tail) {
+            int s = queue[head++];
+            for (int b = 0; b < 256; b++) {
+                int next = dfa.next(s, b);
+                if (dfa.getNumStates() > MAX_STATES || dfa.getNumFlushes() > 0) {
+                    return null;
+                }
+                table[(s << 8) | b] = next;
+                if (!seen[next]) {
+                    seen[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        return Arrays.copyOf(table, dfa.getNumStates() * 256);
+    }
+
+    private static String writeSource(String name, DFA forward, int[] forwardTable, int unanchored,
+            int anchored, DFA reverse, int[] reverseTable, int reverseStart) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("public final class ").append(name)
+                .append(" implements com.timmciver.bytegrep.engine.Engine {\n\n");
+
+        // find: the forward DFA finds the end, the reverse DFA the start
+        sb.append("    public boolean find(byte[] data, int from, int to, int[] span) {\n");
+        sb.append("        if (from > to) return false;\n");
+        sb.append("        int end = forward(data, from, to, ").append(unanchored).append(");\n");
+        sb.append("        if (end < 0) return false;\n");
+        sb.append("        int s = ").append(reverseStart).append(";\n");
+        sb.append("        int start = rm(s) ? end : -1;\n");
+        sb.append("        for (int pos = end - 1; pos >= from; pos--) {\n");
+        sb.append("            s = r(s, data[pos] & 0xFF);\n");
+        sb.append("            if (s == 0) break;\n");
+        sb.append("            if (rm(s)) start = pos;\n");
+        sb.append("        }\n");
+        sb.append("        span[0] = start;\n");
+        sb.append("        span[1] = end;\n");
+        sb.append("        return true;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public boolean matchAt(byte[] data, int at, int to, int[] span) {\n");
+        sb.append("        if (at > to) return false;\n");
+        sb.append("        int end = forward(data, at, to, ").append(anchored).append(");\n");
+        sb.append("        if (end < 0) return false;\n");
+        sb.append("        span[0] = at;\n");
+        sb.append("        span[1] = end;\n");
+        sb.append("        return true;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private static int forward(byte[] data, int from, int to, int s) {\n");
+        sb.append("        int end = fm(s) ? from : -1;\n");
+        sb.append("        for (int pos = from; pos < to; pos++) {\n");
+        sb.append("            s = f(s, data[pos] & 0xFF);\n");
+        sb.append("            if (s == 0) break;\n");
+        sb.append("            if (fm(s)) end = pos + 1;\n");
+        sb.append("        }\n");
+        sb.append("        return end;\n");
+        sb.append("    }\n\n");
+
+        writeDFA(sb, "f", forward, forwardTable);
+        writeDFA(sb, "r", reverse, reverseTable);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Writes a transition method dispatching to one method per state, each
+     * switching on the byte with its most common target as the default, and
+     * a method telling which states match.
+     */
+    private static void writeDFA(StringBuilder sb, String prefix, DFA dfa, int[] table) {
+
+        int numStates = table.length / 256;
+        sb.append("    private static int ").append(prefix).append("(int s, int b) {\n");
+        sb.append("        switch (s) {\n");
+        for (int s = 1; s < numStates; s++) {
+            sb.append("            case ").append(s).append(": return ")
+                    .append(prefix).append(s).append("(b);\n");
+        }
+        sb.append("            default: return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        for (int s = 1; s < numStates; s++) {
+            int[] counts = new int[numStates];
+            int common = 0;
+            for (int b = 0; b < 256; b++) {
+                int next = table[(s << 8) | b];
+                if (++counts[next] > counts[common]) {
+                    common = next;
+                }
+            }
+
+            sb.append("    private static int ").append(prefix).append(s).append("(int b) {\n");
+            sb.append("        switch (b) {\n");
+            for (int b = 0; b < 256; b++) {
+                int next = table[(s << 8) | b];
+                if (next != common) {
+                    sb.append("            case ").append(b).append(": return ").append(next).append(";\n");
+                }
+            }
+            sb.append("            default: return ").append(common).append(";\n");
+            sb.append("        }\n");
+            sb.append("    }\n\n");
+        }
+
+        sb.append("    private static boolean ").append(prefix).append("m(int s) {\n");
+        sb.append("        switch (s) {\n");
+        boolean any = false;
+        for (int s = 1; s < numStates; s++) {
+            if (dfa.isMatch(s)) {
+                sb.append("            case ").append(s).append(":\n");
+                any = true;
+            }
+        }
+        if (any) {
+            sb.append("                return true;\n");
+        }
+        sb.append("            default: return false;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+    }
+
+    private static Class<? extends Engine> compile(String className, String source) {
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+
+        List<String> options = new ArrayList<>(Arrays.asList("-g:none", "-proc:none"));
+        String classPath = classPathOf(Engine.class);
+        if (classPath != null) {
+            options.add("-classpath");
+            options.add(classPath);
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        byte[] bytes;
+        try (MemoryFileManager fileManager
+                = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null))) {
+            JavaFileObject unit = new SourceFile(className, source);
+            boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    Collections.singletonList(unit)).call();
+            if (!compiled || fileManager.output == null) {
+                return null;
+            }
+            bytes = fileManager.output.toByteArray();
+        } catch (IOException ex) {
+            // only closing the file manager throws this
+            return null;
+        }
+
+        try {
+            return new GeneratedClassLoader(Engine.class.getClassLoader())
+                    .define(className, bytes).asSubclass(Engine.class);
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static String classPathOf(Class<?> cls) {
+        CodeSource codeSource = cls.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return null;
+        }
+        try {
+            String path = new File(codeSource.getLocation().toURI()).getPath();
+            String systemPath = System.getProperty("java.class.path");
+            return systemPath == null || systemPath.isEmpty() ? path : path + File.pathSeparator + systemPath;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static final class ClassFile extends SimpleJavaFileObject {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Keeps the compiled class in memory instead of writing it to disk.
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        ClassFile output;
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                JavaFileObject.Kind kind, FileObject sibling) {
+            output = new ClassFile(className);
+            return output;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
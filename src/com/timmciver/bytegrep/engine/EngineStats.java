@@ -0,0 +1,80 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * Counts of the work done inside the Engines created with it: the
+ * candidates a Prefilter proposed and how many of them turned out to be
+ * matches, the searches in which it gave up, the DFA states built and cache flushes, and the searches a lazy
+ * DFA handed to a PikeVM because its cache was thrashing.  The counts run
+ * from when the stats were created or last reset.  Engines update them
+ * without synchronization, so a set of stats should only be given to the
+ * engines of one thread.
+ * @author tim
+ */
+public final class EngineStats {
+
+    long numCandidates;
+    long numConfirmed;
+    long numBypasses;
+    long numStatesBuilt;
+    long numFlushes;
+    long numFallbacks;
+
+    /**
+     * Sets every count back to zero.
+     */
+    public void reset() {
+        numCandidates = 0;
+        numConfirmed = 0;
+        numBypasses = 0;
+        numStatesBuilt = 0;
+        numFlushes = 0;
+        numFallbacks = 0;
+    }
+
+    /**
+     * @return the number of offsets a prefilter proposed as the start of a
+     * match
+     */
+    public long getNumCandidates() {
+        return numCandidates;
+    }
+
+    /**
+     * @return the number of proposed offsets at which a match did start
+     */
+    public long getNumConfirmed() {
+        return numConfirmed;
+    }
+
+    /**
+     * @return the number of searches in which a prefilter's candidates were
+     * so dense that the rest of the search was handed to another engine; the
+     * offsets that engine tried are counted as candidates
+     */
+    public long getNumBypasses() {
+        return numBypasses;
+    }
+
+    /**
+     * @return the number of DFA states built, counting those built again
+     * after a flush
+     */
+    public long getNumStatesBuilt() {
+        return numStatesBuilt;
+    }
+
+    /**
+     * @return the number of times a DFA's state cache was flushed
+     */
+    public long getNumFlushes() {
+        return numFlushes;
+    }
+
+    /**
+     * @return the number of searches a lazy DFA handed to a PikeVM
+     */
+    public long getNumFallbacks() {
+        return numFallbacks;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * The kinds of Engine a CompiledPattern can create.
+ * @author tim
+ */
+public enum EngineType {
+    
+    /**
+     * Interprets the RegularExpression tree directly (TreeEngine).  This is
+     * greedy and does not backtrack.
+     */
+    TREE,
+    
+    /**
+     * Simulates the NFA directly with a PikeVM.
+     */
+    NFA,
+    
+    /**
+     * Runs a lazily built DFA (LazyDFA).
+     */
+    DFA,
+    
+    /**
+     * Runs a class generated and compiled for the pattern from its DFAs, or
+     * a LazyDFA if the class cannot be generated.
+     */
+    GENERATED,
+    
+    /**
+     * Backtracks through the NFA, never trying the same instruction at the
+     * same offset twice (BacktrackEngine).
+     */
+    BACKTRACK
+    
+}
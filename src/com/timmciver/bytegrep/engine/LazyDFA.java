@@ -0,0 +1,222 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * An Engine backed by lazily built DFAs.  A forward DFA scans the input once
+ * to find where the leftmost-first match ends, costing one table lookup per
+ * byte once the states it needs have been built.  A second DFA, built from
+ * the reversed program, then scans backwards from the end of the match to
+ * find where it starts.  The reverse program reads the input backwards, so
+ * its TEXT_START assertions are the $ of the pattern and hold where the
+ * forward match ended at the end of the input.
+ *
+ * If the state cache is flushed too often to be of use (which can happen with
+ * patterns whose DFA is very large) the search falls back to a PikeVM.  A
+ * LazyDFA created with a SearchBudget charges it a step for every byte it
+ * scans, a block of SearchBudget.CHECK_INTERVAL bytes at a time, and keeps
+ * its two caches within the budget's memory limit.
+ * @author tim
+ */
+public class LazyDFA implements Engine {
+
+    /**
+     * The default maximum number of states kept in each DFA's cache.  Each
+     * state needs about 1KB for its transition table.
+     */
+    public static final int DEFAULT_MAX_STATES = 2048;
+
+    // fall back to the PikeVM when more than this many flushes happen in one
+    // search while fewer than MIN_BYTES_PER_STATE bytes are scanned for each
+    // state built
+    private static final int MAX_FLUSHES_PER_SEARCH = 8;
+    private static final int MIN_BYTES_PER_STATE = 10;
+
+    private final Program prog;
+    private final int maxStates;
+    private final DFA forward;
+    private final DFA reverse;
+    private final SearchBudget budget;
+    private final EngineStats stats;
+    private PikeVM fallback;
+
+    public LazyDFA(Program prog, Program reverseProg) {
+        this(prog, reverseProg, DEFAULT_MAX_STATES);
+    }
+
+    public LazyDFA(Program prog, Program reverseProg, int maxStates) {
+        this(prog, reverseProg, maxStates, null, null);
+    }
+
+    /**
+     * Creates a LazyDFA whose searches are charged to the given budget and
+     * whose caches hold as many states as fit in its memory limit.
+     * @param prog the program
+     * @param reverseProg the reverse program
+     * @param budget the budget to charge
+     */
+    public LazyDFA(Program prog, Program reverseProg, SearchBudget budget) {
+        this(prog, reverseProg, budget, null);
+    }
+
+    /**
+     * Creates a LazyDFA that counts the states it builds, its flushes and its
+     * fallbacks to the PikeVM in the given stats.
+     * @param prog the program
+     * @param reverseProg the reverse program
+     * @param budget the budget to charge, or null for no limits
+     * @param stats the stats to count in, or null
+     */
+    public LazyDFA(Program prog, Program reverseProg, SearchBudget budget, EngineStats stats) {
+        this(prog, reverseProg, budget == null ? DEFAULT_MAX_STATES : maxStates(prog, budget.getMaxCacheBytes()),
+                budget, stats);
+    }
+
+    private LazyDFA(Program prog, Program reverseProg, int maxStates, SearchBudget budget, EngineStats stats) {
+        this.prog = prog;
+        this.maxStates = maxStates;
+        this.forward = new DFA(prog, false, maxStates);
+        this.reverse = new DFA(reverseProg, true, maxStates);
+        this.budget = budget;
+        this.stats = stats;
+        forward.stats = stats;
+        reverse.stats = stats;
+    }
+
+    /**
+     * @return the number of states each of the two caches may hold if they
+     * are to fit in the given number of bytes; a state needs 1KB for its
+     * transition table and four bytes for each instruction it is made of
+     */
+    private static int maxStates(Program prog, long cacheBytes) {
+        if (cacheBytes == SearchBudget.UNLIMITED) {
+            return DEFAULT_MAX_STATES;
+        }
+        long perState = 1024 + 4L * prog.size() + 64;
+        return (int)Math.max(2, Math.min(Integer.MAX_VALUE, cacheBytes / (2 * perState)));
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+
+        if (from > to) {
+            return false;
+        }
+
+        int end = scanForward(data, from, to, false);
+        if (end == -2) {
+            return pikeVM().find(data, from, to, span);
+        }
+        if (end < 0) {
+            return false;
+        }
+
+        span[0] = scanReverse(data, from, end, to);
+        span[1] = end;
+        return true;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+
+        if (at > to) {
+            return false;
+        }
+
+        int end = scanForward(data, at, to, true);
+        if (end == -2) {
+            return pikeVM().matchAt(data, at, to, span);
+        }
+        if (end < 0) {
+            return false;
+        }
+
+        span[0] = at;
+        span[1] = end;
+        return true;
+    }
+
+    /**
+     * @return the number of times the state caches have been flushed
+     */
+    public long getNumFlushes() {
+        return forward.getNumFlushes() + reverse.getNumFlushes();
+    }
+
+    /**
+     * @return the end of the leftmost-first match, -1 if there is no match or
+     * -2 if the search should be retried with the PikeVM
+     */
+    private int scanForward(byte[] data, int from, int to, boolean anchored) {
+
+        DFA dfa = forward;
+        long startFlushes = dfa.numFlushes;
+        int s = dfa.start(anchored, from == 0);
+        int end = dfa.isMatch(s) ? from : -1;
+
+        for (int pos = from; pos < to; pos++) {
+            s = dfa.next(s, data[pos] & 0xFF);
+            if (s == DFA.DEAD) {
+                return end;
+            }
+            if (dfa.isMatch(s)) {
+                end = pos + 1;
+            }
+            if (budget != null && (pos & (SearchBudget.CHECK_INTERVAL - 1)) == 0) {
+                budget.charge(SearchBudget.CHECK_INTERVAL);
+            }
+
+            // give up on the DFA if the cache is thrashing
+            long flushes = dfa.numFlushes - startFlushes;
+            if (flushes > MAX_FLUSHES_PER_SEARCH
+                    && pos - from < flushes * maxStates * MIN_BYTES_PER_STATE) {
+                return -2;
+            }
+        }
+
+        // threads waiting on $ match if the input ends here
+        if (dfa.matchesAtEnd(s, from == 0 && from == to)) {
+            end = to;
+        }
+        return end;
+    }
+
+    /**
+     * @return the smallest offset no earlier than from at which a match ending
+     * at end starts
+     */
+    private int scanReverse(byte[] data, int from, int end, int to) {
+
+        DFA dfa = reverse;
+        int s = dfa.start(true, end == to);
+        int start = dfa.isMatch(s) ? end : -1;
+
+        for (int pos = end - 1; pos >= from; pos--) {
+            s = dfa.next(s, data[pos] & 0xFF);
+            if (s == DFA.DEAD) {
+                return start;
+            }
+            if (dfa.isMatch(s)) {
+                start = pos;
+            }
+            if (budget != null && (pos & (SearchBudget.CHECK_INTERVAL - 1)) == 0) {
+                budget.charge(SearchBudget.CHECK_INTERVAL);
+            }
+        }
+
+        // the pattern's ^ holds if the scan reached the start of the input
+        if (from == 0 && dfa.matchesAtEnd(s, end == from && end == to)) {
+            start = 0;
+        }
+        return start;
+    }
+
+    private PikeVM pikeVM() {
+        if (stats != null) {
+            stats.numFallbacks++;
+        }
+        if (fallback == null) {
+            fallback = new PikeVM(prog, budget);
+        }
+        return fallback;
+    }
+
+}
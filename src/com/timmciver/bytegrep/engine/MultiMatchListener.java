@@ -0,0 +1,19 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * Receives the matches found by a MultiMatcher.
+ * @author tim
+ */
+public interface MultiMatchListener {
+
+    /**
+     * Called for each match in order of the offset at which it ends, and for
+     * matches ending at the same offset in order of pattern id.
+     * @param pattern the id of the pattern matched
+     * @param start the absolute offset of the first byte of the match
+     * @param end the absolute offset just past the last byte of the match
+     * @return true to continue scanning, false to stop
+     */
+    boolean onMatch(int pattern, long start, long end);
+
+}
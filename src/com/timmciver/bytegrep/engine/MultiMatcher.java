@@ -0,0 +1,517 @@
+package com.timmciver.bytegrep.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Searches input for every pattern of a PatternSet at once.  Input is pushed
+ * to it a chunk at a time with feed and ended with finish; the automata are
+ * carried over from one chunk to the next so each byte is looked at once no
+ * matter how many patterns there are.
+ *
+ * For each pattern, every offset at which one of its matches ends is reported
+ * once, together with the earliest offset at which a match ending there
+ * starts.  Literal patterns are found by an Aho-Corasick automaton.  The other
+ * patterns run on a union DFA, whose matches are traced back to their start
+ * with the pattern's reverse DFA, or on a union NFA whose threads remember
+ * where they started.  A trace stops where it meets the path of an earlier
+ * one, whose start it shares, so dense matches cost no more than sparse ones.
+ * Otherwise tracing back only reaches maxMatchLength bytes into the past, and
+ * a longer match of an unbounded pattern found by the DFA may be reported as
+ * starting later than it does.  A MultiMatcher is not thread safe.
+ *
+ * A matcher created with a SearchBudget charges it a step for every byte fed,
+ * every NFA thread moved on and every byte traced back, and starts it afresh
+ * for each stream.  A stream that runs out of budget or is cancelled throws a
+ * SearchAbortedException from feed saying how many matches were reported and
+ * how far the stream got, every match ending at or before that offset having
+ * been reported, and the matcher is left ready for a new stream.
+ * @author tim
+ */
+public final class MultiMatcher {
+
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 64 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_DFA_STATES = 4096;
+    private static final int[] NO_IDS = new int[0];
+
+    private final PatternSet set;
+    private final MultiMatchListener listener;
+    private final AhoCorasick literals;
+    private final Program union;
+    private final SearchBudget budget;
+
+    // the union DFA and, created when first needed, each pattern's reverse DFA
+    private final DFA forward;
+    private final DFA[] reverse;
+    private final Traces[] traces;
+
+    // the union NFA's threads, each remembering where it started
+    private Threads clist;
+    private Threads nlist;
+    private final int[] stack;
+
+    // the bytes before the current chunk in a ring indexed by their offset
+    private final byte[] history;
+    private byte[] chunk;
+    private int chunkOffset;
+    private long chunkBase;
+
+    // the union matches ending at the current offset, ordered by pattern id
+    private final int[] unionIds;
+    private final long[] unionStarts;
+
+    // the absolute offset of the next byte
+    private long pos;
+    private boolean started;
+    private int literalState;
+    private int unionState;
+    private boolean stopped;
+    private long numMatches;
+
+    // the steps taken since the budget was last charged
+    private long uncharged;
+
+    /**
+     * @param set the patterns to search for
+     * @param type NFA or DFA
+     * @param maxMatchLength how far back the DFA traces a match of a pattern
+     * whose matches are unbounded in length
+     * @param listener receives the matches
+     */
+    public MultiMatcher(PatternSet set, EngineType type, int maxMatchLength, MultiMatchListener listener) {
+        this(set, type, maxMatchLength, listener, null);
+    }
+
+    /**
+     * @param set the patterns to search for
+     * @param type NFA or DFA
+     * @param maxMatchLength how far back the DFA traces a match of a pattern
+     * whose matches are unbounded in length
+     * @param listener receives the matches
+     * @param budget the limits on each stream, or null for none
+     */
+    public MultiMatcher(PatternSet set, EngineType type, int maxMatchLength, MultiMatchListener listener,
+            SearchBudget budget) {
+        if (type != EngineType.NFA && type != EngineType.DFA) {
+            throw new IllegalArgumentException("Pattern sets can only be searched with the nfa or dfa engine.");
+        }
+        this.set = set;
+        this.listener = listener;
+        this.budget = budget;
+        this.literals = set.getLiterals();
+        this.union = set.getUnion();
+        this.unionIds = new int[set.size()];
+        this.unionStarts = new long[set.size()];
+
+        boolean dfa = union != null && type == EngineType.DFA;
+        this.forward = dfa ? new DFA(union, true, MAX_DFA_STATES) : null;
+        this.reverse = dfa ? new DFA[set.size()] : null;
+        this.traces = dfa ? new Traces[set.size()] : null;
+        int maxLength = set.getMaxLength();
+        this.history = new byte[!dfa ? 0 : maxLength >= 0 ? Math.max(1, maxLength) : maxMatchLength];
+
+        boolean nfa = union != null && type == EngineType.NFA;
+        this.clist = nfa ? new Threads(union.size()) : null;
+        this.nlist = nfa ? new Threads(union.size()) : null;
+        this.stack = nfa ? new int[union.size() + 1] : null;
+    }
+
+    /**
+     * Searches the remaining bytes of the given buffer, leaving it with no
+     * bytes remaining.
+     * @param buffer the next chunk of input
+     */
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            feed(buffer.array(), offset, buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        byte[] bytes = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(bytes.length, buffer.remaining());
+            buffer.get(bytes, 0, n);
+            feed(bytes, 0, n);
+        }
+    }
+
+    /**
+     * Searches the given bytes.
+     * @param data the next chunk of input
+     * @param offset the offset of the first byte in data
+     * @param length the number of bytes
+     */
+    public void feed(byte[] data, int offset, int length) {
+
+        if (!started) {
+            begin();
+        }
+
+        chunk = data;
+        chunkOffset = offset;
+        chunkBase = pos;
+        int end = offset + length;
+        for (int i = offset; i < end && !stopped; i++) {
+            if (budget != null && uncharged >= SearchBudget.CHECK_INTERVAL) {
+                charge();
+            }
+            int b = data[i] & 0xFF;
+            pos++;
+            uncharged++;
+
+            int[] literalIds = NO_IDS;
+            if (literals != null) {
+                literalState = literals.next(literalState, b);
+                literalIds = literals.getOutputs(literalState);
+            }
+
+            int numUnion = 0;
+            if (forward != null) {
+                unionState = forward.next(unionState, b);
+                if (forward.isMatch(unionState)) {
+                    numUnion = traceStarts(forward.getMatchPatterns(unionState));
+                }
+            } else if (union != null) {
+                step(b);
+                numUnion = collectMatches();
+            }
+
+            if (literalIds.length > 0 || numUnion > 0) {
+                report(literalIds, numUnion);
+            }
+        }
+
+        // keep the bytes the next chunk's matches may start in
+        int keep = Math.min(length, history.length);
+        for (int i = end - keep; i < end; i++) {
+            history[(int)((chunkBase + i - offset) % history.length)] = data[i];
+        }
+        chunk = null;
+    }
+
+    /**
+     * Marks the end of the input.  After this the matcher may be used for a
+     * new stream.
+     * @return the number of matches reported since the stream began
+     */
+    public long finish() {
+        if (!started) {
+            begin();
+        }
+        long count = numMatches;
+        pos = 0;
+        started = false;
+        stopped = false;
+        numMatches = 0;
+        return count;
+    }
+
+    /**
+     * Feeds everything readable from the channel and then finishes.
+     * @param channel the input
+     * @return the number of matches reported
+     * @throws IOException if the channel could not be read
+     */
+    public long scan(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (!stopped && channel.read(buffer) >= 0) {
+            buffer.flip();
+            feed(buffer);
+            buffer.clear();
+        }
+        return finish();
+    }
+
+    /**
+     * Feeds everything readable from the stream and then finishes.
+     * @param in the input
+     * @return the number of matches reported
+     * @throws IOException if the stream could not be read
+     */
+    public long scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int n;
+        while (!stopped && (n = in.read(buffer)) >= 0) {
+            feed(buffer, 0, n);
+        }
+        return finish();
+    }
+
+    /**
+     * @return true if the listener asked for the scan to stop
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Starts the automata and reports the empty matches at offset zero.
+     */
+    private void begin() {
+        started = true;
+        uncharged = 0;
+        if (budget != null) {
+            budget.start();
+        }
+        literalState = 0;
+        int numUnion = 0;
+        if (forward != null) {
+            Arrays.fill(traces, null);
+            unionState = forward.start(false);
+            if (forward.isMatch(unionState)) {
+                numUnion = traceStarts(forward.getMatchPatterns(unionState));
+            }
+        } else if (union != null) {
+            clist.clear();
+            addThread(clist, 0, 0);
+            numUnion = collectMatches();
+        }
+        if (numUnion > 0) {
+            report(NO_IDS, numUnion);
+        }
+    }
+
+    /**
+     * Charges the budget for the steps taken since it was last charged.
+     */
+    private void charge() {
+        try {
+            budget.charge(uncharged);
+            uncharged = 0;
+        } catch (SearchAbortedException ex) {
+            SearchAbortedException stop = new SearchAbortedException(ex, numMatches, pos);
+            finish();
+            throw stop;
+        }
+    }
+
+    /**
+     * Passes the matches ending at pos to the listener in order of pattern
+     * id.
+     */
+    private void report(int[] literalIds, int numUnion) {
+        int i = 0;
+        int j = 0;
+        while ((i < literalIds.length || j < numUnion) && !stopped) {
+            numMatches++;
+            if (j == numUnion || i < literalIds.length && literalIds[i] < unionIds[j]) {
+                int id = literalIds[i++];
+                stopped = !listener.onMatch(id, pos - literals.getLength(id), pos);
+            } else {
+                stopped = !listener.onMatch(unionIds[j], unionStarts[j], pos);
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Finds where the matches of the given patterns ending at pos start.
+     * @return the number of matches
+     */
+    private int traceStarts(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (reverse[id] == null) {
+                reverse[id] = new DFA(set.getReverseProgram(id), true, MAX_DFA_STATES);
+            }
+            DFA dfa = reverse[id];
+            if (traces[id] == null) {
+                traces[id] = new Traces(history.length);
+            }
+            Traces seen = traces[id];
+
+            // the longest match of the reverse program is the earliest start
+            long limit = Math.max(0, chunkBase - history.length);
+            int state = dfa.start(true);
+            long start = dfa.isMatch(state) ? pos : -1;
+            long at = pos - 1;
+            for (; at >= limit && state != DFA.DEAD; at--) {
+                state = dfa.next(state, byteAt(at) & 0xFF);
+                if (seen.flushes != dfa.numFlushes) {
+                    seen.clear(dfa.numFlushes);
+                }
+
+                // the DFA is deterministic, so from a state an earlier trace
+                // was in at the same offset it goes on to the same start
+                int slot = (int)(at % seen.offsets.length);
+                if (seen.offsets[slot] == at && seen.states[slot] == state) {
+                    if (seen.starts[slot] >= 0) {
+                        start = seen.starts[slot];
+                    }
+                    break;
+                }
+                seen.offsets[slot] = at;
+                seen.states[slot] = state;
+                if (dfa.isMatch(state)) {
+                    start = at;
+                }
+            }
+
+            // record what each offset of this trace led to
+            for (long j = at + 1; j < pos; j++) {
+                int slot = (int)(j % seen.offsets.length);
+                if (seen.offsets[slot] == j) {
+                    seen.starts[slot] = start >= 0 && start <= j ? start : -1;
+                }
+            }
+
+            uncharged += pos - at;
+            unionIds[i] = id;
+            unionStarts[i] = start >= 0 ? start : limit;
+        }
+        return ids.length;
+    }
+
+    private byte byteAt(long at) {
+        if (at >= chunkBase) {
+            return chunk[chunkOffset + (int)(at - chunkBase)];
+        }
+        return history[(int)(at % history.length)];
+    }
+
+    /**
+     * Steps every NFA thread over the byte before pos and starts a new
+     * thread at pos.
+     */
+    private void step(int b) {
+        uncharged += clist.size;
+        nlist.clear();
+        for (int i = 0; i < clist.size; i++) {
+            int pc = clist.dense[i];
+            if (union.accepts(pc, b)) {
+                addThread(nlist, pc + 1, clist.starts[i]);
+            }
+        }
+
+        // the new thread comes last so that where two threads meet the one
+        // that started earlier survives
+        addThread(nlist, 0, pos);
+
+        Threads tmp = clist;
+        clist = nlist;
+        nlist = tmp;
+    }
+
+    /**
+     * Gathers the NFA threads that have matched, ordered by pattern id.
+     * @return the number of matches
+     */
+    private int collectMatches() {
+        int n = 0;
+        for (int i = 0; i < clist.size; i++) {
+            int pc = clist.dense[i];
+            if (union.opcodes[pc] != Program.MATCH) {
+                continue;
+            }
+
+            // insertion sort; there are rarely more than a few
+            int id = union.arg1[pc];
+            int j = n++;
+            while (j > 0 && unionIds[j - 1] > id) {
+                unionIds[j] = unionIds[j - 1];
+                unionStarts[j] = unionStarts[j - 1];
+                j--;
+            }
+            unionIds[j] = id;
+            unionStarts[j] = clist.starts[i];
+        }
+        return n;
+    }
+
+    /**
+     * Adds the thread at pc and every thread reachable from it without
+     * consuming input, all of them having started at the given offset.
+     */
+    private void addThread(Threads list, int pc, long start) {
+
+        int[] opcodes = union.opcodes;
+        int[] arg1 = union.arg1;
+        int[] arg2 = union.arg2;
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            pc = stack[--top];
+            while (!list.contains(pc)) {
+                list.add(pc, start);
+                int opcode = opcodes[pc];
+                if (opcode == Program.JMP) {
+                    pc = arg1[pc];
+                } else if (opcode == Program.SPLIT) {
+                    stack[top++] = arg2[pc];
+                    pc = arg1[pc];
+                } else if (opcode == Program.SAVE) {
+                    pc++;
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The states a pattern's reverse DFA was in at recent offsets while
+     * tracing matches back to their start, and the earliest start each led
+     * to or -1 for none.  Offsets share slots modulo the length, and the
+     * states are only valid until the DFA's cache is next flushed.
+     */
+    private static final class Traces {
+
+        final long[] offsets;
+        final int[] states;
+        final long[] starts;
+        long flushes;
+
+        Traces(int length) {
+            this.offsets = new long[length];
+            this.states = new int[length];
+            this.starts = new long[length];
+            Arrays.fill(offsets, -1);
+        }
+
+        void clear(long flushes) {
+            Arrays.fill(offsets, -1);
+            this.flushes = flushes;
+        }
+    }
+
+    /**
+     * A sparse set of threads and the offsets they started at.
+     */
+    private static final class Threads {
+
+        final int[] sparse;
+        final int[] dense;
+        final long[] starts;
+        int size;
+
+        Threads(int programSize) {
+            this.sparse = new int[programSize];
+            this.dense = new int[programSize];
+            this.starts = new long[programSize];
+        }
+
+        boolean contains(int pc) {
+            int i = sparse[pc];
+            return i < size && dense[i] == pc;
+        }
+
+        void add(int pc, long start) {
+            sparse[pc] = size;
+            starts[size] = start;
+            dense[size++] = pc;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+}
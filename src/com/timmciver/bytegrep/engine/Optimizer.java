@@ -0,0 +1,360 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
+import com.timmciver.bytegrep.ConcatenationExpression;
+import com.timmciver.bytegrep.ExpressionFold;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.LiteralString;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import com.timmciver.bytegrep.ZeroOrMore;
+import com.timmciver.bytegrep.ZeroOrOne;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a parsed RegularExpression tree into an equivalent one that is
+ * cheaper to match.  Chains of SequenceExpressions become one
+ * ConcatenationExpression, adjacent literal bytes become a LiteralString,
+ * alternatives starting with the same byte share it (0x610x62|0x610x63
+ * becomes 0x61(0x62|0x63)), neighbouring single byte alternatives become a
+ * byte class and nested repetitions such as (x*)* collapse into one.
+ *
+ * Alternatives are tried in order, so a rewrite must not let a later
+ * alternative win where an earlier one used to.  Only alternatives next to
+ * each other are combined and a shared prefix is only factored out when it
+ * is a single byte or byte class, which every alternative matches in the
+ * same way.  Nested repetitions are only collapsed when the repeated
+ * expression cannot match the empty string: the engines end a loop at an
+ * empty iteration, so (x?)+ and x* can differ for such an x.  The result
+ * matches exactly what the original does on every engine.
+ * @author tim
+ */
+public final class Optimizer {
+
+    private Optimizer() {
+    }
+
+    /**
+     * Optimizes the given RegularExpression.
+     * @param re the expression to optimize
+     * @return an equivalent expression; the argument is not modified
+     */
+    public static RegularExpression optimize(RegularExpression re) {
+        return OPTIMIZE.fold(re);
+    }
+
+    /**
+     * Optimizes the given RegularExpression with every $ in it replaced by a
+     * class matching no byte, so that the result matches what the original
+     * does wherever the input doesn't end at the limit given to the engine.
+     * @param re the expression to optimize
+     * @return the expression without $; the argument is not modified
+     */
+    public static RegularExpression optimizeWithoutEndAnchor(RegularExpression re) {
+        return OPTIMIZE_WITHOUT_END_ANCHOR.fold(re);
+    }
+
+    private static final ExpressionFold<RegularExpression> OPTIMIZE = new Optimize(false);
+    private static final ExpressionFold<RegularExpression> OPTIMIZE_WITHOUT_END_ANCHOR = new Optimize(true);
+
+    private static final class Optimize extends ExpressionFold<RegularExpression> {
+
+        private final boolean withoutEndAnchor;
+
+        Optimize(boolean withoutEndAnchor) {
+            this.withoutEndAnchor = withoutEndAnchor;
+        }
+
+        @Override
+        protected List<RegularExpression> children(RegularExpression re) {
+
+            // the parser nests sequences and alternations to the right, one
+            // per element, so a whole chain is optimized as one node
+            if (re instanceof SequenceExpression) {
+                return chain(re, false);
+            }
+            if (re instanceof AlternationExpression) {
+                return chain(re, true);
+            }
+            return super.children(re);
+        }
+
+        @Override
+        protected RegularExpression combine(RegularExpression re, List<RegularExpression> parts) {
+
+            if (re instanceof ByteClassExpression) {
+                ByteClassExpression bc = (ByteClassExpression)re;
+                return bc.size() == 1 ? new LiteralByte(bc.first()) : bc;
+            }
+
+            if (re instanceof SequenceExpression || re instanceof ConcatenationExpression) {
+                return concatenate(parts);
+            }
+
+            if (re instanceof AlternationExpression) {
+                return alternate(parts);
+            }
+
+            if (re instanceof RepetitionExpression) {
+                return optimizeRepetition((RepetitionExpression)re, parts.get(0));
+            }
+
+            // a group is kept so its span can still be recorded, and nothing
+            // is moved into or out of it
+            if (re instanceof CaptureGroup) {
+                return new CaptureGroup(parts.get(0), ((CaptureGroup)re).getNumber());
+            }
+
+            if (withoutEndAnchor && re instanceof Anchor && !((Anchor)re).isStart()) {
+                return ByteClassExpression.none();
+            }
+
+            // literals are already as simple as they get
+            return re;
+        }
+    }
+
+    /**
+     * Flattens nested concatenations and merges adjacent literal bytes.
+     */
+    private static RegularExpression concatenate(List<RegularExpression> parts) {
+
+        List<RegularExpression> flat = new ArrayList<>();
+        for (RegularExpression part : parts) {
+            if (part instanceof ConcatenationExpression) {
+                flat.addAll(((ConcatenationExpression)part).getExpressions());
+            } else {
+                flat.add(part);
+            }
+        }
+
+        List<RegularExpression> merged = new ArrayList<>();
+        int i = 0;
+        while (i < flat.size()) {
+            int j = i;
+            int length = 0;
+            while (j < flat.size() && literalLength(flat.get(j)) > 0) {
+                length += literalLength(flat.get(j));
+                j++;
+            }
+            if (j - i > 1) {
+                byte[] bytes = new byte[length];
+                int at = 0;
+                for (int k = i; k < j; k++) {
+                    at = copyLiteral(flat.get(k), bytes, at);
+                }
+                merged.add(new LiteralString(bytes));
+                i = j;
+            } else {
+                merged.add(flat.get(i++));
+            }
+        }
+
+        return merged.size() == 1 ? merged.get(0) : new ConcatenationExpression(merged);
+    }
+
+    private static int literalLength(RegularExpression re) {
+        if (re instanceof LiteralByte) {
+            return 1;
+        }
+        if (re instanceof LiteralString) {
+            return ((LiteralString)re).length();
+        }
+        return 0;
+    }
+
+    private static int copyLiteral(RegularExpression re, byte[] bytes, int at) {
+        if (re instanceof LiteralByte) {
+            bytes[at] = ((LiteralByte)re).getLiteralByte();
+            return at + 1;
+        }
+        byte[] literal = ((LiteralString)re).getBytes();
+        System.arraycopy(literal, 0, bytes, at, literal.length);
+        return at + literal.length;
+    }
+
+    /**
+     * Factors shared leading bytes out of neighbouring alternatives and then
+     * merges neighbouring single byte alternatives into classes.
+     */
+    private static RegularExpression alternate(List<RegularExpression> alternatives) {
+
+        // factor out the leading byte shared by a run of alternatives; an
+        // alternative that is only that byte can only end the run, where it
+        // makes the rest optional
+        List<RegularExpression> factored = new ArrayList<>();
+        int i = 0;
+        while (i < alternatives.size()) {
+            RegularExpression head = head(alternatives.get(i));
+            int j = i + 1;
+            if (head != null) {
+                while (j < alternatives.size() && tail(alternatives.get(j - 1)) != null
+                        && head.equals(head(alternatives.get(j)))) {
+                    j++;
+                }
+            }
+            if (j - i < 2) {
+                factored.add(alternatives.get(i++));
+                continue;
+            }
+
+            List<RegularExpression> tails = new ArrayList<>();
+            for (int k = i; k < j; k++) {
+                RegularExpression tail = tail(alternatives.get(k));
+                if (tail != null) {
+                    tails.add(tail);
+                }
+            }
+            RegularExpression rest = alternate(tails);
+            if (tails.size() < j - i) {
+                rest = new ZeroOrOne(rest);
+            }
+            List<RegularExpression> parts = new ArrayList<>();
+            parts.add(head);
+            parts.add(rest);
+            factored.add(concatenate(parts));
+            i = j;
+        }
+
+        // merge runs of single byte alternatives; they all match one byte so
+        // their order doesn't matter
+        List<RegularExpression> merged = new ArrayList<>();
+        for (RegularExpression alternative : factored) {
+            ByteClassExpression bc = toClass(alternative);
+            int last = merged.size() - 1;
+            ByteClassExpression previous = last >= 0 ? toClass(merged.get(last)) : null;
+            if (bc != null && previous != null) {
+                merged.set(last, optimize(previous.union(bc)));
+            } else {
+                merged.add(alternative);
+            }
+        }
+
+        // rebuild the alternation nested to the right as the parser does
+        RegularExpression result = merged.get(merged.size() - 1);
+        for (int k = merged.size() - 2; k >= 0; k--) {
+            result = new AlternationExpression(merged.get(k), result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the single byte or byte class the expression starts with, or
+     * null if it doesn't start with one
+     */
+    private static RegularExpression head(RegularExpression re) {
+        if (re instanceof LiteralByte || re instanceof ByteClassExpression) {
+            return re;
+        }
+        if (re instanceof LiteralString) {
+            return new LiteralByte(((LiteralString)re).byteAt(0));
+        }
+        if (re instanceof ConcatenationExpression) {
+            return head(((ConcatenationExpression)re).getExpressions().get(0));
+        }
+        return null;
+    }
+
+    /**
+     * @return what follows the head of the expression, or null if nothing
+     * does
+     */
+    private static RegularExpression tail(RegularExpression re) {
+        if (re instanceof LiteralString) {
+            byte[] bytes = ((LiteralString)re).getBytes();
+            if (bytes.length == 2) {
+                return new LiteralByte(bytes[1]);
+            }
+            byte[] rest = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, rest, 0, rest.length);
+            return new LiteralString(rest);
+        }
+        if (re instanceof ConcatenationExpression) {
+            List<RegularExpression> parts = ((ConcatenationExpression)re).getExpressions();
+            List<RegularExpression> rest = new ArrayList<>();
+            RegularExpression first = tail(parts.get(0));
+            if (first != null) {
+                rest.add(first);
+            }
+            rest.addAll(parts.subList(1, parts.size()));
+            return concatenate(rest);
+        }
+        return null;
+    }
+
+    private static ByteClassExpression toClass(RegularExpression re) {
+        if (re instanceof ByteClassExpression) {
+            return (ByteClassExpression)re;
+        }
+        if (re instanceof LiteralByte) {
+            int b = ((LiteralByte)re).getLiteralByte() & 0xFF;
+            return new ByteClassExpression(b, b);
+        }
+        return null;
+    }
+
+    /**
+     * @param re the repetition
+     * @param expr the optimized expression it repeats
+     */
+    private static RegularExpression optimizeRepetition(RepetitionExpression re, RegularExpression expr) {
+
+        int min = re.getMinMatches();
+        int max = re.getMaxMatches();
+        if (min == 1 && max == 1) {
+            return expr;
+        }
+
+        // a *, + or ? of a *, + or ? is the inner one if they are the same
+        // and otherwise a *; lazy ones are left alone since collapsing them
+        // could change which match is preferred
+        if (isSimple(min, max) && expr instanceof RepetitionExpression && re.isGreedy()) {
+            RepetitionExpression inner = (RepetitionExpression)expr;
+            if (inner.isGreedy() && isSimple(inner.getMinMatches(), inner.getMaxMatches())
+                    && !matchesEmpty(inner.getExpression())) {
+                if (inner.getMinMatches() == min && inner.getMaxMatches() == max) {
+                    return inner;
+                }
+                return new ZeroOrMore(inner.getExpression());
+            }
+        }
+
+        return new RepetitionExpression(expr, min, max, re.isGreedy());
+    }
+
+    private static boolean matchesEmpty(RegularExpression re) {
+        return MATCHES_EMPTY.fold(re);
+    }
+
+    private static final ExpressionFold<Boolean> MATCHES_EMPTY = new ExpressionFold<Boolean>() {
+
+        @Override
+        protected Boolean combine(RegularExpression re, List<Boolean> parts) {
+            if (re instanceof SequenceExpression || re instanceof ConcatenationExpression) {
+                return !parts.contains(Boolean.FALSE);
+            }
+            if (re instanceof AlternationExpression) {
+                return parts.contains(Boolean.TRUE);
+            }
+            if (re instanceof RepetitionExpression) {
+                return ((RepetitionExpression)re).getMinMatches() == 0 || parts.get(0);
+            }
+            if (re instanceof CaptureGroup) {
+                return parts.get(0);
+            }
+            return re instanceof Anchor;
+        }
+    };
+
+    private static boolean isSimple(int min, int max) {
+        return min == 0 && max == 1
+                || min == 0 && max == RepetitionExpression.UNBOUNDED
+                || min == 1 && max == RepetitionExpression.UNBOUNDED;
+    }
+
+}
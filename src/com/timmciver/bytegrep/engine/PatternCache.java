@@ -0,0 +1,142 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.parser.Parser;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of CompiledPatterns keyed by their regular expression source, so a
+ * service that sees the same patterns over and over parses and optimizes each
+ * of them once.  The least recently used pattern is evicted once the cache
+ * holds maxSize of them.  Patterns are parsed with the parser the cache was
+ * created with, so a cache should be kept per parser configuration.
+ *
+ * The cache is thread safe.  A pattern is compiled outside the lock so a slow
+ * compile doesn't hold up lookups of other patterns; if two threads miss on
+ * the same source at once both compile it and the first one stored wins.
+ * @author tim
+ */
+public final class PatternCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final Parser parser;
+    private final int maxSize;
+    private final LinkedHashMap<String, CompiledPattern> patterns;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PatternCache() {
+        this(DEFAULT_MAX_SIZE, new DefaultParser());
+    }
+
+    /**
+     * @param maxSize the most patterns to keep
+     * @param parser the parser to parse patterns with; it must be thread safe
+     */
+    public PatternCache(int maxSize, Parser parser) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be positive.");
+        }
+        this.parser = parser;
+        this.maxSize = maxSize;
+
+        // access ordered so the eldest entry is the least recently used
+        this.patterns = new LinkedHashMap<String, CompiledPattern>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledPattern> eldest) {
+                if (size() > PatternCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the compiled pattern for the given source, parsing and compiling
+     * it if it isn't cached.
+     * @param source the regular expression
+     * @return the compiled pattern
+     * @throws IOException if the source could not be parsed; failures are not
+     * cached
+     */
+    public CompiledPattern get(String source) throws IOException {
+
+        synchronized (this) {
+            CompiledPattern pattern = patterns.get(source);
+            if (pattern != null) {
+                hits++;
+                return pattern;
+            }
+            misses++;
+        }
+
+        CompiledPattern compiled = CompiledPattern.compile(parser.parse(source));
+
+        synchronized (this) {
+            CompiledPattern pattern = patterns.get(source);
+            if (pattern != null) {
+                return pattern;
+            }
+            patterns.put(source, compiled);
+            return compiled;
+        }
+    }
+
+    /**
+     * @return the number of lookups that found the pattern cached
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that had to compile the pattern
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of patterns evicted to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, or 0 before any lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    /**
+     * @return the number of patterns cached
+     */
+    public synchronized int size() {
+        return patterns.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Empties the cache and resets the statistics.
+     */
+    public synchronized void clear() {
+        patterns.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import java.util.List;
+
+/**
+ * A set of RegularExpressions compiled to be searched for together in a
+ * single pass.  Each expression's pattern id is its index in the list it was
+ * compiled from.  Expressions that only ever match one byte string are found
+ * with an Aho-Corasick automaton; the rest are compiled into a single union
+ * program.  The anchors ^ and $ are not supported.  A PatternSet is
+ * immutable and may be shared between threads; each thread should create its
+ * own MultiMatcher from it.
+ * @author tim
+ */
+public final class PatternSet {
+
+    private final RegularExpression[] expressions;
+    private final AhoCorasick literals;
+    private final int numLiterals;
+    private final Program union;
+    private final Program[] reversePrograms;
+    private final int maxLength;
+
+    private PatternSet(List<RegularExpression> res) {
+
+        int n = res.size();
+        this.expressions = new RegularExpression[n];
+        for (int i = 0; i < n; i++) {
+            expressions[i] = Optimizer.optimize(res.get(i));
+        }
+
+        // split the expressions into literals and the rest
+        LiteralAnalysis[] analyses = new LiteralAnalysis[n];
+        int literalCount = 0;
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            analyses[i] = LiteralAnalysis.analyze(expressions[i]);
+            if (analyses[i].hasStartAnchor() || analyses[i].hasEndAnchor()) {
+                throw new IllegalArgumentException("Pattern " + i + " has an anchor, which pattern sets do not support.");
+            }
+            if (isLiteral(analyses[i])) {
+                literalCount++;
+            }
+            int length = analyses[i].getMaxLength();
+            max = max == LiteralAnalysis.UNBOUNDED || length == LiteralAnalysis.UNBOUNDED
+                    ? LiteralAnalysis.UNBOUNDED : Math.max(max, length);
+        }
+        this.numLiterals = literalCount;
+        this.maxLength = max;
+
+        byte[][] literalBytes = new byte[literalCount][];
+        int[] literalIds = new int[literalCount];
+        RegularExpression[] others = new RegularExpression[n - literalCount];
+        int[] otherIds = new int[n - literalCount];
+        this.reversePrograms = new Program[n];
+        int l = 0;
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLiteral(analyses[i])) {
+                literalBytes[l] = analyses[i].getPrefix();
+                literalIds[l++] = i;
+            } else {
+                others[o] = expressions[i];
+                otherIds[o++] = i;
+                reversePrograms[i] = Compiler.compileReverse(expressions[i]);
+            }
+        }
+
+        this.literals = literalCount == 0 ? null : new AhoCorasick(literalBytes, literalIds, n);
+        this.union = others.length == 0 ? null : Compiler.compileUnion(others, otherIds);
+    }
+
+    /**
+     * Compiles the given RegularExpressions.
+     * @param res the expressions to compile; the pattern id of each is its
+     * index in the list
+     * @return the compiled set
+     * @throws IllegalArgumentException if there are no expressions or one of
+     * them has an anchor
+     */
+    public static PatternSet compile(List<RegularExpression> res) {
+        if (res.isEmpty()) {
+            throw new IllegalArgumentException("A pattern set needs at least one pattern.");
+        }
+        return new PatternSet(res);
+    }
+
+    /**
+     * Creates a new MultiMatcher for this set.
+     * @param type the kind of automaton to run the non-literal patterns on;
+     * either NFA or DFA
+     * @param listener receives the matches
+     * @return the new matcher
+     */
+    public MultiMatcher newMatcher(EngineType type, MultiMatchListener listener) {
+        return newMatcher(type, listener, null);
+    }
+
+    /**
+     * Creates a new MultiMatcher for this set whose streams are limited by
+     * the given budget.
+     * @param type the kind of automaton to run the non-literal patterns on;
+     * either NFA or DFA
+     * @param listener receives the matches
+     * @param budget the limits on each stream, or null for none
+     * @return the new matcher
+     */
+    public MultiMatcher newMatcher(EngineType type, MultiMatchListener listener, SearchBudget budget) {
+        return new MultiMatcher(this, type, MultiMatcher.DEFAULT_MAX_MATCH_LENGTH, listener, budget);
+    }
+
+    /**
+     * @return the number of patterns in the set
+     */
+    public int size() {
+        return expressions.length;
+    }
+
+    /**
+     * @return the optimized expression with the given pattern id
+     */
+    public RegularExpression getExpression(int id) {
+        return expressions[id];
+    }
+
+    /**
+     * @return the number of patterns found with the Aho-Corasick automaton
+     */
+    public int getNumLiterals() {
+        return numLiterals;
+    }
+
+    /**
+     * @return the maximum length of a match of any pattern or
+     * LiteralAnalysis.UNBOUNDED
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    AhoCorasick getLiterals() {
+        return literals;
+    }
+
+    Program getUnion() {
+        return union;
+    }
+
+    Program getReverseProgram(int id) {
+        return reversePrograms[id];
+    }
+
+    private static boolean isLiteral(LiteralAnalysis analysis) {
+        return analysis.isExact() && analysis.getMinLength() > 0;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.timmciver.bytegrep.engine;
+
+import java.util.Arrays;
+
+/**
+ * An Engine that simulates a Program's NFA in lockstep over the input (the
+ * "Pike VM").  Every NFA state is tracked at most once per input offset so a
+ * search takes time proportional to the length of the input times the size
+ * of the program, and no backtracking is ever needed.  Threads are kept in
+ * priority order which gives leftmost-first (Perl-like) match semantics:
+ * alternatives are preferred from left to right and the quantifiers are
+ * greedy.  The input starts at offset zero of the data and ends at the offset
+ * the search is told it ends at, which is where ^ and $ match.  A PikeVM
+ * created with a SearchBudget charges it a step for every thread it moves on.
+ * @author tim
+ */
+public class PikeVM implements Engine {
+
+    private final Program prog;
+    private final int numSlots;
+    private final SearchBudget budget;
+
+    private ThreadList clist;
+    private ThreadList nlist;
+
+    // the capture slots of the thread being added
+    private final int[] cap;
+
+    // the capture slots of the best match found so far
+    private final int[] matchCap;
+
+    // the stack used to follow empty transitions; entries >= 0 are program
+    // counters, entries < 0 restore capture slot (-1 - entry) to the value
+    // held in stackVal
+    private final int[] stack;
+    private final int[] stackVal;
+
+    // the end of the input of the current search
+    private int to;
+
+    public PikeVM(Program prog) {
+        this(prog, null);
+    }
+
+    /**
+     * @param prog the program to run
+     * @param budget the budget to charge, or null for no limits
+     */
+    public PikeVM(Program prog, SearchBudget budget) {
+        this.prog = prog;
+        this.numSlots = prog.numSlots;
+        this.budget = budget;
+        this.clist = new ThreadList(prog.size(), numSlots);
+        this.nlist = new ThreadList(prog.size(), numSlots);
+        this.cap = new int[numSlots];
+        this.matchCap = new int[numSlots];
+        this.stack = new int[2 * prog.size() + 1];
+        this.stackVal = new int[2 * prog.size() + 1];
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        return search(data, from, to, false, span);
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        return search(data, at, to, true, span);
+    }
+
+    private boolean search(byte[] data, int from, int to, boolean anchored, int[] span) {
+
+        if (from > to) {
+            return false;
+        }
+
+        int[] opcodes = prog.opcodes;
+        boolean matched = false;
+        this.to = to;
+        clist.clear();
+
+        for (int pos = from; ; pos++) {
+
+            // start a new thread at this offset unless a match has already been
+            // found; it has a lower priority than every thread started earlier
+            if (!matched && (!anchored || pos == from)) {
+                Arrays.fill(cap, -1);
+                addThread(clist, 0, pos);
+            }
+
+            if (clist.size == 0) {
+                break;
+            }
+
+            int b = pos < to ? data[pos] & 0xFF : -1;
+            nlist.clear();
+            for (int i = 0; i < clist.size; i++) {
+                int pc = clist.dense[i];
+                int opcode = opcodes[pc];
+                if (opcode == Program.BYTE || opcode == Program.CLASS) {
+                    if (prog.accepts(pc, b)) {
+                        System.arraycopy(clist.slots, i * numSlots, cap, 0, numSlots);
+                        addThread(nlist, pc + 1, pos + 1);
+                    }
+                } else if (opcode == Program.MATCH) {
+                    matched = true;
+                    System.arraycopy(clist.slots, i * numSlots, matchCap, 0, numSlots);
+
+                    // threads after this one have a lower priority so they
+                    // can be dropped
+                    break;
+                }
+            }
+            if (budget != null) {
+                budget.charge(clist.size + 1);
+            }
+
+            ThreadList tmp = clist;
+            clist = nlist;
+            nlist = tmp;
+
+            if (pos >= to) {
+                break;
+            }
+        }
+
+        if (matched) {
+            // the slots of groups that aren't in the program are left unset
+            int n = Math.min(span.length, numSlots);
+            System.arraycopy(matchCap, 0, span, 0, n);
+            Arrays.fill(span, n, span.length, -1);
+        }
+
+        return matched;
+    }
+
+    /**
+     * Adds the thread at pc to the list along with every thread reachable from
+     * it without consuming input.  The capture slots of the new thread are
+     * taken from cap.
+     */
+    private void addThread(ThreadList list, int pc, int pos) {
+
+        int[] opcodes = prog.opcodes;
+        int[] arg1 = prog.arg1;
+        int[] arg2 = prog.arg2;
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            int entry = stack[--top];
+            if (entry < 0) {
+                cap[-1 - entry] = stackVal[top];
+                continue;
+            }
+
+            pc = entry;
+            while (!list.contains(pc)) {
+                int i = list.add(pc);
+                int opcode = opcodes[pc];
+                if (opcode == Program.JMP) {
+                    pc = arg1[pc];
+                } else if (opcode == Program.SPLIT) {
+                    stack[top++] = arg2[pc];
+                    pc = arg1[pc];
+                } else if (opcode == Program.SAVE) {
+                    int slot = arg1[pc];
+                    if (slot < numSlots) {
+                        stackVal[top] = cap[slot];
+                        stack[top++] = -1 - slot;
+                        cap[slot] = pos;
+                    }
+                    pc++;
+                } else if (opcode == Program.ASSERT) {
+                    if (!(arg1[pc] == Program.TEXT_START ? pos == 0 : pos == to)) {
+                        break;
+                    }
+                    pc++;
+                } else {
+                    // a thread that consumes input or matches
+                    System.arraycopy(cap, 0, list.slots, i * numSlots, numSlots);
+                    break;
+                }
+            }
+        }
+    }
+
+}
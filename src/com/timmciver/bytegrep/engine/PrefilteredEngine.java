@@ -0,0 +1,112 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import com.timmciver.bytegrep.prefilter.Prefilter;
+
+/**
+ * An Engine that uses a Prefilter to jump to the offsets at which a match
+ * could start and only runs another Engine there.  Patterns that match a
+ * single literal string don't need the other engine at all.  If the
+ * candidates turn out to be so dense that the prefilter is not paying for
+ * itself the rest of the input is handed to the other engine.
+ * @author tim
+ */
+public class PrefilteredEngine implements Engine {
+
+    // give up on the prefilter once this many candidates have been seen with
+    // fewer than MIN_SKIP bytes skipped per candidate on average
+    private static final int MIN_CANDIDATES = 64;
+    private static final int MIN_SKIP = 16;
+
+    private final Engine engine;
+    private final Prefilter prefilter;
+    private final LiteralAnalysis analysis;
+    private final byte[] exactString;
+    private final EngineStats stats;
+
+    public PrefilteredEngine(Engine engine, Prefilter prefilter, LiteralAnalysis analysis) {
+        this(engine, prefilter, analysis, null);
+    }
+
+    /**
+     * @param engine the engine to run at the candidates
+     * @param prefilter the prefilter that finds the candidates
+     * @param analysis the analysis the prefilter was made from
+     * @param stats the stats to count the candidates in, or null
+     */
+    public PrefilteredEngine(Engine engine, Prefilter prefilter, LiteralAnalysis analysis, EngineStats stats) {
+        this.engine = engine;
+        this.prefilter = prefilter;
+        this.analysis = analysis;
+        this.exactString = analysis.isExact() ? analysis.getPrefix() : null;
+        this.stats = stats;
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+
+        int pos = from;
+        int numCandidates = 0;
+
+        while (pos <= to) {
+            int candidate = prefilter.next(data, pos, to);
+            if (candidate < 0) {
+                return false;
+            }
+
+            boolean found = matchAt(data, candidate, to, span);
+            if (stats != null) {
+                stats.numCandidates++;
+                if (found) {
+                    stats.numConfirmed++;
+                }
+            }
+            if (found) {
+                return true;
+            }
+            pos = candidate + 1;
+
+            numCandidates++;
+            if (numCandidates >= MIN_CANDIDATES && pos - from < numCandidates * MIN_SKIP) {
+                found = engine.find(data, pos, to, span);
+                if (stats != null) {
+                    // the engine tries every offset up to the match, or to
+                    // the end if there is none, so each is counted as a
+                    // candidate the prefilter failed to rule out
+                    stats.numBypasses++;
+                    stats.numCandidates += (found ? span[0] : to) - pos + 1;
+                    if (found) {
+                        stats.numConfirmed++;
+                    }
+                }
+                return found;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+
+        // check the required bytes before running the engine
+        int numRequired = analysis.getNumRequired();
+        if (numRequired > 0 && at + analysis.getRequiredOffset(numRequired - 1) >= to) {
+            return false;
+        }
+        for (int i = 0; i < numRequired; i++) {
+            if (data[at + analysis.getRequiredOffset(i)] != analysis.getRequiredByte(i)) {
+                return false;
+            }
+        }
+
+        if (exactString != null) {
+            span[0] = at;
+            span[1] = at + exactString.length;
+            return true;
+        }
+
+        return engine.matchAt(data, at, to, span);
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * A RegularExpression compiled to a Thompson NFA.  The NFA is stored as a
+ * flat list of instructions; instruction i is described by opcodes[i] and its
+ * operands arg1[i] and arg2[i].  Programs are immutable and may be shared
+ * between threads.
+ * @author tim
+ */
+public final class Program {
+
+    /**
+     * Consumes one byte if it equals arg1.  Continues at the next instruction.
+     */
+    public static final int BYTE = 0;
+
+    /**
+     * Continues at both arg1 and arg2.  The thread continuing at arg1 has the
+     * higher priority.
+     */
+    public static final int SPLIT = 1;
+
+    /**
+     * Continues at arg1.
+     */
+    public static final int JMP = 2;
+
+    /**
+     * Records the current offset in capture slot arg1.  Continues at the next
+     * instruction.
+     */
+    public static final int SAVE = 3;
+
+    /**
+     * The input has been matched.  arg1 is the id of the pattern matched,
+     * which is zero unless the program is a union of several patterns.
+     */
+    public static final int MATCH = 4;
+
+    /**
+     * Consumes one byte if it is in byte class arg1.  Continues at the next
+     * instruction.
+     */
+    public static final int CLASS = 5;
+
+    /**
+     * Continues at the next instruction if the current offset is the start
+     * (arg1 is TEXT_START) or the end (arg1 is TEXT_END) of the input.
+     */
+    public static final int ASSERT = 6;
+
+    /**
+     * The arg1 of an ASSERT that holds at offset zero of the input.
+     */
+    public static final int TEXT_START = 0;
+
+    /**
+     * The arg1 of an ASSERT that holds where the input ends.
+     */
+    public static final int TEXT_END = 1;
+
+    final int[] opcodes;
+    final int[] arg1;
+    final int[] arg2;
+    final int numSlots;
+
+    // the 256 bit bitset of class i is in classes[4 * i] to classes[4 * i + 3]
+    final long[] classes;
+
+    private final boolean asserts;
+
+    Program(int[] opcodes, int[] arg1, int[] arg2, int numSlots, long[] classes) {
+        this.opcodes = opcodes;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.numSlots = numSlots;
+        this.classes = classes;
+
+        boolean found = false;
+        for (int opcode : opcodes) {
+            found |= opcode == ASSERT;
+        }
+        this.asserts = found;
+    }
+
+    /**
+     * @return the number of instructions in this program
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * @return the number of capture slots used by this program; slots 0 and 1
+     * hold the start and end of the overall match.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return true if the program has an ASSERT instruction
+     */
+    public boolean hasAsserts() {
+        return asserts;
+    }
+
+    public int getOpcode(int pc) {
+        return opcodes[pc];
+    }
+
+    public int getArg1(int pc) {
+        return arg1[pc];
+    }
+
+    public int getArg2(int pc) {
+        return arg2[pc];
+    }
+
+    /**
+     * @param pc a BYTE or CLASS instruction
+     * @param b the next byte, 0 to 255, or -1 at the end of the input
+     * @return true if the instruction consumes the byte
+     */
+    public boolean accepts(int pc, int b) {
+        if (opcodes[pc] == BYTE) {
+            return arg1[pc] == b;
+        }
+        return opcodes[pc] == CLASS && b >= 0
+                && (classes[(arg1[pc] << 2) | (b >>> 6)] & (1L << b)) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            sb.append(pc).append(": ");
+            switch (opcodes[pc]) {
+                case BYTE:
+                    sb.append(String.format("byte 0x%02X", arg1[pc]));
+                    break;
+                case SPLIT:
+                    sb.append("split ").append(arg1[pc]).append(", ").append(arg2[pc]);
+                    break;
+                case JMP:
+                    sb.append("jmp ").append(arg1[pc]);
+                    break;
+                case SAVE:
+                    sb.append("save ").append(arg1[pc]);
+                    break;
+                case MATCH:
+                    sb.append("match ").append(arg1[pc]);
+                    break;
+                case CLASS:
+                    sb.append("class ").append(arg1[pc]);
+                    break;
+                case ASSERT:
+                    sb.append(arg1[pc] == TEXT_START ? "assert start" : "assert end");
+                    break;
+                default:
+                    sb.append("unknown ").append(opcodes[pc]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * Thrown by a search that ran out of its SearchBudget or was cancelled.  It
+ * says why the search stopped and how far it got: a scanner that catches it
+ * from an engine throws a new one saying how many matches it had already
+ * reported and the offset before which every match has been reported.
+ * @author tim
+ */
+public class SearchAbortedException extends RuntimeException {
+
+    /**
+     * Why a search stopped.
+     */
+    public enum Reason {
+        /** it took more than its budget's maximum number of steps */
+        STEPS,
+        /** it ran for longer than its budget's timeout */
+        TIMEOUT,
+        /** its budget's CancellationToken was cancelled */
+        CANCELLED
+    }
+
+    private final Reason reason;
+    private final long steps;
+    private final long numMatches;
+    private final long searchedTo;
+
+    /**
+     * @param reason why the search stopped
+     * @param steps the number of steps taken
+     */
+    public SearchAbortedException(Reason reason, long steps) {
+        this(reason, steps, -1, -1);
+    }
+
+    /**
+     * Adds how far a scan got to the exception thrown by its engine.
+     * @param cause the exception thrown by the engine
+     * @param numMatches the number of matches reported before it stopped
+     * @param searchedTo the offset before which every match was reported
+     */
+    public SearchAbortedException(SearchAbortedException cause, long numMatches, long searchedTo) {
+        this(cause.reason, cause.steps, numMatches, searchedTo);
+        initCause(cause);
+    }
+
+    private SearchAbortedException(Reason reason, long steps, long numMatches, long searchedTo) {
+        super("Search stopped (" + reason + ") after " + steps + " steps"
+                + (numMatches < 0 ? "" : ", " + numMatches + " matches and " + searchedTo + " bytes"));
+        this.reason = reason;
+        this.steps = steps;
+        this.numMatches = numMatches;
+        this.searchedTo = searchedTo;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the number of steps taken when the search stopped
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of matches reported before the search stopped, or
+     * -1 if this was thrown by an engine
+     */
+    public long getNumMatches() {
+        return numMatches;
+    }
+
+    /**
+     * @return the offset before which every match has been reported, or -1
+     * if this was thrown by an engine
+     */
+    public long getSearchedTo() {
+        return searchedTo;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * Limits on the work one search may do, for patterns that can't be trusted
+ * to be cheap.  A budget limits the number of steps taken, the time taken
+ * and the memory used by a LazyDFA's state cache, and can hold a
+ * CancellationToken.  Engines created with a budget charge it as they go: a
+ * step is a byte scanned by a DFA, a thread moved on by the PikeVM, an
+ * instruction tried by the backtracker, or an offset the tree engine tries
+ * and a byte of the match it finds there.  The limits and the token are
+ * checked every CHECK_INTERVAL steps, and a search that has run out of budget
+ * throws a SearchAbortedException.
+ *
+ * The step count and the clock run from when the budget is created or last
+ * started.  A budget is charged by the engines of one thread only and is not
+ * thread safe; a search on several threads gives each a copy, which shares
+ * the limits and the token.
+ * @author tim
+ */
+public final class SearchBudget {
+
+    /**
+     * A limit that is never reached.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * The number of steps taken between checks of the limits and the token.
+     */
+    public static final int CHECK_INTERVAL = 4096;
+
+    private final long maxSteps;
+    private final long maxCacheBytes;
+    private final long timeoutNanos;
+    private final CancellationToken token;
+
+    private long steps;
+    private long nextCheck;
+    private long deadline;
+
+    /**
+     * @param maxSteps the most steps a search may take, or UNLIMITED
+     * @param maxCacheBytes the most memory a LazyDFA may use for its states,
+     * or UNLIMITED for the default cache size
+     * @param timeoutMillis the longest a search may run, or UNLIMITED
+     * @param token a token that stops the search when it is cancelled, or
+     * null
+     */
+    public SearchBudget(long maxSteps, long maxCacheBytes, long timeoutMillis, CancellationToken token) {
+        if (maxSteps < 0 || maxCacheBytes < 0 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("Search limits must not be negative.");
+        }
+        this.maxSteps = maxSteps;
+        this.maxCacheBytes = maxCacheBytes;
+        this.timeoutNanos = timeoutMillis == UNLIMITED || timeoutMillis > Long.MAX_VALUE / 1000000
+                ? UNLIMITED : timeoutMillis * 1000000;
+        this.token = token;
+        start();
+    }
+
+    /**
+     * Sets the step count back to zero and restarts the clock, so the budget
+     * can be used for another search.
+     */
+    public void start() {
+        steps = 0;
+        nextCheck = Math.min(CHECK_INTERVAL, maxSteps);
+        deadline = timeoutNanos == UNLIMITED ? 0 : System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * Records that a number of steps have been taken, checking the limits
+     * and the token if enough have been taken since they were last checked.
+     * @param n the number of steps
+     * @throws SearchAbortedException if the search has run out of budget or
+     * has been cancelled
+     */
+    public void charge(long n) {
+        steps += n;
+        if (steps >= nextCheck) {
+            check();
+        }
+    }
+
+    /**
+     * Checks the limits and the token now.
+     * @throws SearchAbortedException if the search has run out of budget or
+     * has been cancelled
+     */
+    public void check() {
+        if (token != null && token.isCancelled()) {
+            throw new SearchAbortedException(SearchAbortedException.Reason.CANCELLED, steps);
+        }
+        if (steps > maxSteps) {
+            throw new SearchAbortedException(SearchAbortedException.Reason.STEPS, steps);
+        }
+        if (timeoutNanos != UNLIMITED && System.nanoTime() - deadline > 0) {
+            throw new SearchAbortedException(SearchAbortedException.Reason.TIMEOUT, steps);
+        }
+        nextCheck = steps > maxSteps - CHECK_INTERVAL ? maxSteps + 1 : steps + CHECK_INTERVAL;
+    }
+
+    /**
+     * @return a new budget with the same limits and token, started now
+     */
+    public SearchBudget copy() {
+        return new SearchBudget(maxSteps, maxCacheBytes,
+                timeoutNanos == UNLIMITED ? UNLIMITED : timeoutNanos / 1000000, token);
+    }
+
+    /**
+     * @return the number of steps taken since the budget was started
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.timmciver.bytegrep.engine;
+
+/**
+ * An ordered set of NFA threads keyed by program counter.  Membership tests,
+ * insertion and clearing are all constant time (this is the sparse set
+ * described by Briggs and Torczon).  Each thread has a row of capture slots.
+ * @author tim
+ */
+final class ThreadList {
+
+    final int[] sparse;
+    final int[] dense;
+    final int[] slots;
+    final int numSlots;
+    int size;
+
+    ThreadList(int programSize, int numSlots) {
+        this.sparse = new int[programSize];
+        this.dense = new int[programSize];
+        this.slots = new int[programSize * numSlots];
+        this.numSlots = numSlots;
+    }
+
+    boolean contains(int pc) {
+        int i = sparse[pc];
+        return i < size && dense[i] == pc;
+    }
+
+    /**
+     * Adds the given pc which must not already be in the list.
+     * @return the index of the newly added thread
+     */
+    int add(int pc) {
+        sparse[pc] = size;
+        dense[size] = pc;
+        return size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.trace.Tracer;
+
+/**
+ * An Engine that tells a Tracer about every search another Engine makes.  It
+ * is only put in front of the engines of a pattern compiled with a Tracer, so
+ * patterns that aren't being traced don't pay for it.
+ * @author tim
+ */
+class TracingEngine implements Engine {
+
+    private final Engine engine;
+    private final EngineType type;
+    private final Tracer tracer;
+
+    TracingEngine(Engine engine, EngineType type, Tracer tracer) {
+        this.engine = engine;
+        this.type = type;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        boolean found = engine.find(data, from, to, span);
+        tracer.onSearch(type, false, from, to, found ? span[0] : -1, found ? span[1] : -1);
+        return found;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        boolean found = engine.matchAt(data, at, to, span);
+        tracer.onSearch(type, true, at, to, found ? span[0] : -1, found ? span[1] : -1);
+        return found;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.timmciver.bytegrep.engine;
+
+import com.timmciver.bytegrep.RegularExpression;
+
+/**
+ * An Engine that interprets the RegularExpression tree directly, trying it at
+ * each offset in turn.  Its matching is greedy and does not backtrack so it
+ * misses some matches the other engines find; it is kept for comparison.  A
+ * TreeEngine created with a SearchBudget charges it a step for each offset
+ * it tries and one for each byte a match there spans, so that the budget's
+ * deadline and token are checked at least every CHECK_INTERVAL offsets.
+ * Trying an offset that fails can examine the rest of the input, which the
+ * step count doesn't see; a budget with a timeout still stops such a search.
+ * @author tim
+ */
+public class TreeEngine implements Engine {
+
+    private final RegularExpression re;
+    private final SearchBudget budget;
+
+    public TreeEngine(RegularExpression re) {
+        this(re, null);
+    }
+
+    /**
+     * @param re the expression to match
+     * @param budget the budget to charge, or null for no limits
+     */
+    public TreeEngine(RegularExpression re, SearchBudget budget) {
+        this.re = re;
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean find(byte[] data, int from, int to, int[] span) {
+        for (int pos = from; pos <= to; pos++) {
+            if (matchAt(data, pos, to, span)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean matchAt(byte[] data, int at, int to, int[] span) {
+        int end = re.match(data, at, to);
+        if (budget != null) {
+            budget.charge(end < 0 ? 1 : end - at + 1);
+        }
+        if (end < 0) {
+            return false;
+        }
+        span[0] = at;
+        span[1] = end;
+        return true;
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.timmciver.bytegrep.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds an NgramIndex.  Each file added is cut into blocks of blockSize bytes
+ * and every trigram starting in a block, or in the overlap bytes after it,
+ * is recorded against the block.  A match no longer than the overlap that
+ * starts in a block therefore has all of its trigrams recorded against that
+ * block.
+ *
+ * Postings are collected in memory as (trigram, block) pairs and, whenever
+ * MAX_PAIRS of them have been collected, sorted and written to a temporary
+ * run file, so memory use does not depend on the size of the corpus.  close
+ * merges the runs into the index file, whose layout is described in
+ * NgramIndex.
+ * @author tim
+ */
+public final class IndexWriter implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_OVERLAP = 4096;
+
+    static final int MAGIC = 0x42474E49;
+    static final int VERSION = 1;
+
+    // the number of pairs held in memory before a run is written
+    private static final int MAX_PAIRS = 4 * 1024 * 1024;
+
+    private final Path indexFile;
+    private final int blockSize;
+    private final int overlap;
+
+    private final List<Path> files = new ArrayList<>();
+    private final List<long[]> fileInfo = new ArrayList<>();
+    private int numBlocks;
+
+    private final long[] pairs = new long[MAX_PAIRS];
+    private int numPairs;
+    private final List<Path> runs = new ArrayList<>();
+
+    // the trigrams seen in the current block, as a bitset and a list
+    private final long[] seen = new long[(1 << 24) / 64];
+    private int[] grams = new int[1024];
+    private int numGrams;
+
+    private final byte[] buffer;
+    private boolean closed;
+
+    public IndexWriter(Path indexFile) {
+        this(indexFile, DEFAULT_BLOCK_SIZE, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * @param indexFile the file to write the index to
+     * @param blockSize the number of bytes in a block
+     * @param overlap the number of bytes after a block whose trigrams are
+     * also recorded against it; matches up to this long can be narrowed down
+     * to blocks
+     */
+    public IndexWriter(Path indexFile, int blockSize, int overlap) {
+        if (blockSize < 1 || overlap < 0 || overlap > blockSize) {
+            throw new IllegalArgumentException("The overlap must be between 0 and the block size.");
+        }
+        this.indexFile = indexFile;
+        this.blockSize = blockSize;
+        this.overlap = overlap;
+        this.buffer = new byte[blockSize + overlap + 2];
+    }
+
+    /**
+     * Adds a file to the index.
+     * @param file the file
+     * @throws IOException if the file could not be read
+     */
+    public void add(Path file) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The index has been written.");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            int firstBlock = numBlocks;
+            long blocks = (length + blockSize - 1) / blockSize;
+            if (numBlocks + blocks > Integer.MAX_VALUE) {
+                throw new IOException("Too many blocks to index.");
+            }
+
+            // every block is read with its overlap and the two bytes needed
+            // to finish the trigrams starting at its end
+            for (long block = 0; block < blocks; block++) {
+                long start = block * blockSize;
+                int n = read(channel, start, (int)Math.min(buffer.length, length - start));
+                addBlock(numBlocks++, n);
+            }
+
+            files.add(file);
+            fileInfo.add(new long[]{length, lastModified, firstBlock});
+        }
+    }
+
+    private int read(FileChannel channel, long position, int count) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, count);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0) {
+                break;
+            }
+        }
+        return bb.position();
+    }
+
+    private void addBlock(int block, int length) throws IOException {
+
+        // collect the distinct trigrams
+        int gram = 0;
+        for (int i = 0; i < length; i++) {
+            gram = (gram << 8 | buffer[i] & 0xFF) & 0xFFFFFF;
+            if (i >= 2 && (seen[gram >>> 6] & 1L << gram) == 0) {
+                seen[gram >>> 6] |= 1L << gram;
+                if (numGrams == grams.length) {
+                    grams = Arrays.copyOf(grams, 2 * grams.length);
+                }
+                grams[numGrams++] = gram;
+            }
+        }
+
+        for (int i = 0; i < numGrams; i++) {
+            if (numPairs == pairs.length) {
+                writeRun();
+            }
+            pairs[numPairs++] = (long)grams[i] << 32 | block;
+            seen[grams[i] >>> 6] = 0;
+        }
+        numGrams = 0;
+    }
+
+    private void writeRun() throws IOException {
+        Arrays.sort(pairs, 0, numPairs);
+        Path run = Files.createTempFile("bytegrep", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (int i = 0; i < numPairs; i++) {
+                out.writeLong(pairs[i]);
+            }
+        }
+        numPairs = 0;
+    }
+
+    /**
+     * Writes the index file and deletes the temporary files.
+     * @throws IOException if the index could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (numPairs > 0) {
+                writeRun();
+            }
+            write();
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private void write() throws IOException {
+
+        Path directory = Files.createTempFile("bytegrep", ".dir");
+        try {
+            try (Output out = new Output(Files.newOutputStream(indexFile));
+                    Output dir = new Output(Files.newOutputStream(directory))) {
+
+                // the header and the table of files
+                out.data.writeInt(MAGIC);
+                out.data.writeInt(VERSION);
+                out.data.writeInt(blockSize);
+                out.data.writeInt(overlap);
+                out.data.writeInt(numBlocks);
+                out.data.writeInt(files.size());
+                for (int i = 0; i < files.size(); i++) {
+                    out.data.writeUTF(files.get(i).toAbsolutePath().toString());
+                    long[] info = fileInfo.get(i);
+                    out.data.writeLong(info[0]);
+                    out.data.writeLong(info[1]);
+                    out.data.writeInt((int)info[2]);
+                }
+
+                // the posting lists, merged from the runs with each block
+                // delta coded, and the directory of trigrams and where their
+                // lists start
+                PriorityQueue<RunReader> queue = new PriorityQueue<>();
+                for (Path run : runs) {
+                    RunReader reader = new RunReader(run);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                int numEntries = 0;
+                int current = -1;
+                int previous = -1;
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    int gram = (int)(reader.current >>> 32);
+                    int block = (int)reader.current;
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+
+                    if (gram != current) {
+                        dir.data.writeInt(gram);
+                        dir.data.writeLong(out.position());
+                        numEntries++;
+                        current = gram;
+                        previous = -1;
+                    }
+                    out.writeVarint(block - previous);
+                    previous = block;
+                }
+                dir.data.writeInt(0);
+                dir.data.writeLong(out.position());
+                dir.data.flush();
+
+                // the directory follows the lists, and its position and size
+                // end the file
+                long directoryPosition = out.position();
+                Files.copy(directory, out.data);
+                out.data.writeLong(directoryPosition);
+                out.data.writeInt(numEntries);
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static final class RunReader implements Comparable<RunReader> {
+
+        private final DataInputStream in;
+        long current;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                current = in.readLong();
+                return true;
+            } catch (EOFException ex) {
+                in.close();
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return Long.compare(current, other.current);
+        }
+    }
+
+    /**
+     * A buffered output stream that knows how many bytes have been written.
+     */
+    private static final class Output implements Closeable {
+
+        final DataOutputStream data;
+
+        Output(OutputStream out) {
+            this.data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024) {
+                @Override
+                public synchronized void write(int b) throws IOException {
+                    super.write(b);
+                    written++;
+                }
+
+                @Override
+                public synchronized void write(byte[] b, int off, int len) throws IOException {
+                    super.write(b, off, len);
+                    written += len;
+                }
+            });
+        }
+
+        private long written;
+
+        long position() {
+            return written;
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                data.write(value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            data.write(value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.timmciver.bytegrep.index;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import com.timmciver.bytegrep.scan.FileMatchListener;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Searches the files of an NgramIndex for a pattern, reading only the parts
+ * of them the index says could hold a match.  The pattern's trigram query is
+ * planned with QueryPlanner.  If no match of the pattern is longer than the
+ * index's overlap the query is answered block by block: a match starting in a
+ * block has all of its trigrams recorded against that block, so only the
+ * candidate blocks, and the overlap after each run of them, are scanned.
+ * Otherwise the query is answered for whole files and candidate files are
+ * scanned in full.  Files that have changed since they were indexed are
+ * always scanned in full.
+ *
+ * The matches found are those a FileScanner would find scanning each file
+ * from the start, as no match can start in a block that isn't scanned.
+ * @author tim
+ */
+public class IndexedSearcher {
+
+    private final NgramIndex index;
+    private final FileScanner scanner;
+    private final NgramQuery query;
+    private final boolean byBlock;
+
+    private long bytesScanned;
+    private int filesSkipped;
+
+    public IndexedSearcher(NgramIndex index, CompiledPattern pattern, EngineType engineType) {
+        this.index = index;
+        this.scanner = new FileScanner(pattern, engineType, MatchMode.NON_OVERLAPPING);
+        this.query = QueryPlanner.plan(pattern.getExpression());
+        int maxLength = pattern.getAnalysis().getMaxLength();
+        this.byBlock = maxLength != LiteralAnalysis.UNBOUNDED && maxLength <= index.getOverlap();
+    }
+
+    /**
+     * @return the trigram query the files are narrowed down with
+     */
+    public NgramQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Searches every file in the index, in the order they were indexed.
+     * @param listener receives the matches
+     * @return the number of matches reported
+     */
+    public long scan(FileMatchListener listener) {
+
+        bytesScanned = 0;
+        filesSkipped = 0;
+        int[] candidates = index.candidates(query, !byBlock);
+        int next = 0;
+        long numMatches = 0;
+
+        for (int file = 0; file < index.getNumFiles(); file++) {
+            int firstBlock = index.getFirstBlock(file);
+            int endBlock = file + 1 < index.getNumFiles() ? index.getFirstBlock(file + 1) : Integer.MAX_VALUE;
+
+            // the candidates in this file: its blocks or the file itself
+            int from = next;
+            int end = byBlock ? endBlock : file + 1;
+            while (candidates != null && next < candidates.length && candidates[next] < end) {
+                next++;
+            }
+
+            Path path = index.getFile(file);
+            boolean stale = index.isStale(file);
+            if (candidates != null && from == next && !stale) {
+                filesSkipped++;
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long count;
+                if (stale || !byBlock || candidates == null) {
+                    bytesScanned += channel.size();
+                    RunListener runListener = new RunListener(path, listener, Long.MAX_VALUE);
+                    scanner.scan(channel, 0, channel.size(), runListener);
+                    count = runListener.count;
+                } else {
+                    count = scanBlocks(channel, path, candidates, from, next, firstBlock, listener);
+                }
+                numMatches += count;
+                listener.onFileScanned(path, count);
+            } catch (IOException ex) {
+                listener.onError(path, ex);
+            }
+        }
+
+        return numMatches;
+    }
+
+    /**
+     * Scans each run of consecutive candidate blocks along with the overlap
+     * after it, keeping the matches that start in the run.
+     * @return the number of matches reported
+     */
+    private long scanBlocks(FileChannel channel, Path path, int[] candidates, int from, int to,
+            int firstBlock, FileMatchListener listener) throws IOException {
+
+        long blockSize = index.getBlockSize();
+        long length = channel.size();
+        long count = 0;
+        int i = from;
+        while (i < to) {
+            int j = i + 1;
+            while (j < to && candidates[j] == candidates[j - 1] + 1) {
+                j++;
+            }
+            long start = (candidates[i] - firstBlock) * blockSize;
+            long runEnd = Math.min(length, (candidates[j - 1] - firstBlock + 1) * blockSize);
+            long scanEnd = Math.min(length, runEnd + index.getOverlap());
+            bytesScanned += scanEnd - start;
+
+            RunListener runListener = new RunListener(path, listener, runEnd);
+            scanner.scan(channel, start, scanEnd, runListener);
+            count += runListener.count;
+            if (runListener.stopped) {
+                break;
+            }
+            i = j;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bytes read by the last scan
+     */
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * @return the number of files the last scan skipped without reading
+     */
+    public int getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    /**
+     * Passes the matches starting before limit on to the file listener and
+     * ends the scan at the first one that doesn't.
+     */
+    private static final class RunListener implements MatchListener {
+
+        private final Path path;
+        private final FileMatchListener listener;
+        private final long limit;
+        long count;
+        boolean stopped;
+
+        RunListener(Path path, FileMatchListener listener, long limit) {
+            this.path = path;
+            this.listener = listener;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean onMatch(long start, long end) {
+            if (start >= limit) {
+                return false;
+            }
+            count++;
+            if (!listener.onMatch(path, start, end)) {
+                stopped = true;
+                return false;
+            }
+            return true;
+        }
+    }
+
+}
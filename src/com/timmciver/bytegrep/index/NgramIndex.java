@@ -0,0 +1,339 @@
+package com.timmciver.bytegrep.index;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped trigram index of a set of files, written by IndexWriter.
+ * For every trigram the index holds the list of blocks whose bytes, with the
+ * overlap that follows them, contain it.  Blocks are numbered across all of
+ * the files in the order they were added, so a file's blocks are
+ * consecutive.  An index is answered with candidates, which evaluates an
+ * NgramQuery to the blocks or files that might hold a match.
+ *
+ * The file starts with a header: the magic number, version, block size,
+ * overlap, number of blocks and number of files, followed by each file's
+ * path, length, modification time and first block.  The posting lists
+ * follow, each a run of variable length deltas between block numbers, and
+ * then the directory: a sorted table of trigrams and the position of each
+ * one's list, ending with an entry giving the end of the last list.  The
+ * last twelve bytes are the position of the directory and the number of
+ * trigrams in it.
+ * @author tim
+ */
+public final class NgramIndex implements Closeable {
+
+    // the file is mapped in slices of this size, each reaching a little way
+    // into the next so that a number never spans two slices
+    private static final long SLICE_SIZE = 1 << 30;
+    private static final int SLICE_OVERLAP = 16;
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] slices;
+
+    private final int blockSize;
+    private final int overlap;
+    private final int numBlocks;
+    private final Path[] files;
+    private final long[] lengths;
+    private final long[] lastModified;
+    private final int[] firstBlocks;
+
+    private final long directoryPosition;
+    private final int numEntries;
+
+    private NgramIndex(FileChannel channel) throws IOException {
+
+        this.channel = channel;
+        long size = channel.size();
+        if (size < 24 + ENTRY_SIZE) {
+            throw new IOException("Not an index file.");
+        }
+
+        // read the header
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        if (in.readInt() != IndexWriter.MAGIC || in.readInt() != IndexWriter.VERSION) {
+            throw new IOException("Not an index file.");
+        }
+        this.blockSize = in.readInt();
+        this.overlap = in.readInt();
+        this.numBlocks = in.readInt();
+        int numFiles = in.readInt();
+        if (blockSize < 1 || numFiles < 0 || numBlocks < 0) {
+            throw new IOException("Invalid index file.");
+        }
+        this.files = new Path[numFiles];
+        this.lengths = new long[numFiles];
+        this.lastModified = new long[numFiles];
+        this.firstBlocks = new int[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            files[i] = Paths.get(in.readUTF());
+            lengths[i] = in.readLong();
+            lastModified[i] = in.readLong();
+            firstBlocks[i] = in.readInt();
+        }
+
+        // map the rest
+        int numSlices = (int)((size + SLICE_SIZE - 1) / SLICE_SIZE);
+        this.slices = new MappedByteBuffer[numSlices];
+        for (int i = 0; i < numSlices; i++) {
+            long start = i * SLICE_SIZE;
+            slices[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(size - start, SLICE_SIZE + SLICE_OVERLAP));
+        }
+
+        this.directoryPosition = getLong(size - ENTRY_SIZE);
+        this.numEntries = getInt(size - 4);
+        if (numEntries < 0 || directoryPosition < 0
+                || directoryPosition + (long)(numEntries + 1) * ENTRY_SIZE != size - ENTRY_SIZE) {
+            throw new IOException("Invalid index file.");
+        }
+    }
+
+    /**
+     * Opens an index file.
+     * @param indexFile the file written by an IndexWriter
+     * @return the index
+     * @throws IOException if the file could not be read or is not an index
+     */
+    public static NgramIndex open(Path indexFile) throws IOException {
+        FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+        try {
+            return new NgramIndex(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return the number of bytes after each block whose trigrams are
+     * recorded against it
+     */
+    public int getOverlap() {
+        return overlap;
+    }
+
+    public int getNumFiles() {
+        return files.length;
+    }
+
+    public Path getFile(int file) {
+        return files[file];
+    }
+
+    /**
+     * @return the length of the file when it was indexed
+     */
+    public long getFileLength(int file) {
+        return lengths[file];
+    }
+
+    /**
+     * @return the number of the file's first block
+     */
+    public int getFirstBlock(int file) {
+        return firstBlocks[file];
+    }
+
+    /**
+     * @return the number of the file the block belongs to
+     */
+    public int getFileOf(int block) {
+        int i = Arrays.binarySearch(firstBlocks, block);
+        if (i < 0) {
+            return -i - 2;
+        }
+
+        // empty files have no blocks and share their first block number
+        // with the next file
+        while (i + 1 < firstBlocks.length && firstBlocks[i + 1] == block) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return true if the file's length or modification time has changed
+     * since it was indexed, or it can't be read, so its entries can't be
+     * trusted
+     */
+    public boolean isStale(int file) {
+        try {
+            return Files.size(files[file]) != lengths[file]
+                    || Files.getLastModifiedTime(files[file]).toMillis() != lastModified[file];
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * @param gram a trigram
+     * @return the blocks containing it in increasing order
+     */
+    public int[] getPostings(int gram) {
+
+        // binary search the directory
+        int low = 0;
+        int high = numEntries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = getInt(directoryPosition + (long)mid * ENTRY_SIZE);
+            if (value < gram) {
+                low = mid + 1;
+            } else if (value > gram) {
+                high = mid - 1;
+            } else {
+                return decode(getLong(directoryPosition + (long)mid * ENTRY_SIZE + 4),
+                        getLong(directoryPosition + (long)(mid + 1) * ENTRY_SIZE + 4));
+            }
+        }
+        return new int[0];
+    }
+
+    private int[] decode(long position, long end) {
+        int[] blocks = new int[16];
+        int n = 0;
+        int block = -1;
+        while (position < end) {
+            int delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = getByte(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            block += delta;
+            if (n == blocks.length) {
+                blocks = Arrays.copyOf(blocks, 2 * n);
+            }
+            blocks[n++] = block;
+        }
+        return Arrays.copyOf(blocks, n);
+    }
+
+    /**
+     * Evaluates a query against the index.
+     * @param query the query
+     * @param byFile if true the query is answered for whole files, so the
+     * trigrams it needs may be in different blocks of a file
+     * @return the blocks, or files, that satisfy the query in increasing
+     * order, or null if every one does
+     */
+    public int[] candidates(NgramQuery query, boolean byFile) {
+        switch (query.getOp()) {
+            case ALL:
+                return null;
+            case NONE:
+                return new int[0];
+            case GRAM:
+                int[] blocks = getPostings(query.getGram());
+                return byFile ? toFiles(blocks) : blocks;
+            case AND:
+                int[] and = null;
+                for (NgramQuery operand : query.getOperands()) {
+                    int[] ids = candidates(operand, byFile);
+                    and = and == null ? ids : ids == null ? and : intersect(and, ids);
+                    if (and != null && and.length == 0) {
+                        break;
+                    }
+                }
+                return and;
+            default:
+                int[] or = new int[0];
+                for (NgramQuery operand : query.getOperands()) {
+                    int[] ids = candidates(operand, byFile);
+                    if (ids == null) {
+                        return null;
+                    }
+                    or = union(or, ids);
+                }
+                return or;
+        }
+    }
+
+    private int[] toFiles(int[] blocks) {
+        int[] ids = new int[blocks.length];
+        int n = 0;
+        for (int block : blocks) {
+            int file = getFileOf(block);
+            if (n == 0 || ids[n - 1] != file) {
+                ids[n++] = file;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || i < a.length && a[i] < b[j]) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private int getByte(long position) {
+        return slices[(int)(position / SLICE_SIZE)].get((int)(position % SLICE_SIZE)) & 0xFF;
+    }
+
+    private int getInt(long position) {
+        return slices[(int)(position / SLICE_SIZE)].getInt((int)(position % SLICE_SIZE));
+    }
+
+    private long getLong(long position) {
+        return slices[(int)(position / SLICE_SIZE)].getLong((int)(position % SLICE_SIZE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.timmciver.bytegrep.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A boolean query over trigrams: the trigrams a block of data must contain
+ * for a pattern to have a chance of matching in it.  A query is ALL (every
+ * block is a candidate), NONE (no block is), a single trigram, or the AND or
+ * OR of other queries.  Queries are immutable and simplify themselves as they
+ * are combined, so ALL and NONE never appear inside an AND or OR.
+ * @author tim
+ */
+public final class NgramQuery {
+
+    public enum Op {
+        ALL, NONE, GRAM, AND, OR
+    }
+
+    public static final NgramQuery ALL = new NgramQuery(Op.ALL, 0, Collections.<NgramQuery>emptyList());
+    public static final NgramQuery NONE = new NgramQuery(Op.NONE, 0, Collections.<NgramQuery>emptyList());
+
+    private final Op op;
+    private final int gram;
+    private final List<NgramQuery> operands;
+
+    private NgramQuery(Op op, int gram, List<NgramQuery> operands) {
+        this.op = op;
+        this.gram = gram;
+        this.operands = operands;
+    }
+
+    /**
+     * @param gram a trigram, its three bytes packed big-endian into the low 24
+     * bits
+     * @return a query for blocks containing the trigram
+     */
+    public static NgramQuery gram(int gram) {
+        if ((gram & ~0xFFFFFF) != 0) {
+            throw new IllegalArgumentException("Not a trigram: " + gram);
+        }
+        return new NgramQuery(Op.GRAM, gram, Collections.<NgramQuery>emptyList());
+    }
+
+    /**
+     * @return a query for blocks matching this query and the other one
+     */
+    public NgramQuery and(NgramQuery other) {
+        if (op == Op.NONE || other.op == Op.ALL || equals(other)) {
+            return this;
+        }
+        if (other.op == Op.NONE || op == Op.ALL) {
+            return other;
+        }
+        return combine(Op.AND, other);
+    }
+
+    /**
+     * @return a query for blocks matching this query or the other one
+     */
+    public NgramQuery or(NgramQuery other) {
+        if (op == Op.ALL || other.op == Op.NONE || equals(other)) {
+            return this;
+        }
+        if (other.op == Op.ALL || op == Op.NONE) {
+            return other;
+        }
+        return combine(Op.OR, other);
+    }
+
+    private NgramQuery combine(Op combined, NgramQuery other) {
+        List<NgramQuery> list = new ArrayList<>();
+        addOperands(list, combined, this);
+        addOperands(list, combined, other);
+
+        // x & (x | y) is x and so is x | (x & y)
+        Op inner = combined == Op.AND ? Op.OR : Op.AND;
+        Iterator<NgramQuery> it = list.iterator();
+        while (it.hasNext()) {
+            NgramQuery query = it.next();
+            if (query.op == inner && !Collections.disjoint(query.operands, list)) {
+                it.remove();
+            }
+        }
+        if (list.size() == 1) {
+            return list.get(0);
+        }
+        return new NgramQuery(combined, 0, Collections.unmodifiableList(list));
+    }
+
+    private static void addOperands(List<NgramQuery> list, Op combined, NgramQuery query) {
+        if (query.op == combined) {
+            for (NgramQuery operand : query.operands) {
+                addOperands(list, combined, operand);
+            }
+        } else if (!list.contains(query)) {
+            list.add(query);
+        }
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the trigram of a GRAM query
+     */
+    public int getGram() {
+        return gram;
+    }
+
+    /**
+     * @return the operands of an AND or OR query
+     */
+    public List<NgramQuery> getOperands() {
+        return operands;
+    }
+
+    @Override
+    public String toString() {
+        switch (op) {
+            case ALL:
+            case NONE:
+                return op.name();
+            case GRAM:
+                return String.format("0x%06X", gram);
+            default:
+                StringBuilder sb = new StringBuilder("(");
+                for (int i = 0; i < operands.size(); i++) {
+                    if (i > 0) {
+                        sb.append(op == Op.AND ? " & " : " | ");
+                    }
+                    sb.append(operands.get(i));
+                }
+                return sb.append(')').toString();
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * op.hashCode() + gram) + operands.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof NgramQuery)) {
+            return false;
+        }
+
+        NgramQuery other = (NgramQuery)obj;
+        return op == other.op && gram == other.gram && operands.equals(other.operands);
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.timmciver.bytegrep.index;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
+import com.timmciver.bytegrep.ConcatenationExpression;
+import com.timmciver.bytegrep.ExpressionFold;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.LiteralString;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Works out which trigrams the data around a match of a RegularExpression
+ * must contain, as an NgramQuery that an NgramIndex can answer.  This follows
+ * the approach of Russ Cox's Google Code Search: for every node of the tree
+ * it keeps either the exact set of strings the node matches, if that set is
+ * small, or the sets of strings its matches can start and end with, along
+ * with a query that every match satisfies.  Concatenating nodes adds the
+ * trigrams that cross from one to the next.
+ *
+ * Byte strings are held as Java Strings with one char per byte, 0 to 255.
+ * The query is only ever too generous, never too strict: every block holding
+ * a match satisfies it.
+ * @author tim
+ */
+public final class QueryPlanner {
+
+    // the most strings an exact, prefix or suffix set may hold before it is
+    // turned into trigrams and shortened
+    private static final int MAX_SET = 16;
+
+    // classes of up to this many bytes are treated as an alternation of them
+    private static final int MAX_CLASS = 4;
+
+    private QueryPlanner() {
+    }
+
+    /**
+     * Plans the query for the given RegularExpression.
+     * @param re the expression
+     * @return a query that every block of data containing a match satisfies;
+     * NgramQuery.ALL if nothing useful is known
+     */
+    public static NgramQuery plan(RegularExpression re) {
+        Info info = analyze(re);
+        if (info.exact != null) {
+            return info.match.and(trigrams(info.exact));
+        }
+        return info.match;
+    }
+
+    private static Info analyze(RegularExpression re) {
+        return ANALYZE.fold(re);
+    }
+
+    // the tree is folded rather than recursed into as it can be as deep as
+    // the pattern is long
+    private static final ExpressionFold<Info> ANALYZE = new ExpressionFold<Info>() {
+
+        @Override
+        protected Info combine(RegularExpression re, List<Info> parts) {
+
+            if (re instanceof LiteralByte) {
+                return Info.exact(Collections.singleton(QueryPlanner.toString(new byte[]{((LiteralByte)re).getLiteralByte()})));
+            }
+
+            if (re instanceof LiteralString) {
+                return Info.exact(Collections.singleton(QueryPlanner.toString(((LiteralString)re).getBytes())));
+            }
+
+            if (re instanceof ByteClassExpression) {
+                ByteClassExpression bc = (ByteClassExpression)re;
+                if (bc.size() > MAX_CLASS) {
+                    return Info.any(false);
+                }
+                Set<String> bytes = new TreeSet<>();
+                for (int b = 0; b < 256; b++) {
+                    if (bc.contains(b)) {
+                        bytes.add(String.valueOf((char)b));
+                    }
+                }
+                return Info.exact(bytes);
+            }
+
+            if (re instanceof SequenceExpression || re instanceof ConcatenationExpression) {
+                Info info = null;
+                for (Info part : parts) {
+                    info = info == null ? part : concat(info, part);
+                }
+                return info;
+            }
+
+            if (re instanceof AlternationExpression) {
+                return alternate(parts.get(0), parts.get(1));
+            }
+
+            if (re instanceof RepetitionExpression) {
+                RepetitionExpression rep = (RepetitionExpression)re;
+                return repeat(parts.get(0), rep.getMinMatches(), rep.getMaxMatches());
+            }
+
+            if (re instanceof CaptureGroup) {
+                return parts.get(0);
+            }
+
+            // an anchor only matches the empty string
+            if (re instanceof Anchor) {
+                return Info.exact(Collections.singleton(""));
+            }
+
+            // nothing is known about other kinds of expression
+            return Info.any(true);
+        }
+    };
+
+    private static Info concat(Info x, Info y) {
+
+        Info info = new Info();
+        info.emptyable = x.emptyable && y.emptyable;
+        info.match = x.match.and(y.match);
+        if (x.exact != null && y.exact != null) {
+            info.exact = cross(x.exact, y.exact);
+            return simplify(info);
+        }
+
+        // the trigrams that cross from x into y
+        info.match = info.match.and(trigrams(cross(x.suffixes(), y.prefixes())));
+
+        if (x.exact != null) {
+            info.prefix = cross(x.exact, y.prefix);
+        } else {
+            info.prefix = new TreeSet<>(x.prefix);
+            if (x.emptyable) {
+                info.prefix.addAll(y.prefixes());
+            }
+        }
+        if (y.exact != null) {
+            info.suffix = cross(x.suffix, y.exact);
+        } else {
+            info.suffix = new TreeSet<>(y.suffix);
+            if (y.emptyable) {
+                info.suffix.addAll(x.suffixes());
+            }
+        }
+        return simplify(info);
+    }
+
+    private static Info alternate(Info x, Info y) {
+
+        Info info = new Info();
+        info.emptyable = x.emptyable || y.emptyable;
+        info.match = x.match.or(y.match);
+        if (x.exact != null && y.exact != null) {
+            info.exact = new TreeSet<>(x.exact);
+            info.exact.addAll(y.exact);
+            return simplify(info);
+        }
+
+        // each side's exact strings must be turned into trigrams before its
+        // query can be ORed
+        info.match = x.withoutExact().match.or(y.withoutExact().match);
+        info.prefix = new TreeSet<>(x.prefixes());
+        info.prefix.addAll(y.prefixes());
+        info.suffix = new TreeSet<>(x.suffixes());
+        info.suffix.addAll(y.suffixes());
+        return simplify(info);
+    }
+
+    private static Info repeat(Info x, int min, int max) {
+
+        if (min == 1 && max == 1) {
+            return x;
+        }
+
+        if (min == 0) {
+            // x? is x or nothing; more repetitions say nothing useful
+            return max == 1 ? alternate(x, Info.exact(Collections.singleton(""))) : Info.any(true);
+        }
+
+        // a short fixed count of a small exact set stays exact
+        if (min == max && min <= 3 && x.exact != null) {
+            Info info = x;
+            for (int i = 1; i < min; i++) {
+                info = concat(info, x);
+            }
+            return info;
+        }
+
+        // otherwise x{min,max} starts and ends with an x, and two of them are
+        // next to each other if min is at least two
+        Info more = x.withoutExact();
+        return min == 1 ? more : concat(x, more);
+    }
+
+    /**
+     * Turns sets that have grown too large into trigrams and shortens the
+     * prefixes and suffixes to the two bytes that can still form a trigram
+     * with what comes before or after.
+     */
+    private static Info simplify(Info info) {
+
+        if (info.exact != null && info.exact.size() > MAX_SET) {
+            info = info.withoutExact();
+        }
+        if (info.exact != null) {
+            return info;
+        }
+
+        info.match = info.match.and(trigrams(info.prefix)).and(trigrams(info.suffix));
+        for (int length = 2; length >= 0; length--) {
+            info.prefix = trim(info.prefix, length, true);
+            if (info.prefix.size() <= MAX_SET) {
+                break;
+            }
+        }
+        for (int length = 2; length >= 0; length--) {
+            info.suffix = trim(info.suffix, length, false);
+            if (info.suffix.size() <= MAX_SET) {
+                break;
+            }
+        }
+        return info;
+    }
+
+    private static Set<String> trim(Set<String> strings, int length, boolean keepStart) {
+        Set<String> trimmed = new TreeSet<>();
+        for (String s : strings) {
+            if (s.length() <= length) {
+                trimmed.add(s);
+            } else {
+                trimmed.add(keepStart ? s.substring(0, length) : s.substring(s.length() - length));
+            }
+        }
+        return trimmed;
+    }
+
+    private static Set<String> cross(Set<String> first, Set<String> second) {
+        Set<String> product = new TreeSet<>();
+        for (String a : first) {
+            for (String b : second) {
+                product.add(a + b);
+            }
+        }
+        return product;
+    }
+
+    /**
+     * @return a query that a block containing one of the strings satisfies
+     */
+    private static NgramQuery trigrams(Set<String> strings) {
+        NgramQuery query = NgramQuery.NONE;
+        for (String s : strings) {
+            if (s.length() < 3) {
+                return NgramQuery.ALL;
+            }
+            NgramQuery grams = NgramQuery.ALL;
+            for (int i = 0; i + 3 <= s.length(); i++) {
+                grams = grams.and(NgramQuery.gram(s.charAt(i) << 16 | s.charAt(i + 1) << 8 | s.charAt(i + 2)));
+            }
+            query = query.or(grams);
+        }
+        return query;
+    }
+
+    private static String toString(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = (char)(bytes[i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * What is known about the matches of one node of the expression tree:
+     * either the exact strings it matches or the strings its matches start
+     * and end with, and a query every match satisfies.
+     */
+    private static final class Info {
+
+        boolean emptyable;
+        Set<String> exact;
+        Set<String> prefix;
+        Set<String> suffix;
+        NgramQuery match = NgramQuery.ALL;
+
+        static Info exact(Set<String> strings) {
+            Info info = new Info();
+            info.exact = new TreeSet<>(strings);
+            info.emptyable = strings.contains("");
+            return info;
+        }
+
+        static Info any(boolean emptyable) {
+            Info info = new Info();
+            info.emptyable = emptyable;
+            info.prefix = new TreeSet<>(Collections.singleton(""));
+            info.suffix = new TreeSet<>(Collections.singleton(""));
+            return info;
+        }
+
+        Set<String> prefixes() {
+            return exact != null ? exact : prefix;
+        }
+
+        Set<String> suffixes() {
+            return exact != null ? exact : suffix;
+        }
+
+        /**
+         * @return an Info that has its exact strings, if any, as trigrams
+         * and as its prefixes and suffixes
+         */
+        Info withoutExact() {
+            if (exact == null) {
+                return this;
+            }
+            Info info = new Info();
+            info.emptyable = emptyable;
+            info.match = match.and(trigrams(exact));
+            info.prefix = exact;
+            info.suffix = exact;
+            return simplify(info);
+        }
+    }
+
+}
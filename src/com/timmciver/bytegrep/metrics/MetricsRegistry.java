@@ -0,0 +1,96 @@
+package com.timmciver.bytegrep.metrics;
+
+import com.timmciver.bytegrep.engine.EngineType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers a PatternMetrics MBean for each pattern a service searches for,
+ * named
+ *
+ *   com.timmciver.bytegrep:type=PatternMetrics,engine=DFA,pattern="0xCA0xFE"
+ *
+ * so that the patterns can be compared in a JMX console such as JConsole.  A
+ * pattern searched with two kinds of engine has a PatternMetrics for each.
+ * A MetricsRegistry is thread safe.
+ * @author tim
+ */
+public final class MetricsRegistry {
+
+    public static final String DOMAIN = "com.timmciver.bytegrep";
+
+    private final MBeanServer server;
+    private final Map<ObjectName, PatternMetrics> metrics = new HashMap<>();
+
+    /**
+     * Creates a registry that registers with the platform MBeanServer.
+     */
+    public MetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param server the server to register the MBeans with
+     */
+    public MetricsRegistry(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Gets the metrics of a pattern, registering them if this is the first
+     * time they are asked for.
+     * @param pattern the pattern, as it was written
+     * @param engineType the kind of engine it is searched with
+     * @return the pattern's metrics
+     * @throws IllegalStateException if another registry has already
+     * registered the pattern's MBean with the server
+     */
+    public synchronized PatternMetrics getPatternMetrics(String pattern, EngineType engineType) {
+        ObjectName name = getObjectName(pattern, engineType);
+        PatternMetrics m = metrics.get(name);
+        if (m == null) {
+            m = new PatternMetrics(pattern, engineType);
+            try {
+                server.registerMBean(m, name);
+            } catch (JMException ex) {
+                throw new IllegalStateException("Could not register " + name, ex);
+            }
+            metrics.put(name, m);
+        }
+        return m;
+    }
+
+    /**
+     * Unregisters the metrics of every pattern.
+     */
+    public synchronized void unregisterAll() {
+        List<ObjectName> names = new ArrayList<>(metrics.keySet());
+        metrics.clear();
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ex) {
+                // someone else has unregistered it already
+            }
+        }
+    }
+
+    /**
+     * @return the name a pattern's MBean is registered under
+     */
+    public static ObjectName getObjectName(String pattern, EngineType engineType) {
+        try {
+            return new ObjectName(DOMAIN + ":type=PatternMetrics,engine=" + engineType
+                    + ",pattern=" + ObjectName.quote(pattern));
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("Bad pattern name: " + pattern, ex);
+        }
+    }
+
+}
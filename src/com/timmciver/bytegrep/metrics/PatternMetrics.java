@@ -0,0 +1,145 @@
+package com.timmciver.bytegrep.metrics;
+
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.scan.ScanMetrics;
+
+/**
+ * The ScanMetrics of every search made for one pattern, added up, along with
+ * the time taken by the slowest of them.  A service records the metrics of
+ * each search it makes with record; a MetricsRegistry makes them available
+ * over JMX so that patterns that are slow to search can be found.
+ * PatternMetrics are thread safe.
+ * @author tim
+ */
+public final class PatternMetrics implements PatternMetricsMBean {
+
+    private final String pattern;
+    private final EngineType engineType;
+    private ScanMetrics total;
+    private long slowestNanos;
+
+    /**
+     * @param pattern the pattern, as it was written
+     * @param engineType the kind of engine it is searched with
+     */
+    public PatternMetrics(String pattern, EngineType engineType) {
+        this.pattern = pattern;
+        this.engineType = engineType;
+        this.total = new ScanMetrics(engineType);
+    }
+
+    /**
+     * Adds the metrics of a search to the totals.
+     * @param search the metrics of the search
+     */
+    public synchronized void record(ScanMetrics search) {
+        total.add(search);
+        slowestNanos = Math.max(slowestNanos, search.getElapsedNanos());
+    }
+
+    /**
+     * @return the totals so far
+     */
+    public synchronized ScanMetrics getTotal() {
+        ScanMetrics copy = new ScanMetrics(engineType);
+        copy.add(total);
+        return copy;
+    }
+
+    @Override
+    public synchronized void reset() {
+        total = new ScanMetrics(engineType);
+        slowestNanos = 0;
+    }
+
+    @Override
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String getEngineType() {
+        return engineType.toString();
+    }
+
+    @Override
+    public synchronized long getNumSearches() {
+        return total.getNumSearches();
+    }
+
+    @Override
+    public synchronized long getNumFiles() {
+        return total.getNumFiles();
+    }
+
+    @Override
+    public synchronized long getBytesScanned() {
+        return total.getBytesScanned();
+    }
+
+    @Override
+    public synchronized long getNumMatches() {
+        return total.getNumMatches();
+    }
+
+    @Override
+    public synchronized long getNumCandidates() {
+        return total.getNumCandidates();
+    }
+
+    @Override
+    public synchronized long getNumConfirmed() {
+        return total.getNumConfirmed();
+    }
+
+    @Override
+    public synchronized long getNumBypasses() {
+        return total.getNumBypasses();
+    }
+
+    @Override
+    public synchronized double getPrefilterEfficiency() {
+        return total.getPrefilterEfficiency();
+    }
+
+    @Override
+    public synchronized long getNumStatesBuilt() {
+        return total.getNumStatesBuilt();
+    }
+
+    @Override
+    public synchronized long getNumFlushes() {
+        return total.getNumFlushes();
+    }
+
+    @Override
+    public synchronized long getNumFallbacks() {
+        return total.getNumFallbacks();
+    }
+
+    @Override
+    public synchronized long getIoMillis() {
+        return total.getIoNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long getMatchMillis() {
+        return total.getMatchNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long getElapsedMillis() {
+        return total.getElapsedNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long getSlowestSearchMillis() {
+        return slowestNanos / 1000000;
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        return total.getBytesPerSecond();
+    }
+
+}
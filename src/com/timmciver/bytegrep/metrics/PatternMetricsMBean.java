@@ -0,0 +1,48 @@
+package com.timmciver.bytegrep.metrics;
+
+/**
+ * The JMX view of a PatternMetrics: the totals of every search made for one
+ * pattern since it was registered or last reset.
+ * @author tim
+ */
+public interface PatternMetricsMBean {
+
+    String getPattern();
+
+    String getEngineType();
+
+    long getNumSearches();
+
+    long getNumFiles();
+
+    long getBytesScanned();
+
+    long getNumMatches();
+
+    long getNumCandidates();
+
+    long getNumConfirmed();
+
+    long getNumBypasses();
+
+    double getPrefilterEfficiency();
+
+    long getNumStatesBuilt();
+
+    long getNumFlushes();
+
+    long getNumFallbacks();
+
+    long getIoMillis();
+
+    long getMatchMillis();
+
+    long getElapsedMillis();
+
+    long getSlowestSearchMillis();
+
+    double getBytesPerSecond();
+
+    void reset();
+
+}
@@ -2,262 +2,536 @@
 package com.timmciver.bytegrep.parser;
 
 import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
 import com.timmciver.bytegrep.LiteralByte;
 import com.timmciver.bytegrep.OneOrMore;
 import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
 import com.timmciver.bytegrep.SequenceExpression;
 import com.timmciver.bytegrep.ZeroOrMore;
 import com.timmciver.bytegrep.ZeroOrOne;
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import com.timmciver.bytegrep.trace.Tracer;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * The default Parser implementation for ByteGrep.  The following defines
  * the grammar accepted by this parser.
  * 
  * R ::= [byte-literal]
- *     | (R)              // grouping
+ *     | [byte-class]
+ *     | .                // any byte
+ *     | ^                // the start of the input
+ *     | $                // the end of the input
+ *     | (R)              // grouping, or a capture group if the parser
+ *                        // was created to capture groups
+ *     | (?:R)            // grouping that never captures
  *     | RR               // sequence
  *     | R|R              // alternation
  *     | R*T              // zero or more
  *     | R+T              // one or more
  *     | R?T              // zero or one
+ *     | R{n}T            // exactly n
+ *     | R{n,}T           // n or more
+ *     | R{n,m}T          // between n and m inclusive
+ *     | R*?T             // any of the above quantifiers followed by ? is
+ *     | R+?T             // lazy: it prefers to repeat as few times as
+ *     | R??T             // it can rather than as many
+ *     | R{n,m}?T         // (and likewise {n}? and {n,}?)
  * 
  * T ::= R
  *     | epsilon
  *
  * [byte-literal] ::= 0xXY  // defines a single byte where X and Y represent
- *                          // hexadecimal digits.
+ *                          // hexadecimal digits.  Either may be '?' to match
+ *                          // any value of that nibble, e.g. 0x4? matches
+ *                          // 0x40 to 0x4F.
+ *
+ * [byte-class] ::= [I]     // any byte matched by one of the items I
+ *                | [^I]    // any byte not matched by any of the items I
+ *
+ * I ::= [byte-literal]I
+ *     | [byte-literal]-[byte-literal]I  // an inclusive range
+ *     | epsilon
  * 
- * The above grammar is left recursive.  DefaultParser is a predictive recursive
- * descent parser which cannot handle a left recursive grammar.  The following
- * grammar is equivalent to the above grammar with the left recursion removed.
+ * The above grammar is left recursive.  It is parsed as the following
+ * equivalent grammar with the left recursion removed.
  * 
- * S ::= R$                // start symbol; R followed by end-of-input
+ * S ::= R EOF             // start symbol; R followed by end-of-input
  * 
  * R ::= [byte-literal]T
+ *     | [byte-class]T
+ *     | .T
+ *     | ^T
+ *     | $T
  *     | (R)T
+ *     | (?:R)T
  * 
  * T ::= RT                // sequence
  *     | |RT               // alternation
  *     | *T                // zero or more
  *     | +T                // one or more
  *     | ?T                // zero or one
+ *     | {n}T              // exactly n
+ *     | {n,}T             // n or more
+ *     | {n,m}T            // between n and m inclusive
+ *     | *?T | +?T | ??T   // lazy zero or more, one or more, zero or one
+ *     | {n}?T | {n,}?T | {n,m}?T  // lazy counted repetitions
  *     | epsilon
  * 
  * [byte-literal]          // as defined above
+ * [byte-class]            // as defined above; a class must have an item
  * 
- * The following gives information of first and follow sets.
+ * n and m are decimal repetition counts with n <= m.
  * 
- * first(R) = {'(', '0'}
- * first(T) = first(R) + {'|', '*', '+', '?'}
- *          = {'(', '0', '|', '*', '+', '?'}
- * follow(R) = {')', '$'} + first(T)
- *           = {'(', ')', '0', '|', '*', '+', '?', '$'}
- * follow(T) = follow(R)
+ * A sequence or alternation takes the whole of the R that follows it, so
+ * 0xAA0xBB|0xCC is 0xAA followed by (0xBB|0xCC).  The epsilon production for
+ * T is chosen at ')' or the end of the input.
  * 
- * The epsilon production for T is chosen when the next character read is in
- * follow(T) but not in first(T). This set is as follows:
+ * Rather than recursing once per production, DefaultParser walks the input
+ * once by index.  For each open group it keeps the atoms read so far and
+ * whether each is followed by a sequence or an alternation, and builds the
+ * right nested tree when the group is closed, so the depth of the Java stack
+ * does not depend on the pattern.
  * 
- * follow(T) - first(T) = {')', '$'}
+ * A parser created with a Tracer tells it about every node it builds and
+ * every error it finds, along with where in the pattern they are.
  * 
  * @author tim
  */
 public class DefaultParser implements Parser {
     
-    private final static Logger logger = Logger.getLogger(DefaultParser.class.getName());
-
-    private Set<Character> firstOfR;
-    private Set<Character> followOfTMinusFirstOfT;
+    private final boolean captureGroups;
+    private final Tracer tracer;
 
     public DefaultParser() {
-        
-        // initialize firstOfR
-        firstOfR = Collections.unmodifiableSet(
-            new HashSet<>(Arrays.asList('0', '(')));
-        
-        // follow(T) - first(T) = {'(', '$'}
-        followOfTMinusFirstOfT = Collections.unmodifiableSet(
-            new HashSet<>(Arrays.asList(')', '$')));
+        this(false);
+    }
+
+    /**
+     * @param captureGroups if true each (R) is parsed as a numbered
+     * CaptureGroup rather than only grouping R; (?:R) always only groups
+     */
+    public DefaultParser(boolean captureGroups) {
+        this(captureGroups, null);
+    }
+
+    /**
+     * @param captureGroups if true each (R) is parsed as a numbered
+     * CaptureGroup rather than only grouping R; (?:R) always only groups
+     * @param tracer told of each node parsed and of any error, or null
+     */
+    public DefaultParser(boolean captureGroups, Tracer tracer) {
+        this.captureGroups = captureGroups;
+        this.tracer = tracer;
     }
     
     @Override
     public RegularExpression parse(String s) throws IOException {
-        
-        // create a PushbackReader from the given string
-        PushbackReader reader = new PushbackReader(new StringReader(s));
+        return parse(s.toCharArray(), 0, s.length());
+    }
 
-        return parseS(reader);
+    /**
+     * Parses the characters from index from up to index to of the given
+     * array, which is not copied.
+     * @param chars the characters to parse
+     * @param from the index of the first character of the pattern
+     * @param to the index after its last character
+     * @return the RegularExpression
+     * @throws MalformedInputException if the characters are not a valid
+     * pattern; the message gives the index at which the error was found
+     */
+    public RegularExpression parse(char[] chars, int from, int to) throws MalformedInputException {
+        if (from < 0 || to > chars.length || from > to) {
+            throw new IllegalArgumentException("Invalid range " + from + " to " + to + " of " + chars.length + " characters.");
+        }
+        return parseS(new Input(chars, from, to, tracer));
     }
 
-    private RegularExpression parseS(PushbackReader reader) throws IOException {
+    private RegularExpression parseS(Input in) throws MalformedInputException {
         
-        RegularExpression re = parseR(reader);
+        // the outermost group is the whole pattern
+        Group group = new Group(null, 0, in.pos);
+        boolean wantAtom = true;
         
-        // it's an error if we're not at the end of the stream here
-        int next = reader.read();
-        if (next != -1) {
-            throw new MalformedInputException("Expected EOF but found next character: " + (char)next);
+        while (true) {
+            int next = in.peek();
+            
+            if (wantAtom) {
+                // an R must start here
+                if (next == '(') {
+                    group = parseGroupStart(in, group);
+                    continue;
+                }
+                group.currentStart = in.pos;
+                group.current = in.parsed(parseAtom(in), group.currentStart);
+                wantAtom = false;
+                continue;
+            }
+            
+            // which T production to use?
+            switch (next) {
+                case '*':
+                    // zero or more
+                    in.pos++;
+                    group.current = in.parsed(new ZeroOrMore(group.current, !in.lazy()), group.currentStart);
+                    break;
+                case '+':
+                    // one or more
+                    in.pos++;
+                    group.current = in.parsed(new OneOrMore(group.current, !in.lazy()), group.currentStart);
+                    break;
+                case '?':
+                    // zero or one
+                    in.pos++;
+                    group.current = in.parsed(new ZeroOrOne(group.current, !in.lazy()), group.currentStart);
+                    break;
+                case '{':
+                    // counted repetition
+                    in.pos++;
+                    group.current = in.parsed(parseCountedRepetition(group.current, in), group.currentStart);
+                    break;
+                case '|':
+                    // alternation with the R that follows
+                    in.pos++;
+                    group.add(true);
+                    wantAtom = true;
+                    break;
+                case '0':
+                case '(':
+                case '[':
+                case '.':
+                case '^':
+                case '$':
+                    // a sequence with the R that follows, which starts here
+                    group.add(false);
+                    wantAtom = true;
+                    break;
+                case ')':
+                    // the epsilon production ends the group
+                    if (group.parent == null) {
+                        throw in.error("Expected EOF but found next character: )");
+                    }
+                    RegularExpression re = group.finish(in);
+                    in.pos++;
+                    if (group.number > 0) {
+                        re = in.parsed(new CaptureGroup(re, group.number), group.start);
+                    }
+                    group.parent.currentStart = group.start;
+                    group = group.parent;
+                    group.current = re;
+                    break;
+                case -1:
+                    // the epsilon production ends the pattern
+                    if (group.parent != null) {
+                        throw in.error("Expected ')' but reached the end of the input");
+                    }
+                    return group.finish(in);
+                default:
+                    throw in.error("Read unexpected character: " + (char)next);
+            }
         }
-        
-        return re;
     }
     
-    private RegularExpression parseR(PushbackReader reader) throws IOException {
+    private Group parseGroupStart(Input in, Group parent) throws MalformedInputException {
         
-        // read the next character of input
-        char next = (char)reader.read();
+        // the '(' has been peeked
+        int start = in.pos;
+        in.pos++;
         
-        // and immediately push it back
-        reader.unread(next);
+        // a group is numbered when its '(' is read, unless it is (?:R)
+        int number = 0;
+        if (in.peek() == '?') {
+            in.pos++;
+            if (in.peek() != ':') {
+                throw in.error("Expected ':' after '(?' but read '" + (char)in.peek() + "'");
+            }
+            in.pos++;
+        } else if (captureGroups) {
+            number = ++in.numGroups;
+        }
+        return new Group(parent, number, start);
+    }
+    
+    private RegularExpression parseAtom(Input in) throws MalformedInputException {
         
-        // decide which right hand side to use based on the next input character
-        RegularExpression re = null;
+        int next = in.peek();
         switch (next) {
             case '0':
-                re = parseByteLiteral(reader);
-                break;
-            case '(':
-                re = parseGrouping(reader);
-                break;
+                return parseByteLiteral(in);
+            case '[':
+                return parseByteClass(in);
+            case '.':
+                in.pos++;
+                return ByteClassExpression.any();
+            case '^':
+                in.pos++;
+                return Anchor.START;
+            case '$':
+                in.pos++;
+                return Anchor.END;
             default:
                 // next character was not in first(R)
-                logger.log(Level.SEVERE, "Read unexpected character: " + next);
-                throw new MalformedInputException("Read unexpected character: " + next);
+                throw in.error(next == -1 ? "Read unexpected end of input" : "Read unexpected character: " + (char)next);
         }
-        
-        // now parse T
-        re = parseT(re, reader);
-
-        return re;
     }
     
-    private RegularExpression parseT(RegularExpression inRegex, PushbackReader reader) throws IOException {
+    private RegularExpression parseCountedRepetition(RegularExpression re, Input in) throws MalformedInputException {
         
-        // read the next character of input
-        int next = reader.read();
-        char nextChar = (char)next;
+        // the opening brace has already been read
+        int min = parseCount(in);
+        int max = min;
         
-        // check for end-of-input
-        if (next == -1) {
-            // end of input
-            nextChar = '$';
+        if (in.peek() == ',') {
+            // {n,} or {n,m}
+            in.pos++;
+            if (in.peek() == '}') {
+                in.pos++;
+                return new RepetitionExpression(re, min, RepetitionExpression.UNBOUNDED, !in.lazy());
+            }
+            max = parseCount(in);
         }
         
-        RegularExpression outRegex = null;
-        
-        // which T production to use?
-        if (firstOfR.contains(nextChar)) {
-            // we've got another R
-            // push back the read character so that it can be read by parseR
-            reader.unread(next);
-            RegularExpression fromR = parseR(reader);
-            outRegex = new SequenceExpression(inRegex, fromR);
-            logger.log(Level.INFO, "Parsed regular expression: " + outRegex);
-        } else if (nextChar == '|') {
-            // alternation
-            RegularExpression fromR = parseR(reader);
-            outRegex = new AlternationExpression(inRegex, fromR);
-            logger.log(Level.INFO, "Parsed alternation regular expression: " + outRegex);
-        } else if (nextChar == '*') {
-            // zero or more
-            outRegex = new ZeroOrMore(inRegex);
-            logger.log(Level.INFO, "Parsed zero or more regular expression: " + outRegex);
-        } else if (nextChar == '+') {
-            // one or more
-            outRegex = new OneOrMore(inRegex);
-            logger.log(Level.INFO, "Parsed one or more regular expression: " + outRegex);
-        } else if (nextChar == '?') {
-            // zero or one
-            outRegex = new ZeroOrOne(inRegex);
-            logger.log(Level.INFO, "Parsed zero or one regular expression: " + outRegex);
-        } else if (followOfTMinusFirstOfT.contains(nextChar)) {
-            // epsilon production
-            
-            // here we must push back any characters from followOfTMinusFirstOfT
-            // (except $) so that it may be properly read later.
-            if (nextChar != '$') {
-                reader.unread(next);
-            }
-
-            return inRegex;
-        } else {
-            // should not get here
-            throw new MalformedInputException("Read unexpected character: " + nextChar + ", val = " + next);
+        if (in.peek() != '}') {
+            throw in.error("Expected '}' to end a repetition count.");
+        }
+        in.pos++;
+        if (max < min) {
+            throw in.error("Repetition count {" + min + "," + max + "} has a maximum less than its minimum.");
         }
         
-        // The T productions are right recursive (except for the epsilon
-        // transition which has already been accounted for).
-        return parseT(outRegex, reader);
+        return new RepetitionExpression(re, min, max, !in.lazy());
     }
     
-    private RegularExpression parseByteLiteral(PushbackReader reader) throws IOException {
+    private int parseCount(Input in) throws MalformedInputException {
         
-        // read the next four characters
-        char[] str = new char[4];
-        reader.read(str);
+        // read decimal digits up to the first non-digit
+        long count = 0;
+        int numDigits = 0;
+        int next = in.peek();
+        while (next >= '0' && next <= '9') {
+            count = count * 10 + (next - '0');
+            if (count >= RepetitionExpression.UNBOUNDED) {
+                throw in.error("Repetition count is too large.");
+            }
+            numDigits++;
+            in.pos++;
+            next = in.peek();
+        }
         
-        // the first two characters must be '0x'
-        if (str[0] != '0' || Character.toLowerCase(str[1]) != 'x') {
-            String errorStr = "Attempted to parse a byte literal: expected '0x' but got '" + str[0] + str[1] + "'";
-            logger.log(Level.SEVERE, errorStr);
-            throw new MalformedInputException(errorStr);
+        if (numDigits == 0) {
+            throw in.error("Expected a repetition count.");
         }
         
-        // create a string from the char array
-        String hexStr = new String(str);
+        return (int)count;
+    }
+    
+    private RegularExpression parseByteLiteral(Input in) throws MalformedInputException {
         
-        // try to decode the hex string
-        int val;
-        try {
-            val = Integer.decode(hexStr);
-        } catch (NumberFormatException nfe) {
-            logger.log(Level.INFO, "Failed parsing a byte literal: " + nfe);
-            throw new MalformedInputException("Failed to parse byte literal.");
+        // the first two characters must be '0x'
+        char[] chars = in.chars;
+        int at = in.pos;
+        if (in.end - at < 4 || chars[at] != '0' || Character.toLowerCase(chars[at + 1]) != 'x') {
+            throw in.error("Attempted to parse a byte literal: expected '0x' followed by two hexadecimal digits");
         }
         
-        // cast to a byte
-        byte byteVal = (byte)val;
-        
-        RegularExpression byteLiteral = new LiteralByte(byteVal);
+        // a '?' in place of a hex digit matches any value of that nibble
+        int value = 0;
+        int mask = 0;
+        for (int i = at + 2; i < at + 4; i++) {
+            value <<= 4;
+            mask <<= 4;
+            if (chars[i] != '?') {
+                int digit = Character.digit(chars[i], 16);
+                if (digit < 0) {
+                    throw in.error("Failed to parse byte literal.");
+                }
+                value |= digit;
+                mask |= 0xF;
+            }
+        }
+        in.pos += 4;
         
-        // log it
-        logger.log(Level.INFO, "Created byte literal regular expression: " + byteLiteral);
+        if (mask != 0xFF) {
+            return ByteClassExpression.masked(value, mask);
+        }
         
-        // return a LiteralByte regex
-        return byteLiteral;
+        return new LiteralByte((byte)value);
     }
     
-    private RegularExpression parseGrouping(PushbackReader reader) throws IOException {
+    private RegularExpression parseByteClass(Input in) throws MalformedInputException {
         
-        // make sure the next character is '('
-        char next = (char)reader.read();
-        if (next != '(') {
-            throw new MalformedInputException("Expected '(' but read '" + next + "'");
-        }
+        // the '[' has been peeked
+        in.pos++;
         
-        // log start of group
-        logger.log(Level.INFO, "Start parsing regular expression grouping.");
+        // a leading '^' negates the class
+        boolean negated = false;
+        if (in.peek() == '^') {
+            negated = true;
+            in.pos++;
+        }
         
-        // parse the grouped regular expression
-        RegularExpression re = parseR(reader);
+        // union the items up to the closing ']'
+        ByteClassExpression byteClass = new ByteClassExpression(new long[4]);
+        int numItems = 0;
+        int next = in.peek();
+        while (next != ']') {
+            if (next == -1) {
+                throw in.error("Expected ']' to end a byte class.");
+            }
+            if (next != '0') {
+                throw in.error("Expected a byte literal or ']' in a byte class but read '" + (char)next + "'");
+            }
+            RegularExpression item = parseByteLiteral(in);
+            
+            if (in.peek() == '-') {
+                in.pos++;
+                RegularExpression last = parseByteLiteral(in);
+                if (!(item instanceof LiteralByte) || !(last instanceof LiteralByte)) {
+                    throw in.error("The ends of a byte range must be byte literals.");
+                }
+                int first = ((LiteralByte)item).getLiteralByte() & 0xFF;
+                int lastByte = ((LiteralByte)last).getLiteralByte() & 0xFF;
+                if (first > lastByte) {
+                    throw in.error("Byte range " + item + "-" + last + " is out of order.");
+                }
+                item = new ByteClassExpression(first, lastByte);
+            }
+            
+            if (item instanceof LiteralByte) {
+                int b = ((LiteralByte)item).getLiteralByte() & 0xFF;
+                item = new ByteClassExpression(b, b);
+            }
+            byteClass = byteClass.union((ByteClassExpression)item);
+            numItems++;
+            next = in.peek();
+        }
+        in.pos++;
         
-        // make sure the next character is ')'
-        next = (char)reader.read();
-        if (next != ')') {
-            throw new MalformedInputException("Expected ')' but read '" + next + "'");
+        if (numItems == 0) {
+            throw in.error("A byte class must have at least one item.");
         }
         
-        // log end of group
-        logger.log(Level.INFO, "Finished parsing regular expression grouping.");
+        if (negated) {
+            byteClass = byteClass.negate();
+        }
         
-        return re;
+        return byteClass;
+    }
+
+    /**
+     * The characters being parsed, the index of the next one, the number
+     * of capture groups opened so far and the tracer, if any.
+     */
+    private static final class Input {
+
+        final char[] chars;
+        final int start;
+        final int end;
+        final Tracer tracer;
+        int pos;
+        int numGroups;
+
+        Input(char[] chars, int start, int end, Tracer tracer) {
+            this.chars = chars;
+            this.start = start;
+            this.end = end;
+            this.tracer = tracer;
+            this.pos = start;
+        }
+
+        /**
+         * Traces a node that runs from index from up to the next character.
+         * @return the node
+         */
+        RegularExpression parsed(RegularExpression re, int from) {
+            if (tracer != null) {
+                tracer.onParse(re, from - start, pos - start);
+            }
+            return re;
+        }
+
+        /**
+         * @return the next character, without reading it, or -1 at the end
+         * of the input
+         */
+        int peek() {
+            return pos < end ? chars[pos] : -1;
+        }
+
+        /**
+         * Reads the ? that makes the quantifier just read lazy, if there is
+         * one.
+         * @return true if the quantifier is lazy
+         */
+        boolean lazy() {
+            if (peek() == '?') {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        MalformedInputException error(String message) {
+            if (tracer != null) {
+                tracer.onParseError(message, pos - start);
+            }
+            return new MalformedInputException(message + " (at index " + (pos - start) + ")");
+        }
+    }
+
+    /**
+     * A group whose closing parenthesis has not been read yet: the R's read
+     * so far in it, each but the last followed by a sequence or alternation.
+     */
+    private static final class Group {
+
+        final Group parent;
+        final int number;
+        final int start;
+        RegularExpression[] items = new RegularExpression[4];
+        int[] starts = new int[4];
+        boolean[] alternation = new boolean[4];
+        int size;
+        RegularExpression current;
+        int currentStart;
+
+        Group(Group parent, int number, int start) {
+            this.parent = parent;
+            this.number = number;
+            this.start = start;
+        }
+
+        /**
+         * Ends the current R, which is followed by an alternation or a
+         * sequence with the next one.
+         */
+        void add(boolean isAlternation) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+                starts = Arrays.copyOf(starts, 2 * size);
+                alternation = Arrays.copyOf(alternation, 2 * size);
+            }
+            items[size] = current;
+            starts[size] = currentStart;
+            alternation[size] = isAlternation;
+            size++;
+            current = null;
+        }
+
+        /**
+         * @return the group's R's joined from the right, each sequence or
+         * alternation taking all that follows it
+         */
+        RegularExpression finish(Input in) {
+            RegularExpression re = current;
+            for (int i = size - 1; i >= 0; i--) {
+                re = alternation[i] ? new AlternationExpression(items[i], re) : new SequenceExpression(items[i], re);
+                in.parsed(re, starts[i]);
+            }
+            return re;
+        }
     }
 }
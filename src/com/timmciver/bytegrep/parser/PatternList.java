@@ -0,0 +1,129 @@
+package com.timmciver.bytegrep.parser;
+
+import com.timmciver.bytegrep.RegularExpression;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The patterns of a file with one pattern per line.  Blank lines and lines
+ * starting with '#' are skipped and leading and trailing whitespace is
+ * ignored.  The whole file is decoded into one char array and each line is
+ * parsed in place, so loading many patterns costs little more than reading
+ * the file.  A line that does not parse does not stop the others from being
+ * parsed; its error is kept along with its line number.
+ * @author tim
+ */
+public final class PatternList {
+
+    private final List<RegularExpression> patterns;
+    private final int[] lineNumbers;
+    private final SortedMap<Integer, String> errors;
+
+    private PatternList(List<RegularExpression> patterns, int[] lineNumbers, SortedMap<Integer, String> errors) {
+        this.patterns = Collections.unmodifiableList(patterns);
+        this.lineNumbers = lineNumbers;
+        this.errors = Collections.unmodifiableSortedMap(errors);
+    }
+
+    /**
+     * Reads and parses a UTF-8 file of patterns.
+     * @param file the file
+     * @param parser the parser to parse each line with
+     * @return the patterns and the errors of the lines that did not parse
+     * @throws IOException if the file can't be read
+     */
+    public static PatternList read(Path file, DefaultParser parser) throws IOException {
+        CharBuffer text = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+        return parse(text.array(), text.arrayOffset() + text.position(), text.arrayOffset() + text.limit(), parser);
+    }
+
+    /**
+     * Parses the patterns in the characters from index from up to index to
+     * of the given array.
+     * @param chars the text of the patterns
+     * @param from the index of the first character of the text
+     * @param to the index after its last character
+     * @param parser the parser to parse each line with
+     * @return the patterns and the errors of the lines that did not parse
+     */
+    public static PatternList parse(char[] chars, int from, int to, DefaultParser parser) {
+
+        List<RegularExpression> patterns = new ArrayList<>();
+        int[] lineNumbers = new int[16];
+        SortedMap<Integer, String> errors = new TreeMap<>();
+
+        int lineNumber = 0;
+        int lineStart = from;
+        while (lineStart < to) {
+            lineNumber++;
+
+            // find the end of the line; \r\n ends a line as well as \n
+            int lineEnd = lineStart;
+            while (lineEnd < to && chars[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+
+            // trim whitespace from both ends
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && chars[start] <= ' ') {
+                start++;
+            }
+            while (end > start && chars[end - 1] <= ' ') {
+                end--;
+            }
+            lineStart = next;
+            if (start == end || chars[start] == '#') {
+                continue;
+            }
+
+            try {
+                RegularExpression re = parser.parse(chars, start, end);
+                if (patterns.size() == lineNumbers.length) {
+                    lineNumbers = Arrays.copyOf(lineNumbers, 2 * lineNumbers.length);
+                }
+                lineNumbers[patterns.size()] = lineNumber;
+                patterns.add(re);
+            } catch (MalformedInputException ex) {
+                errors.put(lineNumber, ex.getMessage());
+            }
+        }
+
+        return new PatternList(patterns, Arrays.copyOf(lineNumbers, patterns.size()), errors);
+    }
+
+    /**
+     * @return the patterns that parsed, in the order of their lines
+     */
+    public List<RegularExpression> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @param pattern the index of a pattern in getPatterns()
+     * @return the line, numbered from one, that the pattern is on
+     */
+    public int getLineNumber(int pattern) {
+        return lineNumbers[pattern];
+    }
+
+    /**
+     * @return the error message of each line that did not parse, by line
+     * number
+     */
+    public SortedMap<Integer, String> getErrors() {
+        return errors;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.timmciver.bytegrep.prefilter;
+
+/**
+ * A rough ranking of how common each byte value is in typical binary files
+ * such as executables and firmware images.  Lower ranks are rarer.
+ * @author tim
+ */
+final class ByteFrequencies {
+
+    private static final int[] RANKS = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int rank;
+            if (b == 0x00) {
+                rank = 255;
+            } else if (b == 0xFF) {
+                rank = 250;
+            } else if (b == ' ' || "etaoinsrhl".indexOf(b) >= 0) {
+                rank = 220;
+            } else if (b >= 'a' && b <= 'z') {
+                rank = 200;
+            } else if (b >= '0' && b <= '9') {
+                rank = 190;
+            } else if (b >= 'A' && b <= 'Z') {
+                rank = 180;
+            } else if (b == 0x01 || b == '\n' || b == '\r' || b == '\t') {
+                rank = 170;
+            } else if (b < 0x80) {
+                // other punctuation and control characters
+                rank = 150;
+            } else if (b == 0x80 || b == 0xFE || b == 0xC0) {
+                rank = 130;
+            } else {
+                rank = 100;
+            }
+            RANKS[b] = rank;
+        }
+    }
+
+    private ByteFrequencies() {
+    }
+
+    static int rank(byte b) {
+        return RANKS[b & 0xFF];
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.timmciver.bytegrep.prefilter;
+
+/**
+ * A Prefilter that finds a literal prefix with the Boyer-Moore-Horspool
+ * algorithm.  The longer the prefix the further it can skip on a mismatch.
+ * @author tim
+ */
+public class HorspoolPrefilter implements Prefilter {
+
+    /**
+     * The shortest prefix for which Horspool beats a word-at-a-time scan.
+     */
+    public static final int MIN_LENGTH = 8;
+
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+
+    public HorspoolPrefilter(byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Cannot search for an empty pattern.");
+        }
+        this.pattern = pattern.clone();
+
+        // the distance from the last occurrence of each byte (ignoring the last
+        // position) to the end of the pattern
+        int last = pattern.length - 1;
+        for (int b = 0; b < 256; b++) {
+            shift[b] = pattern.length;
+        }
+        for (int i = 0; i < last; i++) {
+            shift[pattern[i] & 0xFF] = last - i;
+        }
+    }
+
+    @Override
+    public int next(byte[] data, int from, int to) {
+
+        int last = pattern.length - 1;
+        byte lastByte = pattern[last];
+        int i = from;
+
+        while (i + last < to) {
+            byte b = data[i + last];
+            if (b == lastByte && matchesAt(data, i)) {
+                return i;
+            }
+            i += shift[b & 0xFF];
+        }
+
+        return -1;
+    }
+
+    private boolean matchesAt(byte[] data, int offset) {
+        for (int i = pattern.length - 2; i >= 0; i--) {
+            if (data[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
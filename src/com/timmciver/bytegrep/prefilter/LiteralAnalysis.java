@@ -0,0 +1,372 @@
+package com.timmciver.bytegrep.prefilter;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
+import com.timmciver.bytegrep.ConcatenationExpression;
+import com.timmciver.bytegrep.ExpressionFold;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.LiteralString;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The result of analysing a RegularExpression for the bytes every match must
+ * contain.  Only bytes at a fixed distance from the start of the match are
+ * recorded; the run of them starting at offset zero is the mandatory literal
+ * prefix of the expression.  The analysis also records the minimum and
+ * maximum length of a match and which anchors the expression uses.
+ * @author tim
+ */
+public final class LiteralAnalysis {
+
+    /**
+     * The value returned by getMaxLength when matches can be arbitrarily long.
+     */
+    public static final int UNBOUNDED = -1;
+
+    // required bytes further than this from the start of a match are not
+    // recorded, which keeps the analysis of long repetitions cheap
+    private static final int MAX_OFFSET = 256;
+
+    private final int[] offsets;
+    private final byte[] values;
+    private final int prefixLength;
+    private final boolean exact;
+    private final int minLength;
+    private final int maxLength;
+    private final boolean hasStartAnchor;
+    private final boolean hasEndAnchor;
+    private final boolean anchoredAtStart;
+    private final boolean anchoredAtEnd;
+
+    private LiteralAnalysis(Info info) {
+        this.offsets = new int[info.required.size()];
+        this.values = new byte[offsets.length];
+        int i = 0;
+        for (Map.Entry<Integer, Byte> entry : info.required.entrySet()) {
+            offsets[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+
+        int prefix = 0;
+        while (prefix < offsets.length && offsets[prefix] == prefix) {
+            prefix++;
+        }
+        this.prefixLength = prefix;
+        this.exact = info.exact && prefix == info.minLength;
+        this.minLength = (int)Math.min(info.minLength, Integer.MAX_VALUE);
+        this.maxLength = info.maxLength > Integer.MAX_VALUE ? UNBOUNDED : (int)info.maxLength;
+        this.hasStartAnchor = info.hasStart;
+        this.hasEndAnchor = info.hasEnd;
+        this.anchoredAtStart = info.startAnchored;
+        this.anchoredAtEnd = info.endAnchored;
+    }
+
+    /**
+     * Analyses the given RegularExpression.
+     * @param re the expression to analyse
+     * @return the analysis
+     */
+    public static LiteralAnalysis analyze(RegularExpression re) {
+        return new LiteralAnalysis(analyzeNode(re));
+    }
+
+    /**
+     * @return the number of bytes known to be at a fixed offset in every match
+     */
+    public int getNumRequired() {
+        return offsets.length;
+    }
+
+    /**
+     * @return the offset from the start of a match of the i'th required byte;
+     * offsets are in increasing order
+     */
+    public int getRequiredOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @return the value of the i'th required byte
+     */
+    public byte getRequiredByte(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the bytes every match starts with
+     */
+    public byte[] getPrefix() {
+        byte[] prefix = new byte[prefixLength];
+        System.arraycopy(values, 0, prefix, 0, prefixLength);
+        return prefix;
+    }
+
+    /**
+     * @return true if the expression only matches its prefix
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return the maximum length of a match or UNBOUNDED
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return true if the expression has a ^ anywhere in it
+     */
+    public boolean hasStartAnchor() {
+        return hasStartAnchor;
+    }
+
+    /**
+     * @return true if the expression has a $ anywhere in it
+     */
+    public boolean hasEndAnchor() {
+        return hasEndAnchor;
+    }
+
+    /**
+     * @return true if every match starts at the start of the input
+     */
+    public boolean isAnchoredAtStart() {
+        return anchoredAtStart;
+    }
+
+    /**
+     * @return true if every match ends at the end of the input
+     */
+    public boolean isAnchoredAtEnd() {
+        return anchoredAtEnd;
+    }
+
+    /**
+     * Creates the best Prefilter for the analysed expression.  Long prefixes
+     * are searched for with Boyer-Moore-Horspool, or by run length if they
+     * are a single byte repeated; otherwise the rarest
+     * required byte is searched for a word at a time and the other required
+     * bytes are checked around it.
+     * @return a new Prefilter or null if no byte is required in every match
+     */
+    public Prefilter newPrefilter() {
+
+        if (offsets.length == 0) {
+            return null;
+        }
+
+        if (prefixLength >= HorspoolPrefilter.MIN_LENGTH) {
+            byte[] prefix = getPrefix();
+            if (RunPrefilter.isRun(prefix)) {
+                return new RunPrefilter(prefix[0], prefixLength);
+            }
+            return new HorspoolPrefilter(prefix);
+        }
+
+        int rarest = 0;
+        for (int i = 1; i < offsets.length; i++) {
+            if (ByteFrequencies.rank(values[i]) < ByteFrequencies.rank(values[rarest])) {
+                rarest = i;
+            }
+        }
+
+        return new MemchrPrefilter(rarest, offsets, values);
+    }
+
+    private static Info analyzeNode(RegularExpression re) {
+        return ANALYZE.fold(re);
+    }
+
+    // the tree is folded rather than recursed into as it can be as deep as
+    // the pattern is long
+    private static final ExpressionFold<Info> ANALYZE = new ExpressionFold<Info>() {
+
+        @Override
+        protected Info combine(RegularExpression re, List<Info> parts) {
+
+            if (re instanceof Anchor) {
+                // an anchor matches nothing but says where the match is
+                boolean start = ((Anchor)re).isStart();
+                Info info = new Info(0, 0, false);
+                info.hasStart = info.startAnchored = start;
+                info.hasEnd = info.endAnchored = !start;
+                return info;
+            }
+
+            if (re instanceof LiteralByte) {
+                Info info = new Info(1, 1, true);
+                info.required.put(0, ((LiteralByte)re).getLiteralByte());
+                return info;
+            }
+
+            if (re instanceof ByteClassExpression) {
+                // a class always matches one byte, which is only known if it is
+                // the class's only member
+                ByteClassExpression bc = (ByteClassExpression)re;
+                Info info = new Info(1, 1, bc.size() == 1);
+                if (bc.size() == 1) {
+                    info.required.put(0, (byte)bc.first());
+                }
+                return info;
+            }
+
+            if (re instanceof LiteralString) {
+                LiteralString ls = (LiteralString)re;
+                Info info = new Info(ls.length(), ls.length(), true);
+                for (int i = 0; i < ls.length() && i < MAX_OFFSET; i++) {
+                    info.required.put(i, ls.byteAt(i));
+                }
+                return info;
+            }
+
+            if (re instanceof SequenceExpression || re instanceof ConcatenationExpression) {
+                Info info = null;
+                for (Info part : parts) {
+                    info = info == null ? part : sequence(info, part);
+                }
+                return info;
+            }
+
+            if (re instanceof AlternationExpression) {
+                Info first = parts.get(0);
+                Info second = parts.get(1);
+                Info info = new Info(Math.min(first.minLength, second.minLength),
+                        Math.max(first.maxLength, second.maxLength),
+                        first.exact && second.exact
+                                && first.minLength == second.minLength
+                                && first.required.equals(second.required));
+
+                // only the bytes required by both alternatives are required
+                info.required.putAll(first.required);
+                Iterator<Map.Entry<Integer, Byte>> it = info.required.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, Byte> entry = it.next();
+                    if (!entry.getValue().equals(second.required.get(entry.getKey()))) {
+                        it.remove();
+                    }
+                }
+
+                info.hasStart = first.hasStart || second.hasStart;
+                info.hasEnd = first.hasEnd || second.hasEnd;
+                info.startAnchored = first.startAnchored && second.startAnchored;
+                info.endAnchored = first.endAnchored && second.endAnchored;
+                return info;
+            }
+
+            if (re instanceof RepetitionExpression) {
+                RepetitionExpression rep = (RepetitionExpression)re;
+                Info expr = parts.get(0);
+                long min = rep.getMinMatches();
+                long max = rep.getMaxMatches();
+                Info info = new Info(Info.times(expr.minLength, min),
+                        max == Integer.MAX_VALUE ? Info.INFINITE : Info.times(expr.maxLength, max),
+                        expr.exact && min == max);
+
+                // every mandatory repetition contributes its bytes if the
+                // repeated expression has a fixed length, otherwise only the first
+                if (min > 0) {
+                    info.required.putAll(expr.required);
+                    if (expr.minLength == expr.maxLength && expr.minLength > 0) {
+                        for (long i = 1; i < min && i * expr.minLength < MAX_OFFSET; i++) {
+                            shiftInto(info.required, expr.required, i * expr.minLength);
+                        }
+                    } else if (min > 1) {
+                        info.exact = false;
+                    }
+                }
+
+                info.hasStart = expr.hasStart;
+                info.hasEnd = expr.hasEnd;
+                info.startAnchored = min > 0 && expr.startAnchored;
+                info.endAnchored = min > 0 && expr.endAnchored;
+                return info;
+            }
+
+            if (re instanceof CaptureGroup) {
+                return parts.get(0);
+            }
+
+            // nothing is known about other kinds of expression
+            return new Info(0, Info.INFINITE, false);
+        }
+    };
+
+    private static Info sequence(Info first, Info second) {
+        Info info = new Info(first.minLength + second.minLength,
+                first.maxLength + second.maxLength,
+                first.exact && second.exact);
+        info.required.putAll(first.required);
+
+        // the bytes required by the second expression are only at a known
+        // offset if the first one always matches the same number of bytes
+        if (first.minLength == first.maxLength) {
+            shiftInto(info.required, second.required, first.minLength);
+        } else {
+            info.exact = false;
+        }
+
+        // an anchor only anchors the whole sequence if nothing can come
+        // between it and that end of the match
+        info.hasStart = first.hasStart || second.hasStart;
+        info.hasEnd = first.hasEnd || second.hasEnd;
+        info.startAnchored = first.startAnchored || first.maxLength == 0 && second.startAnchored;
+        info.endAnchored = second.endAnchored || second.maxLength == 0 && first.endAnchored;
+        return info;
+    }
+
+    private static void shiftInto(TreeMap<Integer, Byte> into, TreeMap<Integer, Byte> from, long shift) {
+        for (Map.Entry<Integer, Byte> entry : from.entrySet()) {
+            long offset = entry.getKey() + shift;
+            if (offset < MAX_OFFSET) {
+                into.put((int)offset, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * What is known about a single node of the expression tree.
+     */
+    private static final class Info {
+
+        // lengths saturate at INFINITE so that sums and products don't overflow
+        static final long INFINITE = Long.MAX_VALUE / 4;
+
+        final TreeMap<Integer, Byte> required = new TreeMap<>();
+        final long minLength;
+        final long maxLength;
+        boolean exact;
+        boolean hasStart;
+        boolean hasEnd;
+        boolean startAnchored;
+        boolean endAnchored;
+
+        Info(long minLength, long maxLength, boolean exact) {
+            this.minLength = Math.min(minLength, INFINITE);
+            this.maxLength = Math.min(maxLength, INFINITE);
+            this.exact = exact;
+        }
+
+        static long times(long length, long count) {
+            if (count != 0 && length > INFINITE / count) {
+                return INFINITE;
+            }
+            return length * count;
+        }
+    }
+
+}
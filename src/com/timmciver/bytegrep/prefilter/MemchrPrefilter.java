@@ -0,0 +1,99 @@
+package com.timmciver.bytegrep.prefilter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A Prefilter that searches for a single required byte eight bytes at a time
+ * and then checks the other bytes required at fixed offsets around it.  The
+ * search reads the input as little endian longs and uses the usual SWAR trick
+ * to find a zero byte in the XOR of each word with the wanted byte repeated.
+ * @author tim
+ */
+public class MemchrPrefilter implements Prefilter {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final byte needle;
+    private final long needleWord;
+    private final int needleOffset;
+    private final int[] offsets;
+    private final byte[] values;
+    private final int span;
+
+    // a view of the last array searched so that it isn't wrapped every time
+    private byte[] viewed;
+    private ByteBuffer view;
+
+    /**
+     * @param index the index of the byte to search for in offsets and values
+     * @param offsets the offsets of the required bytes from the start of a
+     * match in increasing order
+     * @param values the values of the required bytes
+     */
+    public MemchrPrefilter(int index, int[] offsets, byte[] values) {
+        this.needle = values[index];
+        this.needleWord = (needle & 0xFFL) * ONES;
+        this.needleOffset = offsets[index];
+        this.offsets = offsets.clone();
+        this.values = values.clone();
+        this.span = offsets[offsets.length - 1] + 1;
+    }
+
+    @Override
+    public int next(byte[] data, int from, int to) {
+
+        // the needle of a candidate starting at the last possible offset
+        int end = to - span + needleOffset + 1;
+        int i = from + needleOffset;
+
+        while (i < end) {
+            int found = indexOf(data, i, end);
+            if (found < 0) {
+                return -1;
+            }
+            int candidate = found - needleOffset;
+            if (verify(data, candidate)) {
+                return candidate;
+            }
+            i = found + 1;
+        }
+
+        return -1;
+    }
+
+    private boolean verify(byte[] data, int candidate) {
+        for (int i = 0; i < offsets.length; i++) {
+            if (data[candidate + offsets[i]] != values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] data, int from, int to) {
+
+        if (data != viewed) {
+            viewed = data;
+            view = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = view.getLong(i) ^ needleWord;
+            long zeros = (word - ONES) & ~word & HIGHS;
+            if (zeros != 0) {
+                return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (data[i] == needle) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.timmciver.bytegrep.prefilter;
+
+/**
+ * Quickly finds the offsets at which a match could start so that a full
+ * matcher only needs to run there.  Prefilters may keep scratch space between
+ * calls so they are not thread safe.
+ * @author tim
+ */
+public interface Prefilter {
+
+    /**
+     * Finds the next candidate offset.
+     * @param data input byte array
+     * @param from the offset at which the search begins
+     * @param to the offset at which the input ends
+     * @return the smallest offset no earlier than from at which a match could
+     * start, or -1 if no match can start before to
+     */
+    int next(byte[] data, int from, int to);
+
+}
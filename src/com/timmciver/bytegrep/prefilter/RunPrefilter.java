@@ -0,0 +1,58 @@
+package com.timmciver.bytegrep.prefilter;
+
+/**
+ * A Prefilter for a prefix that is one byte repeated, such as the padding
+ * block 0x00{4096}.  Horspool can only shift by one on such a prefix once it
+ * is in a run of the byte, so instead each window is checked from its last
+ * byte back: a different byte at offset j of the window rules out every
+ * start up to and including it, and the search skips past it.
+ * @author tim
+ */
+public class RunPrefilter implements Prefilter {
+
+    private final byte value;
+    private final int length;
+
+    /**
+     * @param value the repeated byte
+     * @param length how many times it is repeated
+     */
+    public RunPrefilter(byte value, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Cannot search for an empty run.");
+        }
+        this.value = value;
+        this.length = length;
+    }
+
+    @Override
+    public int next(byte[] data, int from, int to) {
+
+        int i = from;
+        while (i + length <= to) {
+            int j = length - 1;
+            while (j >= 0 && data[i + j] == value) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += j + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true if the given prefix is a single byte repeated
+     */
+    static boolean isRun(byte[] prefix) {
+        for (int i = 1; i < prefix.length; i++) {
+            if (prefix[i] != prefix[0]) {
+                return false;
+            }
+        }
+        return prefix.length > 0;
+    }
+
+}
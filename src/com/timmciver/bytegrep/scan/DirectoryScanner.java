@@ -0,0 +1,566 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.SearchAbortedException;
+import com.timmciver.bytegrep.engine.SearchBudget;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scans every file found under a list of files, directories and globs.  One
+ * thread walks the file trees and feeds the files through a bounded queue to a
+ * pool of workers, each with a FileScanner of its own.  Small files are
+ * batched so that the queue isn't dominated by tiny items, and files larger
+ * than twice the segment size are split into segments that are scanned in
+ * parallel and joined back up by a SegmentMerger.
+ *
+ * The matches are passed to the listener on the calling thread, either in the
+ * order the files were walked or, if the scanner is unordered, a file at a
+ * time as soon as each file is done.  An ordered scan holds on to the matches
+ * of the files that finish before the ones walked earlier.
+ *
+ * A scanner created with a SearchBudget gives each worker a copy, since a
+ * budget is not thread safe, so the step limit and the timeout apply to each
+ * file or segment.  The calling thread keeps a copy of its own, started with
+ * each scan, which holds the whole scan to the timeout and is checked as each
+ * result arrives.  When a search runs out of budget or is cancelled the scan
+ * stops and throws the SearchAbortedException, which for a worker's search
+ * says how far it got in the file it was scanning.
+ * @author tim
+ */
+public class DirectoryScanner {
+
+    public static final long SMALL_FILE_SIZE = 64 * 1024;
+    public static final long BATCH_SIZE = 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_BATCH_FILES = 256;
+
+    // sentinels for the work and result queues
+    private static final Work NO_MORE_WORK = new Work();
+    private static final Result WORKER_DONE = new Result(null, -1, 0, 0, 0);
+
+    private final CompiledPattern pattern;
+    private final EngineType engineType;
+    private final MatchMode mode;
+    private final int numThreads;
+    private final boolean ordered;
+    private final long maxMatchesPerFile;
+    private final long segmentSize;
+    private final SearchBudget budget;
+    private volatile ScanMetrics metrics;
+
+    public DirectoryScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads,
+            boolean ordered) {
+        this(pattern, engineType, mode, numThreads, ordered, Long.MAX_VALUE, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param numThreads the number of worker threads
+     * @param ordered if true files are reported in the order they are walked
+     * @param maxMatchesPerFile the number of matches after which the rest of
+     * a file is skipped
+     * @param segmentSize the size of the segments large files are split into
+     */
+    public DirectoryScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads,
+            boolean ordered, long maxMatchesPerFile, long segmentSize) {
+        this(pattern, engineType, mode, numThreads, ordered, maxMatchesPerFile, segmentSize, null);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param numThreads the number of worker threads
+     * @param ordered if true files are reported in the order they are walked
+     * @param maxMatchesPerFile the number of matches after which the rest of
+     * a file is skipped
+     * @param segmentSize the size of the segments large files are split into
+     * @param budget the limits on each search, copied for each thread, or
+     * null for none
+     */
+    public DirectoryScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads,
+            boolean ordered, long maxMatchesPerFile, long segmentSize, SearchBudget budget) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        }
+        if (maxMatchesPerFile <= 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("The match limit and segment size must be positive.");
+        }
+        this.pattern = pattern;
+        this.engineType = engineType;
+        this.mode = mode;
+        this.numThreads = numThreads;
+        this.ordered = ordered;
+        this.maxMatchesPerFile = maxMatchesPerFile;
+        this.segmentSize = segmentSize;
+        this.budget = budget;
+        this.metrics = new ScanMetrics(engineType);
+    }
+
+    /**
+     * @return the metrics of the last scan, summed over its threads, or empty
+     * metrics if there hasn't been one
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans the files named by a list of paths.  Each path may be a file, a
+     * directory, which is searched recursively, or a glob such as
+     * "logs/**.bin".  Paths that cannot be read are passed to the listener's
+     * onError.
+     * @param paths the files, directories and globs to scan
+     * @param listener receives the matches
+     * @return the number of matches reported
+     * @throws IOException if the scan was interrupted
+     */
+    public long scan(List<String> paths, FileMatchListener listener) throws IOException {
+
+        long startTime = System.nanoTime();
+        ScanMetrics total = new ScanMetrics(engineType);
+        SearchBudget overall = copyBudget();
+        BlockingQueue<Work> work = new ArrayBlockingQueue<>(4 * numThreads);
+        BlockingQueue<Result> results = new ArrayBlockingQueue<>(16 * numThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+        Map<Integer, Pending> pending = new HashMap<>();
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            futures.add(executor.submit(new Walker(paths, work, results)));
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new Worker(work, results, total)));
+            }
+
+            // report the results as they arrive, each file's pieces in order
+            Reporter reporter = new Reporter(listener, total);
+            int nextFile = 0;
+            int workersLeft = numThreads;
+            while (workersLeft > 0) {
+                Result result = results.take();
+                if (result == WORKER_DONE) {
+                    workersLeft--;
+                    continue;
+                }
+                if (result.aborted != null) {
+                    throw result.aborted;
+                }
+                if (overall != null) {
+                    overall.check();
+                }
+
+                Pending p = pending.get(result.file);
+                if (p == null) {
+                    p = new Pending(result.path, result.numPieces);
+                    pending.put(result.file, p);
+                }
+                p.pieces[result.piece] = result;
+
+                int file = ordered ? nextFile : result.file;
+                while ((p = pending.get(file)) != null && reporter.drain(p)) {
+                    pending.remove(file);
+                    if (!ordered) {
+                        break;
+                    }
+                    file = ++nextFile;
+                }
+            }
+
+            // pass on anything that went wrong on another thread
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            total.setSearch(reporter.numFiles, reporter.numMatches, System.nanoTime() - startTime);
+            metrics = total;
+            return reporter.numMatches;
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+            for (Pending p : pending.values()) {
+                if (p.merger != null) {
+                    p.merger.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A batch of whole files or a single segment of a large file.
+     */
+    private static final class Work {
+
+        final Path[] paths = new Path[MAX_BATCH_FILES];
+        final int[] files = new int[MAX_BATCH_FILES];
+        int numFiles;
+        long numBytes;
+
+        // the segment, if the work is part of a file
+        int piece = -1;
+        int numPieces;
+        long size;
+    }
+
+    /**
+     * The matches found in a file or one segment of it.
+     */
+    private static final class Result {
+
+        final Path path;
+        final int file;
+        final int piece;
+        final int numPieces;
+        final long size;
+        Segment segment;
+        IOException error;
+        SearchAbortedException aborted;
+
+        Result(Path path, int file, int piece, int numPieces, long size) {
+            this.path = path;
+            this.file = file;
+            this.piece = piece;
+            this.numPieces = numPieces;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The pieces of a file that have arrived but have not been reported yet.
+     */
+    private static final class Pending {
+
+        final Path path;
+        final Result[] pieces;
+        int next;
+        SegmentMerger merger;
+        boolean failed;
+        long numReported;
+
+        Pending(Path path, int numPieces) {
+            this.path = path;
+            this.pieces = new Result[numPieces];
+        }
+    }
+
+    /**
+     * Walks the paths, assigning the files numbers in the order they are
+     * found.
+     */
+    private final class Walker implements Callable<Void> {
+
+        private final List<String> paths;
+        private final BlockingQueue<Work> work;
+        private final BlockingQueue<Result> results;
+        private Work batch = new Work();
+        private int numFiles;
+
+        Walker(List<String> paths, BlockingQueue<Work> work, BlockingQueue<Result> results) {
+            this.paths = paths;
+            this.work = work;
+            this.results = results;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            try {
+                for (String path : paths) {
+                    walk(path);
+                }
+                if (batch.numFiles > 0) {
+                    work.put(batch);
+                }
+            } finally {
+                for (int i = 0; i < numThreads; i++) {
+                    work.put(NO_MORE_WORK);
+                }
+            }
+            return null;
+        }
+
+        private void walk(String path) throws IOException, InterruptedException {
+
+            // a glob is walked from the directory before its first wildcard,
+            // no deeper than it can match
+            Path start = Paths.get(path);
+            PathMatcher matcher = null;
+            int maxDepth = Integer.MAX_VALUE;
+            int wildcard = firstWildcard(path);
+            if (wildcard >= 0) {
+                int slash = Math.max(path.lastIndexOf('/', wildcard), path.lastIndexOf(File.separatorChar, wildcard));
+                start = Paths.get(slash < 0 ? "" : path.substring(0, slash + 1));
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                if (!path.contains("**")) {
+                    maxDepth = 1;
+                    for (int i = slash + 1; i < path.length(); i++) {
+                        char c = path.charAt(i);
+                        if (c == '/' || c == File.separatorChar) {
+                            maxDepth++;
+                        }
+                    }
+                }
+            }
+
+            final PathMatcher filter = matcher;
+            try {
+                Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), maxDepth,
+                        new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (attrs.isRegularFile() && (filter == null || filter.matches(file))) {
+                            add(file, attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+                        Result result = new Result(file, numFiles++, 0, 1, 0);
+                        result.error = ex;
+                        put(results, result);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (InterruptedIOException ex) {
+                throw new InterruptedException();
+            }
+        }
+
+        private void add(Path file, long size) throws InterruptedIOException {
+
+            int index = numFiles++;
+
+            // a large file is split into segments
+            if (size >= 2 * segmentSize) {
+                int numPieces = (int)((size + segmentSize - 1) / segmentSize);
+                for (int i = 0; i < numPieces; i++) {
+                    Work piece = new Work();
+                    piece.paths[0] = file;
+                    piece.files[0] = index;
+                    piece.numFiles = 1;
+                    piece.piece = i;
+                    piece.numPieces = numPieces;
+                    piece.size = size;
+                    put(work, piece);
+                }
+                return;
+            }
+
+            // small files are batched, others are scanned on their own
+            Work w = size < SMALL_FILE_SIZE ? batch : new Work();
+            w.paths[w.numFiles] = file;
+            w.files[w.numFiles] = index;
+            w.numFiles++;
+            w.numBytes += size;
+            if (w != batch) {
+                put(work, w);
+            } else if (batch.numFiles == MAX_BATCH_FILES || batch.numBytes >= BATCH_SIZE) {
+                put(work, batch);
+                batch = new Work();
+            }
+        }
+    }
+
+    /**
+     * Scans the work from the queue until there is no more.
+     */
+    private final class Worker implements Callable<Void> {
+
+        private final BlockingQueue<Work> work;
+        private final BlockingQueue<Result> results;
+        private final FileScanner scanner;
+
+        Worker(BlockingQueue<Work> work, BlockingQueue<Result> results, ScanMetrics total) {
+            this.work = work;
+            this.results = results;
+            this.scanner = new FileScanner(pattern, engineType, mode, copyBudget());
+            scanner.total = total;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            try {
+                Work w;
+                while ((w = work.take()) != NO_MORE_WORK) {
+                    if (w.piece >= 0) {
+                        results.put(scanPiece(w));
+                    } else {
+                        for (int i = 0; i < w.numFiles; i++) {
+                            results.put(scanFile(w.paths[i], w.files[i]));
+                        }
+                    }
+                }
+            } catch (SearchAbortedException ex) {
+                Result result = new Result(null, -1, 0, 0, 0);
+                result.aborted = ex;
+                results.put(result);
+            } finally {
+                results.put(WORKER_DONE);
+            }
+            return null;
+        }
+
+        private Result scanPiece(Work w) {
+            Result result = new Result(w.paths[0], w.files[0], w.piece, w.numPieces, w.size);
+            long start = w.piece * segmentSize;
+            long end = w.piece == w.numPieces - 1 ? w.size + 1 : start + segmentSize;
+            try (FileChannel channel = FileChannel.open(result.path, StandardOpenOption.READ)) {
+                long to = Math.min(w.size, end + scanner.getOverlap());
+                result.segment = Segment.scan(scanner, channel, start, end, to, mode, true);
+            } catch (IOException ex) {
+                result.error = ex;
+            }
+            return result;
+        }
+
+        private Result scanFile(Path path, int file) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                Result result = new Result(path, file, 0, 1, size);
+                final Segment segment = new Segment(0, size + 1);
+                scanner.scan(channel, 0, size, new MatchListener() {
+                    @Override
+                    public boolean onMatch(long start, long end) {
+                        segment.store(start, end);
+                        segment.count++;
+                        segment.resume = mode.next(start, end);
+                        return segment.count < maxMatchesPerFile;
+                    }
+                });
+                result.segment = segment;
+                return result;
+            } catch (IOException ex) {
+                Result result = new Result(path, file, 0, 1, 0);
+                result.error = ex;
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Passes the results to the listener on the calling thread.
+     */
+    private final class Reporter {
+
+        private final FileMatchListener listener;
+        private final ScanMetrics total;
+        private FileScanner rescanner;
+        long numFiles;
+        long numMatches;
+
+        Reporter(FileMatchListener listener, ScanMetrics total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        /**
+         * Reports the pieces of a file that are next in line.
+         * @return true if the file is finished with
+         */
+        boolean drain(final Pending p) throws IOException {
+
+            while (p.next < p.pieces.length && p.pieces[p.next] != null) {
+                Result result = p.pieces[p.next];
+                p.pieces[p.next++] = null;
+                if (p.failed) {
+                    continue;
+                }
+                if (result.error != null) {
+                    p.failed = true;
+                    listener.onError(p.path, result.error);
+                    continue;
+                }
+
+                if (p.merger == null) {
+                    if (rescanner == null) {
+                        rescanner = new FileScanner(pattern, engineType, mode, copyBudget());
+                        rescanner.total = total;
+                    }
+                    p.merger = new SegmentMerger(p.path, result.size, rescanner, mode, new MatchListener() {
+                        @Override
+                        public boolean onMatch(long start, long end) {
+                            p.numReported++;
+                            return listener.onMatch(p.path, start, end) && p.numReported < maxMatchesPerFile;
+                        }
+                    });
+                }
+                p.merger.merge(result.segment);
+            }
+
+            if (p.next < p.pieces.length) {
+                return false;
+            }
+            if (p.merger != null) {
+                p.merger.close();
+            }
+            if (!p.failed) {
+                listener.onFileScanned(p.path, p.numReported);
+                numFiles++;
+            }
+            numMatches += p.numReported;
+            return true;
+        }
+    }
+
+    private SearchBudget copyBudget() {
+        return budget == null ? null : budget.copy();
+    }
+
+    private static int firstWildcard(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if ("*?[{".indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) throws InterruptedIOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while walking.");
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.timmciver.bytegrep.scan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Receives the matches found by a scan of many files.  All of the calls are
+ * made on the thread that started the scan.
+ * @author tim
+ */
+public interface FileMatchListener {
+
+    /**
+     * Called for each match in a file in the order the matches are found.
+     * @param file the file the match is in
+     * @param start the absolute offset of the first byte of the match
+     * @param end the absolute offset just past the last byte of the match
+     * @return true to continue with the file, false to skip the rest of it
+     */
+    boolean onMatch(Path file, long start, long end);
+
+    /**
+     * Called once all of the matches in a file have been reported.
+     * @param file the file
+     * @param numMatches the number of matches reported for it
+     */
+    void onFileScanned(Path file, long numMatches);
+
+    /**
+     * Called instead of onFileScanned when a file could not be read.
+     * @param file the file
+     * @param ex the error
+     */
+    void onError(Path file, IOException ex);
+
+}
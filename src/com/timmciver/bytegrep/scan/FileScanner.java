@@ -0,0 +1,355 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineStats;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.SearchAbortedException;
+import com.timmciver.bytegrep.engine.SearchBudget;
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scans files for the matches of a CompiledPattern a window at a time so that
+ * memory use does not depend on the size of the file.  Consecutive windows
+ * overlap by the maximum length of a match so a match that crosses from one
+ * window into the next is still found whole.  For patterns whose matches can
+ * be arbitrarily long the overlap is capped at maxMatchLength; longer matches
+ * that cross a window boundary may be reported short or missed.
+ *
+ * Matches are reported in order and, unless the scanner was created with
+ * MatchMode.OVERLAPPING, do not overlap.  A GroupListener is also told where
+ * the capture groups of each match are.  A FileScanner keeps its buffer and
+ * Engine between scans so it is not thread safe.
+ *
+ * The anchors ^ and $ match at the start and end of the file, whatever part
+ * of it is scanned.  A pattern whose matches all start at the start of the
+ * file is only tried there, and one whose matches all end at the end of the
+ * file and have a bounded length only has its last bytes read.
+ *
+ * A scanner created with a SearchBudget starts the budget afresh for each
+ * scan, so the limits apply to each file, and checks it at the start of every
+ * window as well as in the engine.  A scan that runs out of budget or is
+ * cancelled throws a SearchAbortedException saying how many matches were
+ * reported and how far the scan got; the matches already reported stand.
+ *
+ * The ScanMetrics of the last scan, which was made on the calling thread, are
+ * available from getMetrics.
+ * @author tim
+ */
+public class FileScanner {
+
+    public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 64 * 1024;
+
+    private final Engine engine;
+    private final Engine engineBeforeEnd;
+    private final MatchMode mode;
+    private final int windowSize;
+    private final int overlap;
+    private final byte[] buffer;
+    private final int[] span = new int[2];
+    private final int[] groupSpan;
+    private final LiteralAnalysis analysis;
+    private final SearchBudget budget;
+    private final EngineType engineType;
+    private final EngineStats stats = new EngineStats();
+    private ScanMetrics metrics;
+
+    // the counts of the scan in progress
+    private long bytesRead;
+    private long numReported;
+    private long ioNanos;
+    private long matchNanos;
+
+    // every scan is also added to these, if not null
+    ScanMetrics total;
+
+    public FileScanner(CompiledPattern pattern, EngineType engineType) {
+        this(pattern, engineType, MatchMode.NON_OVERLAPPING);
+    }
+
+    public FileScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode) {
+        this(pattern, engineType, mode, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param windowSize the number of new bytes searched per window
+     * @param maxMatchLength the overlap to use if the pattern's matches are
+     * unbounded in length
+     */
+    public FileScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode,
+            int windowSize, int maxMatchLength) {
+        this(pattern, engineType, mode, windowSize, maxMatchLength, null);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param budget the limits on each scan, or null for none
+     */
+    public FileScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, SearchBudget budget) {
+        this(pattern, engineType, mode, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_MATCH_LENGTH, budget);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param windowSize the number of new bytes searched per window
+     * @param maxMatchLength the overlap to use if the pattern's matches are
+     * unbounded in length
+     * @param budget the limits on each scan, or null for none
+     */
+    public FileScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode,
+            int windowSize, int maxMatchLength, SearchBudget budget) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("The window size must be positive.");
+        }
+        this.engine = pattern.newEngine(engineType, budget, stats);
+
+        // $ only holds at the end of the file, so the input in a window that
+        // ends before it is searched with $ matching nowhere
+        CompiledPattern withoutEnd = pattern.withoutEndAnchor();
+        this.engineBeforeEnd = withoutEnd == pattern ? engine : withoutEnd.newEngine(engineType, budget, stats);
+        this.budget = budget;
+        this.engineType = engineType;
+        this.metrics = new ScanMetrics(engineType);
+        this.mode = mode;
+        this.windowSize = windowSize;
+        int maxLength = pattern.getAnalysis().getMaxLength();
+        this.overlap = maxLength == LiteralAnalysis.UNBOUNDED ? maxMatchLength : maxLength;
+        this.analysis = pattern.getAnalysis();
+
+        // room for the byte before each window, which is kept for ^
+        this.buffer = new byte[windowSize + overlap + 1];
+        this.groupSpan = new int[2 * (pattern.getNumGroups() + 1)];
+    }
+
+    /**
+     * @return the number of bytes each window shares with the next
+     */
+    int getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * @return the metrics of the last scan, or empty metrics if there hasn't
+     * been one
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans a whole file.
+     * @param path the file to scan
+     * @param listener receives the matches
+     * @return the number of matches reported
+     * @throws IOException if the file could not be read
+     */
+    public long scan(Path path, MatchListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return scan(channel, 0, channel.size(), listener);
+        }
+    }
+
+    /**
+     * Scans part of a file.  Only the bytes in the range are read, along with
+     * the byte before it if the pattern has a ^.  A $ only matches at the end
+     * of the range if that is the end of the file.
+     * @param path the file to scan
+     * @param from the offset of the first byte to scan
+     * @param to the offset just past the last byte to scan; offsets past the
+     * end of the file are taken to be its end
+     * @param listener receives the matches, which lie entirely in the range
+     * @return the number of matches reported
+     * @throws IOException if the file could not be read
+     */
+    public long scan(Path path, long from, long to, MatchListener listener) throws IOException {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Bad range " + from + " to " + to);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            return scan(channel, Math.min(from, size), Math.min(to, size), listener);
+        }
+    }
+
+    /**
+     * Counts the matches in a whole file without reporting them.
+     * @param path the file to scan
+     * @return the number of matches
+     * @throws IOException if the file could not be read
+     */
+    public long count(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return scan(channel, 0, channel.size(), null);
+        }
+    }
+
+    /**
+     * Scans the bytes of a channel between two offsets.  Matches must lie
+     * entirely within the range.
+     * @param channel the channel to read from
+     * @param from the offset of the first byte to scan
+     * @param to the offset just past the last byte to scan
+     * @param listener receives the matches; if null they are only counted
+     * @return the number of matches reported
+     * @throws IOException if the channel could not be read
+     * @throws SearchAbortedException if the scanner's budget ran out or was
+     * cancelled
+     */
+    public long scan(FileChannel channel, long from, long to, MatchListener listener) throws IOException {
+        stats.reset();
+        bytesRead = 0;
+        numReported = 0;
+        ioNanos = 0;
+        matchNanos = 0;
+        try {
+            return scanRange(channel, from, to, listener);
+        } finally {
+            ScanMetrics m = new ScanMetrics(engineType);
+            m.addScan(bytesRead, numReported, ioNanos, matchNanos, stats);
+            metrics = m;
+            if (total != null) {
+                total.add(m);
+            }
+        }
+    }
+
+    private long scanRange(FileChannel channel, long from, long to, MatchListener listener) throws IOException {
+
+        long numMatches = 0;
+        if (budget != null) {
+            budget.start();
+        }
+
+        // a pattern anchored at either end of the file only needs the bytes
+        // there
+        long size = channel.size();
+        int maxLength = analysis.getMaxLength();
+        boolean bounded = maxLength != LiteralAnalysis.UNBOUNDED;
+        if (analysis.isAnchoredAtStart()) {
+            if (from > 0) {
+                return 0;
+            }
+            to = bounded ? Math.min(to, maxLength) : to;
+        }
+        if (analysis.isAnchoredAtEnd()) {
+            if (to < size) {
+                return 0;
+            }
+            from = bounded ? Math.max(from, to - maxLength) : from;
+        }
+
+        // with a ^ in the pattern the byte before the search is kept in the
+        // buffer so that the start of the buffer is only the start of the
+        // input to the engine when it is the start of the file
+        int back = analysis.hasStartAnchor() ? 1 : 0;
+
+        // the groups are only worked out for a listener that wants them
+        GroupListener groupListener = listener instanceof GroupListener ? (GroupListener)listener : null;
+        int[] span = groupListener != null ? groupSpan : this.span;
+
+        // buffer[0] holds the byte at offset base and the buffer holds length
+        // valid bytes
+        long base = from;
+        int length = 0;
+        long searchFrom = from;
+
+        // every match starting before this offset has been reported
+        long searched = from;
+
+        try {
+            while (true) {
+                searched = searchFrom;
+                if (budget != null) {
+                    budget.check();
+                }
+
+                // slide the window forward, keeping the bytes we already have
+                long newBase = Math.max(0, searchFrom - back);
+                int keep = (int)Math.max(0, Math.min(length, base + length - newBase));
+                if (keep > 0) {
+                    System.arraycopy(buffer, length - keep, buffer, 0, keep);
+                }
+                base = newBase;
+                int wanted = (int)Math.min(buffer.length - keep, to - base - keep);
+                long readStart = System.nanoTime();
+                int read = fill(channel, base + keep, keep, wanted);
+                long matchStart = System.nanoTime();
+                bytesRead += read;
+                ioNanos += matchStart - readStart;
+                length = keep + read;
+                boolean last = base + length >= to || read < wanted;
+                Engine windowEngine = last && to >= size ? engine : engineBeforeEnd;
+
+                // matches must start in the first windowSize bytes unless this
+                // is the last window; later ones are found by the next window
+                int start = (int)(searchFrom - base);
+                int limit = last ? length : Math.min(start + windowSize, length);
+                int pos = start;
+                while (pos <= length) {
+                    searched = base + pos;
+                    boolean found = analysis.isAnchoredAtStart()
+                            ? pos == 0 && windowEngine.matchAt(buffer, 0, length, span)
+                            : windowEngine.find(buffer, pos, length, span);
+                    if (!found || (!last && span[0] >= limit)) {
+                        break;
+                    }
+                    pos = mode.next(span[0], span[1]);
+                    numMatches++;
+                    numReported++;
+                    boolean more = listener == null || listener.onMatch(base + span[0], base + span[1]);
+                    if (groupListener != null) {
+                        for (int i = 2; i < span.length; i += 2) {
+                            groupListener.onGroup(i / 2, span[i] < 0 ? -1 : base + span[i],
+                                    span[i + 1] < 0 ? -1 : base + span[i + 1]);
+                        }
+                    }
+                    if (!more) {
+                        matchNanos += System.nanoTime() - matchStart;
+                        return numMatches;
+                    }
+                }
+                matchNanos += System.nanoTime() - matchStart;
+
+                // a match anchored at the start can only be in the first window
+                if (last || analysis.isAnchoredAtStart()) {
+                    return numMatches;
+                }
+                searchFrom = base + Math.max(limit, pos);
+            }
+        } catch (SearchAbortedException ex) {
+            throw new SearchAbortedException(ex, numMatches, searched);
+        }
+    }
+
+    /**
+     * Reads up to count bytes at the given file position into the buffer,
+     * stopping early only at the end of the file.
+     * @return the number of bytes read
+     */
+    private int fill(FileChannel channel, long position, int offset, int count) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, offset, count);
+        int total = 0;
+        while (total < count) {
+            int n = channel.read(bb, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.timmciver.bytegrep.scan;
+
+/**
+ * A MatchListener that is also told where the capture groups of each match
+ * are.  Groups are reported as offsets into the data scanned; the matched
+ * bytes are never copied.
+ * @author tim
+ */
+public interface GroupListener extends MatchListener {
+
+    /**
+     * Called for each capture group of a match, in group order, after
+     * onMatch has been called for the match whatever it returned.
+     * @param group the group number, from one
+     * @param start the absolute offset of the first byte of the group, or -1
+     * if the group took no part in the match
+     * @param end the absolute offset just past the last byte of the group, or
+     * -1 if the group took no part in the match
+     */
+    void onGroup(int group, long start, long end);
+
+}
@@ -0,0 +1,229 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Scans a file that grows between scans, such as a log, searching only the
+ * bytes appended since the last scan.  After each scan the state of the
+ * StreamMatcher is saved to a checkpoint file along with the length scanned
+ * and a fingerprint of the scanned bytes.  The next scan reads the checkpoint
+ * and carries on from there, or scans the whole file again if the file is now
+ * shorter, its fingerprint has changed, the checkpoint was written for a
+ * different pattern or it can't be read.
+ *
+ * The fingerprint is a SHA-256 digest of the length and of the first and last
+ * FINGERPRINT_BLOCK bytes of the scanned prefix, so checking it costs two
+ * small reads however large the file.  A file that is truncated, rotated or
+ * rewritten is detected; a change that leaves both ends alone is not.
+ *
+ * Matches are reported as StreamMatcher reports them, in order and not
+ * overlapping.  A match that was waiting on more input when a scan ended was
+ * reported then, as if the file ended there, and is not reported again if
+ * the appended bytes make it longer; nor is any match starting before the
+ * end of the last one reported.  The checkpoint is only written once the
+ * whole file has been scanned, so a scan stopped by its listener leaves the
+ * old checkpoint in place.
+ * @author tim
+ */
+public class IncrementalScanner {
+
+    public static final int FINGERPRINT_BLOCK = 64 * 1024;
+
+    private static final int MAGIC = 0x42474350;
+    private static final int VERSION = 1;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final CompiledPattern pattern;
+
+    // whether the last scan carried on from a checkpoint
+    private boolean resumed;
+
+    public IncrementalScanner(CompiledPattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Scans the part of a file not covered by its checkpoint and updates the
+     * checkpoint.
+     * @param path the file to scan
+     * @param checkpoint the checkpoint file, which need not exist yet
+     * @param listener receives the new matches
+     * @return the number of new matches reported
+     * @throws IOException if the file could not be read or the checkpoint
+     * could not be written
+     */
+    public long scan(Path path, Path checkpoint, final MatchListener listener) throws IOException {
+
+        // the end of the last match reported by earlier scans; no match may
+        // start before it or where it started
+        final long[] last = new long[]{-1, -1};
+        final long[] numMatches = new long[1];
+        StreamMatcher matcher = new StreamMatcher(pattern, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                if (start < last[1] || start == last[0]) {
+                    return true;
+                }
+                last[0] = start;
+                last[1] = end;
+                numMatches[0]++;
+                return listener.onMatch(start, end);
+            }
+        });
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            // only the bytes there now are scanned; more may be appended while
+            // the scan runs
+            long length = channel.size();
+            long from = restore(checkpoint, channel, length, matcher, last);
+            resumed = from >= 0;
+            from = Math.max(from, 0);
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long position = from;
+            while (position < length && !matcher.isStopped()) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), length - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                position += n;
+                buffer.flip();
+                matcher.feed(buffer);
+            }
+            if (matcher.isStopped()) {
+                matcher.finish();
+                return numMatches[0];
+            }
+
+            // the state is saved before finish, which reports the matches that
+            // were waiting on more input as if the file ended here
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            matcher.writeState(new DataOutputStream(state));
+            byte[] digest = fingerprint(channel, position);
+            matcher.finish();
+            save(checkpoint, position, digest, last, state.toByteArray());
+        }
+
+        return numMatches[0];
+    }
+
+    /**
+     * @return true if the last scan carried on from its checkpoint rather than
+     * scanning the whole file
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Reads the checkpoint into the matcher if it matches the file.
+     * @return the offset to carry on scanning from, or -1 if the whole file
+     * must be scanned
+     */
+    private long restore(Path checkpoint, FileChannel channel, long length, StreamMatcher matcher,
+            long[] last) {
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(checkpoint))) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return -1;
+            }
+            long scanned = data.readLong();
+            byte[] digest = new byte[32];
+            data.readFully(digest);
+            if (scanned > length || !Arrays.equals(digest, fingerprint(channel, scanned))) {
+                return -1;
+            }
+            long lastStart = data.readLong();
+            long lastEnd = data.readLong();
+            matcher.readState(data);
+            last[0] = lastStart;
+            last[1] = lastEnd;
+            return scanned;
+        } catch (IOException ex) {
+            // a missing, damaged or foreign checkpoint just means a full scan
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it into place so a
+     * failed write leaves the old one intact.
+     */
+    private static void save(Path checkpoint, long scanned, byte[] digest, long[] last, byte[] state)
+            throws IOException {
+
+        Path parent = checkpoint.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, checkpoint.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(scanned);
+                data.write(digest);
+                data.writeLong(last[0]);
+                data.writeLong(last[1]);
+                data.write(state);
+                data.flush();
+            }
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Digests the length and the first and last FINGERPRINT_BLOCK bytes of the
+     * first length bytes of the file.
+     */
+    private static byte[] fingerprint(FileChannel channel, long length) throws IOException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(ex);
+        }
+
+        digest.update(ByteBuffer.allocate(8).putLong(0, length));
+        int headLength = (int)Math.min(length, FINGERPRINT_BLOCK);
+        digest.update(read(channel, 0, headLength));
+        long tailStart = Math.max(headLength, length - FINGERPRINT_BLOCK);
+        digest.update(read(channel, tailStart, (int)(length - tailStart)));
+        return digest.digest();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("The file is shorter than expected.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.timmciver.bytegrep.scan;
+
+/**
+ * Receives the matches found by a scan.
+ * @author tim
+ */
+public interface MatchListener {
+
+    /**
+     * Called for each match in the order the matches are found.
+     * @param start the absolute offset of the first byte of the match
+     * @param end the absolute offset just past the last byte of the match
+     * @return true to continue scanning, false to stop
+     */
+    boolean onMatch(long start, long end);
+
+}
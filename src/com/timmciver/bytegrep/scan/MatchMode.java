@@ -0,0 +1,39 @@
+package com.timmciver.bytegrep.scan;
+
+/**
+ * How the matches found by a scan may relate to each other.
+ * @author tim
+ */
+public enum MatchMode {
+    
+    /**
+     * Each search starts where the previous match ended, so matches never
+     * share a byte.  An empty match moves the search on by one byte.
+     */
+    NON_OVERLAPPING,
+    
+    /**
+     * Each search starts one byte after the start of the previous match, so
+     * every offset at which a match starts is reported.
+     */
+    OVERLAPPING;
+    
+    /**
+     * @return the offset at which the search following the given match
+     * begins
+     */
+    public long next(long start, long end) {
+        if (this == OVERLAPPING || end == start) {
+            return start + 1;
+        }
+        return end;
+    }
+    
+    int next(int start, int end) {
+        if (this == OVERLAPPING || end == start) {
+            return start + 1;
+        }
+        return end;
+    }
+    
+}
@@ -0,0 +1,251 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.SearchAbortedException;
+import com.timmciver.bytegrep.engine.SearchBudget;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a single file on several threads at once.  The file is split into
+ * segments which are scanned on a ForkJoinPool, each by a FileScanner of the
+ * worker's own, and the matches are passed to the listener in offset order on
+ * the calling thread as the segments complete.  Each segment is read on into
+ * the next by the same overlap FileScanner uses between its windows so a match
+ * that starts in a segment is found whole.
+ *
+ * The segments are joined up by a SegmentMerger so the matches are exactly
+ * those a FileScanner reports.
+ *
+ * A scanner created with a SearchBudget gives each worker a copy, since a
+ * budget is not thread safe, so the step limit applies to each segment.  The
+ * calling thread keeps a copy of its own, started with each scan, which holds
+ * the whole scan to the timeout and is checked before every segment is
+ * merged.  A scan that runs out of budget or is cancelled throws a
+ * SearchAbortedException as FileScanner does.
+ * @author tim
+ */
+public class ParallelScanner {
+
+    public static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final CompiledPattern pattern;
+    private final EngineType engineType;
+    private final MatchMode mode;
+    private final int numThreads;
+    private final long segmentSize;
+    private final int windowSize;
+    private final int maxMatchLength;
+    private final SearchBudget budget;
+    private volatile ScanMetrics metrics;
+
+    public ParallelScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads) {
+        this(pattern, engineType, mode, numThreads, 0,
+                FileScanner.DEFAULT_WINDOW_SIZE, FileScanner.DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param numThreads the number of threads to scan with
+     * @param segmentSize the number of bytes per segment, or zero to choose
+     * one from the size of the file
+     * @param windowSize the window size of each segment's FileScanner
+     * @param maxMatchLength the overlap to use if the pattern's matches are
+     * unbounded in length
+     */
+    public ParallelScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads,
+            long segmentSize, int windowSize, int maxMatchLength) {
+        this(pattern, engineType, mode, numThreads, segmentSize, windowSize, maxMatchLength, null);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param engineType the kind of Engine to search with
+     * @param mode whether matches may overlap
+     * @param numThreads the number of threads to scan with
+     * @param segmentSize the number of bytes per segment, or zero to choose
+     * one from the size of the file
+     * @param windowSize the window size of each segment's FileScanner
+     * @param maxMatchLength the overlap to use if the pattern's matches are
+     * unbounded in length
+     * @param budget the limits on each scan, copied for each thread, or null
+     * for none
+     */
+    public ParallelScanner(CompiledPattern pattern, EngineType engineType, MatchMode mode, int numThreads,
+            long segmentSize, int windowSize, int maxMatchLength, SearchBudget budget) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        }
+        if (segmentSize < 0) {
+            throw new IllegalArgumentException("The segment size must not be negative.");
+        }
+        this.pattern = pattern;
+        this.engineType = engineType;
+        this.mode = mode;
+        this.numThreads = numThreads;
+        this.segmentSize = segmentSize;
+        this.windowSize = windowSize;
+        this.maxMatchLength = maxMatchLength;
+        this.budget = budget;
+        this.metrics = new ScanMetrics(engineType);
+    }
+
+    /**
+     * Scans a whole file.
+     * @param path the file to scan
+     * @param listener receives the matches in order
+     * @return the number of matches reported
+     * @throws IOException if the file could not be read
+     */
+    public long scan(Path path, MatchListener listener) throws IOException {
+        return run(path, listener);
+    }
+
+    /**
+     * Counts the matches in a whole file without reporting them.  Only the
+     * first few matches of each segment are kept for resynchronising.
+     * @param path the file to scan
+     * @return the number of matches
+     * @throws IOException if the file could not be read
+     */
+    public long count(Path path) throws IOException {
+        return run(path, null);
+    }
+
+    /**
+     * @return the metrics of the last scan, summed over its threads, or empty
+     * metrics if there hasn't been one
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    private FileScanner newScanner(ScanMetrics total) {
+        FileScanner scanner = new FileScanner(pattern, engineType, mode, windowSize, maxMatchLength,
+                budget == null ? null : budget.copy());
+        scanner.total = total;
+        return scanner;
+    }
+
+    private long run(Path path, MatchListener listener) throws IOException {
+
+        long startTime = System.nanoTime();
+        ScanMetrics total = new ScanMetrics(engineType);
+        SearchBudget overall = budget == null ? null : budget.copy();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            long segment = segmentSize > 0
+                    ? segmentSize : Math.max(MIN_SEGMENT_SIZE, size / (4L * numThreads) + 1);
+            long numSegments = Math.max(1, (size + segment - 1) / segment);
+
+            // each worker needs a FileScanner of its own
+            BlockingQueue<FileScanner> scanners = new ArrayBlockingQueue<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                scanners.add(newScanner(total));
+            }
+            int overlap = scanners.peek().getOverlap();
+
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try (SegmentMerger merger = new SegmentMerger(path, size, newScanner(total), mode, listener)) {
+
+                // keep a couple of segments per thread in flight so that memory
+                // does not grow with the size of the file
+                Deque<Future<Segment>> inFlight = new ArrayDeque<>();
+                long next = 0;
+                long searched = 0;
+                try {
+                    while (next < numSegments || !inFlight.isEmpty()) {
+                        while (next < numSegments && inFlight.size() < 2 * numThreads) {
+                            long start = next * segment;
+
+                            // the last segment also takes an empty match at
+                            // the very end
+                            long end = ++next == numSegments ? size + 1 : start + segment;
+                            inFlight.add(pool.submit(new SegmentTask(channel, scanners, start, end,
+                                    Math.min(size, end + overlap), listener != null)));
+                        }
+                        if (overall != null) {
+                            overall.check();
+                        }
+                        Segment done = get(inFlight.remove());
+                        if (!merger.merge(done)) {
+                            break;
+                        }
+                        searched = Math.min(size, done.end);
+                    }
+                } catch (SearchAbortedException ex) {
+                    throw new SearchAbortedException(ex, merger.getNumMatches(), searched);
+                }
+                total.setSearch(1, merger.getNumMatches(), System.nanoTime() - startTime);
+                metrics = total;
+                return merger.getNumMatches();
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static Segment get(Future<Segment> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning.");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private final class SegmentTask implements Callable<Segment> {
+
+        private final FileChannel channel;
+        private final BlockingQueue<FileScanner> scanners;
+        private final long start;
+        private final long end;
+        private final long to;
+        private final boolean keepAll;
+
+        SegmentTask(FileChannel channel, BlockingQueue<FileScanner> scanners, long start, long end,
+                long to, boolean keepAll) {
+            this.channel = channel;
+            this.scanners = scanners;
+            this.start = start;
+            this.end = end;
+            this.to = to;
+            this.keepAll = keepAll;
+        }
+
+        @Override
+        public Segment call() throws IOException, InterruptedException {
+            FileScanner scanner = scanners.take();
+            try {
+                return Segment.scan(scanner, channel, start, end, to, mode, keepAll);
+            } finally {
+                scanners.add(scanner);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.EngineStats;
+import com.timmciver.bytegrep.engine.EngineType;
+
+/**
+ * What one search did and how long it took: the files and bytes scanned, the
+ * matches reported, the candidates a prefilter proposed and how many of them
+ * were matches, the searches in which the prefilter gave up, the DFA states built and cache flushes, and the time spent
+ * reading as against matching.  The scanners make a new ScanMetrics for each
+ * search and keep it for getMetrics; the metrics of a search on several
+ * threads are the sums of those of its threads, apart from the elapsed time.
+ * Metrics may be added up across searches, on any thread, with add.
+ * @author tim
+ */
+public final class ScanMetrics {
+
+    private final EngineType engineType;
+    private long numSearches;
+    private long numFiles;
+    private long bytesScanned;
+    private long numMatches;
+    private long numCandidates;
+    private long numConfirmed;
+    private long numBypasses;
+    private long numStatesBuilt;
+    private long numFlushes;
+    private long numFallbacks;
+    private long ioNanos;
+    private long matchNanos;
+    private long elapsedNanos;
+
+    /**
+     * @param engineType the kind of engine the searches are made with
+     */
+    public ScanMetrics(EngineType engineType) {
+        this.engineType = engineType;
+    }
+
+    /**
+     * Adds the counts and times of another search to these.
+     * @param other the metrics of the other search
+     */
+    public synchronized void add(ScanMetrics other) {
+        synchronized (other) {
+            numSearches += other.numSearches;
+            numFiles += other.numFiles;
+            bytesScanned += other.bytesScanned;
+            numMatches += other.numMatches;
+            numCandidates += other.numCandidates;
+            numConfirmed += other.numConfirmed;
+            numBypasses += other.numBypasses;
+            numStatesBuilt += other.numStatesBuilt;
+            numFlushes += other.numFlushes;
+            numFallbacks += other.numFallbacks;
+            ioNanos += other.ioNanos;
+            matchNanos += other.matchNanos;
+            elapsedNanos += other.elapsedNanos;
+        }
+    }
+
+    /**
+     * Records one scan of part of a file.
+     */
+    synchronized void addScan(long bytes, long matches, long io, long match, EngineStats stats) {
+        numSearches++;
+        numFiles++;
+        bytesScanned += bytes;
+        numMatches += matches;
+        ioNanos += io;
+        matchNanos += match;
+        elapsedNanos += io + match;
+        numCandidates += stats.getNumCandidates();
+        numConfirmed += stats.getNumConfirmed();
+        numBypasses += stats.getNumBypasses();
+        numStatesBuilt += stats.getNumStatesBuilt();
+        numFlushes += stats.getNumFlushes();
+        numFallbacks += stats.getNumFallbacks();
+    }
+
+    /**
+     * Makes these the metrics of one search that took the given time, over
+     * however many scans and threads it made.
+     */
+    synchronized void setSearch(long files, long matches, long nanos) {
+        numSearches = 1;
+        numFiles = files;
+        numMatches = matches;
+        elapsedNanos = nanos;
+    }
+
+    public EngineType getEngineType() {
+        return engineType;
+    }
+
+    /**
+     * @return the number of searches these metrics add up
+     */
+    public synchronized long getNumSearches() {
+        return numSearches;
+    }
+
+    public synchronized long getNumFiles() {
+        return numFiles;
+    }
+
+    /**
+     * @return the number of bytes read and searched, counting bytes read
+     * again where windows or segments overlap
+     */
+    public synchronized long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    public synchronized long getNumMatches() {
+        return numMatches;
+    }
+
+    /**
+     * @return the number of offsets a prefilter proposed as the start of a
+     * match; zero if the pattern has no prefilter
+     */
+    public synchronized long getNumCandidates() {
+        return numCandidates;
+    }
+
+    /**
+     * @return the number of proposed offsets at which a match did start
+     */
+    public synchronized long getNumConfirmed() {
+        return numConfirmed;
+    }
+
+    /**
+     * @return the number of searches in which the prefilter's candidates were
+     * so dense that the rest of the search was handed to the engine
+     */
+    public synchronized long getNumBypasses() {
+        return numBypasses;
+    }
+
+    public synchronized long getNumStatesBuilt() {
+        return numStatesBuilt;
+    }
+
+    public synchronized long getNumFlushes() {
+        return numFlushes;
+    }
+
+    /**
+     * @return the number of searches the lazy DFA handed to a PikeVM because
+     * its cache was thrashing
+     */
+    public synchronized long getNumFallbacks() {
+        return numFallbacks;
+    }
+
+    /**
+     * @return the time spent reading files, summed over threads
+     */
+    public synchronized long getIoNanos() {
+        return ioNanos;
+    }
+
+    /**
+     * @return the time spent matching and reporting matches, summed over
+     * threads
+     */
+    public synchronized long getMatchNanos() {
+        return matchNanos;
+    }
+
+    /**
+     * @return the time from the start to the end of the searches
+     */
+    public synchronized long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the bytes scanned per second of elapsed time, or zero if no
+     * time has been measured
+     */
+    public synchronized double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytesScanned * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the fraction of the prefilter's candidates that were matches,
+     * or zero if it proposed none; a low figure means the prefilter is
+     * costing more than it saves.  Where the prefilter gave up, every offset
+     * the engine tried in its place counts as a candidate
+     */
+    public synchronized double getPrefilterEfficiency() {
+        return numCandidates == 0 ? 0 : (double)numConfirmed / numCandidates;
+    }
+
+    /**
+     * @return the metrics as space separated key=value fields
+     */
+    @Override
+    public synchronized String toString() {
+        return "engine=" + engineType + " searches=" + numSearches + " files=" + numFiles
+                + " bytes=" + bytesScanned + " matches=" + numMatches
+                + " candidates=" + numCandidates + " confirmed=" + numConfirmed + " bypasses=" + numBypasses
+                + " states=" + numStatesBuilt + " flushes=" + numFlushes + " fallbacks=" + numFallbacks
+                + " io-ms=" + ioNanos / 1000000 + " match-ms=" + matchNanos / 1000000
+                + " elapsed-ms=" + elapsedNanos / 1000000
+                + " bytes-per-sec=" + (long)getBytesPerSecond();
+    }
+
+}
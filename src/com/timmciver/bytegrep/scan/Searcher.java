@@ -0,0 +1,129 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.Engine;
+
+/**
+ * Finds all the matches of an Engine in a byte array.  Matches can be
+ * enumerated with a cursor (reset, then next until it returns false, reading
+ * start and end after each call), passed to a MatchListener, or just counted.
+ * None of these allocate anything per match.  A Searcher created with room
+ * for capture groups also makes the groups of the match the cursor is on
+ * available.  A Searcher is not thread safe.
+ * @author tim
+ */
+public class Searcher {
+
+    private final Engine engine;
+    private final MatchMode mode;
+    private final int[] span;
+
+    // cursor state
+    private byte[] data;
+    private int pos;
+    private int to;
+
+    public Searcher(Engine engine, MatchMode mode) {
+        this(engine, mode, 0);
+    }
+
+    /**
+     * @param engine the engine to search with
+     * @param mode whether matches may overlap
+     * @param numGroups the number of capture groups to keep for the cursor
+     */
+    public Searcher(Engine engine, MatchMode mode, int numGroups) {
+        if (numGroups < 0) {
+            throw new IllegalArgumentException("The number of groups cannot be negative.");
+        }
+        this.engine = engine;
+        this.mode = mode;
+        this.span = new int[2 * (numGroups + 1)];
+    }
+
+    /**
+     * Starts enumerating the matches in data[from, to).
+     */
+    public void reset(byte[] data, int from, int to) {
+        this.data = data;
+        this.pos = from;
+        this.to = to;
+    }
+
+    /**
+     * Moves the cursor to the next match.
+     * @return true if there was another match
+     */
+    public boolean next() {
+        if (data == null || pos > to || !engine.find(data, pos, to, span)) {
+            data = null;
+            return false;
+        }
+        pos = mode.next(span[0], span[1]);
+        return true;
+    }
+
+    /**
+     * @return the start of the match the cursor is on
+     */
+    public int start() {
+        return span[0];
+    }
+
+    /**
+     * @return the end of the match the cursor is on
+     */
+    public int end() {
+        return span[1];
+    }
+
+    /**
+     * @param group a group number from one up to the number of groups the
+     * Searcher was created with
+     * @return the start of the group in the match the cursor is on, or -1 if
+     * the group took no part in it
+     */
+    public int start(int group) {
+        return span[2 * group];
+    }
+
+    /**
+     * @param group a group number from one up to the number of groups the
+     * Searcher was created with
+     * @return the end of the group in the match the cursor is on, or -1 if
+     * the group took no part in it
+     */
+    public int end(int group) {
+        return span[2 * group + 1];
+    }
+
+    /**
+     * Passes each match in data[from, to) to a listener until it asks to stop.
+     * @return the number of matches passed to the listener
+     */
+    public long forEach(byte[] data, int from, int to, MatchListener listener) {
+        long numMatches = 0;
+        int p = from;
+        while (p <= to && engine.find(data, p, to, span)) {
+            numMatches++;
+            if (!listener.onMatch(span[0], span[1])) {
+                break;
+            }
+            p = mode.next(span[0], span[1]);
+        }
+        return numMatches;
+    }
+
+    /**
+     * @return the number of matches in data[from, to)
+     */
+    public long count(byte[] data, int from, int to) {
+        long numMatches = 0;
+        int p = from;
+        while (p <= to && engine.find(data, p, to, span)) {
+            numMatches++;
+            p = mode.next(span[0], span[1]);
+        }
+        return numMatches;
+    }
+
+}
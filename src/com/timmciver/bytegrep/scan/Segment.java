@@ -0,0 +1,92 @@
+package com.timmciver.bytegrep.scan;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The matches that start in one segment of a file, found by searching from
+ * the start of the segment as if nothing came before it.  Segments are scanned
+ * independently, possibly on different threads, and joined back up in order by
+ * a SegmentMerger.
+ * @author tim
+ */
+final class Segment {
+
+    final long start;
+    final long end;
+    long[] matches = new long[16];
+    int numStored;
+    long count;
+
+    // where the search would continue after the last match, and whether
+    // every match was stored
+    long resume;
+    boolean complete = true;
+
+    /**
+     * @param start the offset of the first byte of the segment
+     * @param end the offset just past the last byte at which a match of the
+     * segment may start
+     */
+    Segment(long start, long end) {
+        this.start = start;
+        this.end = end;
+        this.resume = start;
+    }
+
+    /**
+     * Scans a segment of a channel, reading on up to the offset to so that
+     * every match starting in the segment is found whole.
+     * @param keepAll if false only the matches a match from the previous
+     * segment could reach, and one beyond them, are stored; the rest are only
+     * counted
+     */
+    static Segment scan(FileScanner scanner, FileChannel channel, long start, long end, long to,
+            final MatchMode mode, final boolean keepAll) throws IOException {
+
+        final Segment segment = new Segment(start, end);
+        final long head = start + scanner.getOverlap();
+        scanner.scan(channel, start, to, new MatchListener() {
+
+            private boolean pastHead;
+
+            @Override
+            public boolean onMatch(long matchStart, long matchEnd) {
+                if (matchStart >= segment.end) {
+                    return false;
+                }
+                segment.count++;
+                segment.resume = mode.next(matchStart, matchEnd);
+
+                // overlapping matches never need resynchronising
+                if (keepAll || mode == MatchMode.NON_OVERLAPPING && !pastHead) {
+                    segment.store(matchStart, matchEnd);
+                    pastHead = matchStart > head;
+                } else {
+                    segment.complete = false;
+                }
+                return true;
+            }
+        });
+        return segment;
+    }
+
+    long startAt(int i) {
+        return matches[2 * i];
+    }
+
+    long endAt(int i) {
+        return matches[2 * i + 1];
+    }
+
+    void store(long matchStart, long matchEnd) {
+        if (2 * numStored == matches.length) {
+            matches = Arrays.copyOf(matches, 2 * matches.length);
+        }
+        matches[2 * numStored] = matchStart;
+        matches[2 * numStored + 1] = matchEnd;
+        numStored++;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.timmciver.bytegrep.scan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Joins the Segments of a file back up in order, passing their matches to a
+ * listener.  Overlapping matches found in different segments are independent
+ * of each other but non-overlapping ones are not: a match crossing into a
+ * segment from the one before decides where the search of the segment really
+ * resumes.  The segment's own matches are accepted from the first one the
+ * search starting there would also find; if there is none the gap is
+ * rescanned until the two searches agree.  Either way the matches are exactly
+ * those a FileScanner reports for the whole file.
+ * @author tim
+ */
+final class SegmentMerger implements Closeable {
+
+    private final Path path;
+    private final long size;
+    private final FileScanner rescanner;
+    private final MatchMode mode;
+    private final MatchListener listener;
+    private FileChannel channel;
+
+    // where the search continues after the last match reported
+    private long resume;
+    private long numMatches;
+    private boolean stopped;
+
+    /**
+     * @param path the file the segments are from, opened only to rescan
+     * @param size the size of the file
+     * @param rescanner the scanner to rescan with
+     * @param mode whether matches may overlap
+     * @param listener receives the matches; if null they are only counted
+     */
+    SegmentMerger(Path path, long size, FileScanner rescanner, MatchMode mode, MatchListener listener) {
+        this.path = path;
+        this.size = size;
+        this.rescanner = rescanner;
+        this.mode = mode;
+        this.listener = listener;
+    }
+
+    /**
+     * Merges the next segment of the file.
+     * @return false once the listener has asked to stop
+     */
+    boolean merge(Segment segment) throws IOException {
+
+        if (stopped) {
+            return false;
+        }
+
+        if (mode == MatchMode.OVERLAPPING || resume <= segment.start) {
+            accept(segment, 0);
+            return !stopped;
+        }
+
+        // skip the matches the search has already passed
+        int i = 0;
+        while (i < segment.numStored && segment.startAt(i) < resume) {
+            i++;
+        }
+
+        // the segment's search agrees from match i on if it got to the match
+        // without passing where the real search resumes
+        long reached;
+        if (i < segment.numStored) {
+            reached = i == 0 ? segment.start : mode.next(segment.startAt(i - 1), segment.endAt(i - 1));
+        } else if (segment.complete) {
+            reached = segment.resume;
+        } else {
+            reached = Long.MAX_VALUE;
+        }
+        if (reached <= resume) {
+            if (i < segment.numStored) {
+                accept(segment, i);
+            }
+            return !stopped;
+        }
+
+        rescan(segment, i);
+        return !stopped;
+    }
+
+    /**
+     * @return the number of matches passed to the listener or counted
+     */
+    long getNumMatches() {
+        return numMatches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void accept(Segment segment, int from) {
+        if (listener == null) {
+            numMatches += segment.count - from;
+        } else {
+            for (int i = from; i < segment.numStored && !stopped; i++) {
+                report(segment.startAt(i), segment.endAt(i));
+            }
+        }
+        if (segment.count > 0) {
+            resume = segment.resume;
+        }
+    }
+
+    private boolean report(long start, long end) {
+        numMatches++;
+        if (listener != null && !listener.onMatch(start, end)) {
+            stopped = true;
+        }
+        return !stopped;
+    }
+
+    /**
+     * Searches from the resume point until a match agrees with one of the
+     * segment's or the segment ends.
+     */
+    private void rescan(final Segment segment, final int from) throws IOException {
+
+        if (resume > size) {
+            return;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        final int[] synced = new int[]{-1};
+        long to = Math.min(size, segment.end + rescanner.getOverlap());
+        rescanner.scan(channel, resume, to, new MatchListener() {
+
+            private int j = from;
+
+            @Override
+            public boolean onMatch(long start, long end) {
+                if (start >= segment.end) {
+                    return false;
+                }
+                while (j < segment.numStored && segment.startAt(j) < start) {
+                    j++;
+                }
+                if (j < segment.numStored && segment.startAt(j) == start && segment.endAt(j) == end) {
+                    synced[0] = j;
+                    return false;
+                }
+                resume = mode.next(start, end);
+                return report(start, end);
+            }
+        });
+
+        if (synced[0] >= 0) {
+            accept(segment, synced[0]);
+        }
+    }
+
+}
@@ -0,0 +1,589 @@
+package com.timmciver.bytegrep.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Program;
+import com.timmciver.bytegrep.engine.SearchAbortedException;
+import com.timmciver.bytegrep.engine.SearchBudget;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Finds matches in input that is pushed to it a chunk at a time with feed and
+ * ended with finish.  The NFA threads are carried over from one chunk to the
+ * next so matches may span any number of chunks and are reported with their
+ * absolute offsets from the start of the stream.  Matches are reported in
+ * order and do not overlap, exactly as if the whole input had been searched
+ * at once.  The stream is the input for the anchors: ^ matches at its first
+ * byte and $ once it is finished.
+ *
+ * Apart from the program's thread lists the only memory used is for the bytes
+ * that follow a match which might still be extended by a thread of higher
+ * priority; those bytes must be searched again once the match is decided.  A
+ * StreamMatcher is not thread safe.
+ *
+ * A matcher created with a SearchBudget charges it a step for every thread it
+ * moves on, as the PikeVM does, and starts it afresh for each stream.  A
+ * stream that runs out of budget or is cancelled throws a
+ * SearchAbortedException from feed or finish saying how many matches were
+ * reported and how far the stream got, and the matcher is left ready for a
+ * new stream.
+ *
+ * The state of a search can be written out with writeState and read back into
+ * a matcher for the same pattern with readState, which then carries on from
+ * where the first one stopped; IncrementalScanner uses this to search only
+ * the bytes appended to a file since it was last scanned.
+ * @author tim
+ */
+public class StreamMatcher {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int[] opcodes;
+    private final int[] arg1;
+    private final int[] arg2;
+    private final int numSlots;
+    private final Program prog;
+    private final MatchListener listener;
+    private final SearchBudget budget;
+
+    private Threads clist;
+    private Threads nlist;
+    private final long[] cap;
+    private final int[] stack;
+    private final long[] stackVal;
+
+    // the absolute offset of the next byte to be stepped
+    private long pos;
+
+    // no new thread is started at this offset; it follows an empty match
+    private long noStartAt = -1;
+
+    // a match that has been found but might still be replaced by one of
+    // higher priority, and the bytes stepped since it ended
+    private boolean pending;
+    private final long[] matchCap;
+    private byte[] history = new byte[64];
+    private int historyLength;
+
+    // bytes to step again before any new input
+    private byte[] replay = new byte[64];
+    private int replayStart;
+    private int replayEnd;
+
+    private boolean stopped;
+    private long numMatches;
+
+    // true while the threads waiting on $ are followed at the end of input
+    private boolean atEnd;
+
+    private byte[] chunk;
+
+    public StreamMatcher(CompiledPattern pattern, MatchListener listener) {
+        this(pattern, listener, null);
+    }
+
+    /**
+     * @param pattern the pattern to search for
+     * @param listener receives the matches
+     * @param budget the limits on each stream, or null for none
+     */
+    public StreamMatcher(CompiledPattern pattern, MatchListener listener, SearchBudget budget) {
+        this.prog = pattern.getProgram();
+        int size = prog.size();
+        this.opcodes = new int[size];
+        this.arg1 = new int[size];
+        this.arg2 = new int[size];
+        for (int pc = 0; pc < size; pc++) {
+            opcodes[pc] = prog.getOpcode(pc);
+            arg1[pc] = prog.getArg1(pc);
+            arg2[pc] = prog.getArg2(pc);
+        }
+        this.numSlots = prog.getNumSlots();
+        this.listener = listener;
+        this.budget = budget;
+        this.clist = new Threads(size, numSlots);
+        this.nlist = new Threads(size, numSlots);
+        this.cap = new long[numSlots];
+        this.matchCap = new long[numSlots];
+        this.stack = new int[2 * size + 1];
+        this.stackVal = new long[2 * size + 1];
+    }
+
+    /**
+     * Searches the remaining bytes of the given buffer, leaving it with no
+     * bytes remaining.
+     * @param buffer the next chunk of input
+     */
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            feed(buffer.array(), offset, buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            feed(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Searches the given bytes.
+     * @param data the next chunk of input
+     * @param offset the offset of the first byte in data
+     * @param length the number of bytes
+     */
+    public void feed(byte[] data, int offset, int length) {
+        try {
+            run(data, offset, offset + length);
+        } catch (SearchAbortedException ex) {
+            throw aborted(ex);
+        }
+    }
+
+    /**
+     * Steps the bytes waiting to be replayed and then data[i, end).
+     */
+    private void run(byte[] data, int i, int end) {
+
+        while (!stopped) {
+            int b;
+            if (replayStart < replayEnd) {
+                b = replay[replayStart++] & 0xFF;
+            } else if (i < end) {
+                b = data[i++] & 0xFF;
+            } else {
+                break;
+            }
+
+            step(b);
+            if (pending && clist.size == 0) {
+                // nothing can replace the pending match any more
+                reportPending();
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the input and reports the matches that were waiting on
+     * more input.  After this the matcher may be used for a new stream.
+     * @return the number of matches reported since the stream began
+     */
+    public long finish() {
+
+        try {
+            while (!stopped) {
+
+                // step the bytes left to replay
+                run(null, 0, 0);
+                if (stopped) {
+                    break;
+                }
+
+                // any match still waiting wins once the other threads run out
+                // of input
+                stepEnd();
+                if (!pending) {
+                    break;
+                }
+                reportPending();
+            }
+        } catch (SearchAbortedException ex) {
+            throw aborted(ex);
+        }
+
+        long count = numMatches;
+        reset();
+        return count;
+    }
+
+    /**
+     * Feeds everything readable from the channel and then finishes.
+     * @param channel the input
+     * @return the number of matches reported
+     * @throws IOException if the channel could not be read
+     */
+    public long scan(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (!stopped && channel.read(buffer) >= 0) {
+            buffer.flip();
+            feed(buffer);
+            buffer.clear();
+        }
+        return finish();
+    }
+
+    /**
+     * Feeds everything readable from the stream and then finishes.
+     * @param in the input
+     * @return the number of matches reported
+     * @throws IOException if the stream could not be read
+     */
+    public long scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int n;
+        while (!stopped && (n = in.read(buffer)) >= 0) {
+            feed(buffer, 0, n);
+        }
+        return finish();
+    }
+
+    /**
+     * @return the absolute offset of the next byte to be searched
+     */
+    public long getPosition() {
+        return pos;
+    }
+
+    /**
+     * @return true if the listener asked for the scan to stop
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Writes the state of the search so far: the position, the live threads
+     * and any match still waiting to be decided.  The matches reported so far
+     * are not part of the state.
+     * @param out the output
+     * @throws IOException if the state could not be written
+     */
+    public void writeState(DataOutput out) throws IOException {
+        if (stopped) {
+            throw new IllegalStateException("The search was stopped.");
+        }
+
+        out.writeLong(fingerprint());
+        out.writeLong(pos);
+        out.writeLong(noStartAt);
+        out.writeBoolean(pending);
+        for (int i = 0; i < numSlots; i++) {
+            out.writeLong(matchCap[i]);
+        }
+        out.writeInt(historyLength);
+        out.write(history, 0, historyLength);
+        out.writeInt(replayEnd - replayStart);
+        out.write(replay, replayStart, replayEnd - replayStart);
+
+        out.writeInt(clist.size);
+        for (int i = 0; i < clist.size; i++) {
+            out.writeInt(clist.dense[i]);
+            for (int j = 0; j < numSlots; j++) {
+                out.writeLong(clist.slots[i * numSlots + j]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the state of this matcher with one written by writeState.  The
+     * count of matches starts again from zero.
+     * @param in the input
+     * @throws IOException if the state could not be read or was written by a
+     * matcher for a different pattern, in which case the matcher is left
+     * ready for a new stream
+     */
+    public void readState(DataInput in) throws IOException {
+        reset();
+        try {
+            readFields(in);
+        } catch (IOException ex) {
+            reset();
+            throw ex;
+        }
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        if (in.readLong() != fingerprint()) {
+            throw new IOException("The saved state is for a different pattern.");
+        }
+        pos = in.readLong();
+        noStartAt = in.readLong();
+        pending = in.readBoolean();
+        for (int i = 0; i < numSlots; i++) {
+            matchCap[i] = in.readLong();
+        }
+        historyLength = readLength(in, Integer.MAX_VALUE);
+        history = new byte[Math.max(64, historyLength)];
+        in.readFully(history, 0, historyLength);
+        replayEnd = readLength(in, Integer.MAX_VALUE);
+        replay = new byte[Math.max(64, replayEnd)];
+        in.readFully(replay, 0, replayEnd);
+
+        int size = readLength(in, opcodes.length);
+        for (int i = 0; i < size; i++) {
+            int pc = in.readInt();
+            if (pc < 0 || pc >= opcodes.length || clist.contains(pc)) {
+                throw new IOException("Invalid saved state.");
+            }
+            int t = clist.add(pc);
+            for (int j = 0; j < numSlots; j++) {
+                clist.slots[t * numSlots + j] = in.readLong();
+            }
+        }
+    }
+
+    private static int readLength(DataInput in, int max) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid saved state.");
+        }
+        return length;
+    }
+
+    /**
+     * @return a hash of the program, so a state is only read back into a
+     * matcher for the same pattern
+     */
+    private long fingerprint() {
+        long hash = opcodes.length;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            hash = 31 * hash + opcodes[pc];
+            hash = 31 * hash + arg1[pc];
+            hash = 31 * hash + arg2[pc];
+            if (opcodes[pc] == Program.CLASS) {
+                for (int b = 0; b < 256; b++) {
+                    hash = 31 * hash + (prog.accepts(pc, b) ? 1 : 0);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Ends the stream that ran out of budget.
+     * @return the exception to throw in place of the engine's
+     */
+    private SearchAbortedException aborted(SearchAbortedException ex) {
+
+        // neither the pending match nor any a live thread might still make
+        // is known to be final
+        long searched = pending ? matchCap[0] : pos;
+        for (int i = 0; i < clist.size; i++) {
+            long start = clist.slots[i * numSlots];
+            if (start >= 0) {
+                searched = Math.min(searched, start);
+            }
+        }
+        SearchAbortedException stop = new SearchAbortedException(ex, numMatches, searched);
+        reset();
+        return stop;
+    }
+
+    private void reset() {
+        if (budget != null) {
+            budget.start();
+        }
+        numMatches = 0;
+        pos = 0;
+        noStartAt = -1;
+        pending = false;
+        historyLength = 0;
+        replayStart = 0;
+        replayEnd = 0;
+        clist.clear();
+        stopped = false;
+    }
+
+    /**
+     * Steps every thread over the byte at pos.
+     */
+    private void step(int b) {
+
+        if (budget != null) {
+            budget.charge(clist.size + 1);
+        }
+        if (!pending && pos != noStartAt) {
+            Arrays.fill(cap, -1);
+            addThread(clist, 0, pos);
+        }
+
+        nlist.clear();
+        for (int i = 0; i < clist.size; i++) {
+            int pc = clist.dense[i];
+            int opcode = opcodes[pc];
+            if (opcode == Program.BYTE || opcode == Program.CLASS) {
+                if (prog.accepts(pc, b)) {
+                    System.arraycopy(clist.slots, i * numSlots, cap, 0, numSlots);
+                    addThread(nlist, pc + 1, pos + 1);
+                }
+            } else if (opcode == Program.MATCH) {
+                recordMatch(i);
+                break;
+            }
+        }
+
+        Threads tmp = clist;
+        clist = nlist;
+        nlist = tmp;
+        pos++;
+
+        if (pending) {
+            if (historyLength == history.length) {
+                history = Arrays.copyOf(history, history.length * 2);
+            }
+            history[historyLength++] = (byte)b;
+        }
+    }
+
+    /**
+     * Looks for a match among the threads at the end of the input.
+     */
+    private void stepEnd() {
+
+        if (!pending && pos != noStartAt) {
+            Arrays.fill(cap, -1);
+            addThread(clist, 0, pos);
+        }
+
+        // threads waiting on $ go on now that the input has ended
+        if (prog.hasAsserts()) {
+            atEnd = true;
+            nlist.clear();
+            for (int i = 0; i < clist.size; i++) {
+                int pc = clist.dense[i];
+                if (opcodes[pc] == Program.MATCH || opcodes[pc] == Program.ASSERT) {
+                    System.arraycopy(clist.slots, i * numSlots, cap, 0, numSlots);
+                    addThread(nlist, pc, pos);
+                }
+            }
+            atEnd = false;
+            Threads tmp = clist;
+            clist = nlist;
+            nlist = tmp;
+        }
+
+        for (int i = 0; i < clist.size; i++) {
+            if (opcodes[clist.dense[i]] == Program.MATCH) {
+                recordMatch(i);
+                break;
+            }
+        }
+        clist.clear();
+    }
+
+    private void recordMatch(int thread) {
+        // threads after this one have a lower priority and are dropped by the
+        // caller; any earlier pending match had a lower priority still
+        pending = true;
+        System.arraycopy(clist.slots, thread * numSlots, matchCap, 0, numSlots);
+        historyLength = 0;
+    }
+
+    private void reportPending() {
+
+        pending = false;
+        long start = matchCap[0];
+        long end = matchCap[1];
+        numMatches++;
+        if (!listener.onMatch(start, end)) {
+            stopped = true;
+            return;
+        }
+
+        // search again from the end of the match, after an empty match
+        // starting no new thread at its end
+        int remaining = replayEnd - replayStart;
+        byte[] newReplay = replay.length >= historyLength + remaining
+                ? replay : new byte[Math.max(2 * replay.length, historyLength + remaining)];
+        System.arraycopy(replay, replayStart, newReplay, historyLength, remaining);
+        System.arraycopy(history, 0, newReplay, 0, historyLength);
+        replay = newReplay;
+        replayStart = 0;
+        replayEnd = historyLength + remaining;
+        historyLength = 0;
+
+        pos = end;
+        noStartAt = start == end ? end : -1;
+        clist.clear();
+    }
+
+    /**
+     * Adds the thread at pc and every thread reachable from it without
+     * consuming input, as PikeVM does.
+     */
+    private void addThread(Threads list, int pc, long at) {
+
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            int entry = stack[--top];
+            if (entry < 0) {
+                cap[-1 - entry] = stackVal[top];
+                continue;
+            }
+
+            pc = entry;
+            while (!list.contains(pc)) {
+                int i = list.add(pc);
+                int opcode = opcodes[pc];
+                if (opcode == Program.JMP) {
+                    pc = arg1[pc];
+                } else if (opcode == Program.SPLIT) {
+                    stack[top++] = arg2[pc];
+                    pc = arg1[pc];
+                } else if (opcode == Program.SAVE) {
+                    int slot = arg1[pc];
+                    if (slot < numSlots) {
+                        stackVal[top] = cap[slot];
+                        stack[top++] = -1 - slot;
+                        cap[slot] = at;
+                    }
+                    pc++;
+                } else if (opcode == Program.ASSERT && (arg1[pc] == Program.TEXT_START ? at == 0 : atEnd)) {
+                    pc++;
+                } else if (opcode == Program.ASSERT && arg1[pc] == Program.TEXT_START) {
+                    break;
+                } else {
+                    // consuming and matching threads, and those waiting on $
+                    System.arraycopy(cap, 0, list.slots, i * numSlots, numSlots);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A sparse set of threads whose capture slots hold absolute offsets.
+     */
+    private static final class Threads {
+
+        final int[] sparse;
+        final int[] dense;
+        final long[] slots;
+        int size;
+
+        Threads(int programSize, int numSlots) {
+            this.sparse = new int[programSize];
+            this.dense = new int[programSize];
+            this.slots = new long[programSize * numSlots];
+        }
+
+        boolean contains(int pc) {
+            int i = sparse[pc];
+            return i < size && dense[i] == pc;
+        }
+
+        int add(int pc) {
+            sparse[pc] = size;
+            dense[size] = pc;
+            return size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.timmciver.bytegrep.trace;
+
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.EngineType;
+import java.io.PrintStream;
+
+/**
+ * A Tracer that prints each event as one line of space separated key=value
+ * fields, starting with the kind of event, e.g.
+ *
+ *   parse start=0 end=4 kind=LiteralByte node=0xAA
+ *   search engine=DFA anchored=false from=0 to=4096 start=17 end=21
+ *
+ * so that a trace can be filtered with grep and cut. Only single byte, byte
+ * class and anchor nodes are printed whole; any other node is given by its
+ * kind and its span of the pattern, since printing each subtree would make
+ * the trace of a long pattern quadratic in its length.
+ * @author tim
+ */
+public class PrintTracer implements Tracer {
+
+    private final PrintStream out;
+    private final String label;
+
+    /**
+     * @param out the stream to print to
+     * @param label printed as the first field of every line, to tell the
+     * traces of several patterns apart; may be null
+     */
+    public PrintTracer(PrintStream out, String label) {
+        this.out = out;
+        this.label = label;
+    }
+
+    @Override
+    public void onParse(RegularExpression re, int start, int end) {
+        String event = "parse start=" + start + " end=" + end + " kind=" + re.getClass().getSimpleName();
+        if (re instanceof LiteralByte || re instanceof ByteClassExpression || re instanceof Anchor) {
+            event += " node=" + re;
+        }
+        print(event);
+    }
+
+    @Override
+    public void onParseError(String message, int index) {
+        print("parse-error index=" + index + " message=\"" + message + "\"");
+    }
+
+    @Override
+    public void onSearch(EngineType type, boolean anchored, int from, int to, int start, int end) {
+        print("search engine=" + type + " anchored=" + anchored + " from=" + from + " to=" + to
+                + " start=" + start + " end=" + end);
+    }
+
+    private void print(String event) {
+        out.println(label == null ? event : label + " " + event);
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.timmciver.bytegrep.trace;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.EngineType;
+
+/**
+ * Receives the events of parsing and matching one pattern, for debugging it.
+ * Tracing is switched on by giving a Tracer to the DefaultParser that parses
+ * the pattern and to CompiledPattern.compile; without one the parser and the
+ * engines do no tracing work at all, not even building the events.
+ *
+ * Offsets into the pattern are character indexes from the start of the
+ * pattern's text; offsets into the data are those passed to the Engine.
+ * @author tim
+ */
+public interface Tracer {
+
+    /**
+     * Called for each node of the syntax tree once it has been parsed,
+     * children before their parents.
+     * @param re the node
+     * @param start the index of the node's first character in the pattern
+     * @param end the index after its last character
+     */
+    void onParse(RegularExpression re, int start, int end);
+
+    /**
+     * Called when a pattern fails to parse, before the exception is thrown.
+     * @param message the error
+     * @param index the index in the pattern at which the error was found
+     */
+    void onParseError(String message, int index);
+
+    /**
+     * Called after each search an Engine makes for the pattern.
+     * @param type the kind of engine
+     * @param anchored true if the match had to start at from
+     * @param from the offset the search began at
+     * @param to the offset the input ends at
+     * @param start the start of the match found, or -1 if there was none
+     * @param end the end of the match found, or -1 if there was none
+     */
+    void onSearch(EngineType type, boolean anchored, int from, int to, int start, int end);
+
+}
@@ -0,0 +1,82 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class BacktrackEngineTest {
+    
+    public BacktrackEngineTest() {
+    }
+    
+    private static CompiledPattern compile(String regex) throws IOException {
+        return CompiledPattern.compile(new DefaultParser(true).parse(regex));
+    }
+    
+    @Test
+    public void testLazyQuantifiers() throws IOException {
+        
+        byte[] data = new byte[]{0x41, 0x41, 0x42, 0x41, 0x42};
+        int[] span = new int[2];
+        String[] regexes = new String[]{"0x41.*0x42", "0x41.*?0x42", "0x41+?", "0x41{1,2}?", "0x41??0x41"};
+        int[][] expected = new int[][]{{0, 5}, {0, 3}, {0, 1}, {0, 1}, {0, 1}};
+        for (int i = 0; i < regexes.length; i++) {
+            CompiledPattern pattern = compile(regexes[i]);
+            for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA, EngineType.BACKTRACK}) {
+                assertTrue(regexes[i], pattern.newEngine(type).find(data, 0, data.length, span));
+                assertEquals(regexes[i] + " " + type, Arrays.toString(expected[i]), Arrays.toString(span));
+            }
+        }
+    }
+    
+    @Test
+    public void testSameAsPikeVM() throws IOException {
+        
+        String[] regexes = new String[]{
+            "(0x00|0x01)*?(0x02)", "(0x00+?)(0x00*)", "^(0x01?)(0x01|0x02)+$", "((0x00|0x01){2,}?)(.)",
+            "(0x00*)*0x03"
+        };
+        Random random = new Random(23);
+        byte[] data = new byte[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(4);
+        }
+        for (String regex : regexes) {
+            CompiledPattern pattern = compile(regex);
+            Engine nfa = pattern.newEngine(EngineType.NFA);
+            Engine backtrack = pattern.newEngine(EngineType.BACKTRACK);
+            int[] expected = new int[2 * (pattern.getNumGroups() + 1)];
+            int[] actual = new int[expected.length];
+            for (int from = 0; from <= data.length; from++) {
+                assertEquals(regex, nfa.find(data, from, data.length, expected),
+                        backtrack.find(data, from, data.length, actual));
+                assertEquals(regex, Arrays.toString(expected), Arrays.toString(actual));
+            }
+        }
+    }
+    
+    @Test
+    public void testNoExponentialBlowup() throws IOException {
+        
+        // plain backtracking would try exponentially many ways of splitting
+        // the run of 0x41 up between the repetitions before failing
+        byte[] data = new byte[5000];
+        Arrays.fill(data, (byte)0x41);
+        int[] span = new int[2];
+        for (String regex : new String[]{"(0x41*)*0x42", "(0x41|0x41)*0x42", "(0x41+)+0x42"}) {
+            assertFalse(regex, compile(regex).newEngine(EngineType.BACKTRACK).find(data, 0, data.length, span));
+        }
+        assertTrue(compile("^(0x41+)+$").newEngine(EngineType.BACKTRACK).find(data, 0, data.length, span));
+        assertEquals(data.length, span[1]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class CaptureGroupTest {
+
+    public CaptureGroupTest() {
+    }
+
+    private static CompiledPattern compile(String regex) throws IOException {
+        return CompiledPattern.compile(new DefaultParser(true).parse(regex));
+    }
+
+    @Test
+    public void testGroupSpans() throws IOException {
+
+        CompiledPattern pattern = compile("0x01(0x02+)(0x03|(0x04))");
+        assertEquals(3, pattern.getNumGroups());
+        byte[] data = new byte[]{0x00, 0x01, 0x02, 0x02, 0x04, 0x01, 0x02, 0x03};
+        int[] span = new int[8];
+
+        for (EngineType type : EngineType.values()) {
+            Engine engine = pattern.newEngine(type);
+            assertTrue(engine.find(data, 0, data.length, span));
+            assertEquals(type.name(), Arrays.toString(new int[]{1, 5, 2, 4, 4, 5, 4, 5}), Arrays.toString(span));
+
+            // the third group takes no part in the second match
+            assertTrue(engine.find(data, 5, data.length, span));
+            assertEquals(type.name(), Arrays.toString(new int[]{5, 8, 6, 7, 7, 8, -1, -1}), Arrays.toString(span));
+
+            // a short span only gets the match
+            int[] small = new int[2];
+            assertTrue(engine.find(data, 0, data.length, small));
+            assertEquals(type.name(), Arrays.toString(new int[]{1, 5}), Arrays.toString(small));
+        }
+    }
+
+    @Test
+    public void testGroupsNotInProgram() throws IOException {
+
+        // a group repeated no times is never compiled, but its slots are
+        // still cleared rather than left with what the span held before
+        CompiledPattern pattern = compile("(0x41|0x42)(0x43){0}");
+        assertEquals(2, pattern.getNumGroups());
+        byte[] data = new byte[]{0x41};
+        for (EngineType type : EngineType.values()) {
+            int[] span = new int[]{9, 9, 9, 9, 9, 9};
+            assertTrue(pattern.newEngine(type).find(data, 0, data.length, span));
+            assertEquals(type.name(), Arrays.toString(new int[]{0, 1, 0, 1, -1, -1}), Arrays.toString(span));
+        }
+    }
+
+    @Test
+    public void testEnginesAgree() throws IOException {
+
+        String[] regexes = new String[]{
+            "(0x01|0x020x01)(0x01*)", "((0x01)|0x02)+0x03", "0xAA(0x01?)(0x01{2})", "(0x01)(0x02)(0x03)",
+            "(?:(0x01)0x02)*0x03"
+        };
+        Random random = new Random(5);
+        byte[] data = new byte[2000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(random.nextInt(4) == 0 ? 0xAA : 1 + random.nextInt(3));
+        }
+
+        for (String regex : regexes) {
+            CompiledPattern pattern = compile(regex);
+            int[] expected = new int[2 * (pattern.getNumGroups() + 1)];
+            int[] actual = new int[expected.length];
+            Engine nfa = pattern.newEngine(EngineType.NFA);
+            for (EngineType type : EngineType.values()) {
+
+                // the tree engine does not backtrack so it can find other
+                // matches
+                if (type == EngineType.TREE) {
+                    continue;
+                }
+                Engine engine = pattern.newEngine(type);
+                int pos = 0;
+                while (nfa.find(data, pos, data.length, expected)) {
+                    assertTrue(regex, engine.find(data, pos, data.length, actual));
+                    assertEquals(regex + " " + type, Arrays.toString(expected), Arrays.toString(actual));
+                    pos = Math.max(expected[1], expected[0] + 1);
+                }
+            }
+        }
+    }
+}
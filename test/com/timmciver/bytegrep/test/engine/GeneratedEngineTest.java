@@ -0,0 +1,72 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.LazyDFA;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.Random;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class GeneratedEngineTest {
+    
+    public GeneratedEngineTest() {
+    }
+    
+    @Test
+    public void testAgreesWithLazyDFA() throws IOException {
+        
+        String[] regexes = new String[]{
+            "0xCA0xFE", "0x45*0x450xAA", "0x41|(0x410x42)", "(0x00|0x01)+0x02",
+            "[0x00-0x01]{3}0x02?", "(0x00*)*0x01", "0x02?"
+        };
+        Random random = new Random(23);
+        int[] expected = new int[2];
+        int[] actual = new int[2];
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            if (ToolProvider.getSystemJavaCompiler() != null) {
+                assertTrue(regex, pattern.hasGeneratedEngine());
+            }
+            Engine dfa = pattern.newBareEngine(EngineType.DFA);
+            Engine generated = pattern.newBareEngine(EngineType.GENERATED);
+            
+            for (int i = 0; i < 300; i++) {
+                byte[] data = new byte[random.nextInt(30)];
+                for (int k = 0; k < data.length; k++) {
+                    data[k] = (byte)random.nextInt(3);
+                }
+                int from = random.nextInt(data.length + 1);
+                
+                boolean found = dfa.find(data, from, data.length, expected);
+                assertEquals(regex, found, generated.find(data, from, data.length, actual));
+                if (found) {
+                    assertEquals(regex, expected[0], actual[0]);
+                    assertEquals(regex, expected[1], actual[1]);
+                }
+                
+                found = dfa.matchAt(data, from, data.length, expected);
+                assertEquals(regex, found, generated.matchAt(data, from, data.length, actual));
+                if (found) {
+                    assertEquals(regex, expected[1], actual[1]);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testFallsBackOnLargeDFA() throws IOException {
+        
+        // the DFA has to remember the last nine bytes
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x01(0x00|0x01){9}"));
+        assertFalse(pattern.hasGeneratedEngine());
+        assertTrue(pattern.newBareEngine(EngineType.GENERATED) instanceof LazyDFA);
+    }
+}
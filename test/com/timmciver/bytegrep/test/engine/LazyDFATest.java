@@ -0,0 +1,150 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.OneOrMore;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import com.timmciver.bytegrep.ZeroOrMore;
+import com.timmciver.bytegrep.ZeroOrOne;
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.LazyDFA;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class LazyDFATest {
+    
+    public LazyDFATest() {
+    }
+    
+    @Test
+    public void testFind() throws IOException {
+        
+        RegularExpression re = new DefaultParser().parse("0x45*0x450xAA");
+        Engine engine = CompiledPattern.compile(re).newEngine(EngineType.DFA);
+        byte[] data = new byte[]{0x01, 0x45, 0x45, 0x45, (byte)0xAA, 0x45, (byte)0xAA};
+        int[] span = new int[2];
+        
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(1, span[0]);
+        assertEquals(5, span[1]);
+        
+        assertTrue(engine.find(data, 5, data.length, span));
+        assertEquals(5, span[0]);
+        assertEquals(7, span[1]);
+        
+        assertFalse(engine.find(data, 6, data.length, span));
+        assertFalse(engine.matchAt(data, 0, data.length, span));
+        assertTrue(engine.matchAt(data, 2, data.length, span));
+        assertEquals(5, span[1]);
+    }
+    
+    @Test
+    public void testAnchorsOnEmptyInput() throws IOException {
+        
+        // both anchors hold at the only offset of an empty input, or of an
+        // empty range at zero, and at no offset of a longer one; the last two
+        // patterns have required bytes so their engines are prefiltered
+        String[] regexes = new String[]{"$^", "^$", "$^$", "^0x41$", "$^0x41"};
+        String[][] expected = new String[][]{
+            {"[0, 0]", "[0, 0]", "none"},
+            {"[0, 0]", "[0, 0]", "none"},
+            {"[0, 0]", "[0, 0]", "none"},
+            {"none", "none", "[0, 1]"},
+            {"none", "none", "none"}
+        };
+        byte[] empty = new byte[0];
+        byte[] one = new byte[]{0x41};
+        for (int i = 0; i < regexes.length; i++) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regexes[i]));
+            for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA, EngineType.BACKTRACK}) {
+                for (Engine engine : new Engine[]{pattern.newEngine(type), pattern.newBareEngine(type, null)}) {
+                    String name = regexes[i] + " " + type + " " + engine.getClass().getSimpleName();
+                    assertEquals(name, expected[i][0], find(engine, empty, 0));
+                    assertEquals(name, expected[i][1], find(engine, one, 0));
+                    assertEquals(name, expected[i][2], find(engine, one, 1));
+                    assertEquals(name, i < 3, engine.matchAt(empty, 0, 0, new int[2]));
+                }
+            }
+        }
+    }
+    
+    private static String find(Engine engine, byte[] data, int to) {
+        int[] span = new int[2];
+        return engine.find(data, 0, to, span) ? Arrays.toString(span) : "none";
+    }
+    
+    @Test
+    public void testAgreesWithPikeVM() {
+        
+        // compare the DFA against the PikeVM on random expressions over a small
+        // alphabet; the tiny cache forces plenty of flushes
+        Random random = new Random(42);
+        int[] nfaSpan = new int[2];
+        int[] dfaSpan = new int[2];
+        for (int i = 0; i < 500; i++) {
+            RegularExpression re = randomExpression(random, 4);
+            CompiledPattern pattern = CompiledPattern.compile(re);
+            Engine nfa = pattern.newEngine(EngineType.NFA);
+            Engine dfa = new LazyDFA(pattern.getProgram(), pattern.getReverseProgram(), 3);
+            
+            for (int j = 0; j < 10; j++) {
+                byte[] data = new byte[random.nextInt(20)];
+                for (int k = 0; k < data.length; k++) {
+                    data[k] = (byte)random.nextInt(3);
+                }
+                int from = random.nextInt(data.length + 1);
+                
+                boolean expected = nfa.find(data, from, data.length, nfaSpan);
+                assertEquals(re.toString(), expected, dfa.find(data, from, data.length, dfaSpan));
+                if (expected) {
+                    assertEquals(re.toString(), nfaSpan[0], dfaSpan[0]);
+                    assertEquals(re.toString(), nfaSpan[1], dfaSpan[1]);
+                }
+                
+                expected = nfa.matchAt(data, from, data.length, nfaSpan);
+                assertEquals(re.toString(), expected, dfa.matchAt(data, from, data.length, dfaSpan));
+                if (expected) {
+                    assertEquals(re.toString(), nfaSpan[1], dfaSpan[1]);
+                }
+            }
+        }
+    }
+    
+    private static RegularExpression randomExpression(Random random, int depth) {
+        if (depth == 0) {
+            return new LiteralByte(random.nextInt(3));
+        }
+        switch (random.nextInt(8)) {
+            case 0:
+                return new SequenceExpression(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+            case 1:
+                return new AlternationExpression(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+            case 2:
+                return new ZeroOrMore(randomExpression(random, depth - 1));
+            case 3:
+                return new OneOrMore(randomExpression(random, depth - 1));
+            case 4:
+                return new ZeroOrOne(randomExpression(random, depth - 1));
+            case 5:
+                int min = random.nextInt(3);
+                return new RepetitionExpression(randomExpression(random, depth - 1), min, min + random.nextInt(3));
+            case 6:
+                return new ByteClassExpression(random.nextInt(2), 1 + random.nextInt(2));
+            default:
+                return new LiteralByte(random.nextInt(3));
+        }
+    }
+}
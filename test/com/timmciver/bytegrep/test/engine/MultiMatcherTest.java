@@ -0,0 +1,186 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.Compiler;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.MultiMatchListener;
+import com.timmciver.bytegrep.engine.MultiMatcher;
+import com.timmciver.bytegrep.engine.PatternSet;
+import com.timmciver.bytegrep.engine.Program;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class MultiMatcherTest {
+    
+    private static final String[] REGEXES = new String[]{
+        "0x410x42", "0x42", "0x410x420x43", "0x41+0x42", "(0x43|0x44)*0x41", "0x42", "0x440x42?", "0x43?"
+    };
+    
+    public MultiMatcherTest() {
+    }
+    
+    @Test
+    public void testLiteralsGoToAhoCorasick() throws IOException {
+        PatternSet set = PatternSet.compile(parse(REGEXES));
+        assertEquals(8, set.size());
+        assertEquals(4, set.getNumLiterals());
+    }
+    
+    @Test
+    public void testEveryMatchEnd() throws IOException {
+        
+        List<RegularExpression> res = parse(REGEXES);
+        PatternSet set = PatternSet.compile(res);
+        Random random = new Random(11);
+        byte[] data = new byte[400];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(0x41 + random.nextInt(4));
+        }
+        List<Long> expected = bruteForce(res, data);
+        
+        // feed the input in random chunks
+        for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA}) {
+            final List<Long> actual = new ArrayList<>();
+            MultiMatcher matcher = set.newMatcher(type, new MultiMatchListener() {
+                @Override
+                public boolean onMatch(int pattern, long start, long end) {
+                    actual.addAll(Arrays.asList((long)pattern, start, end));
+                    return true;
+                }
+            });
+            int pos = 0;
+            while (pos < data.length) {
+                int n = Math.min(data.length - pos, 1 + random.nextInt(20));
+                matcher.feed(data, pos, n);
+                pos += n;
+            }
+            assertEquals(expected.size() / 3, matcher.finish());
+            assertEquals(type.toString(), expected, actual);
+        }
+    }
+    
+    @Test
+    public void testStop() throws IOException {
+        PatternSet set = PatternSet.compile(parse(new String[]{"0x41", "0x41+"}));
+        final List<Integer> patterns = new ArrayList<>();
+        MultiMatcher matcher = set.newMatcher(EngineType.DFA, new MultiMatchListener() {
+            @Override
+            public boolean onMatch(int pattern, long start, long end) {
+                patterns.add(pattern);
+                return patterns.size() < 3;
+            }
+        });
+        byte[] data = new byte[]{0x41, 0x41, 0x41};
+        matcher.feed(data, 0, data.length);
+        assertTrue(matcher.isStopped());
+        assertEquals(3, matcher.finish());
+        assertEquals(Arrays.asList(0, 1, 0), patterns);
+    }
+    
+    @Test
+    public void testDenseUnboundedMatches() throws IOException {
+        
+        // every byte ends a match of 0x41+ that starts at zero, which is
+        // further back than the DFA traces a single match
+        PatternSet set = PatternSet.compile(parse(new String[]{"0x41+", "0x430x44"}));
+        byte[] data = new byte[256 * 1024];
+        Arrays.fill(data, (byte)0x41);
+        for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA}) {
+            final long[] end = new long[1];
+            MultiMatcher matcher = set.newMatcher(type, new MultiMatchListener() {
+                @Override
+                public boolean onMatch(int pattern, long start, long matchEnd) {
+                    assertEquals(0, pattern);
+                    assertEquals(0, start);
+                    assertEquals(++end[0], matchEnd);
+                    return true;
+                }
+            });
+            for (int pos = 0; pos < data.length; pos += 4096) {
+                matcher.feed(data, pos, 4096);
+            }
+            assertEquals(type.toString(), data.length, matcher.finish());
+        }
+    }
+    
+    private static List<RegularExpression> parse(String[] regexes) throws IOException {
+        List<RegularExpression> res = new ArrayList<>();
+        for (String regex : regexes) {
+            res.add(new DefaultParser().parse(regex));
+        }
+        return res;
+    }
+    
+    /**
+     * For every end offset and pattern, finds the earliest start of a match
+     * by simulating the pattern's program from every offset.
+     */
+    private static List<Long> bruteForce(List<RegularExpression> res, byte[] data) {
+        Program[] progs = new Program[res.size()];
+        for (int i = 0; i < progs.length; i++) {
+            progs[i] = Compiler.compile(res.get(i));
+        }
+        List<Long> matches = new ArrayList<>();
+        for (int end = 0; end <= data.length; end++) {
+            for (int id = 0; id < progs.length; id++) {
+                for (int start = 0; start <= end; start++) {
+                    if (matchesExactly(progs[id], data, start, end)) {
+                        matches.addAll(Arrays.asList((long)id, (long)start, (long)end));
+                        break;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+    
+    private static boolean matchesExactly(Program prog, byte[] data, int start, int end) {
+        BitSet states = closure(prog, new BitSet(), 0);
+        for (int i = start; i < end; i++) {
+            BitSet next = new BitSet();
+            for (int pc = states.nextSetBit(0); pc >= 0; pc = states.nextSetBit(pc + 1)) {
+                if (prog.accepts(pc, data[i] & 0xFF)) {
+                    closure(prog, next, pc + 1);
+                }
+            }
+            states = next;
+        }
+        for (int pc = states.nextSetBit(0); pc >= 0; pc = states.nextSetBit(pc + 1)) {
+            if (prog.getOpcode(pc) == Program.MATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static BitSet closure(Program prog, BitSet states, int pc) {
+        if (states.get(pc)) {
+            return states;
+        }
+        states.set(pc);
+        switch (prog.getOpcode(pc)) {
+            case Program.JMP:
+                closure(prog, states, prog.getArg1(pc));
+                break;
+            case Program.SPLIT:
+                closure(prog, states, prog.getArg1(pc));
+                closure(prog, states, prog.getArg2(pc));
+                break;
+            case Program.SAVE:
+                closure(prog, states, pc + 1);
+                break;
+        }
+        return states;
+    }
+}
@@ -0,0 +1,186 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.ConcatenationExpression;
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.LiteralString;
+import com.timmciver.bytegrep.OneOrMore;
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.SequenceExpression;
+import com.timmciver.bytegrep.ZeroOrMore;
+import com.timmciver.bytegrep.ZeroOrOne;
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Compiler;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.Optimizer;
+import com.timmciver.bytegrep.engine.PikeVM;
+import com.timmciver.bytegrep.engine.TreeEngine;
+import com.timmciver.bytegrep.index.QueryPlanner;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class OptimizerTest {
+
+    public OptimizerTest() {
+    }
+
+    private static RegularExpression optimize(String regex) throws IOException {
+        return Optimizer.optimize(new DefaultParser().parse(regex));
+    }
+
+    @Test
+    public void testFlattenAndMerge() throws IOException {
+
+        // adjacent bytes become one string and the rest one concatenation
+        RegularExpression expected = new ConcatenationExpression(Arrays.<RegularExpression>asList(
+                new LiteralString(new byte[]{(byte)0xCA, (byte)0xFE}),
+                new ZeroOrMore(new LiteralByte(0x00)),
+                new LiteralString(new byte[]{(byte)0xBA, (byte)0xBE})));
+        assertEquals(expected, optimize("0xCA(0xFE0x00*)0xBA0xBE"));
+    }
+
+    @Test
+    public void testFactorAndClass() throws IOException {
+
+        // a shared leading byte is factored out
+        RegularExpression expected = new ConcatenationExpression(Arrays.<RegularExpression>asList(
+                new LiteralByte(0x61),
+                new AlternationExpression(new LiteralByte(0x62), new LiteralString(new byte[]{0x63, 0x64}))));
+        assertEquals(expected, optimize("(0x610x62)|(0x610x630x64)"));
+
+        // alternatives of one byte become a class, and so do the tails left
+        // behind by factoring
+        assertEquals(new ByteClassExpression(0x41, 0x43), optimize("0x41|0x42|0x43"));
+        assertEquals(new ConcatenationExpression(Arrays.<RegularExpression>asList(
+                new LiteralByte(0x61), new ByteClassExpression(0x62, 0x63))),
+                optimize("(0x610x62)|(0x610x63)"));
+
+        // a bare prefix can only end the factored run, as an optional tail
+        assertEquals(new ConcatenationExpression(Arrays.<RegularExpression>asList(
+                new LiteralByte(0x61), new ZeroOrOne(new LiteralByte(0x62)))),
+                optimize("(0x610x62)|0x61"));
+    }
+
+    @Test
+    public void testCollapseRepetitions() throws IOException {
+        assertEquals(new ZeroOrMore(new LiteralByte(0x41)), optimize("(0x41*)*"));
+        assertEquals(new OneOrMore(new LiteralByte(0x41)), optimize("(0x41+)+"));
+        assertEquals(new ZeroOrMore(new LiteralByte(0x41)), optimize("(0x41+)?"));
+        assertEquals(new ZeroOrOne(new LiteralByte(0x41)), optimize("(0x41?)?"));
+    }
+
+    @Test
+    public void testEquivalent() {
+
+        // the optimized tree must find exactly the matches the original does,
+        // both on the NFA and on the greedy tree interpreter
+        Random random = new Random(17);
+        int[] expected = new int[2];
+        int[] actual = new int[2];
+        for (int i = 0; i < 1000; i++) {
+            RegularExpression re = randomExpression(random, 4);
+            RegularExpression optimized = Optimizer.optimize(re);
+            Engine[] originals = new Engine[]{new PikeVM(Compiler.compile(re)), new TreeEngine(re)};
+            Engine[] optimizeds = new Engine[]{new PikeVM(Compiler.compile(optimized)), new TreeEngine(optimized)};
+
+            for (int j = 0; j < 10; j++) {
+                byte[] data = new byte[random.nextInt(12)];
+                for (int k = 0; k < data.length; k++) {
+                    data[k] = (byte)random.nextInt(3);
+                }
+                for (int e = 0; e < originals.length; e++) {
+                    String message = re + " => " + optimized;
+                    boolean found = originals[e].find(data, 0, data.length, expected);
+                    assertEquals(message, found, optimizeds[e].find(data, 0, data.length, actual));
+                    if (found) {
+                        assertEquals(message, expected[0], actual[0]);
+                        assertEquals(message, expected[1], actual[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLongPatterns() throws IOException {
+        
+        // thousands of alternatives: (0x000x00)|(0x000x01)|...
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(i == 0 ? "" : "|").append(String.format("(0x%02X0x%02X)", i >> 8, i & 0xFF));
+        }
+        assertLongPattern(new DefaultParser().parse(sb.toString()), new byte[]{0x7F, 0x13, (byte)0x87}, 1, 3);
+        
+        // and without the brackets, which the parser nests as deeply
+        sb.setLength(0);
+        for (int i = 0; i < 5000; i++) {
+            sb.append(i == 0 ? "" : "|").append("0xAA0xBB");
+        }
+        RegularExpression re = new DefaultParser().parse(sb.toString());
+        assertLongPattern(re, new byte[]{0x7F, (byte)0xAA, (byte)0xBB}, 1, 3);
+        assertNotNull(QueryPlanner.plan(re));
+        
+        // deep nesting, with and without groups: ((((0x41)+)+)+...
+        for (int depth : new int[]{5000, 200}) {
+            sb.setLength(0);
+            for (int i = 0; i < depth; i++) {
+                sb.append('(');
+            }
+            sb.append("0x41");
+            for (int i = 0; i < depth; i++) {
+                sb.append(")+");
+            }
+            re = new DefaultParser(depth == 200).parse(sb.toString());
+            if (depth == 5000) {
+                assertEquals(sb.toString(), re.toString());
+            }
+            assertLongPattern(re, new byte[]{0x42, 0x41, 0x41, 0x41, 0x42}, 1, 4);
+        }
+    }
+    
+    private static void assertLongPattern(RegularExpression re, byte[] data, int start, int end) {
+        CompiledPattern pattern = CompiledPattern.compile(re);
+        for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA, EngineType.BACKTRACK}) {
+            int[] span = new int[2];
+            assertTrue(type.toString(), pattern.newEngine(type).find(data, 0, data.length, span));
+            assertEquals(type.toString(), start, span[0]);
+            assertEquals(type.toString(), end, span[1]);
+        }
+    }
+
+    private static RegularExpression randomExpression(Random random, int depth) {
+        if (depth == 0) {
+            return new LiteralByte(random.nextInt(3));
+        }
+        switch (random.nextInt(7)) {
+            case 0:
+            case 1:
+                return new SequenceExpression(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+            case 2:
+                // alternatives with a shared first byte give factoring a chance
+                LiteralByte shared = new LiteralByte(random.nextInt(3));
+                return new AlternationExpression(
+                        new SequenceExpression(shared, randomExpression(random, depth - 1)),
+                        random.nextBoolean() ? shared : new SequenceExpression(shared, randomExpression(random, depth - 1)));
+            case 3:
+                return new AlternationExpression(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+            case 4:
+                return new ZeroOrMore(randomExpression(random, depth - 1));
+            case 5:
+                return random.nextBoolean() ? new OneOrMore(randomExpression(random, depth - 1))
+                        : new ZeroOrOne(randomExpression(random, depth - 1));
+            default:
+                return new LiteralByte(random.nextInt(3));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.PatternCache;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.parser.MalformedInputException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class PatternCacheTest {
+    
+    public PatternCacheTest() {
+    }
+    
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        
+        PatternCache cache = new PatternCache(4, new DefaultParser());
+        CompiledPattern first = cache.get("0xCA0xFE");
+        assertSame(first, cache.get("0xCA0xFE"));
+        cache.get("0x41+");
+        
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+        
+        // a pattern that doesn't parse is not cached
+        try {
+            cache.get("0xZZ");
+            fail("Did not get expected exception.");
+        } catch (MalformedInputException ex) {
+            // expected
+        }
+        assertEquals(2, cache.size());
+    }
+    
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        
+        PatternCache cache = new PatternCache(2, new DefaultParser());
+        CompiledPattern a = cache.get("0x41");
+        cache.get("0x42");
+        
+        // using 0x41 makes 0x42 the one to go
+        cache.get("0x41");
+        cache.get("0x43");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("0x41"));
+        
+        long misses = cache.getMisses();
+        cache.get("0x42");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+    
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        
+        final PatternCache cache = new PatternCache(8, new DefaultParser());
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<CompiledPattern>> results = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final String source = String.format("0x%02X+0x00", i % 16);
+            results.add(pool.submit(new Callable<CompiledPattern>() {
+                @Override
+                public CompiledPattern call() throws IOException {
+                    return cache.get(source);
+                }
+            }));
+        }
+        for (Future<CompiledPattern> result : results) {
+            assertNotNull(result.get());
+        }
+        pool.shutdown();
+        
+        assertEquals(400, cache.getHits() + cache.getMisses());
+        assertTrue(cache.size() <= 8);
+    }
+}
@@ -0,0 +1,102 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.Compiler;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.PikeVM;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class PikeVMTest {
+    
+    public PikeVMTest() {
+    }
+    
+    private Engine engineFor(String regex) throws IOException {
+        RegularExpression re = new DefaultParser().parse(regex);
+        return new PikeVM(Compiler.compile(re));
+    }
+    
+    @Test
+    public void testFindLiteralSequence() throws IOException {
+        
+        Engine engine = engineFor("0xCA0xFE");
+        byte[] data = new byte[]{0x00, (byte)0xCA, (byte)0xCA, (byte)0xFE, 0x00};
+        int[] span = new int[2];
+        
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(2, span[0]);
+        assertEquals(4, span[1]);
+        
+        // nothing after the first match
+        assertFalse(engine.find(data, 3, data.length, span));
+        
+        // the input is cut off before the match ends
+        assertFalse(engine.find(data, 0, 3, span));
+    }
+    
+    @Test
+    public void testRepetitionNeedsBacktracking() throws IOException {
+        
+        // the tree interpreter can not find this since 0x45* consumes every 0x45
+        Engine engine = engineFor("0x45*0x450xAA");
+        byte[] data = new byte[]{0x01, 0x45, 0x45, 0x45, (byte)0xAA};
+        int[] span = new int[2];
+        
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(1, span[0]);
+        assertEquals(5, span[1]);
+    }
+    
+    @Test
+    public void testLeftmostFirst() throws IOException {
+        
+        // the first alternative is preferred even though the second is longer
+        Engine engine = engineFor("0x41|(0x410x42)");
+        byte[] data = new byte[]{0x41, 0x42};
+        int[] span = new int[2];
+        
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(0, span[0]);
+        assertEquals(1, span[1]);
+        
+        // and the quantifiers are greedy
+        engine = engineFor("0x41+");
+        data = new byte[]{0x00, 0x41, 0x41, 0x41, 0x00};
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(1, span[0]);
+        assertEquals(4, span[1]);
+    }
+    
+    @Test
+    public void testMatchAt() throws IOException {
+        
+        Engine engine = engineFor("0x410x42");
+        byte[] data = new byte[]{0x00, 0x41, 0x42};
+        int[] span = new int[2];
+        
+        assertFalse(engine.matchAt(data, 0, data.length, span));
+        assertTrue(engine.matchAt(data, 1, data.length, span));
+        assertEquals(1, span[0]);
+        assertEquals(3, span[1]);
+    }
+    
+    @Test
+    public void testNestedEmptyLoop() throws IOException {
+        
+        // the inner loop can match the empty string which must not hang
+        Engine engine = engineFor("(0x41*)*0x42");
+        byte[] data = new byte[]{0x41, 0x41, 0x43, 0x41, 0x42};
+        int[] span = new int[2];
+        
+        assertTrue(engine.find(data, 0, data.length, span));
+        assertEquals(3, span[0]);
+        assertEquals(5, span[1]);
+    }
+}
@@ -0,0 +1,302 @@
+package com.timmciver.bytegrep.test.engine;
+
+import com.timmciver.bytegrep.engine.CancellationToken;
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.engine.MultiMatchListener;
+import com.timmciver.bytegrep.engine.MultiMatcher;
+import com.timmciver.bytegrep.engine.PatternSet;
+import com.timmciver.bytegrep.engine.SearchAbortedException;
+import com.timmciver.bytegrep.engine.SearchBudget;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.DirectoryScanner;
+import com.timmciver.bytegrep.scan.FileMatchListener;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.ParallelScanner;
+import com.timmciver.bytegrep.scan.Searcher;
+import com.timmciver.bytegrep.scan.StreamMatcher;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class SearchBudgetTest {
+    
+    public SearchBudgetTest() {
+    }
+    
+    private static CompiledPattern compile(String regex) throws IOException {
+        return CompiledPattern.compile(new DefaultParser().parse(regex));
+    }
+    
+    @Test
+    public void testStepLimit() throws IOException {
+        
+        // every engine gives up on a search that would take far more steps
+        // than it is allowed
+        byte[] data = new byte[200000];
+        Arrays.fill(data, (byte)0x41);
+        CompiledPattern pattern = compile("(0x41|0x41*0x43)*0x42");
+        for (EngineType type : EngineType.values()) {
+            
+            // the tree engine is quadratic here and is charged a step per
+            // offset, so it gets less input and fewer steps
+            int to = type == EngineType.TREE ? 20000 : data.length;
+            int maxSteps = type == EngineType.TREE ? 5000 : 50000;
+            SearchBudget budget = new SearchBudget(maxSteps, SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, null);
+            try {
+                pattern.newEngine(type, budget).find(data, 0, to, new int[2]);
+                fail(type.toString());
+            } catch (SearchAbortedException ex) {
+                assertEquals(type.toString(), SearchAbortedException.Reason.STEPS, ex.getReason());
+                assertTrue(type.toString(), ex.getSteps() > maxSteps && ex.getSteps() < maxSteps + 2 * to);
+            }
+        }
+        
+        // a search within its budget finds the same match as one without
+        SearchBudget budget = new SearchBudget(50000, SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, null);
+        int[] span = new int[2];
+        assertTrue(compile("0x41{3}").newEngine(EngineType.NFA, budget).find(data, 100, 200, span));
+        assertEquals("[100, 103]", Arrays.toString(span));
+    }
+    
+    @Test
+    public void testDenseFindAll() throws IOException {
+        
+        // finding every match of a pattern that matches almost everywhere
+        // takes steps linear in the input on every engine
+        byte[] data = new byte[200000];
+        Arrays.fill(data, (byte)0x41);
+        for (String regex : new String[]{".", "0x41(0x42)?"}) {
+            CompiledPattern pattern = compile(regex);
+            for (EngineType type : EngineType.values()) {
+                SearchBudget budget = new SearchBudget(20L * data.length, SearchBudget.UNLIMITED,
+                        SearchBudget.UNLIMITED, null);
+                Searcher searcher = new Searcher(pattern.newEngine(type, budget), MatchMode.NON_OVERLAPPING);
+                try {
+                    assertEquals(regex + " " + type, data.length, searcher.count(data, 0, data.length));
+                } catch (SearchAbortedException ex) {
+                    fail(regex + " " + type + " took " + ex.getSteps() + " steps");
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testTimeout() throws IOException {
+        byte[] data = new byte[4 * 1024 * 1024];
+        Arrays.fill(data, (byte)0x41);
+        Engine engine = compile("(0x41*)*0x42").newEngine(EngineType.NFA,
+                new SearchBudget(SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, 1, null));
+        long start = System.nanoTime();
+        try {
+            engine.find(data, 0, data.length, new int[2]);
+            fail();
+        } catch (SearchAbortedException ex) {
+            assertEquals(SearchAbortedException.Reason.TIMEOUT, ex.getReason());
+        }
+        assertTrue(System.nanoTime() - start < 5000000000L);
+        
+        // trying a single offset can take the tree engine as long as the
+        // rest of the search, so the budget is checked between offsets
+        engine = compile("(0x41|0x410x41)+0x42").newEngine(EngineType.TREE,
+                new SearchBudget(SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, 20, null));
+        start = System.nanoTime();
+        try {
+            engine.find(data, 0, 20000, new int[2]);
+            fail();
+        } catch (SearchAbortedException ex) {
+            assertEquals(SearchAbortedException.Reason.TIMEOUT, ex.getReason());
+        }
+        assertTrue(System.nanoTime() - start < 5000000000L);
+    }
+    
+    @Test
+    public void testCacheLimit() throws IOException {
+        
+        // a DFA held to a few states thrashes its cache but still finds the
+        // same matches
+        Random random = new Random(24);
+        byte[] data = new byte[20000];
+        random.nextBytes(data);
+        CompiledPattern pattern = compile("(.|0x00.{8})*?0x000x01");
+        Engine unlimited = pattern.newEngine(EngineType.DFA);
+        Engine small = pattern.newEngine(EngineType.DFA,
+                new SearchBudget(SearchBudget.UNLIMITED, 8 * 1024, SearchBudget.UNLIMITED, null));
+        int[] expected = new int[2];
+        int[] actual = new int[2];
+        for (int from = 0; from < data.length; from += 997) {
+            assertEquals(unlimited.find(data, from, data.length, expected), small.find(data, from, data.length, actual));
+            assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+        }
+    }
+    
+    @Test
+    public void testCancelledScanReportsProgress() throws IOException {
+        
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i += 100) {
+            data[i] = 0x01;
+        }
+        Path file = Files.createTempFile("bytegrep", ".bin");
+        try {
+            Files.write(file, data);
+            final CancellationToken token = new CancellationToken();
+            SearchBudget budget = new SearchBudget(SearchBudget.UNLIMITED, SearchBudget.UNLIMITED,
+                    SearchBudget.UNLIMITED, token);
+            FileScanner scanner = new FileScanner(compile("0x01"), EngineType.DFA, MatchMode.NON_OVERLAPPING,
+                    1000, FileScanner.DEFAULT_MAX_MATCH_LENGTH, budget);
+            final long[] reported = new long[1];
+            MatchListener listener = new MatchListener() {
+                @Override
+                public boolean onMatch(long start, long end) {
+                    if (++reported[0] == 25) {
+                        token.cancel();
+                    }
+                    return true;
+                }
+            };
+            try {
+                scanner.scan(file, listener);
+                fail();
+            } catch (SearchAbortedException ex) {
+                assertEquals(SearchAbortedException.Reason.CANCELLED, ex.getReason());
+                assertEquals(reported[0], ex.getNumMatches());
+                assertTrue(ex.getSearchedTo() > 2400 && ex.getSearchedTo() < data.length);
+                assertTrue(ex.getSearchedTo() <= 100 * reported[0]);
+            }
+            
+            // the limits apply to each scan, but the token stays cancelled
+            try {
+                scanner.count(file);
+                fail();
+            } catch (SearchAbortedException ex) {
+                assertEquals(0, ex.getNumMatches());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void testStreamingMatchers() throws IOException {
+        
+        byte[] data = new byte[1024 * 1024];
+        Arrays.fill(data, (byte)0x41);
+        
+        // a pattern set stops after every match it reported, and can then be
+        // used for another stream
+        PatternSet set = PatternSet.compile(Arrays.asList(
+                new DefaultParser().parse("0x41+"), new DefaultParser().parse("0x42")));
+        for (EngineType type : new EngineType[]{EngineType.NFA, EngineType.DFA}) {
+            final long[] reported = new long[1];
+            MultiMatcher matcher = set.newMatcher(type, new MultiMatchListener() {
+                @Override
+                public boolean onMatch(int pattern, long start, long end) {
+                    reported[0]++;
+                    return true;
+                }
+            }, new SearchBudget(100000, SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, null));
+            try {
+                matcher.feed(data, 0, data.length);
+                fail(type.toString());
+            } catch (SearchAbortedException ex) {
+                assertEquals(type.toString(), SearchAbortedException.Reason.STEPS, ex.getReason());
+                assertEquals(type.toString(), reported[0], ex.getNumMatches());
+                assertEquals(type.toString(), reported[0], ex.getSearchedTo());
+            }
+            matcher.feed(data, 0, 10);
+            assertEquals(10, matcher.finish());
+        }
+        
+        // a stream matcher can't report anything before the live thread
+        // that started at zero
+        StreamMatcher stream = new StreamMatcher(compile("0x41+0x42"), new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                return true;
+            }
+        }, new SearchBudget(100000, SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, null));
+        try {
+            stream.feed(data, 0, data.length);
+            fail();
+        } catch (SearchAbortedException ex) {
+            assertEquals(0, ex.getNumMatches());
+            assertEquals(0, ex.getSearchedTo());
+        }
+        stream.feed(new byte[]{0x41, 0x42}, 0, 2);
+        assertEquals(1, stream.finish());
+    }
+    
+    @Test
+    public void testCancelledParallelScans() throws IOException {
+        
+        // each thread gets a copy of the budget, all sharing the token
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        SearchBudget budget = new SearchBudget(SearchBudget.UNLIMITED, SearchBudget.UNLIMITED,
+                SearchBudget.UNLIMITED, token);
+        CompiledPattern pattern = compile("0x01");
+        Path dir = Files.createTempDirectory("bytegrep");
+        Path file = dir.resolve("data.bin");
+        try {
+            Files.write(file, new byte[3 * 1024 * 1024]);
+            ParallelScanner parallel = new ParallelScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 2,
+                    1024 * 1024, FileScanner.DEFAULT_WINDOW_SIZE, FileScanner.DEFAULT_MAX_MATCH_LENGTH, budget);
+            try {
+                parallel.count(file);
+                fail();
+            } catch (SearchAbortedException ex) {
+                assertEquals(SearchAbortedException.Reason.CANCELLED, ex.getReason());
+                assertEquals(0, ex.getNumMatches());
+            }
+            
+            DirectoryScanner scanner = new DirectoryScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 2,
+                    true, Long.MAX_VALUE, DirectoryScanner.DEFAULT_SEGMENT_SIZE, budget);
+            try {
+                scanner.scan(Arrays.asList(dir.toString()), new FileMatchListener() {
+                    @Override
+                    public boolean onMatch(Path path, long start, long end) {
+                        return true;
+                    }
+
+                    @Override
+                    public void onFileScanned(Path path, long numMatches) {
+                        fail();
+                    }
+
+                    @Override
+                    public void onError(Path path, IOException ex) {
+                        fail();
+                    }
+                });
+                fail();
+            } catch (SearchAbortedException ex) {
+                assertEquals(SearchAbortedException.Reason.CANCELLED, ex.getReason());
+            }
+        } finally {
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+    
+    @Test
+    public void testNegativeLimit() {
+        try {
+            new SearchBudget(-1, SearchBudget.UNLIMITED, SearchBudget.UNLIMITED, null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+    
+}
@@ -0,0 +1,157 @@
+package com.timmciver.bytegrep.test.index;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.index.IndexWriter;
+import com.timmciver.bytegrep.index.IndexedSearcher;
+import com.timmciver.bytegrep.index.NgramIndex;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.FileMatchListener;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class NgramIndexTest {
+
+    private static final byte[] SIGNATURE = new byte[]{(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE};
+
+    private Path root;
+    private final List<Path> files = new ArrayList<>();
+    private Path indexFile;
+
+    public NgramIndexTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+
+        // random files with the signature planted here and there, some of
+        // them across block boundaries, and an empty file
+        Random random = new Random(21);
+        root = Files.createTempDirectory("bytegrep");
+        for (int i = 0; i < 6; i++) {
+            byte[] data = new byte[i == 3 ? 0 : 20000 + random.nextInt(20000)];
+            random.nextBytes(data);
+            for (int j = 0; j < i && data.length > 0; j++) {
+                int at = j == 0 ? 4094 : random.nextInt(data.length - SIGNATURE.length);
+                System.arraycopy(SIGNATURE, 0, data, at, SIGNATURE.length);
+                if (j == 1) {
+                    data[at + SIGNATURE.length] = 0x00;
+                }
+            }
+            Path file = root.resolve("file" + i);
+            Files.write(file, data);
+            files.add(file);
+        }
+
+        indexFile = root.resolve("index");
+        try (IndexWriter writer = new IndexWriter(indexFile, 4096, 256)) {
+            for (Path file : files) {
+                writer.add(file);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(indexFile);
+        Files.delete(root);
+    }
+
+    @Test
+    public void testSameMatchesAsFullScan() throws IOException {
+
+        String[] regexes = new String[]{
+            "0xCA0xFE0xBA0xBE", "0xCA0xFE(0xBA|0x00)0xBE0x00?", "0xFE0xBA0xBE0x00", "0xCA0xFE.*0xBE",
+            "0xCA0xFE", "0x00*"
+        };
+        try (NgramIndex index = NgramIndex.open(indexFile)) {
+            assertEquals(files.size(), index.getNumFiles());
+            for (String regex : regexes) {
+                CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+                IndexedSearcher searcher = new IndexedSearcher(index, pattern, EngineType.DFA);
+                assertEquals(regex, fullScan(pattern), indexedScan(searcher));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsOnlyCandidates() throws IOException {
+
+        long total = 0;
+        for (Path file : files) {
+            total += Files.size(file);
+        }
+
+        try (NgramIndex index = NgramIndex.open(indexFile)) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0xCA0xFE0xBA0xBE0x00"));
+            IndexedSearcher searcher = new IndexedSearcher(index, pattern, EngineType.DFA);
+            List<String> matches = indexedScan(searcher);
+            assertEquals(fullScan(pattern), matches);
+            assertFalse(matches.isEmpty());
+            assertTrue(searcher.getBytesScanned() < total / 4);
+            assertTrue(searcher.getFilesSkipped() > 0);
+
+            // a file changed since it was indexed is searched in full
+            byte[] data = Files.readAllBytes(files.get(0));
+            System.arraycopy(new byte[]{(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE, 0x00}, 0, data, 100, 5);
+            Files.write(files.get(0), data);
+            Files.setLastModifiedTime(files.get(0), FileTime.fromMillis(0));
+            assertEquals(fullScan(pattern), indexedScan(searcher));
+            assertTrue(indexedScan(searcher).contains(files.get(0).toAbsolutePath() + ":100:105"));
+        }
+    }
+
+    private List<String> fullScan(CompiledPattern pattern) throws IOException {
+        final List<String> matches = new ArrayList<>();
+        FileScanner scanner = new FileScanner(pattern, EngineType.DFA);
+        for (final Path file : files) {
+            scanner.scan(file, new MatchListener() {
+                @Override
+                public boolean onMatch(long start, long end) {
+                    matches.add(file.toAbsolutePath() + ":" + start + ":" + end);
+                    return true;
+                }
+            });
+        }
+        return matches;
+    }
+
+    private static List<String> indexedScan(IndexedSearcher searcher) {
+        final List<String> matches = new ArrayList<>();
+        searcher.scan(new FileMatchListener() {
+            @Override
+            public boolean onMatch(Path file, long start, long end) {
+                matches.add(file + ":" + start + ":" + end);
+                return true;
+            }
+
+            @Override
+            public void onFileScanned(Path file, long numMatches) {
+            }
+
+            @Override
+            public void onError(Path file, IOException ex) {
+                fail(file + ": " + ex);
+            }
+        });
+        return matches;
+    }
+}
@@ -0,0 +1,61 @@
+package com.timmciver.bytegrep.test.index;
+
+import com.timmciver.bytegrep.engine.Optimizer;
+import com.timmciver.bytegrep.index.NgramQuery;
+import com.timmciver.bytegrep.index.QueryPlanner;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class QueryPlannerTest {
+
+    public QueryPlannerTest() {
+    }
+
+    private static NgramQuery plan(String regex) throws IOException {
+        return QueryPlanner.plan(Optimizer.optimize(new DefaultParser().parse(regex)));
+    }
+
+    @Test
+    public void testLiterals() throws IOException {
+
+        // every trigram of a literal is needed
+        assertEquals(NgramQuery.gram(0x414243).and(NgramQuery.gram(0x424344)), plan("0x410x420x430x44"));
+
+        // too short for a trigram
+        assertEquals(NgramQuery.ALL, plan("0x410x42"));
+    }
+
+    @Test
+    public void testAlternationAndClasses() throws IOException {
+
+        // small alternations and classes are expanded
+        assertEquals(NgramQuery.gram(0x414243).or(NgramQuery.gram(0x414244)), plan("0x410x42(0x43|0x44)"));
+        assertEquals(NgramQuery.gram(0x414243).or(NgramQuery.gram(0x414244)), plan("0x410x42[0x43-0x44]"));
+
+        // a large class breaks the literal in two
+        assertEquals(NgramQuery.gram(0x414243).and(NgramQuery.gram(0x444546)),
+                plan("0x410x420x43.0x440x450x46"));
+    }
+
+    @Test
+    public void testRepetition() throws IOException {
+
+        // a star says nothing, but what is around it still counts
+        assertEquals(NgramQuery.gram(0x414243).and(NgramQuery.gram(0x444546)),
+                plan("0x410x420x43(0x00)*0x440x450x46"));
+        assertEquals(NgramQuery.ALL, plan("(0x410x420x43)*"));
+
+        // a plus needs at least one copy
+        assertEquals(NgramQuery.gram(0x414243), plan("(0x410x420x43)+"));
+
+        // and an optional part either is there or isn't
+        assertEquals(NgramQuery.gram(0x414243).and(NgramQuery.gram(0x424344)).or(NgramQuery.gram(0x414344)),
+                plan("0x41(0x42)?0x430x44"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.timmciver.bytegrep.test.metrics;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineStats;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.metrics.MetricsRegistry;
+import com.timmciver.bytegrep.metrics.PatternMetrics;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.ParallelScanner;
+import com.timmciver.bytegrep.scan.ScanMetrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class MetricsTest {
+    
+    private Path file;
+    private byte[] data;
+    
+    public MetricsTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(25);
+        data = new byte[3 * 1024 * 1024];
+        random.nextBytes(data);
+        file = Files.createTempFile("bytegrep", ".bin");
+        Files.write(file, data);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+    
+    private static CompiledPattern compile(String regex) throws IOException {
+        return CompiledPattern.compile(new DefaultParser().parse(regex));
+    }
+    
+    @Test
+    public void testScanMetrics() throws IOException {
+        
+        // a prefilter proposes every 0xCA and the engine confirms the few
+        // followed by 0x00 or 0x01
+        CompiledPattern pattern = compile("0xCA(0x00|0x01)");
+        FileScanner scanner = new FileScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING,
+                1024 * 1024, FileScanner.DEFAULT_MAX_MATCH_LENGTH, null);
+        long numMatches = scanner.count(file);
+        ScanMetrics metrics = scanner.getMetrics();
+        assertEquals(EngineType.DFA, metrics.getEngineType());
+        assertEquals(1, metrics.getNumFiles());
+        assertEquals(numMatches, metrics.getNumMatches());
+        assertTrue(metrics.getBytesScanned() >= data.length);
+        assertTrue(metrics.getNumCandidates() > 1000);
+        assertEquals(numMatches, metrics.getNumConfirmed());
+        assertTrue(metrics.getPrefilterEfficiency() < 0.1);
+        assertEquals(metrics.getIoNanos() + metrics.getMatchNanos(), metrics.getElapsedNanos());
+        
+        // each scan has metrics of its own
+        assertEquals(0, scanner.scan(file, 0, 0, null));
+        assertEquals(0, scanner.getMetrics().getNumCandidates());
+        assertNotSame(metrics, scanner.getMetrics());
+        
+        // a pattern without a prefilter builds DFA states
+        scanner = new FileScanner(compile("(0x00|0x01)+0x02"), EngineType.DFA);
+        scanner.count(file);
+        assertEquals(0, scanner.getMetrics().getNumCandidates());
+        assertTrue(scanner.getMetrics().getNumStatesBuilt() > 0);
+    }
+    
+    @Test
+    public void testPrefilterBypasses() throws IOException {
+        
+        // every byte is a candidate, so the prefilter gives up and the engine
+        // searches the rest; its offsets still count against the prefilter
+        byte[] dense = new byte[64 * 1024];
+        Arrays.fill(dense, (byte)0xCA);
+        dense[dense.length - 1] = 0x01;
+        EngineStats stats = new EngineStats();
+        Engine engine = compile("0xCA(0x00|0x01)").newEngine(EngineType.DFA, null, stats);
+        int[] span = new int[2];
+        assertTrue(engine.find(dense, 0, dense.length, span));
+        assertEquals(dense.length - 2, span[0]);
+        assertEquals(1, stats.getNumBypasses());
+        assertEquals(dense.length - 1, stats.getNumCandidates());
+        assertEquals(1, stats.getNumConfirmed());
+        
+        Path denseFile = Files.createTempFile("bytegrep", ".bin");
+        try {
+            Files.write(denseFile, dense);
+            FileScanner scanner = new FileScanner(compile("0xCA(0x00|0x01)"), EngineType.DFA);
+            assertEquals(1, scanner.count(denseFile));
+            ScanMetrics metrics = scanner.getMetrics();
+            assertTrue(metrics.getNumBypasses() > 0);
+            assertTrue(metrics.getPrefilterEfficiency() < 0.01);
+            assertTrue(metrics.toString().contains(" bypasses="));
+        } finally {
+            Files.delete(denseFile);
+        }
+        
+        // sparse candidates keep the prefilter
+        stats.reset();
+        engine.find(data, 0, data.length, span);
+        assertEquals(0, stats.getNumBypasses());
+    }
+    
+    @Test
+    public void testParallelMetricsAreSummed() throws IOException {
+        CompiledPattern pattern = compile("0xCA(0x00|0x01)");
+        long expected = new FileScanner(pattern, EngineType.DFA).count(file);
+        ParallelScanner scanner = new ParallelScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 3,
+                256 * 1024, 64 * 1024, FileScanner.DEFAULT_MAX_MATCH_LENGTH);
+        assertEquals(expected, scanner.count(file));
+        ScanMetrics metrics = scanner.getMetrics();
+        assertEquals(1, metrics.getNumSearches());
+        assertEquals(1, metrics.getNumFiles());
+        assertEquals(expected, metrics.getNumMatches());
+        assertTrue(metrics.getBytesScanned() >= data.length);
+        assertTrue(metrics.getNumCandidates() > 1000);
+    }
+    
+    @Test
+    public void testRegistry() throws IOException, JMException {
+        
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry(server);
+        String regex = "0xCA(0x00|0x01)";
+        PatternMetrics patternMetrics = registry.getPatternMetrics(regex, EngineType.DFA);
+        assertSame(patternMetrics, registry.getPatternMetrics(regex, EngineType.DFA));
+        
+        FileScanner scanner = new FileScanner(compile(regex), EngineType.DFA);
+        long numMatches = scanner.count(file);
+        patternMetrics.record(scanner.getMetrics());
+        scanner.count(file);
+        patternMetrics.record(scanner.getMetrics());
+        
+        ObjectName name = MetricsRegistry.getObjectName(regex, EngineType.DFA);
+        assertEquals(2L, server.getAttribute(name, "NumSearches"));
+        assertEquals(2 * numMatches, server.getAttribute(name, "NumMatches"));
+        assertEquals(regex, server.getAttribute(name, "Pattern"));
+        assertEquals("DFA", server.getAttribute(name, "EngineType"));
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0L, server.getAttribute(name, "NumSearches"));
+        
+        registry.unregisterAll();
+        assertFalse(server.isRegistered(name));
+    }
+    
+}
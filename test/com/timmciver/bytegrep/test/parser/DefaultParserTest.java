@@ -2,9 +2,13 @@
 package com.timmciver.bytegrep.test.parser;
 
 import com.timmciver.bytegrep.AlternationExpression;
+import com.timmciver.bytegrep.Anchor;
+import com.timmciver.bytegrep.ByteClassExpression;
+import com.timmciver.bytegrep.CaptureGroup;
 import com.timmciver.bytegrep.LiteralByte;
 import com.timmciver.bytegrep.OneOrMore;
 import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.RepetitionExpression;
 import com.timmciver.bytegrep.SequenceExpression;
 import com.timmciver.bytegrep.ZeroOrMore;
 import com.timmciver.bytegrep.ZeroOrOne;
@@ -300,4 +304,151 @@ public class DefaultParserTest {
         
         assertTrue(actual.equals(expected));
     }
+    
+    @Test
+    public void testCountedRepetition() throws IOException {
+        
+        LiteralByte literal = new LiteralByte((byte)0xAA);
+        Parser parser = new DefaultParser();
+        
+        assertEquals(new RepetitionExpression(literal, 4096), parser.parse("0xAA{4096}"));
+        assertEquals(new RepetitionExpression(literal, 2, RepetitionExpression.UNBOUNDED), parser.parse("0xAA{2,}"));
+        assertEquals(new RepetitionExpression(literal, 2, 5), parser.parse("0xAA{2,5}"));
+        
+        // a count binds like the other repetition operators
+        RegularExpression expected = new SequenceExpression(literal,
+                new RepetitionExpression(new LiteralByte((byte)0xBB), 3));
+        assertEquals(expected, parser.parse("0xAA0xBB{3}"));
+        
+        // malformed counts
+        String[] malformed = new String[]{"0xAA{", "0xAA{}", "0xAA{,3}", "0xAA{3,2}", "0xAA{3", "0xAA{x}", "0xAA{99999999999}"};
+        for (String str : malformed) {
+            try {
+                parser.parse(str);
+                fail("Did not get expected exception for " + str);
+            } catch (MalformedInputException ex) {
+                // expected
+            }
+        }
+    }
+    
+    @Test
+    public void testByteClass() throws IOException {
+        
+        Parser parser = new DefaultParser();
+        
+        assertEquals(new ByteClassExpression(0x00, 0x1F), parser.parse("[0x00-0x1F]"));
+        assertEquals(new ByteClassExpression(0x00, 0x1F).negate(), parser.parse("[^0x00-0x1F]"));
+        assertEquals(new ByteClassExpression(0x41, 0x41).union(new ByteClassExpression(0x61, 0x7A)),
+                parser.parse("[0x410x61-0x7A]"));
+        assertEquals(ByteClassExpression.any(), parser.parse("."));
+        assertEquals(new ByteClassExpression(0x40, 0x4F), parser.parse("0x4?"));
+        assertEquals(ByteClassExpression.masked(0x0F, 0x0F), parser.parse("0x?F"));
+        
+        // a nibble mask is a whole literal so a following '?' is a quantifier
+        assertEquals(new ZeroOrOne(new ByteClassExpression(0x40, 0x4F)), parser.parse("0x4??"));
+        RegularExpression expected = new SequenceExpression(ByteClassExpression.any(),
+                new OneOrMore(new ByteClassExpression(0x30, 0x39)));
+        assertEquals(expected, parser.parse(".[0x30-0x39]+"));
+        
+        // malformed classes
+        String[] malformed = new String[]{"[]", "[0x41", "[0x42-0x41]", "[0x4?-0x50]", "[x]", "0x4G"};
+        for (String str : malformed) {
+            try {
+                parser.parse(str);
+                fail("Did not get expected exception for " + str);
+            } catch (MalformedInputException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCaptureGroups() throws IOException {
+        
+        LiteralByte a = new LiteralByte((byte)0xAA);
+        LiteralByte b = new LiteralByte((byte)0xBB);
+        Parser parser = new DefaultParser(true);
+        
+        // groups are numbered by their opening parentheses
+        RegularExpression expected = new SequenceExpression(new CaptureGroup(new SequenceExpression(a,
+                new CaptureGroup(b, 2)), 1), new CaptureGroup(a, 3));
+        assertEquals(expected, parser.parse("(0xAA(0xBB))(0xAA)"));
+        
+        // a non-capturing group takes no number
+        expected = new SequenceExpression(new OneOrMore(a), new CaptureGroup(b, 1));
+        assertEquals(expected, parser.parse("(?:0xAA)+(0xBB)"));
+        
+        // by default parentheses only group
+        assertEquals(new SequenceExpression(a, b), new DefaultParser().parse("(0xAA)(?:0xBB)"));
+        
+        try {
+            parser.parse("(?0xAA)");
+            fail("Did not get expected exception for (?0xAA)");
+        } catch (MalformedInputException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testAnchors() throws IOException {
+        
+        LiteralByte a = new LiteralByte((byte)0xAA);
+        Parser parser = new DefaultParser();
+        
+        RegularExpression expected = new SequenceExpression(Anchor.START, new SequenceExpression(a, Anchor.END));
+        assertEquals(expected, parser.parse("^0xAA$"));
+        assertEquals(new AlternationExpression(Anchor.START, a), parser.parse("^|0xAA"));
+        assertEquals(Anchor.END, parser.parse("$"));
+    }
+    
+    @Test
+    public void testLongPatterns() throws IOException {
+        
+        // neither a long sequence nor deep nesting uses up the stack
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("0xAA");
+        }
+        RegularExpression re = new DefaultParser().parse(sb.toString());
+        assertTrue(re instanceof SequenceExpression);
+        assertEquals(sb.toString(), re.toString());
+        
+        sb.setLength(0);
+        for (int i = 0; i < 100000; i++) {
+            sb.append('(');
+        }
+        sb.append("0xAA");
+        for (int i = 0; i < 100000; i++) {
+            sb.append(')');
+        }
+        assertEquals(new LiteralByte((byte)0xAA), new DefaultParser().parse(sb.toString()));
+        
+        // part of an array can be parsed in place
+        char[] chars = "xx0xAA0xBB|xx".toCharArray();
+        assertEquals(new SequenceExpression(new LiteralByte((byte)0xAA), new LiteralByte((byte)0xBB)),
+                new DefaultParser().parse(chars, 2, 10));
+        try {
+            new DefaultParser().parse(chars, 2, 11);
+            fail("Did not get expected exception for a trailing '|'");
+        } catch (MalformedInputException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testLazyQuantifiers() throws IOException {
+        
+        LiteralByte a = new LiteralByte((byte)0xAA);
+        Parser parser = new DefaultParser();
+        
+        assertEquals(new ZeroOrMore(a, false), parser.parse("0xAA*?"));
+        assertEquals(new OneOrMore(a, false), parser.parse("0xAA+?"));
+        assertEquals(new ZeroOrOne(a, false), parser.parse("0xAA??"));
+        assertEquals(new RepetitionExpression(a, 2, 3, false), parser.parse("0xAA{2,3}?"));
+        assertFalse(new ZeroOrMore(a).equals(parser.parse("0xAA*?")));
+        
+        // a third ? makes the lazy one optional
+        assertEquals(new ZeroOrOne(new ZeroOrOne(a, false)), parser.parse("0xAA???"));
+    }
 }
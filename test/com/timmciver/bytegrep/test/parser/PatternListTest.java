@@ -0,0 +1,52 @@
+package com.timmciver.bytegrep.test.parser;
+
+import com.timmciver.bytegrep.LiteralByte;
+import com.timmciver.bytegrep.OneOrMore;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.parser.PatternList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class PatternListTest {
+    
+    public PatternListTest() {
+    }
+    
+    @Test
+    public void testLinesAndErrors() throws IOException {
+        
+        String text = "# signatures\n"
+                + "0xAA\n"
+                + "\n"
+                + "  0xBB+  \r\n"
+                + "0xZZ\n"
+                + "(0xCC\n"
+                + "0xDD";
+        Path file = Files.createTempFile("bytegrep", ".txt");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            PatternList list = PatternList.read(file, new DefaultParser());
+            
+            // comments, blank lines and whitespace are skipped
+            assertEquals(Arrays.asList(new LiteralByte((byte)0xAA), new OneOrMore(new LiteralByte((byte)0xBB)),
+                    new LiteralByte((byte)0xDD)), list.getPatterns());
+            assertEquals(2, list.getLineNumber(0));
+            assertEquals(4, list.getLineNumber(1));
+            assertEquals(7, list.getLineNumber(2));
+            
+            // every bad line is reported, not just the first
+            assertEquals(Arrays.asList(5, 6), Arrays.asList(list.getErrors().keySet().toArray()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.timmciver.bytegrep.test.prefilter;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.prefilter.HorspoolPrefilter;
+import com.timmciver.bytegrep.prefilter.LiteralAnalysis;
+import com.timmciver.bytegrep.prefilter.MemchrPrefilter;
+import com.timmciver.bytegrep.prefilter.Prefilter;
+import com.timmciver.bytegrep.prefilter.RunPrefilter;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class PrefilterTest {
+    
+    public PrefilterTest() {
+    }
+    
+    private LiteralAnalysis analyze(String regex) throws IOException {
+        return LiteralAnalysis.analyze(new DefaultParser().parse(regex));
+    }
+    
+    @Test
+    public void testLiteralPrefix() throws IOException {
+        
+        LiteralAnalysis analysis = analyze("0xCA0xFE0xBA0xBE(0x00|0x01)+");
+        assertArrayEquals(new byte[]{(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE}, analysis.getPrefix());
+        assertFalse(analysis.isExact());
+        assertEquals(5, analysis.getMinLength());
+        assertEquals(LiteralAnalysis.UNBOUNDED, analysis.getMaxLength());
+        
+        // a pure literal string is exact
+        analysis = analyze("0xCA0xFE");
+        assertTrue(analysis.isExact());
+        assertEquals(2, analysis.getMaxLength());
+    }
+    
+    @Test
+    public void testRequiredBytes() throws IOException {
+        
+        // only the bytes shared by both alternatives are required
+        LiteralAnalysis analysis = analyze("((0x410x42)|(0x410x43))0x44");
+        assertEquals(2, analysis.getNumRequired());
+        assertEquals(0, analysis.getRequiredOffset(0));
+        assertEquals(0x41, analysis.getRequiredByte(0));
+        assertEquals(2, analysis.getRequiredOffset(1));
+        assertEquals(0x44, analysis.getRequiredByte(1));
+        
+        // nothing is known after a variable length expression
+        analysis = analyze("0x41*0x42");
+        assertEquals(0, analysis.getNumRequired());
+        assertNull(analysis.newPrefilter());
+    }
+    
+    @Test
+    public void testHorspool() {
+        
+        byte[] pattern = new byte[]{1, 2, 1, 2, 3, 1, 2, 3};
+        Prefilter prefilter = new HorspoolPrefilter(pattern);
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = randomData(random, 200, 4);
+            int from = random.nextInt(data.length);
+            assertEquals(naiveIndexOf(data, pattern, from), prefilter.next(data, from, data.length));
+        }
+    }
+    
+    @Test
+    public void testMemchr() {
+        
+        // byte 3 at offset 2 and byte 1 at offset 5
+        int[] offsets = new int[]{2, 5};
+        byte[] values = new byte[]{3, 1};
+        Prefilter prefilter = new MemchrPrefilter(0, offsets, values);
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = randomData(random, 100, 8);
+            int from = random.nextInt(data.length);
+            int expected = -1;
+            for (int c = from; c + 5 < data.length; c++) {
+                if (data[c + 2] == 3 && data[c + 5] == 1) {
+                    expected = c;
+                    break;
+                }
+            }
+            assertEquals(expected, prefilter.next(data, from, data.length));
+        }
+    }
+    
+    @Test
+    public void testRun() throws IOException {
+        
+        // a counted run of one byte is searched for by run length
+        LiteralAnalysis analysis = analyze("0x00{4096}");
+        assertTrue(analysis.newPrefilter() instanceof RunPrefilter);
+        
+        byte[] pattern = new byte[9];
+        Prefilter prefilter = new RunPrefilter((byte)0, pattern.length);
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = randomData(random, 200, 2);
+            int from = random.nextInt(data.length);
+            assertEquals(naiveIndexOf(data, pattern, from), prefilter.next(data, from, data.length));
+        }
+    }
+    
+    @Test
+    public void testPrefilteredEngine() throws IOException {
+        
+        String[] regexes = new String[]{
+            "0x010x02", "0x010x020x010x020x030x010x020x03(0x01|0x02)*",
+            "(0x010x02|0x010x03)0x00", "0x03+0x01", "0x00(0x01|0x02)?0x03",
+            "0x01{8}0x02", "(0x010x02){4,}", "0x00{2,5}0x03",
+            "[0x01-0x02]0x030x00", "0x03.0x01", "[^0x00]{2}0x00"
+        };
+        Random random = new Random(3);
+        int[] expected = new int[2];
+        int[] actual = new int[2];
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            for (EngineType type : EngineType.values()) {
+                Engine bare = pattern.newBareEngine(type);
+                Engine prefiltered = pattern.newEngine(type);
+                for (int i = 0; i < 200; i++) {
+                    byte[] data = randomData(random, 300, 4);
+                    int from = random.nextInt(data.length);
+                    boolean found = bare.find(data, from, data.length, expected);
+                    assertEquals(regex, found, prefiltered.find(data, from, data.length, actual));
+                    if (found) {
+                        assertEquals(regex, expected[0], actual[0]);
+                        assertEquals(regex, expected[1], actual[1]);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static byte[] randomData(Random random, int maxLength, int alphabet) {
+        byte[] data = new byte[1 + random.nextInt(maxLength)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(alphabet);
+        }
+        return data;
+    }
+    
+    private static int naiveIndexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i + pattern.length <= data.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,194 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.DirectoryScanner;
+import com.timmciver.bytegrep.scan.FileMatchListener;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class DirectoryScannerTest {
+    
+    private Path root;
+    private CompiledPattern pattern;
+    
+    public DirectoryScannerTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        
+        // lots of small files, a few larger ones that get split into segments
+        Random random = new Random(9);
+        root = Files.createTempDirectory("bytegrep");
+        for (int i = 0; i < 30; i++) {
+            Path dir = root.resolve("dir" + (i % 4));
+            Files.createDirectories(dir);
+            byte[] data = new byte[i % 10 == 0 ? 5000 + random.nextInt(5000) : random.nextInt(300)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte)random.nextInt(3);
+            }
+            Files.write(dir.resolve("file" + i + (i % 2 == 0 ? ".bin" : ".dat")), data);
+        }
+        pattern = CompiledPattern.compile(new DefaultParser().parse("0x01(0x00|0x01)*0x02"));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    @Test
+    public void testOrdered() throws IOException {
+        for (MatchMode mode : MatchMode.values()) {
+            DirectoryScanner scanner = new DirectoryScanner(pattern, EngineType.DFA, mode, 3, true,
+                    Long.MAX_VALUE, 1000);
+            Recorder recorder = new Recorder();
+            long count = scanner.scan(Arrays.asList(root.toString()), recorder);
+            
+            // the files come out in the order they are walked
+            List<Path> walked = walk();
+            assertEquals(walked, recorder.files);
+            long expectedCount = 0;
+            for (Path file : walked) {
+                List<Long> expected = scanFile(file, mode);
+                assertEquals(file.toString(), expected, recorder.matches.get(file));
+                expectedCount += expected.size() / 2;
+            }
+            assertEquals(expectedCount, count);
+        }
+    }
+    
+    @Test
+    public void testUnorderedGlob() throws IOException {
+        DirectoryScanner scanner = new DirectoryScanner(pattern, EngineType.NFA, MatchMode.NON_OVERLAPPING, 4, false,
+                Long.MAX_VALUE, 1000);
+        Recorder recorder = new Recorder();
+        scanner.scan(Arrays.asList(root + "/*/*.bin"), recorder);
+        
+        List<Path> expected = new ArrayList<>();
+        for (Path file : walk()) {
+            if (file.toString().endsWith(".bin")) {
+                expected.add(file);
+            }
+        }
+        assertEquals(15, expected.size());
+        assertEquals(sorted(expected), sorted(recorder.files));
+        for (Path file : expected) {
+            assertEquals(scanFile(file, MatchMode.NON_OVERLAPPING), recorder.matches.get(file));
+        }
+    }
+    
+    @Test
+    public void testFirstMatchOnlyAndErrors() throws IOException {
+        DirectoryScanner scanner = new DirectoryScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 2, true,
+                1, 1000);
+        Recorder recorder = new Recorder();
+        scanner.scan(Arrays.asList(root.resolve("dir1").toString(), root.resolve("missing").toString()), recorder);
+        for (Path file : recorder.files) {
+            List<Long> expected = scanFile(file, MatchMode.NON_OVERLAPPING);
+            assertEquals(expected.subList(0, Math.min(2, expected.size())), recorder.matches.get(file));
+        }
+        assertEquals(Arrays.asList(root.resolve("missing")), recorder.errors);
+    }
+    
+    private List<Path> walk() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+    
+    private List<Long> scanFile(Path file, MatchMode mode) throws IOException {
+        final List<Long> matches = new ArrayList<>();
+        new FileScanner(pattern, EngineType.NFA, mode).scan(file, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                matches.add(start);
+                matches.add(end);
+                return true;
+            }
+        });
+        return matches;
+    }
+    
+    private static List<String> sorted(List<Path> paths) {
+        List<String> names = new ArrayList<>();
+        for (Path path : paths) {
+            names.add(path.toString());
+        }
+        Collections.sort(names);
+        return names;
+    }
+    
+    private static class Recorder implements FileMatchListener {
+        
+        final List<Path> files = new ArrayList<>();
+        final List<Path> errors = new ArrayList<>();
+        final Map<Path, List<Long>> matches = new HashMap<>();
+        
+        @Override
+        public boolean onMatch(Path file, long start, long end) {
+            if (!matches.containsKey(file)) {
+                matches.put(file, new ArrayList<Long>());
+            }
+            matches.get(file).add(start);
+            matches.get(file).add(end);
+            return true;
+        }
+        
+        @Override
+        public void onFileScanned(Path file, long numMatches) {
+            files.add(file);
+            if (!matches.containsKey(file)) {
+                matches.put(file, new ArrayList<Long>());
+            }
+            assertEquals(matches.get(file).size() / 2, numMatches);
+        }
+        
+        @Override
+        public void onError(Path file, IOException ex) {
+            errors.add(file);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.Searcher;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class FileScannerTest {
+    
+    private Path file;
+    private byte[] data;
+    
+    public FileScannerTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(5);
+        data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(4);
+        }
+        file = Files.createTempFile("bytegrep", ".bin");
+        Files.write(file, data);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+    
+    @Test
+    public void testMatchesAcrossWindows() throws IOException {
+        
+        String[] regexes = new String[]{
+            "0x000x010x020x03", "0x03(0x00|0x01)?0x020x02", "0x01+0x03", "0x000x00*"
+        };
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            List<Long> expected = findAll(pattern.newEngine(EngineType.NFA));
+            
+            // tiny windows put plenty of matches across window boundaries
+            for (EngineType type : EngineType.values()) {
+                FileScanner scanner = new FileScanner(pattern, type, MatchMode.NON_OVERLAPPING, 7, 64);
+                final List<Long> actual = new ArrayList<>();
+                long count = scanner.scan(file, new MatchListener() {
+                    @Override
+                    public boolean onMatch(long start, long end) {
+                        actual.add(start);
+                        actual.add(end);
+                        return true;
+                    }
+                });
+                assertEquals(regex, expected, actual);
+                assertEquals(regex, expected.size() / 2, count);
+            }
+        }
+    }
+    
+    @Test
+    public void testOverlappingAcrossWindows() throws IOException {
+        
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x01+0x03"));
+        Searcher searcher = new Searcher(pattern.newEngine(EngineType.NFA), MatchMode.OVERLAPPING);
+        long expected = searcher.count(data, 0, data.length);
+        
+        FileScanner scanner = new FileScanner(pattern, EngineType.DFA, MatchMode.OVERLAPPING, 7, 64);
+        assertEquals(expected, scanner.count(file));
+    }
+    
+    @Test
+    public void testStopEarly() throws IOException {
+        
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x03"));
+        FileScanner scanner = new FileScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 16, 16);
+        final List<Long> starts = new ArrayList<>();
+        scanner.scan(file, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                starts.add(start);
+                return starts.size() < 3;
+            }
+        });
+        assertEquals(3, starts.size());
+    }
+    
+    @Test
+    public void testAnchors() throws IOException {
+        
+        // an anchor must not match at the edge of a window or range
+        String[] regexes = new String[]{
+            "^0x00*0x01", "0x02+$", "(^0x03|0x030x03$|0x000x00)", "(0x00|0x01)?$", "(0x000x00)|0x00|(0x03$)"
+        };
+        long[][] ranges = new long[][]{{0, data.length}, {0, 5000}, {5000, data.length}, {1, data.length - 1}};
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            for (long[] range : ranges) {
+                
+                // the range is searched as if the file stopped there, but with
+                // $ only matching at the end of the file
+                CompiledPattern expectedPattern = range[1] < data.length ? pattern.withoutEndAnchor() : pattern;
+                List<Long> expected = findAll(expectedPattern.newEngine(EngineType.NFA), (int)range[0], (int)range[1]);
+                for (EngineType type : new EngineType[]{
+                    EngineType.NFA, EngineType.DFA, EngineType.GENERATED, EngineType.BACKTRACK
+                }) {
+                    FileScanner scanner = new FileScanner(pattern, type, MatchMode.NON_OVERLAPPING, 7, 64);
+                    final List<Long> actual = new ArrayList<>();
+                    scanner.scan(file, range[0], range[1], new MatchListener() {
+                        @Override
+                        public boolean onMatch(long start, long end) {
+                            actual.add(start);
+                            actual.add(end);
+                            return true;
+                        }
+                    });
+                    assertEquals(regex + " " + range[0] + ":" + range[1], expected, actual);
+                }
+            }
+        }
+        
+        // a match running past the end of the range gives way to a shorter
+        // one, and $ doesn't match at the end of the range
+        Path small = Files.createTempFile("bytegrep", ".bin");
+        try {
+            Files.write(small, new byte[]{0x41, 0x41, 0x41, 0x41});
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("(0x410x41)|0x41|(0x43$)"));
+            for (EngineType type : EngineType.values()) {
+                final List<Long> actual = new ArrayList<>();
+                new FileScanner(pattern, type).scan(small, 0, 3, new MatchListener() {
+                    @Override
+                    public boolean onMatch(long start, long end) {
+                        actual.add(start);
+                        actual.add(end);
+                        return true;
+                    }
+                });
+                assertEquals(type.name(), Arrays.asList(0L, 2L, 2L, 3L), actual);
+            }
+            
+            // $ still matches at the end of a range that is the end of the file
+            Files.write(small, new byte[]{0x41, 0x41, 0x41, 0x43});
+            assertEquals(1, new FileScanner(pattern, EngineType.DFA).scan(small, 3, 4, null));
+            pattern = CompiledPattern.compile(new DefaultParser().parse("0x41$"));
+            assertEquals(0, new FileScanner(pattern, EngineType.DFA).scan(small, 0, 3, null));
+        } finally {
+            Files.delete(small);
+        }
+        
+        // a match longer than the overlap is missed rather than reported short
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("^(0x00|0x01|0x02|0x03)*$"));
+        assertEquals(0, new FileScanner(pattern, EngineType.DFA, MatchMode.NON_OVERLAPPING, 7, 64).count(file));
+        assertEquals(1, new FileScanner(pattern, EngineType.DFA).count(file));
+    }
+    
+    private List<Long> findAll(Engine engine) {
+        return findAll(engine, 0);
+    }
+    
+    private List<Long> findAll(Engine engine, int from) {
+        return findAll(engine, from, data.length);
+    }
+    
+    private List<Long> findAll(Engine engine, int from, int to) {
+        List<Long> matches = new ArrayList<>();
+        int[] span = new int[2];
+        int pos = from;
+        while (pos <= to && engine.find(data, pos, to, span)) {
+            matches.add((long)span[0]);
+            matches.add((long)span[1]);
+            pos = span[1] > span[0] ? span[1] : span[1] + 1;
+        }
+        return matches;
+    }
+}
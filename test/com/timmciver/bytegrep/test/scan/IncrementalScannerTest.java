@@ -0,0 +1,131 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.IncrementalScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.StreamMatcher;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class IncrementalScannerTest {
+    
+    private Path file;
+    private Path checkpoint;
+    private byte[] data;
+    
+    public IncrementalScannerTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(13);
+        data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(4);
+        }
+        file = Files.createTempFile("bytegrep", ".bin");
+        checkpoint = Files.createTempFile("bytegrep", ".checkpoint");
+        Files.delete(checkpoint);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+        Files.deleteIfExists(checkpoint);
+    }
+    
+    @Test
+    public void testAppends() throws IOException {
+        
+        String[] regexes = new String[]{"0x000x010x020x03", "0x01(0x00|0x02)*0x03"};
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            List<Long> expected = findAll(pattern, data);
+            Files.deleteIfExists(checkpoint);
+            Files.write(file, new byte[0]);
+            
+            // the file grows by uneven amounts between scans, so matches
+            // straddle the ends of earlier scans
+            IncrementalScanner scanner = new IncrementalScanner(pattern);
+            List<Long> actual = new ArrayList<>();
+            long total = 0;
+            int length = 0;
+            int[] appends = new int[]{1, 70000, 3, 99999, 29997, 1};
+            for (int n : appends) {
+                Files.write(file, Arrays.copyOfRange(data, length, length + n), StandardOpenOption.APPEND);
+                length += n;
+                total += scanner.scan(file, checkpoint, collect(actual));
+                assertEquals(regex, length > 1, scanner.isResumed());
+            }
+            assertEquals(regex, expected.size() / 2, total);
+            assertEquals(regex, expected, actual);
+            
+            // nothing new, nothing found
+            assertEquals(0, scanner.scan(file, checkpoint, collect(actual)));
+        }
+    }
+    
+    @Test
+    public void testChangedFileIsScannedAgain() throws IOException {
+        
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x000x010x02"));
+        Files.write(file, data);
+        IncrementalScanner scanner = new IncrementalScanner(pattern);
+        long count = scanner.scan(file, checkpoint, collect(new ArrayList<Long>()));
+        assertTrue(count > 0);
+        
+        // a different first byte changes the fingerprint
+        data[0] ^= 1;
+        Files.write(file, data);
+        assertEquals(count, scanner.scan(file, checkpoint, collect(new ArrayList<Long>())));
+        assertFalse(scanner.isResumed());
+        
+        // and so does truncating the file
+        Files.write(file, Arrays.copyOf(data, 1000));
+        scanner.scan(file, checkpoint, collect(new ArrayList<Long>()));
+        assertFalse(scanner.isResumed());
+        
+        // a checkpoint for another pattern isn't used
+        Files.write(file, data);
+        scanner.scan(file, checkpoint, collect(new ArrayList<Long>()));
+        CompiledPattern other = CompiledPattern.compile(new DefaultParser().parse("0x030x03"));
+        IncrementalScanner otherScanner = new IncrementalScanner(other);
+        List<Long> actual = new ArrayList<>();
+        otherScanner.scan(file, checkpoint, collect(actual));
+        assertFalse(otherScanner.isResumed());
+        assertEquals(findAll(other, data), actual);
+    }
+    
+    private static MatchListener collect(final List<Long> matches) {
+        return new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                matches.add(start);
+                matches.add(end);
+                return true;
+            }
+        };
+    }
+    
+    private static List<Long> findAll(CompiledPattern pattern, byte[] data) throws IOException {
+        List<Long> matches = new ArrayList<>();
+        new StreamMatcher(pattern, collect(matches)).scan(new ByteArrayInputStream(data));
+        return matches;
+    }
+}
@@ -0,0 +1,106 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.FileScanner;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.ParallelScanner;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class ParallelScannerTest {
+    
+    private Path file;
+    
+    public ParallelScannerTest() {
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(8);
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(3);
+        }
+        file = Files.createTempFile("bytegrep", ".bin");
+        Files.write(file, data);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+    
+    @Test
+    public void testSameMatchesAsFileScanner() throws IOException {
+        
+        // long runs of matches cross the segment boundaries in every way
+        String[] regexes = new String[]{
+            "0x000x01", "0x01+0x02", "(0x00|0x01)+", "0x020x02*", "0x02*", "0x00(0x01|0x02)?0x00"
+        };
+        for (String regex : regexes) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            for (MatchMode mode : MatchMode.values()) {
+                List<Long> expected = matches(new FileScanner(pattern, EngineType.DFA, mode, 64, 200), null);
+                
+                for (int segmentSize : new int[]{37, 501}) {
+                    ParallelScanner scanner = new ParallelScanner(pattern, EngineType.DFA, mode, 4,
+                            segmentSize, 64, 200);
+                    String message = regex + " " + mode + " " + segmentSize;
+                    assertEquals(message, expected, matches(null, scanner));
+                    assertEquals(message, expected.size() / 2, scanner.count(file));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testStopEarly() throws IOException {
+        
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x020x02"));
+        ParallelScanner scanner = new ParallelScanner(pattern, EngineType.NFA, MatchMode.NON_OVERLAPPING, 3,
+                100, 64, 64);
+        final List<Long> starts = new ArrayList<>();
+        long count = scanner.scan(file, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                starts.add(start);
+                return starts.size() < 5;
+            }
+        });
+        assertEquals(5, count);
+        assertEquals(5, starts.size());
+    }
+    
+    private List<Long> matches(FileScanner fileScanner, ParallelScanner parallelScanner) throws IOException {
+        final List<Long> matches = new ArrayList<>();
+        MatchListener listener = new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                matches.add(start);
+                matches.add(end);
+                return true;
+            }
+        };
+        if (fileScanner != null) {
+            fileScanner.scan(file, listener);
+        } else {
+            parallelScanner.scan(file, listener);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,84 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.MatchMode;
+import com.timmciver.bytegrep.scan.Searcher;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class SearcherTest {
+    
+    private static final byte[] DATA = new byte[]{0x41, 0x41, 0x41, 0x42, 0x41, 0x41};
+    
+    public SearcherTest() {
+    }
+    
+    @Test
+    public void testNonOverlapping() throws IOException {
+        for (EngineType type : EngineType.values()) {
+            Searcher searcher = newSearcher("0x410x41", type, MatchMode.NON_OVERLAPPING);
+            assertEquals(Arrays.asList(0, 2, 4, 6), spans(searcher));
+            assertEquals(2, searcher.count(DATA, 0, DATA.length));
+        }
+    }
+    
+    @Test
+    public void testOverlapping() throws IOException {
+        for (EngineType type : EngineType.values()) {
+            Searcher searcher = newSearcher("0x410x41", type, MatchMode.OVERLAPPING);
+            assertEquals(Arrays.asList(0, 2, 1, 3, 4, 6), spans(searcher));
+            assertEquals(3, searcher.count(DATA, 0, DATA.length));
+            
+            // greedy matches may overlap more than once
+            searcher = newSearcher("0x41+", type, MatchMode.OVERLAPPING);
+            assertEquals(Arrays.asList(0, 3, 1, 3, 2, 3, 4, 6, 5, 6), spans(searcher));
+        }
+    }
+    
+    @Test
+    public void testEmptyMatches() throws IOException {
+        Searcher searcher = newSearcher("0x42*", EngineType.NFA, MatchMode.NON_OVERLAPPING);
+        assertEquals(Arrays.asList(0, 0, 1, 1, 2, 2, 3, 4, 4, 4, 5, 5, 6, 6), spans(searcher));
+    }
+    
+    @Test
+    public void testCallback() throws IOException {
+        Searcher searcher = newSearcher("0x41", EngineType.DFA, MatchMode.NON_OVERLAPPING);
+        final List<Long> starts = new ArrayList<>();
+        long count = searcher.forEach(DATA, 0, DATA.length, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                starts.add(start);
+                return starts.size() < 4;
+            }
+        });
+        assertEquals(4, count);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 4L), starts);
+    }
+    
+    private static Searcher newSearcher(String regex, EngineType type, MatchMode mode) throws IOException {
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+        return new Searcher(pattern.newEngine(type), mode);
+    }
+    
+    private static List<Integer> spans(Searcher searcher) {
+        List<Integer> spans = new ArrayList<>();
+        searcher.reset(DATA, 0, DATA.length);
+        while (searcher.next()) {
+            spans.add(searcher.start());
+            spans.add(searcher.end());
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,106 @@
+package com.timmciver.bytegrep.test.scan;
+
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.scan.MatchListener;
+import com.timmciver.bytegrep.scan.StreamMatcher;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class StreamMatcherTest {
+    
+    private static final String[] REGEXES = new String[]{
+        "0x000x01", "0x01+0x03", "0x000x00*", "0x02*", "(0x01|0x010x02)0x03?",
+        "(0x000x01|0x00(0x01|0x02)*0x03)", "(0x02*)*0x01"
+    };
+    
+    public StreamMatcherTest() {
+    }
+    
+    @Test
+    public void testAgreesWithInMemorySearch() throws IOException {
+        
+        Random random = new Random(9);
+        for (String regex : REGEXES) {
+            CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse(regex));
+            Engine engine = pattern.newEngine(EngineType.NFA);
+            final List<Long> actual = new ArrayList<>();
+            StreamMatcher matcher = new StreamMatcher(pattern, new MatchListener() {
+                @Override
+                public boolean onMatch(long start, long end) {
+                    actual.add(start);
+                    actual.add(end);
+                    return true;
+                }
+            });
+            
+            for (int i = 0; i < 50; i++) {
+                byte[] data = new byte[random.nextInt(200)];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte)random.nextInt(4);
+                }
+                List<Long> expected = findAll(engine, data);
+                
+                // feed the data in random sized chunks
+                actual.clear();
+                int pos = 0;
+                while (pos < data.length) {
+                    int n = Math.min(data.length - pos, 1 + random.nextInt(10));
+                    matcher.feed(ByteBuffer.wrap(data, pos, n));
+                    pos += n;
+                }
+                long count = matcher.finish();
+                assertEquals(regex, expected, actual);
+                assertEquals(regex, expected.size() / 2, count);
+                
+                // and again all at once from a stream
+                actual.clear();
+                matcher.scan(new ByteArrayInputStream(data));
+                assertEquals(regex, expected, actual);
+            }
+        }
+    }
+    
+    @Test
+    public void testStop() throws IOException {
+        
+        CompiledPattern pattern = CompiledPattern.compile(new DefaultParser().parse("0x01"));
+        final List<Long> starts = new ArrayList<>();
+        StreamMatcher matcher = new StreamMatcher(pattern, new MatchListener() {
+            @Override
+            public boolean onMatch(long start, long end) {
+                starts.add(start);
+                return false;
+            }
+        });
+        matcher.feed(new byte[]{0, 1, 1, 1}, 0, 4);
+        assertTrue(matcher.isStopped());
+        assertEquals(1, matcher.finish());
+        assertEquals(1, starts.size());
+        assertEquals(Long.valueOf(1), starts.get(0));
+    }
+    
+    private static List<Long> findAll(Engine engine, byte[] data) {
+        List<Long> matches = new ArrayList<>();
+        int[] span = new int[2];
+        int pos = 0;
+        while (pos <= data.length && engine.find(data, pos, data.length, span)) {
+            matches.add((long)span[0]);
+            matches.add((long)span[1]);
+            pos = span[1] > span[0] ? span[1] : span[1] + 1;
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,106 @@
+package com.timmciver.bytegrep.test.trace;
+
+import com.timmciver.bytegrep.RegularExpression;
+import com.timmciver.bytegrep.engine.CompiledPattern;
+import com.timmciver.bytegrep.engine.Engine;
+import com.timmciver.bytegrep.engine.EngineType;
+import com.timmciver.bytegrep.parser.DefaultParser;
+import com.timmciver.bytegrep.parser.MalformedInputException;
+import com.timmciver.bytegrep.trace.PrintTracer;
+import com.timmciver.bytegrep.trace.Tracer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tim
+ */
+public class TracerTest {
+    
+    private final List<String> events = new ArrayList<>();
+    
+    private final Tracer tracer = new Tracer() {
+        @Override
+        public void onParse(RegularExpression re, int start, int end) {
+            events.add(start + ":" + end + " " + re);
+        }
+
+        @Override
+        public void onParseError(String message, int index) {
+            events.add("error " + index);
+        }
+
+        @Override
+        public void onSearch(EngineType type, boolean anchored, int from, int to, int start, int end) {
+            events.add(type + " " + from + ":" + to + " " + start + ":" + end);
+        }
+    };
+    
+    public TracerTest() {
+    }
+    
+    @Test
+    public void testParseEvents() throws IOException {
+        
+        // children come before their parents, with where they are in the pattern
+        new DefaultParser(true, tracer).parse("0xAA(0xBB)*");
+        assertEquals(Arrays.asList("0:4 0xAA", "5:9 0xBB", "4:10 (0xBB)", "4:11 ((0xBB))*", "0:11 0xAA((0xBB))*"),
+                events);
+        
+        events.clear();
+        try {
+            new DefaultParser(false, tracer).parse("0xAA|");
+            fail("Did not get expected exception for a trailing '|'");
+        } catch (MalformedInputException ex) {
+            // expected
+        }
+        assertEquals(Arrays.asList("0:4 0xAA", "error 5"), events);
+    }
+    
+    @Test
+    public void testSearchEvents() throws IOException {
+        
+        RegularExpression re = new DefaultParser().parse("0xBB0xCC");
+        byte[] data = new byte[]{(byte)0xAA, (byte)0xBB, (byte)0xCC};
+        int[] span = new int[2];
+        
+        // only a pattern compiled with a tracer is traced
+        CompiledPattern.compile(re).newEngine(EngineType.DFA).find(data, 0, data.length, span);
+        assertTrue(events.isEmpty());
+        
+        Engine engine = CompiledPattern.compile(re, tracer).newEngine(EngineType.NFA);
+        engine.find(data, 0, data.length, span);
+        engine.matchAt(data, 0, data.length, span);
+        assertEquals(Arrays.asList("NFA 0:3 1:3", "NFA 0:3 -1:-1"), events);
+    }
+    
+    @Test
+    public void testPrintTracer() throws IOException {
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        new DefaultParser(true, new PrintTracer(out, "p1")).parse("0xAA(0xBB)*");
+        assertEquals(Arrays.asList(
+                "p1 parse start=0 end=4 kind=LiteralByte node=0xAA",
+                "p1 parse start=5 end=9 kind=LiteralByte node=0xBB",
+                "p1 parse start=4 end=10 kind=CaptureGroup",
+                "p1 parse start=4 end=11 kind=ZeroOrMore",
+                "p1 parse start=0 end=11 kind=SequenceExpression"),
+                Arrays.asList(bytes.toString("US-ASCII").split("\\r?\\n")));
+        
+        // the trace of a long pattern grows with its length, not its square
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            pattern.append("0xAA");
+        }
+        bytes.reset();
+        new DefaultParser(true, new PrintTracer(out, null)).parse(pattern.toString());
+        assertTrue(bytes.size() < 100 * pattern.length());
+    }
+}
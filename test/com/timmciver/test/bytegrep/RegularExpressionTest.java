@@ -5,6 +5,7 @@ import com.timmciver.bytegrep.LiteralByte;
 import com.timmciver.bytegrep.OneOrMore;
 import com.timmciver.bytegrep.RegularExpression;
 import com.timmciver.bytegrep.RepetitionExpression;
+import com.timmciver.bytegrep.ByteClassExpression;
 import com.timmciver.bytegrep.AlternationExpression;
 import com.timmciver.bytegrep.SequenceExpression;
 import com.timmciver.bytegrep.ZeroOrMore;
@@ -184,6 +185,56 @@ public class RegularExpressionTest {
         Assert.assertFalse(re.match(data3, 0, matchedBytes));
     }
     
+    @Test
+    public void testMatchEnd() {
+        
+        // (0xAA0xAB)+0xAC?
+        LiteralByte literal1 = new LiteralByte((byte)0xAA);
+        LiteralByte literal2 = new LiteralByte((byte)0xAB);
+        LiteralByte literal3 = new LiteralByte((byte)0xAC);
+        RegularExpression re = new SequenceExpression(
+                new OneOrMore(new SequenceExpression(literal1, literal2)),
+                new ZeroOrOne(literal3));
+        
+        byte[] data = new byte[]{(byte)0x00, (byte)0xAA, (byte)0xAB, (byte)0xAA, (byte)0xAB, (byte)0xAC};
+        
+        // the match end is returned rather than the matched bytes
+        Assert.assertEquals(-1, re.match(data, 0));
+        Assert.assertEquals(6, re.match(data, 1));
+        Assert.assertEquals(-1, re.match(data, 2));
+        
+        // bytes at or beyond the limit are not matched
+        Assert.assertEquals(5, re.match(data, 1, 5));
+        Assert.assertEquals(3, re.match(data, 1, 4));
+        Assert.assertEquals(-1, re.match(data, 1, 2));
+        
+        // an expression that can match nothing can not loop forever
+        RegularExpression empty = new ZeroOrMore(new ZeroOrMore(literal1));
+        Assert.assertEquals(0, empty.match(data, 0));
+        Assert.assertEquals(2, empty.match(data, 1));
+    }
+    
+    @Test
+    public void testByteClass() {
+        
+        // a range, its negation and a nibble mask
+        ByteClassExpression control = new ByteClassExpression(0x00, 0x1F);
+        Assert.assertTrue(control.contains(0x00));
+        Assert.assertTrue(control.contains(0x1F));
+        Assert.assertFalse(control.contains(0x20));
+        Assert.assertEquals(32, control.size());
+        Assert.assertEquals(224, control.negate().size());
+        Assert.assertFalse(control.negate().contains(0x10));
+        Assert.assertEquals(new ByteClassExpression(0xC0, 0xCF), ByteClassExpression.masked(0xC0, 0xF0));
+        Assert.assertEquals("[0x00-0x1F0x7F]", control.union(new ByteClassExpression(0x7F, 0x7F)).toString());
+        Assert.assertEquals(".", ByteClassExpression.any().toString());
+        
+        byte[] data = new byte[]{(byte)0x05, (byte)0x8F};
+        Assert.assertEquals(1, control.match(data, 0));
+        Assert.assertEquals(-1, control.match(data, 1));
+        Assert.assertEquals(-1, control.match(data, 2));
+    }
+    
     @Test
     public void testLiteralByteEquals() {
         